@@ -0,0 +1,125 @@
+package planet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * 파일의 일정 영역을 읽는 입력 스트림.
+ * <p>
+ * 원격 메소드가 본 스트림(또는 {@link java.io.FileInputStream})을 반환하거나 인자로 전달하는 경우,
+ * Planet은 파일 데이타를 사용자 공간으로 읽지 않고 {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}로
+ * 연결의 소켓에 직접 전송한다. 직접 전송할 수 없는 연결에서는 일반 입력 스트림과 같이 읽어 전송한다.
+ * <p>
+ * 스트림을 닫으면 파일 채널도 닫힌다.
+ *
+ * @author Kang-Woo Lee (ETRI)
+ */
+public class FileRegion extends InputStream {
+	private final FileChannel m_channel;
+	private final long m_end;
+	private long m_position;
+
+	/**
+	 * 주어진 파일 전체를 읽는 스트림을 생성한다.
+	 *
+	 * @param file	읽을 파일.
+	 * @throws IOException	파일을 열 수 없는 경우.
+	 */
+	public FileRegion(File file) throws IOException {
+		this(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+	}
+
+	private FileRegion(FileChannel channel) throws IOException {
+		this(channel, 0, channel.size());
+	}
+
+	/**
+	 * 주어진 파일 채널의 일부 영역을 읽는 스트림을 생성한다.
+	 * 파일 채널의 위치는 변경되지 않는다.
+	 *
+	 * @param channel	읽을 파일 채널.
+	 * @param position	영역의 시작 위치.
+	 * @param count		영역의 바이트 수.
+	 */
+	public FileRegion(FileChannel channel, long position, long count) {
+		if ( position < 0 || count < 0 ) {
+			throw new IllegalArgumentException("invalid region: position=" + position
+												+ ", count=" + count);
+		}
+
+		m_channel = channel;
+		m_position = position;
+		m_end = position + count;
+	}
+
+	public FileChannel getChannel() {
+		return m_channel;
+	}
+
+	/**
+	 * 다음에 읽을 파일 위치를 반환한다.
+	 */
+	public long getPosition() {
+		return m_position;
+	}
+
+	/**
+	 * 영역에서 아직 읽지 않은 바이트 수를 반환한다.
+	 */
+	public long getRemaining() {
+		return m_end - m_position;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] bytes = new byte[1];
+
+		return ( read(bytes, 0, 1) < 0 ) ? -1 : bytes[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if ( length == 0 ) {
+			return 0;
+		}
+
+		int size = (int)Math.min(length, getRemaining());
+		if ( size <= 0 ) {
+			return -1;
+		}
+
+		int nread = m_channel.read(ByteBuffer.wrap(bytes, offset, size), m_position);
+		if ( nread > 0 ) {
+			m_position += nread;
+		}
+
+		return nread;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(Math.min(n, getRemaining()), 0);
+		m_position += skipped;
+
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int)Math.min(getRemaining(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		m_channel.close();
+	}
+
+	public String toString() {
+		return "FileRegion[position=" + m_position + ", remaining=" + getRemaining() + "]";
+	}
+}
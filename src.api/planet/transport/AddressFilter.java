@@ -0,0 +1,22 @@
+package planet.transport;
+
+import java.net.InetAddress;
+
+
+/**
+ * 외부에서 요청된 TCP 연결의 허용 여부를 상대방 주소로 판단하는 필터 인터페이스.
+ * <p>
+ * 필터는 연결 요청을 받아들이는 쓰레드에서 연결 요청마다 호출되므로, blocking되거나
+ * 주소의 이름 해석(DNS 조회) 등 비용이 큰 작업을 수행해서는 안된다.
+ * 
+ * @author Kang-Woo Lee (ETRI)
+ */
+public interface AddressFilter {
+	/**
+	 * 주어진 주소로부터의 연결 요청을 허용할지 여부를 반환한다.
+	 * 
+	 * @param addr	연결을 요청한 상대방 주소.
+	 * @return	허용하는 경우는 <code>true</code>, 그렇지 않은 경우는 <code>false</code>.
+	 */
+	public boolean accept(InetAddress addr);
+}
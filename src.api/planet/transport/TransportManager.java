@@ -2,6 +2,7 @@ package planet.transport;
 
 import java.io.IOException;
 import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
 
@@ -130,4 +131,22 @@ public interface TransportManager {
 	 */
 	public Connection getConnection(String phn, boolean create)
 		throws IOException, InterruptedException, NullPointerException;
+	
+	/**
+	 * 주어진 Planet 호스트 이름(Planet Host Name: phn)에 해당하는 호스트와의 연결을 비동기적으로
+	 * 요청한다.
+	 * <p>
+	 * 해당 호스트와의 연결이 이미 존재하는 경우는 완료된 future를 반환하고, 그렇지 않은 경우는
+	 * 연결 설정을 시작시킨 후 바로 반환한다. 같은 호스트로의 연결이 진행 중인 경우는 해당 연결의
+	 * 설정 결과를 공유한다. 연결 설정은 TransportManager 내부 쓰레드에서 진행되므로, 호출 쓰레드는
+	 * 연결 설정 동안 대기하지 않는다.
+	 * <p>
+	 * 연결 설정이 실패하거나 최대 연결 대기 시간({@link #getConnectTimeout()})이 지난 경우,
+	 * 반환된 future는 해당 예외({@link IOException} 등)로 완료된다.
+	 * 
+	 * @param phn	대상 Planet 호스트 이름.
+	 * @return	연결 설정이 완료되면 연결 객체로 완료되는 future.
+     * @throws NullPointerException	<code>phn</code>이 <code>null</code>인 경우.
+	 */
+	public CompletableFuture<Connection> getConnectionAsync(String phn) throws NullPointerException;
 }
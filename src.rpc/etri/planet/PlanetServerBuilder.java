@@ -1,5 +1,6 @@
 package etri.planet;
 
+import java.io.File;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -8,6 +9,10 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import etri.planet.thread.TimedExecutorService;
+import etri.planet.transport.BlockCodec;
+import etri.planet.transport.CidrAddressFilter;
+import etri.planet.transport.DeflateCodec;
+import etri.planet.transport.TransportManagerImpl;
 
 
 /**
@@ -25,6 +30,28 @@ public class PlanetServerBuilder {
 	private static final String PROP_THREAD_MAXCOUNT = "thread.count.max";
 	private static final String PROP_THREAD_KEEPALIVE = "thread.keepalive";
 	private static final String PROP_THREAD_TIMEOUT = "thread.timeout";
+	private static final String PROP_IO_SCHEDULER_COUNT = "io.scheduler.count";
+	private static final String PROP_WRITE_QUEUE_HIGH_WATER = "write.queue.highwater";
+	private static final String PROP_WRITE_BATCH_BYTES = "write.batch.bytes";
+	private static final String PROP_WRITE_BATCH_DELAY = "write.batch.delay";
+	private static final String PROP_MEMORY_BUDGET = "memory.budget";
+	private static final String PROP_BUFFER_IDLE_TIMEOUT = "buffer.idle.timeout";
+	private static final String PROP_SOCKET_BUFFER_TUNING = "socket.buffer.tuning";
+	private static final String PROP_SOCKET_BUFFER_MIN = "socket.buffer.min";
+	private static final String PROP_SOCKET_BUFFER_MAX = "socket.buffer.max";
+	private static final String PROP_MAX_BLOCK_SIZE = "block.size.max";
+	private static final String PROP_CHANNEL_WINDOW_INITIAL = "channel.window.initial";
+	private static final String PROP_CHANNEL_WINDOW_MAX = "channel.window.max";
+	private static final String PROP_CONNECTION_GROUP_SIZE = "connection.group.size";
+	private static final String PROP_ACCEPTOR_COUNT = "acceptor.count";
+	private static final String PROP_ACCEPT_ALLOW = "accept.allow";
+	private static final String PROP_ACCEPT_DENY = "accept.deny";
+	private static final String PROP_COMPRESSION = "compression";
+	private static final String PROP_COMPRESSION_THRESHOLD = "compression.threshold";
+	private static final String PROP_LOOPBACK = "loopback";
+	private static final String PROP_SHM_RING_SIZE = "shm.ring.size";
+	private static final String PROP_SHM_DIR = "shm.dir";
+	private static final String PROP_UNIX_SOCKET = "unix.socket";
 	
 	private static final String DEFAULT_THREAD_NAME = "planet";
 	
@@ -39,6 +66,15 @@ public class PlanetServerBuilder {
 	private int m_defaultMaxThreadCount = -1;
 	private int m_defaultKeepAlive = 60;	// 60 seconds
 	private long m_defaultThreadTimeout = -1;
+	private int m_defaultIoSchedulerCount = -1;	// # of cpu cores
+	private int m_defaultWriteQueueHighWater = -1;	// TransportManager 기본값 사용
+	private int m_defaultMaxBlockSize = -1;			// TransportManager 기본값 사용
+	private int m_defaultInitialChannelWindow = -1;	// TransportManager 기본값 사용
+	private int m_defaultMaxChannelWindow = -1;		// TransportManager 기본값 사용
+	private int m_defaultConnectionGroupSize = -1;	// TransportManager 기본값 사용
+	private int m_defaultAcceptorCount = -1;		// TransportManager 기본값 사용
+	private String m_defaultCompression = null;		// 압축하지 않음
+	private int m_defaultCompressionThreshold = -1;	// TransportManager 기본값 사용
 	private String m_threadName = DEFAULT_THREAD_NAME;
 	
 	public PlanetServerBuilder(Properties props, String prefix) {
@@ -70,6 +106,36 @@ public class PlanetServerBuilder {
 		m_defaultThreadTimeout = timeout;
 	}
 	
+	public void setDefaultIoSchedulerCount(int count) {
+		m_defaultIoSchedulerCount = count;
+	}
+	
+	public void setDefaultWriteQueueHighWaterMark(int bytes) {
+		m_defaultWriteQueueHighWater = bytes;
+	}
+	
+	public void setDefaultMaxBlockSize(int size) {
+		m_defaultMaxBlockSize = size;
+	}
+	
+	public void setDefaultChannelWindow(int initial, int max) {
+		m_defaultInitialChannelWindow = initial;
+		m_defaultMaxChannelWindow = max;
+	}
+	
+	public void setDefaultConnectionGroupSize(int size) {
+		m_defaultConnectionGroupSize = size;
+	}
+	
+	public void setDefaultAcceptorCount(int count) {
+		m_defaultAcceptorCount = count;
+	}
+	
+	public void setDefaultCompression(String compression, int threshold) {
+		m_defaultCompression = compression;
+		m_defaultCompressionThreshold = threshold;
+	}
+	
 	public void setThreadNamePrefix(String prefix) {
 		m_threadName = prefix;
 	}
@@ -125,10 +191,147 @@ public class PlanetServerBuilder {
 	    timeout = getPropertyAsDuration(m_prefix + PROP_CONNECT_TIMEOUT, m_defaultConnectTimeout,
 	    								TimeUnit.SECONDS);
 	    planet.setConnectTimeout((int)timeout);
+	    
+	    int schedulerCount = getPropertyAsInt(m_prefix + PROP_IO_SCHEDULER_COUNT,
+	    										m_defaultIoSchedulerCount);
+	    if ( schedulerCount > 0 ) {
+	    	planet.setIoSchedulerCount(schedulerCount);
+	    }
+	    
+	    int highWater = getPropertyAsInt(m_prefix + PROP_WRITE_QUEUE_HIGH_WATER,
+	    									m_defaultWriteQueueHighWater);
+	    if ( highWater > 0 ) {
+	    	planet.setWriteQueueHighWaterMark(highWater);
+	    }
+	    
+	    // 묶음 대기 시간은 microsecond 단위
+	    int batchBytes = getPropertyAsInt(m_prefix + PROP_WRITE_BATCH_BYTES, 0);
+	    if ( batchBytes > 0 ) {
+	    	int batchDelay = getPropertyAsInt(m_prefix + PROP_WRITE_BATCH_DELAY, 50);
+	    	planet.setWriteBatching(batchBytes, batchDelay);
+	    }
+	    
+	    String budget = getPropertyAsString(m_prefix + PROP_MEMORY_BUDGET, null);
+	    if ( budget != null ) {
+	    	planet.setMemoryBudget(Long.parseLong(budget.trim()));
+	    }
+	    
+	    String bufferIdle = getPropertyAsString(m_prefix + PROP_BUFFER_IDLE_TIMEOUT, null);
+	    if ( bufferIdle != null ) {
+	    	planet.setBufferIdleTimeout(parseDuration(bufferIdle.trim()));
+	    }
+	    
+	    // 소켓 버퍼 크기 결정 방식은 "fixed", "kernel" 또는 "adaptive"
+	    String tuning = getPropertyAsString(m_prefix + PROP_SOCKET_BUFFER_TUNING, null);
+	    if ( tuning != null ) {
+	    	planet.setSocketBufferTuning(toSocketBufferTuning(tuning.trim()));
+	    }
+	    
+	    int minSockBuf = getPropertyAsInt(m_prefix + PROP_SOCKET_BUFFER_MIN,
+	    									planet.getMinSocketBufferSize());
+	    int maxSockBuf = getPropertyAsInt(m_prefix + PROP_SOCKET_BUFFER_MAX,
+	    									planet.getMaxSocketBufferSize());
+	    planet.setSocketBufferLimits(minSockBuf, maxSockBuf);
+	    
+	    int maxBlockSize = getPropertyAsInt(m_prefix + PROP_MAX_BLOCK_SIZE, m_defaultMaxBlockSize);
+	    if ( maxBlockSize > 0 ) {
+	    	planet.setMaxBlockSize(maxBlockSize);
+	    }
+	    
+	    int initialWindow = getPropertyAsInt(m_prefix + PROP_CHANNEL_WINDOW_INITIAL,
+	    										m_defaultInitialChannelWindow);
+	    if ( initialWindow >= 0 ) {
+	    	planet.setInitialChannelWindow(initialWindow);
+	    }
+	    
+	    int maxWindow = getPropertyAsInt(m_prefix + PROP_CHANNEL_WINDOW_MAX, m_defaultMaxChannelWindow);
+	    if ( maxWindow > 0 ) {
+	    	planet.setMaxChannelWindow(maxWindow);
+	    }
+	    
+	    int groupSize = getPropertyAsInt(m_prefix + PROP_CONNECTION_GROUP_SIZE,
+	    									m_defaultConnectionGroupSize);
+	    if ( groupSize > 0 ) {
+	    	planet.setConnectionGroupSize(groupSize);
+	    }
+	    
+	    int acceptorCount = getPropertyAsInt(m_prefix + PROP_ACCEPTOR_COUNT, m_defaultAcceptorCount);
+	    if ( acceptorCount > 0 ) {
+	    	planet.setAcceptorCount(acceptorCount);
+	    }
+	    
+	    // 허용/거부 주소 범위는 콤마로 구분된 CIDR 표기 (예: "10.0.0.0/8, 211.38.47.6")
+	    String allows = getPropertyAsString(m_prefix + PROP_ACCEPT_ALLOW, null);
+	    String denies = getPropertyAsString(m_prefix + PROP_ACCEPT_DENY, null);
+	    if ( allows != null || denies != null ) {
+	    	planet.setAddressFilter(new CidrAddressFilter(allows, denies));
+	    }
+	    
+	    // 압축 방식은 "none", "deflate" 또는 "deflate:<level>" (level: 0-9)
+	    String compression = getPropertyAsString(m_prefix + PROP_COMPRESSION, m_defaultCompression);
+	    if ( compression != null ) {
+	    	planet.setCompressionCodec(toCompressionCodec(compression.trim()));
+	    }
+	    
+	    int threshold = getPropertyAsInt(m_prefix + PROP_COMPRESSION_THRESHOLD,
+	    									m_defaultCompressionThreshold);
+	    if ( threshold >= 0 ) {
+	    	planet.setCompressionThreshold(threshold);
+	    }
+	    
+	    String loopback = getPropertyAsString(m_prefix + PROP_LOOPBACK, null);
+	    if ( loopback != null ) {
+	    	planet.setLoopbackEnabled(Boolean.parseBoolean(loopback.trim()));
+	    }
+	    
+	    int shmRingSize = getPropertyAsInt(m_prefix + PROP_SHM_RING_SIZE, -1);
+	    if ( shmRingSize >= 0 ) {
+	    	planet.setSharedMemoryRingSize(shmRingSize);
+	    }
+	    
+	    String shmDir = getPropertyAsString(m_prefix + PROP_SHM_DIR, null);
+	    if ( shmDir != null ) {
+	    	planet.setSharedMemoryDirectory(new File(shmDir.trim()));
+	    }
+	    
+	    String unixSocket = getPropertyAsString(m_prefix + PROP_UNIX_SOCKET, null);
+	    if ( unixSocket != null ) {
+	    	planet.setUnixSocketPath(unixSocket.trim());
+	    }
 		
 	    return planet;
 	}
 	
+	private static BlockCodec toCompressionCodec(String compression) {
+		if ( compression.equalsIgnoreCase("none") ) {
+			return null;
+		}
+		else if ( compression.equalsIgnoreCase("deflate") ) {
+			return new DeflateCodec();
+		}
+		else if ( compression.toLowerCase().startsWith("deflate:") ) {
+			return new DeflateCodec(Integer.parseInt(compression.substring(8).trim()));
+		}
+		else {
+			throw new IllegalArgumentException("unknown compression: " + compression);
+		}
+	}
+	
+	private static int toSocketBufferTuning(String tuning) {
+		if ( tuning.equalsIgnoreCase("fixed") ) {
+			return TransportManagerImpl.SOCKET_BUFFER_FIXED;
+		}
+		else if ( tuning.equalsIgnoreCase("kernel") ) {
+			return TransportManagerImpl.SOCKET_BUFFER_KERNEL;
+		}
+		else if ( tuning.equalsIgnoreCase("adaptive") ) {
+			return TransportManagerImpl.SOCKET_BUFFER_ADAPTIVE;
+		}
+		else {
+			throw new IllegalArgumentException("unknown socket buffer tuning: " + tuning);
+		}
+	}
+	
 	private String getPropertyAsString(String key, String defValue) {
 		String value = m_props.getProperty(key);
 		if ( value == null ) {
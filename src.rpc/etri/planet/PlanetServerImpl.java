@@ -1,6 +1,7 @@
 package etri.planet;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -26,6 +27,7 @@ import planet.ServantExistsException;
 import planet.ServantNotFoundException;
 import planet.SystemException;
 import planet.UndeclaredTypeException;
+import planet.transport.AddressFilter;
 import planet.transport.Connection;
 import planet.transport.TransportManager;
 
@@ -36,7 +38,7 @@ import etri.planet.servant.MappedDirectory;
 import etri.planet.servant.ServantManager;
 import etri.planet.servant.ServantUtils;
 import etri.planet.thread.AbstractTimedExecutor;
-import etri.planet.transport.ConnectionImpl;
+import etri.planet.transport.BlockCodec;
 import etri.planet.transport.TransportManagerImpl;
 
 /**
@@ -253,6 +255,209 @@ public class PlanetServerImpl implements PlanetServer, RemotePlanet, PersistentS
 		m_port = port;
 	}
 	
+	/**
+	 * 소켓 I/O를 처리할 selector 루프의 갯수를 설정한다.
+	 * <p>
+	 * 본 메소드는 PlanetServer가 시작되기 이전에만 호출할 수 있다.
+	 * 
+	 * @param count	selector 루프 갯수.
+	 */
+	public synchronized void setIoSchedulerCount(int count) {
+		if ( m_state != NOT_STARTED ) {
+			throw new SystemException("PlanetServer has been started already");
+		}
+
+		m_transport.setIoSchedulerCount(count);
+	}
+	
+	/**
+	 * 외부로부터의 연결 요청을 받아들이는 accept 루프의 갯수를 설정한다.
+	 * <p>
+	 * 본 메소드는 PlanetServer가 시작되기 이전에만 호출할 수 있다.
+	 * 
+	 * @param count	accept 루프 갯수.
+	 */
+	public synchronized void setAcceptorCount(int count) {
+		if ( m_state != NOT_STARTED ) {
+			throw new SystemException("PlanetServer has been started already");
+		}
+
+		m_transport.setAcceptorCount(count);
+	}
+	
+	/**
+	 * 외부로부터의 연결 요청을 상대방 주소로 걸러낼 필터를 설정한다.
+	 * 
+	 * @param filter	주소 필터. <code>null</code>인 경우는 모든 연결 요청을 허용한다.
+	 */
+	public void setAddressFilter(AddressFilter filter) {
+		m_transport.setAddressFilter(filter);
+	}
+	
+	/**
+	 * 연결별 송신 큐의 high-water mark(바이트)를 설정한다.
+	 * 
+	 * @param bytes	송신 큐의 최대 바이트 수.
+	 */
+	public void setWriteQueueHighWaterMark(int bytes) {
+		m_transport.setWriteQueueHighWaterMark(bytes);
+	}
+	
+	/**
+	 * 작은 데이타 프레임의 묶음 전송을 설정한다.
+	 * 
+	 * @param bytes	묶음의 최대 바이트 수. 0인 경우는 묶음 전송을 하지 않는다.
+	 * @param delayMicros	묶음의 최대 대기 시간 (microsecond).
+	 */
+	public void setWriteBatching(int bytes, long delayMicros) {
+		m_transport.setWriteBatching(bytes, delayMicros);
+	}
+	
+	/**
+	 * 전송 버퍼 메모리의 상한(바이트)을 설정한다. 상한을 넘으면 송신측 쓰레드가 대기한다.
+	 * 
+	 * @param bytes	메모리 상한. 0인 경우는 제한하지 않는다.
+	 */
+	public void setMemoryBudget(long bytes) {
+		m_transport.setMemoryBudget(bytes);
+	}
+	
+	/**
+	 * 유휴 연결의 수신 버퍼를 반환할 유휴 시간(millisecond)을 설정한다.
+	 * 
+	 * @param millis	유휴 시간. 음수인 경우는 연결이 닫힐 때까지 반환하지 않는다.
+	 */
+	public void setBufferIdleTimeout(long millis) {
+		m_transport.setBufferIdleTimeout(millis);
+	}
+	
+	/**
+	 * 소켓 송수신 버퍼 크기의 결정 방식을 설정한다.
+	 * 
+	 * @param mode	{@link TransportManagerImpl#SOCKET_BUFFER_FIXED},
+	 * 				{@link TransportManagerImpl#SOCKET_BUFFER_KERNEL} 또는
+	 * 				{@link TransportManagerImpl#SOCKET_BUFFER_ADAPTIVE}.
+	 */
+	public void setSocketBufferTuning(int mode) {
+		m_transport.setSocketBufferTuning(mode);
+	}
+	
+	public int getMinSocketBufferSize() {
+		return m_transport.getMinSocketBufferSize();
+	}
+	
+	public int getMaxSocketBufferSize() {
+		return m_transport.getMaxSocketBufferSize();
+	}
+	
+	/**
+	 * 소켓 버퍼 크기를 조절하는 경우 사용할 크기의 범위(바이트)를 설정한다.
+	 * 
+	 * @param min	최소 버퍼 크기.
+	 * @param max	최대 버퍼 크기.
+	 */
+	public void setSocketBufferLimits(int min, int max) {
+		m_transport.setSocketBufferLimits(min, max);
+	}
+	
+	/**
+	 * 연결 설정시 상대방과 협상할 최대 데이타 블럭 크기(바이트)를 설정한다.
+	 * 
+	 * @param size	최대 블럭 크기.
+	 */
+	public void setMaxBlockSize(int size) {
+		m_transport.setMaxBlockSize(size);
+	}
+	
+	/**
+	 * 데이타 채널별 초기 수신 윈도우(바이트)를 설정한다.
+	 * 0인 경우는 블럭 단위 ack 방식의 흐름 제어를 사용한다.
+	 * 
+	 * @param bytes	초기 수신 윈도우 크기.
+	 */
+	public void setInitialChannelWindow(int bytes) {
+		m_transport.setInitialChannelWindow(bytes);
+	}
+	
+	/**
+	 * 데이타 채널별 수신 윈도우가 자동으로 커질 수 있는 최대 크기(바이트)를 설정한다.
+	 * 
+	 * @param bytes	최대 수신 윈도우 크기.
+	 */
+	public void setMaxChannelWindow(int bytes) {
+		m_transport.setMaxChannelWindow(bytes);
+	}
+	
+	/**
+	 * 상대 Planet별로 생성할 연결 그룹의 크기(소켓 수)를 설정한다.
+	 * 1인 경우는 연결 그룹을 사용하지 않는다.
+	 * 
+	 * @param size	연결 그룹 크기.
+	 */
+	public void setConnectionGroupSize(int size) {
+		m_transport.setConnectionGroupSize(size);
+	}
+	
+	/**
+	 * 데이타 블럭 압축에 사용할 codec을 설정한다.
+	 * 상대방도 같은 codec을 사용하도록 설정된 연결에서만 압축된다.
+	 * 
+	 * @param codec	압축 codec. <code>null</code>인 경우는 압축을 사용하지 않는다.
+	 */
+	public void setCompressionCodec(BlockCodec codec) {
+		m_transport.setCompressionCodec(codec);
+	}
+	
+	/**
+	 * 압축을 시도할 최소 블럭 데이타 크기(바이트)를 설정한다.
+	 * 
+	 * @param bytes	최소 블럭 데이타 크기.
+	 */
+	public void setCompressionThreshold(int bytes) {
+		m_transport.setCompressionThreshold(bytes);
+	}
+	
+	/**
+	 * 같은 JVM에서 동작 중인 Planet과의 연결에 소켓 대신 loopback 연결을 사용할지 여부를 설정한다.
+	 * 
+	 * @param enabled	loopback 연결 사용 여부.
+	 */
+	public void setLoopbackEnabled(boolean enabled) {
+		m_transport.setLoopbackEnabled(enabled);
+	}
+	
+	/**
+	 * 같은 호스트의 Planet과의 연결에 사용할 공유 메모리 ring의 방향별 크기를 설정한다.
+	 * 
+	 * @param bytes	ring 크기. 0인 경우는 공유 메모리 전송을 사용하지 않는다.
+	 * @see TransportManagerImpl#setSharedMemoryRingSize(int)
+	 */
+	public void setSharedMemoryRingSize(int bytes) {
+		m_transport.setSharedMemoryRingSize(bytes);
+	}
+	
+	/**
+	 * 공유 메모리 파일을 생성할 디렉토리를 설정한다.
+	 * 
+	 * @param dir	공유 메모리 파일 디렉토리.
+	 */
+	public void setSharedMemoryDirectory(File dir) {
+		m_transport.setSharedMemoryDirectory(dir);
+	}
+	
+	/**
+	 * TCP 포트와 함께 연결 요청을 받아들일 Unix domain socket 경로를 설정한다.
+	 * <p>
+	 * 같은 호스트의 Planet은 <code>unix:<i>경로</i></code> 형태의 식별자로 본 Planet에 연결할 수 있다.
+	 * 본 메소드는 Planet 서버가 시작되기 이전에만 호출할 수 있다.
+	 * 
+	 * @param path	socket 파일 경로.
+	 * @see TransportManagerImpl#setUnixSocketPath(String)
+	 */
+	public void setUnixSocketPath(String path) {
+		m_transport.setUnixSocketPath(path);
+	}
+	
 	public void setDelayedServantQueue(int qLength) {
 		m_delayedQLength = qLength;
 	}
@@ -479,11 +684,11 @@ public class PlanetServerImpl implements PlanetServer, RemotePlanet, PersistentS
 
 	@Override
 	public ConnectionInfo[] getConnectionInfos() {
-		ConnectionImpl[] impls = m_transport.getConnections();
+		Connection[] impls = m_transport.getConnections();
 		
 		ConnectionInfo[] infos = new ConnectionInfo[impls.length];
 		for ( int i =0; i < infos.length; ++i ) {
-			final ConnectionImpl conn = impls[i];
+			final Connection conn = impls[i];
 			
 			infos[i] = new ConnectionInfo();
 			infos[i].m_id = conn.getId();
@@ -6,9 +6,7 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -33,24 +31,27 @@ import planet.transport.InputChannel;
 import planet.transport.OutputChannel;
 
 import etri.planet.servant.SessionBoundServant;
-import etri.planet.transport.ConnectionImpl;
+import etri.planet.transport.ConcurrentIntMap;
+import etri.planet.transport.MultiBlockOutputChannel;
 
 
 /**
+ * 대부분의 연결은 세션 상태를 거의 사용하지 않으므로, stream server 테이블과 상수 결과 캐쉬는
+ * 처음 사용될 때 생성된다.
  *
  * @author Kang-Woo Lee (ETRI)
  */
 public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 	final PlanetServerImpl m_planet;
-	final ConnectionImpl m_conn;
+	final Connection m_conn;
 
 	private final AtomicInteger m_reqIdGen;
 	private final ConcurrentMap<String,Servant> m_servants;
-	private final List<ReplyWaiter> m_waiters;	// guarded by 'm_waiters'
-	final Map<Integer,InputChannel> m_istreamChannels;
-	final Map<Integer,StreamServer> m_strmServers;
+	private final ConcurrentIntMap<ReplyWaiter> m_waiters;		// 요청 식별자별 응답 대기자
+	final ConcurrentIntMap<InputChannel> m_istreamChannels;	// 등록 대기는 'm_istreamChannels'로 동기화
+	private volatile ConcurrentIntMap<StreamServer> m_strmServers = null;	// 생성은 this로 동기화
 
-	private final ConcurrentMap<CacheKey,Object> m_constCache;
+	private volatile ConcurrentMap<CacheKey,Object> m_constCache = null;	// 생성은 this로 동기화
 	static final class CacheKey {
 		String m_path;
 		Method m_method;
@@ -82,16 +83,14 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 		}
 	}
 
-	public PlanetSessionImpl(PlanetServerImpl planet, ConnectionImpl conn) {
+	public PlanetSessionImpl(PlanetServerImpl planet, Connection conn) {
 		m_planet = planet;
 		m_conn = conn;
 
 		m_reqIdGen = new AtomicInteger(0);
 		m_servants = new ConcurrentHashMap<String,Servant>();
-		m_waiters = new ArrayList<ReplyWaiter>();
-		m_istreamChannels = new HashMap<Integer,InputChannel>();
-		m_strmServers = new HashMap<Integer,StreamServer>();
-		m_constCache = new ConcurrentHashMap<CacheKey,Object>();
+		m_waiters = new ConcurrentIntMap<ReplyWaiter>();
+		m_istreamChannels = new ConcurrentIntMap<InputChannel>();
 	}
 
 	public void close() {
@@ -122,15 +121,32 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 	}
 
 	public Object lookupCache(String path, Method method) {
-		return m_constCache.get(new CacheKey(path, method));
+		ConcurrentMap<CacheKey,Object> cache = m_constCache;
+		return ( cache != null ) ? cache.get(new CacheKey(path, method)) : null;
 	}
 
 	public void cacheResult(String path, Method method, Object result) {
-		m_constCache.putIfAbsent(new CacheKey(path, method), result);
+		ConcurrentMap<CacheKey,Object> cache = m_constCache;
+		if ( cache == null ) {
+			synchronized ( this ) {
+				if ( (cache = m_constCache) == null ) {
+					m_constCache = cache = new ConcurrentHashMap<CacheKey,Object>();
+				}
+			}
+		}
+
+		cache.putIfAbsent(new CacheKey(path, method), result);
 	}
 
 	public void sendMessage(AbstractPlanetMessage msg) throws IOException {
-		PlanetWriter write = new PlanetWriter(this, m_conn.allocateOutputChannel());
+		OutputChannel channel = m_conn.allocateOutputChannel();
+		
+		// 호출자가 응답을 기다리는 요청은 묶음 전송으로 지연되지 않도록 한다.
+		if ( msg instanceof CallMessage && channel instanceof MultiBlockOutputChannel ) {
+			((MultiBlockOutputChannel)channel).setLatencySensitive(true);
+		}
+		
+		PlanetWriter write = new PlanetWriter(this, channel);
 		msg.write(write);
 		write.close();
 	}
@@ -165,14 +181,11 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 	public void notifyReplyReceived(ReturnMessage message) {
 		int reqId = message.m_header.m_reqId;
 
-		synchronized ( m_waiters ) {
-			for ( ReplyWaiter waiter: m_waiters ) {
-				if ( reqId == waiter.m_requestId ) {
-					waiter.signal(message);
+		ReplyWaiter waiter = m_waiters.get(reqId);
+		if ( waiter != null ) {
+			waiter.signal(message);
 
-					return;
-				}
-			}
+			return;
 		}
 
 		if ( RpcLoggers.SESSION.isInfoEnabled() ) {
@@ -244,8 +257,12 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 
 	private static final long MAX_CHANNEL_WAIT = TimeUnit.SECONDS.toNanos(5);
 	public InputChannel getInputChannel(int id) {
+		InputChannel found = m_istreamChannels.get(id);
+		if ( found != null ) {
+			return found;
+		}
+		
 		long dueNanos = System.nanoTime() + MAX_CHANNEL_WAIT;
-
 		synchronized ( m_istreamChannels ) {
 			while ( true ) {
 				InputChannel ichannel = m_istreamChannels.get(id);
@@ -276,23 +293,41 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 	}
 
 	void registerInputChannel(InputChannel channel) {
-		synchronized ( m_istreamChannels ) {
-			InputChannel prev = m_istreamChannels.put(channel.getId(), channel);
-			if ( prev != null ) {
-				m_istreamChannels.put(channel.getId(), prev);
-				
-				throw new SystemException("duplicated input channel: id=" + channel.getId());
-			}
-
-			channel.setListener(this);
+		if ( m_istreamChannels.putIfAbsent(channel.getId(), channel) != null ) {
+			throw new SystemException("duplicated input channel: id=" + channel.getId());
+		}
+		channel.setListener(this);
 
+		synchronized ( m_istreamChannels ) {
 			m_istreamChannels.notifyAll();
 		}
 	}
 
 	void unregisterInputChannel(InputChannel channel) {
-		synchronized ( m_istreamChannels ) {
-			m_istreamChannels.remove(channel.getId());
+		unregisterInputChannel(channel.getId());
+	}
+
+	void unregisterInputChannel(int id) {
+		m_istreamChannels.remove(id);
+	}
+
+	void addStreamServer(int id, StreamServer server) {
+		ConcurrentIntMap<StreamServer> servers = m_strmServers;
+		if ( servers == null ) {
+			synchronized ( this ) {
+				if ( (servers = m_strmServers) == null ) {
+					m_strmServers = servers = new ConcurrentIntMap<StreamServer>();
+				}
+			}
+		}
+
+		servers.put(id, server);
+	}
+
+	void removeStreamServer(int id) {
+		ConcurrentIntMap<StreamServer> servers = m_strmServers;
+		if ( servers != null ) {
+			servers.remove(id);
 		}
 	}
 
@@ -300,10 +335,8 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 		ClosedConnectionException cce = new ClosedConnectionException("id=" + conn.getId());
 		RemoteSystemException rse = new RemoteSystemException(cce);
 
-		synchronized ( m_waiters ) {
-			for ( ReplyWaiter waiter: m_waiters ) {
-				waiter.signal(new ErrorMessage(waiter.m_requestId, rse));
-			}
+		for ( ReplyWaiter waiter: m_waiters.values() ) {
+			waiter.signal(new ErrorMessage(waiter.m_requestId, rse));
 		}
 
 		 for ( Servant servant : m_servants.values() ) {
@@ -314,8 +347,10 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 		 m_servants.clear();
 
 		 m_istreamChannels.clear();
-		 m_strmServers.clear();
-		 m_constCache.clear();
+		 synchronized ( this ) {
+			 m_strmServers = null;
+			 m_constCache = null;
+		 }
 
 		if ( RpcLoggers.SESSION.isInfoEnabled() ) {
 			RpcLoggers.SESSION.info("closed: " + this);
@@ -341,9 +376,7 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 			// request message send전에 waiter list에 등록을 먼저해서
 			// reply가 도착했을 때, waiter list에 waiter정보 항상 있도록 한다.
 			waiter = new ReplyWaiter(msg.m_header.m_reqId);
-			synchronized ( m_waiters ) {
-				m_waiters.add(waiter);
-			}
+			m_waiters.put(waiter.m_requestId, waiter);
 
 			sendMessage(msg);
 
@@ -367,9 +400,7 @@ public class PlanetSessionImpl implements PlanetSession, InputChannel.Listener {
 		}
 		finally {
 			if ( waiter != null ) {
-				synchronized ( m_waiters ) {
-					m_waiters.remove(waiter);
-				}
+				m_waiters.remove(waiter.m_requestId);
 			}
 		}
 
@@ -15,7 +15,6 @@ import planet.transport.InputChannel;
 import planet.transport.TransportListener;
 
 import etri.planet.thread.TimedThread;
-import etri.planet.transport.ConnectionImpl;
 import etri.planet.transport.TransportManagerImpl;
 
 
@@ -61,7 +60,7 @@ public class PlanetSessionManager implements TransportListener {
 			return session;
 		}
 		
-		ConnectionImpl conn = m_transport.getConnection(key, true);
+		Connection conn = m_transport.getConnection(key, true);
 		session = new PlanetSessionImpl(m_planet, conn);
 		PlanetSessionImpl prev = m_sessions.putIfAbsent(key, session);
 		return ( prev == null ) ? session : prev;
@@ -95,7 +94,7 @@ public class PlanetSessionManager implements TransportListener {
 
 	@Override
 	public void onConnected(Connection conn) {
-		final PlanetSessionImpl session = new PlanetSessionImpl(m_planet, (ConnectionImpl)conn);
+		final PlanetSessionImpl session = new PlanetSessionImpl(m_planet, conn);
 		m_sessions.putIfAbsent(conn.getId(), session);
 		
 		m_planet.execute(new Runnable() {
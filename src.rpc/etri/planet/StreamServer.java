@@ -1,19 +1,32 @@
 package etri.planet;
 
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import planet.FileRegion;
 import planet.transport.OutputChannel;
 
+import etri.planet.transport.MultiBlockOutputChannel;
+
 
 /**
+ * 입력 스트림의 데이타를 별도의 출력 채널로 전송한다.
+ * <p>
+ * 입력 스트림이 {@link FileRegion}이나 일반 파일을 읽는 {@link FileInputStream}이고 출력 채널이 연결의
+ * 채널인 경우는 파일 데이타를 읽지 않고 {@link MultiBlockOutputChannel#transferFrom(FileChannel, long, long)}로
+ * 전송한다. 중단 요청은 {@value #TRANSFER_CHUNK_SIZE} 바이트 단위로 확인한다. 전송 중 파일이 커진 경우
+ * 나머지와, pipe처럼 위치나 크기를 알 수 없는 입력 스트림은 읽어서 전송한다.
  * 
  * @author Kang-Woo Lee
  */
 public class StreamServer implements OutputChannel.Listener {
+	private static final int TRANSFER_CHUNK_SIZE = 1 << 20;	// 1 MB
+	
 	private static final int STATE_NOT_STARTED =0;
 	private static final int STATE_RUNNING =1;
 	private static final int STATE_STOP_REQUESTED =2;
@@ -33,7 +46,7 @@ public class StreamServer implements OutputChannel.Listener {
 		m_ochannel = session.newOutputChannel();
 		m_ochannel.setListener(this);
 		
-		m_session.m_strmServers.put(m_ochannel.getId(), this);
+		m_session.addStreamServer(m_ochannel.getId(), this);
 	}
 	
 	public int getStreamId() {
@@ -125,8 +138,8 @@ public class StreamServer implements OutputChannel.Listener {
 	
 	private void cleanup() {
 		
-		m_session.m_strmServers.remove(m_ochannel.getId());
-		m_session.m_istreamChannels.remove(m_ochannel.getId());
+		m_session.removeStreamServer(m_ochannel.getId());
+		m_session.unregisterInputChannel(m_ochannel.getId());
 		
 		try {
 			m_is.close();
@@ -157,6 +170,18 @@ public class StreamServer implements OutputChannel.Listener {
 				PlanetHeader header = new PlanetHeader(AbstractPlanetMessage.MSG_STREAM, -1);
 				PlanetWriter writer = new PlanetWriter(m_session, m_ochannel);
 				header.serialize(writer);
+				
+				FileRegion region = toFileRegion(m_is);
+				if ( region != null && m_ochannel instanceof MultiBlockOutputChannel ) {
+					if ( !transferRegion(region, (MultiBlockOutputChannel)m_ochannel) ) {
+						return;
+					}
+					
+					// 영역은 위치를 지정하여 전송하므로, 이어 읽을 위치를 영역의 끝으로 옮긴다.
+					if ( region != m_is ) {
+						((FileInputStream)m_is).getChannel().position(region.getPosition());
+					}
+				}
 
 				byte[] buffer = new byte[AbstractPlanetMessage.MAX_DATA_SIZE-1];
 				while ( true ) {
@@ -193,5 +218,49 @@ public class StreamServer implements OutputChannel.Listener {
 				}
 			}
 		}
+		
+		// 중단 요청이나 전송 오류로 전송을 멈춘 경우는 false를 반환한다.
+		private boolean transferRegion(FileRegion region, MultiBlockOutputChannel ochannel) {
+			while ( region.getRemaining() > 0 ) {
+				if ( getStatus() == STATE_STOP_REQUESTED ) {
+					return false;
+				}
+				
+				long count = Math.min(region.getRemaining(), TRANSFER_CHUNK_SIZE);
+				try {
+					ochannel.transferFrom(region.getChannel(), region.getPosition(), count);
+				}
+				catch ( Exception expected ) {
+					return false;
+				}
+				region.skip(count);
+			}
+			
+			return true;
+		}
+	}
+	
+	// 일반 파일에서 읽는 입력 스트림은 현재 크기까지의 읽지 않은 영역을 FileRegion으로 반환한다.
+	// FileInputStream을 상속한 클래스는 읽은 데이타를 변형할 수 있으므로 제외한다.
+	// pipe나 장치 파일은 위치 지정이 실패하거나 크기가 0이므로 null을 반환하여 읽어서 전송하도록 한다.
+	private static FileRegion toFileRegion(InputStream is) {
+		if ( is instanceof FileRegion ) {
+			return (FileRegion)is;
+		}
+		else if ( is.getClass() == FileInputStream.class ) {
+			FileChannel channel = ((FileInputStream)is).getChannel();
+			try {
+				long position = channel.position();
+				long size = channel.size();
+				
+				return ( size > position ) ? new FileRegion(channel, position, size - position) : null;
+			}
+			catch ( IOException e ) {
+				return null;
+			}
+		}
+		else {
+			return null;
+		}
 	}
 }
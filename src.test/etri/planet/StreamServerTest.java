@@ -0,0 +1,184 @@
+package etri.planet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import planet.FileRegion;
+import planet.PersistentServant;
+
+
+/**
+ * 파일에서 읽는 입력 스트림을 반환하는 원격 호출이 데이타를 변경 없이 전달하는지 확인한다.
+ * 일반 파일과 {@link FileRegion}은 FileChannel.transferTo()로, pipe는 읽어서 전송된다.
+ *
+ * @author Kang-Woo Lee
+ */
+public class StreamServerTest {
+	private static final int FILE_SIZE = (3 << 20) + 12345;
+
+	@Rule public TemporaryFolder m_tempDir = new TemporaryFolder();
+
+	private PlanetServerImpl m_server;
+	private PlanetServerImpl m_client;
+	private FileSource m_source;
+	private byte[] m_data;
+
+	public interface FileSource {
+		public InputStream open(String path);
+		public InputStream region(String path, long position, long count);
+	}
+
+	public static class FileSourceImpl implements FileSource, PersistentServant {
+		public InputStream open(String path) {
+			try {
+				return new FileInputStream(path);
+			}
+			catch ( IOException e ) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public InputStream region(String path, long position, long count) {
+			try {
+				FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+				return new FileRegion(channel, position, count);
+			}
+			catch ( IOException e ) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public Class<?>[] getRemoteInterfaces() {
+			return new Class<?>[] { FileSource.class };
+		}
+
+		public String getServantPath() {
+			return "/files";
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		m_server = new PlanetServerImpl();
+		m_server.setPlanetServerPort(0);
+		m_server.start();
+		m_server.addServant(new FileSourceImpl());
+
+		// 같은 프로세스의 연결도 소켓을 사용하도록 loopback 연결을 사용하지 않는다.
+		m_client = new PlanetServerImpl();
+		m_client.setPlanetServerPort(0);
+		m_client.setDefaultCallTimeout(20000);
+		m_client.start();
+		m_client.setLoopbackEnabled(false);
+
+		m_source = m_client.createProxy(m_server.getId(), "/files", FileSource.class);
+
+		m_data = new byte[FILE_SIZE];
+		new Random(7).nextBytes(m_data);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		m_client.stop();
+		m_server.stop();
+	}
+
+	@Test
+	public void testFileInputStream() throws Exception {
+		File file = writeFile();
+
+		assertArrayEquals(m_data, readFully(m_source.open(file.getPath())));
+	}
+
+	@Test
+	public void testFileRegion() throws Exception {
+		File file = writeFile();
+		int position = 777;
+		int count = FILE_SIZE - 2*position;
+
+		byte[] expected = Arrays.copyOfRange(m_data, position, position + count);
+		assertArrayEquals(expected, readFully(m_source.region(file.getPath(), position, count)));
+	}
+
+	@Test
+	public void testPipe() throws Exception {
+		final File fifo = new File(m_tempDir.getRoot(), "stream.fifo");
+		try {
+			Process proc = new ProcessBuilder("mkfifo", fifo.getPath()).start();
+			assumeTrue(proc.waitFor() == 0);
+		}
+		catch ( IOException e ) {
+			assumeTrue("mkfifo is not available", false);
+		}
+
+		// pipe는 읽는 쪽이 열 때까지 쓰는 쪽의 open이 대기한다.
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					OutputStream os = new FileOutputStream(fifo);
+					try {
+						os.write(m_data);
+					}
+					finally {
+						os.close();
+					}
+				}
+				catch ( IOException e ) {
+					e.printStackTrace();
+				}
+			}
+		});
+		writer.setDaemon(true);
+		writer.start();
+
+		assertArrayEquals(m_data, readFully(m_source.open(fifo.getPath())));
+		writer.join();
+	}
+
+	private File writeFile() throws IOException {
+		File file = m_tempDir.newFile("stream.bin");
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(m_data);
+		}
+		finally {
+			os.close();
+		}
+
+		return file;
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			byte[] buf = new byte[8192];
+			int nread;
+			while ( (nread = is.read(buf)) > 0 ) {
+				bos.write(buf, 0, nread);
+			}
+		}
+		finally {
+			is.close();
+		}
+
+		return bos.toByteArray();
+	}
+}
@@ -0,0 +1,44 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * 데이타 블럭의 payload를 압축/해제하는 codec 인터페이스.
+ * <p>
+ * Codec은 연결 설정시 식별자({@link #getId()})로 협상되며, 양측이 같은 식별자의 codec을
+ * 사용하도록 설정된 경우에만 해당 연결의 데이타 블럭이 압축된다. 하나의 codec 객체는
+ * 여러 쓰레드에서 동시에 사용되므로 ThreadSafe하도록 구현되어야 한다.
+ * 
+ * @author Kang-Woo Lee
+ */
+public interface BlockCodec {
+	/**
+	 * 연결 설정시 교환되는 codec 식별자를 반환한다.
+	 * 
+	 * @return	1부터 7 사이의 식별자.
+	 */
+	public int getId();
+	
+	/**
+	 * <code>src</code>의 남은 데이타를 압축하여 <code>dst</code>의 현재 위치부터 기록한다.
+	 * <p>
+	 * 압축 결과가 <code>dst</code>의 남은 공간보다 큰 경우는 -1을 반환하며, 이때
+	 * <code>dst</code>의 내용은 정의되지 않는다.
+	 * 
+	 * @param src	압축할 데이타.
+	 * @param dst	압축 결과를 기록할 버퍼.
+	 * @return	압축된 바이트 수, 또는 -1.
+	 */
+	public int compress(ByteBuffer src, ByteBuffer dst);
+	
+	/**
+	 * <code>src</code>의 남은 데이타를 해제하여 <code>dst</code>의 남은 공간을 채운다.
+	 * 
+	 * @param src	압축된 데이타.
+	 * @param dst	해제된 데이타를 기록할 버퍼. 원래 데이타 크기만큼의 공간이 남아 있어야 한다.
+	 * @throws IOException	압축된 데이타가 손상되었거나 크기가 맞지 않는 경우.
+	 */
+	public void decompress(ByteBuffer src, ByteBuffer dst) throws IOException;
+}
@@ -0,0 +1,273 @@
+package etri.planet.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * Transport 계층에서 사용하는 direct {@link ByteBuffer}의 pool.
+ * <p>
+ * 버퍼는 {@link #MIN_BUFFER_SIZE}부터 {@link #MAX_BUFFER_SIZE}까지 2의 배수 크기의
+ * size class로 나누어 관리된다. 요청된 크기보다 크거나 같은 최소 size class의 버퍼가 할당되며,
+ * 반환된 버퍼의 limit는 요청된 크기로 설정된다. 최대 size class보다 큰 버퍼는 pool에서 관리되지
+ * 않고 매번 새로 할당된다.
+ * <p>
+ * 각 쓰레드는 {@link #THREAD_CACHE_MAX_SIZE} 이하의 size class별로 작은 크기의 로컬 캐쉬를 유지하여
+ * 대부분의 작은 할당/반환을 동기화 없이 처리하고, 로컬 캐쉬가 비거나 넘치는 경우에만 공유 pool을
+ * 사용한다. 그보다 큰 버퍼는 쓰레드에 묶여 있지 않도록 항상 공유 pool을 통해 할당/반환된다.
+ * pool에 보관된 버퍼는 {@link MemoryBudget}의 사용량에 포함되지 않으므로, 메모리가 부족한 경우
+ * {@link MemoryBudget}은 버퍼를 {@link #releaseShared(ByteBuffer)}로 반환하여 대기 중인 다른
+ * 쓰레드가 바로 재사용하도록 한다.
+ * <p>
+ * Leak 검출 모드({@link #setLeakDetectionEnabled(boolean)} 또는 시스템 프로퍼티
+ * {@value #PROP_LEAK_DETECTION})에서는 할당된 모든 버퍼의 할당 위치를 기록하여
+ * {@link #reportLeaks()}로 반환되지 않은 버퍼를 확인할 수 있다. 이 모드는 비용이 크므로
+ * 테스트 용도로만 사용되어야 한다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class BufferPool {
+	public static final String PROP_LEAK_DETECTION = "planet.transport.buffer.leakDetection";
+
+	static final int MIN_BUFFER_SIZE = 256;
+	static final int MAX_BUFFER_SIZE = 256 << 10;		// 협상 가능한 최대 블럭 크기
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+	private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE)
+											- MIN_SHIFT + 1;
+	static final int THREAD_CACHE_MAX_SIZE = 8 << 10;		// 쓰레드 캐쉬에 보관하는 최대 버퍼 크기
+	private static final int THREAD_CACHE_SIZE = 16;		// size class별 쓰레드 캐쉬 크기
+	private static final int THREAD_CACHE_CLASS_COUNT = Integer.numberOfTrailingZeros(THREAD_CACHE_MAX_SIZE)
+														- MIN_SHIFT + 1;
+	private static final int SHARED_POOL_SIZE = 256;		// size class별 공유 pool의 최대 크기
+
+	@SuppressWarnings("unchecked")
+	private static final ConcurrentLinkedQueue<ByteBuffer>[] s_shared
+						= (ConcurrentLinkedQueue<ByteBuffer>[])new ConcurrentLinkedQueue<?>[CLASS_COUNT];
+	private static final AtomicInteger[] s_sharedCounts = new AtomicInteger[CLASS_COUNT];
+	private static final ThreadLocal<ArrayDeque<ByteBuffer>[]> s_caches
+										= new ThreadLocal<ArrayDeque<ByteBuffer>[]>() {
+		@SuppressWarnings("unchecked")
+		@Override
+		protected ArrayDeque<ByteBuffer>[] initialValue() {
+			ArrayDeque<ByteBuffer>[] caches
+							= (ArrayDeque<ByteBuffer>[])new ArrayDeque<?>[THREAD_CACHE_CLASS_COUNT];
+			for ( int i =0; i < THREAD_CACHE_CLASS_COUNT; ++i ) {
+				caches[i] = new ArrayDeque<ByteBuffer>(THREAD_CACHE_SIZE);
+			}
+
+			return caches;
+		}
+	};
+
+	private static volatile boolean s_leakDetection = Boolean.getBoolean(PROP_LEAK_DETECTION);
+	private static final Map<ByteBuffer,Throwable> s_outstandings	// guarded by 's_outstandings'
+										= new IdentityHashMap<ByteBuffer,Throwable>();
+
+	static {
+		for ( int i =0; i < CLASS_COUNT; ++i ) {
+			s_shared[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			s_sharedCounts[i] = new AtomicInteger(0);
+		}
+	}
+
+	private BufferPool() {
+		throw new AssertionError("Should not be called: class=" + BufferPool.class.getName());
+	}
+
+	/**
+	 * 주어진 크기 이상의 direct 버퍼를 할당한다.
+	 * <p>
+	 * 반환된 버퍼의 position은 0, limit는 <code>size</code>로 설정된다.
+	 * 할당된 버퍼는 사용 후 반드시 {@link #release(ByteBuffer)}를 통해 반환되어야 하고,
+	 * 반환된 이후에는 사용되어서는 안된다.
+	 *
+	 * @param size	필요한 버퍼 크기.
+	 * @return	할당된 버퍼.
+	 */
+	static ByteBuffer acquire(int size) {
+		if ( size < 0 ) {
+			throw new IllegalArgumentException("invalid buffer size: " + size);
+		}
+
+		ByteBuffer buf = null;
+
+		int idx = sizeClassOf(size);
+		if ( idx >= 0 ) {
+			if ( idx < THREAD_CACHE_CLASS_COUNT ) {
+				buf = s_caches.get()[idx].pollFirst();
+			}
+			if ( buf == null ) {
+				buf = s_shared[idx].poll();
+				if ( buf != null ) {
+					s_sharedCounts[idx].decrementAndGet();
+				}
+				else {
+					buf = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << idx);
+				}
+			}
+		}
+		else {
+			buf = ByteBuffer.allocateDirect(size);
+		}
+
+		buf.clear().limit(size);
+
+		if ( s_leakDetection ) {
+			synchronized ( s_outstandings ) {
+				s_outstandings.put(buf, new Throwable("acquired: size=" + size + ", thread="
+														+ Thread.currentThread().getName()));
+			}
+		}
+
+		return buf;
+	}
+
+	/**
+	 * 주어진 크기로 {@link #acquire(int)}를 호출한 경우 할당되는 버퍼의 실제 용량을 반환한다.
+	 */
+	static int capacityOf(int size) {
+		int idx = sizeClassOf(size);
+		return ( idx >= 0 ) ? MIN_BUFFER_SIZE << idx : size;
+	}
+
+	/**
+	 * {@link #acquire(int)}로 할당된 버퍼를 반환한다.
+	 * <p>
+	 * 버퍼는 반드시 {@link #acquire(int)}가 반환한 객체이어야 하며, duplicate나 slice된 객체를
+	 * 반환해서는 안된다. <code>null</code>인 경우는 무시된다.
+	 *
+	 * @param buf	반환할 버퍼.
+	 */
+	static void release(ByteBuffer buf) {
+		release(buf, false);
+	}
+
+	/**
+	 * {@link #acquire(int)}로 할당된 버퍼를 쓰레드 캐쉬를 거치지 않고 공유 pool로 반환한다.
+	 * <p>
+	 * 반환된 버퍼는 다른 쓰레드가 바로 재사용할 수 있다.
+	 *
+	 * @param buf	반환할 버퍼.
+	 */
+	static void releaseShared(ByteBuffer buf) {
+		release(buf, true);
+	}
+
+	private static void release(ByteBuffer buf, boolean shared) {
+		if ( buf == null || !untrack(buf) ) {
+			return;
+		}
+
+		int capacity = buf.capacity();
+		int idx = sizeClassOf(capacity);
+		if ( idx < 0 || !buf.isDirect() || (MIN_BUFFER_SIZE << idx) != capacity ) {
+			// pool에서 관리하지 않는 버퍼는 GC에 맡긴다.
+			return;
+		}
+
+		if ( !shared && idx < THREAD_CACHE_CLASS_COUNT ) {
+			ArrayDeque<ByteBuffer> cache = s_caches.get()[idx];
+			if ( cache.size() < THREAD_CACHE_SIZE ) {
+				cache.addFirst(buf);
+
+				return;
+			}
+		}
+
+		if ( s_sharedCounts[idx].incrementAndGet() <= SHARED_POOL_SIZE ) {
+			s_shared[idx].add(buf);
+		}
+		else {
+			s_sharedCounts[idx].decrementAndGet();
+		}
+	}
+
+	/**
+	 * 할당된 버퍼를 pool로 반환하지 않고 폐기한다.
+	 * <p>
+	 * 다른 쓰레드가 아직 사용 중일 수 있어 pool로 반환할 수 없는 버퍼에 사용된다.
+	 * 폐기된 버퍼는 leak으로 간주되지 않는다.
+	 *
+	 * @param buf	폐기할 버퍼.
+	 */
+	static void discard(ByteBuffer buf) {
+		if ( buf != null ) {
+			untrack(buf);
+		}
+	}
+
+	static boolean isLeakDetectionEnabled() {
+		return s_leakDetection;
+	}
+
+	/**
+	 * Leak 검출 모드를 설정한다.
+	 * <p>
+	 * 모드가 변경되면 그 동안 기록된 할당 정보는 모두 삭제된다.
+	 *
+	 * @param enabled	leak 검출 여부.
+	 */
+	static void setLeakDetectionEnabled(boolean enabled) {
+		synchronized ( s_outstandings ) {
+			s_leakDetection = enabled;
+			s_outstandings.clear();
+		}
+	}
+
+	/**
+	 * 할당된 후 아직 반환되지 않은 버퍼 정보를 로그로 출력한다.
+	 * <p>
+	 * Leak 검출 모드가 아닌 경우는 항상 0을 반환한다.
+	 *
+	 * @return	반환되지 않은 버퍼의 갯수.
+	 */
+	static int reportLeaks() {
+		List<Throwable> sites;
+		synchronized ( s_outstandings ) {
+			sites = new ArrayList<Throwable>(s_outstandings.values());
+		}
+
+		for ( Throwable site: sites ) {
+			TransportLoggers.IO.warn("leaked buffer", site);
+		}
+
+		return sites.size();
+	}
+
+	private static boolean untrack(ByteBuffer buf) {
+		if ( s_leakDetection ) {
+			synchronized ( s_outstandings ) {
+				if ( s_leakDetection && s_outstandings.remove(buf) == null ) {
+					TransportLoggers.IO.warn("released a buffer not acquired or already released",
+											new Throwable("released: thread="
+														+ Thread.currentThread().getName()));
+
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	// 주어진 크기의 버퍼를 수용할 수 있는 최소 size class를 반환한다.
+	// pool에서 관리하는 크기보다 큰 경우는 -1을 반환한다.
+	private static int sizeClassOf(int size) {
+		if ( size <= MIN_BUFFER_SIZE ) {
+			return 0;
+		}
+
+		int idx = (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+		return ( idx < CLASS_COUNT ) ? idx : -1;
+	}
+}
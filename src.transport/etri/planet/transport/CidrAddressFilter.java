@@ -0,0 +1,138 @@
+package etri.planet.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import planet.transport.AddressFilter;
+
+
+/**
+ * CIDR 표기(예: "10.0.0.0/8", "211.38.47.6", "fe80::/10")의 주소 범위 목록으로 연결 요청을
+ * 걸러내는 {@link AddressFilter}.
+ * <p>
+ * 허용 목록이 주어진 경우는 허용 목록에 포함된 주소만 받아들이고, 거부 목록에 포함된 주소는
+ * 허용 목록과 관계없이 거부한다. 주소 범위는 생성시 주소 바이트와 prefix mask로 미리 변환되어
+ * 있으므로, 판단시에는 문자열 처리나 이름 해석 없이 바이트 비교만 수행한다.
+ * 
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ * 
+ * @author Kang-Woo Lee
+ */
+public final class CidrAddressFilter implements AddressFilter {
+	private final Range[] m_allows;		// 빈 경우는 모든 주소를 허용
+	private final Range[] m_denies;
+	
+	// prefix 길이만큼의 상위 비트가 일치하는 주소 범위
+	private static final class Range {
+		private final byte[] m_addr;
+		private final int m_fullBytes;		// 전체가 비교되는 바이트 수
+		private final int m_lastMask;		// 마지막 일부 바이트의 mask (0: 없음)
+		
+		Range(byte[] addr, int prefix) {
+			m_addr = addr;
+			m_fullBytes = prefix / 8;
+			m_lastMask = (prefix % 8 == 0) ? 0 : (0xFF << (8 - prefix % 8)) & 0xFF;
+		}
+		
+		boolean contains(byte[] addr) {
+			if ( addr.length != m_addr.length ) {
+				return false;
+			}
+			
+			for ( int i =0; i < m_fullBytes; ++i ) {
+				if ( addr[i] != m_addr[i] ) {
+					return false;
+				}
+			}
+			
+			return m_lastMask == 0
+				|| (addr[m_fullBytes] & m_lastMask) == (m_addr[m_fullBytes] & m_lastMask);
+		}
+	}
+	
+	/**
+	 * 허용/거부 주소 범위 목록으로 필터를 생성한다.
+	 * <p>
+	 * 각 목록은 콤마(',')로 구분된 CIDR 표기의 주소 범위들로, prefix 길이가 생략된 경우는
+	 * 해당 주소 하나를 의미한다.
+	 * 
+	 * @param allows	허용 주소 범위 목록. <code>null</code>이거나 빈 경우는 모든 주소를 허용한다.
+	 * @param denies	거부 주소 범위 목록. <code>null</code>이거나 빈 경우는 거부하는 주소가 없다.
+	 * @throws IllegalArgumentException	주소 범위 표기가 잘못된 경우.
+	 */
+	public CidrAddressFilter(String allows, String denies) {
+		m_allows = parse(allows);
+		m_denies = parse(denies);
+	}
+	
+	@Override
+	public boolean accept(InetAddress addr) {
+		byte[] bytes = addr.getAddress();
+		
+		for ( Range range: m_denies ) {
+			if ( range.contains(bytes) ) {
+				return false;
+			}
+		}
+		
+		if ( m_allows.length == 0 ) {
+			return true;
+		}
+		for ( Range range: m_allows ) {
+			if ( range.contains(bytes) ) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static Range[] parse(String spec) {
+		List<Range> ranges = new ArrayList<Range>();
+		if ( spec != null ) {
+			for ( String token: spec.split(",") ) {
+				token = token.trim();
+				if ( token.length() > 0 ) {
+					ranges.add(parseRange(token));
+				}
+			}
+		}
+		
+		return ranges.toArray(new Range[ranges.size()]);
+	}
+	
+	private static Range parseRange(String cidr) {
+		int idx = cidr.indexOf('/');
+		String host = ( idx >= 0 ) ? cidr.substring(0, idx).trim() : cidr;
+		
+		byte[] addr;
+		try {
+			addr = InetAddress.getByName(host).getAddress();
+		}
+		catch ( UnknownHostException e ) {
+			throw new IllegalArgumentException("invalid address: " + cidr);
+		}
+		
+		int prefix = addr.length * 8;
+		if ( idx >= 0 ) {
+			try {
+				prefix = Integer.parseInt(cidr.substring(idx+1).trim());
+			}
+			catch ( NumberFormatException e ) {
+				throw new IllegalArgumentException("invalid prefix length: " + cidr);
+			}
+			if ( prefix < 0 || prefix > addr.length * 8 ) {
+				throw new IllegalArgumentException("invalid prefix length: " + cidr);
+			}
+		}
+		
+		return new Range(addr, prefix);
+	}
+	
+	public String toString() {
+		return getClass().getSimpleName() + "[allows=" + m_allows.length
+				+ ", denies=" + m_denies.length + "]";
+	}
+}
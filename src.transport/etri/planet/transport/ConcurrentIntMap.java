@@ -0,0 +1,230 @@
+package etri.planet.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.GuardedBy;
+
+
+/**
+ * int 키를 사용하는 open-addressing(linear probing) 방식의 concurrent map.
+ * <p>
+ * 채널 식별자나 요청 식별자처럼 메시지마다 조회되는 테이블에 사용되며, 키를 boxing하지 않는다.
+ * 조회({@link #get(int)}, {@link #values()})는 lock 없이 수행되고, 변경은 본 객체로 동기화된다.
+ * 삭제된 항목은 키를 남긴 채 값만 제거하므로, 조회 중인 쓰레드가 보는 probe 순서는 변경되지 않는다.
+ * 삭제된 항목을 포함하여 사용된 slot이 테이블의 절반을 넘으면 살아있는 항목만으로 새 테이블을
+ * 만들어 교체한다. 교체 전의 테이블을 조회 중인 쓰레드는 교체 직전의 내용을 보게 된다.
+ * <p>
+ * 키 0은 빈 slot을 나타내므로 별도의 필드에 저장된다. <code>null</code> 값은 허용되지 않는다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+public final class ConcurrentIntMap<V> {
+	private static final int MIN_CAPACITY = 16;
+	private static final int FREE_KEY = 0;
+
+	private static final class Table<V> {
+		private final AtomicIntegerArray m_keys;
+		private final AtomicReferenceArray<V> m_values;
+		private final int m_mask;
+
+		Table(int capacity) {
+			m_keys = new AtomicIntegerArray(capacity);
+			m_values = new AtomicReferenceArray<V>(capacity);
+			m_mask = capacity - 1;
+		}
+	}
+
+	private volatile Table<V> m_table = new Table<V>(MIN_CAPACITY);
+	private volatile V m_freeKeyValue = null;		// 키 0의 값
+	private volatile int m_size = 0;				// 변경은 'this'를 잡은 상태에서 한다.
+	@GuardedBy("this") private int m_used = 0;		// 키가 기록된 slot 수 (삭제된 항목 포함)
+
+	public V get(int key) {
+		if ( key == FREE_KEY ) {
+			return m_freeKeyValue;
+		}
+
+		Table<V> table = m_table;
+		int idx = indexOf(table, key);
+
+		return ( table.m_keys.get(idx) == key ) ? table.m_values.get(idx) : null;
+	}
+
+	/**
+	 * 주어진 키의 값을 설정한다.
+	 *
+	 * @return	이전 값. 없었던 경우는 <code>null</code>.
+	 */
+	public synchronized V put(int key, V value) {
+		return insert(key, value, false);
+	}
+
+	/**
+	 * 주어진 키의 값이 없는 경우만 값을 설정한다.
+	 *
+	 * @return	이미 설정된 값. 없었던 경우는 <code>null</code>.
+	 */
+	public synchronized V putIfAbsent(int key, V value) {
+		return insert(key, value, true);
+	}
+
+	public synchronized V remove(int key) {
+		if ( key == FREE_KEY ) {
+			V prev = m_freeKeyValue;
+			if ( prev != null ) {
+				m_freeKeyValue = null;
+				--m_size;
+			}
+
+			return prev;
+		}
+
+		Table<V> table = m_table;
+		int idx = indexOf(table, key);
+		if ( table.m_keys.get(idx) != key ) {
+			return null;
+		}
+
+		V prev = table.m_values.get(idx);
+		if ( prev != null ) {
+			table.m_values.set(idx, null);
+			--m_size;
+		}
+
+		return prev;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	/**
+	 * 현재 등록된 값들의 복사본을 반환한다. 반환 도중의 변경은 반영되지 않을 수 있다.
+	 */
+	public List<V> values() {
+		List<V> values = new ArrayList<V>(m_size);
+
+		V freeKeyValue = m_freeKeyValue;
+		if ( freeKeyValue != null ) {
+			values.add(freeKeyValue);
+		}
+
+		Table<V> table = m_table;
+		for ( int i = 0; i <= table.m_mask; ++i ) {
+			V value = table.m_values.get(i);
+			if ( value != null ) {
+				values.add(value);
+			}
+		}
+
+		return values;
+	}
+
+	public synchronized void clear() {
+		m_table = new Table<V>(MIN_CAPACITY);
+		m_freeKeyValue = null;
+		m_size = 0;
+		m_used = 0;
+	}
+
+	@GuardedBy("this")
+	private V insert(int key, V value, boolean onlyIfAbsent) {
+		if ( value == null ) {
+			throw new NullPointerException("value");
+		}
+
+		if ( key == FREE_KEY ) {
+			V prev = m_freeKeyValue;
+			if ( prev == null ) {
+				m_freeKeyValue = value;
+				++m_size;
+			}
+			else if ( !onlyIfAbsent ) {
+				m_freeKeyValue = value;
+			}
+
+			return prev;
+		}
+
+		Table<V> table = m_table;
+		int idx = indexOf(table, key);
+		if ( table.m_keys.get(idx) == key ) {
+			V prev = table.m_values.get(idx);
+			if ( prev == null ) {
+				table.m_values.set(idx, value);
+				++m_size;
+			}
+			else if ( !onlyIfAbsent ) {
+				table.m_values.set(idx, value);
+			}
+
+			return prev;
+		}
+
+		if ( 2 * (m_used + 1) > table.m_mask + 1 ) {
+			table = rehash(m_size + 1);
+			idx = indexOf(table, key);
+		}
+
+		// 조회하는 쓰레드가 키를 본 경우는 값도 볼 수 있도록 값을 먼저 기록한다.
+		table.m_values.set(idx, value);
+		table.m_keys.set(idx, key);
+		++m_used;
+		++m_size;
+
+		return null;
+	}
+
+	// 살아있는 항목만으로 주어진 수의 항목을 담을 수 있는 새 테이블을 만들어 교체한다.
+	@GuardedBy("this")
+	private Table<V> rehash(int expected) {
+		int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(4 * expected - 1) << 1);
+
+		Table<V> old = m_table;
+		Table<V> table = new Table<V>(capacity);
+		int used = 0;
+		for ( int i = 0; i <= old.m_mask; ++i ) {
+			V value = old.m_values.get(i);
+			if ( value != null ) {
+				int key = old.m_keys.get(i);
+				int idx = indexOf(table, key);
+				table.m_values.set(idx, value);
+				table.m_keys.set(idx, key);
+				++used;
+			}
+		}
+
+		m_used = used;
+		m_table = table;
+
+		return table;
+	}
+
+	// 주어진 키가 기록된 slot 또는 처음 만나는 빈 slot의 위치를 반환한다.
+	// 테이블은 절반 이상 채워지지 않으므로 빈 slot이 항상 존재한다.
+	private static <V> int indexOf(Table<V> table, int key) {
+		int h = key * 0x9E3779B9;
+		int idx = (h ^ (h >>> 16)) & table.m_mask;
+		while ( true ) {
+			int k = table.m_keys.get(idx);
+			if ( k == key || k == FREE_KEY ) {
+				return idx;
+			}
+
+			idx = (idx + 1) & table.m_mask;
+		}
+	}
+
+	public String toString() {
+		return "ConcurrentIntMap[size=" + m_size + "]";
+	}
+}
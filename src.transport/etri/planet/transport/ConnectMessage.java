@@ -12,25 +12,45 @@ import planet.transport.Connection;
  */
 class ConnectMessage extends TransportMessage {
 	public String m_key;
+	public int m_maxBlockSize;	// 요청측이 수용 가능한 최대 블럭 크기 (0: 협상하지 않는 상대)
+	public int m_window;		// 요청측의 채널별 초기 수신 윈도우 (0 이하: 블럭 단위 ack 사용)
+	public int m_memberIndex;	// 연결 그룹 내 순번 (0: 대표 연결 또는 그룹에 속하지 않은 연결)
+	public int m_codecId;		// 요청측이 제안하는 압축 codec 식별자 (0: 압축하지 않음)
 	
 	ConnectMessage(TransportHeader header) {
 		super(header);
 	}
 	
-	ConnectMessage(String key) {
+	ConnectMessage(String key, int maxBlockSize, int window, int memberIndex, int codecId) {
 		super(new TransportHeader(TransportHeader.CODE_CONNECT, -1));
 		
 		m_key = key;
+		m_maxBlockSize = maxBlockSize;
+		m_window = window;
+		m_memberIndex = memberIndex;
+		m_codecId = codecId;
+		
+		// 이전 버전과의 호환을 위해 payload가 아닌, 사용되지 않는 헤더 필드에 기록한다.
+		// 그룹 내 순번은 이전 버전이 항상 1을 기록하는 'm_final'에 1을 더해 기록한다.
+		m_header.m_blockNum = maxBlockSize;
+		m_header.m_chId = window;
+		m_header.m_final = (byte)(memberIndex + 1);
+		m_header.setCodecId(codecId);
 	}
 
 	@Override
 	public void handle(final ConnectionImpl conn) throws Exception {
-		conn.accept(m_key);
+		conn.accept(m_key, m_maxBlockSize, m_window, m_memberIndex, m_codecId);
 	}
 
 	@Override
 	public void readPayload(Connection conn, ByteBuffer buf) throws IOException {
 		m_key = readString(buf);
+		m_maxBlockSize = m_header.m_blockNum;
+		m_window = m_header.m_chId;
+		m_memberIndex = Math.max((m_header.m_final & ~(TransportHeader.CODEC_MASK
+													<< TransportHeader.CODEC_SHIFT)) - 1, 0);
+		m_codecId = m_header.getCodecId();
 	}
 
 	@Override
@@ -39,6 +59,7 @@ class ConnectMessage extends TransportMessage {
 	}
 	
 	public String toString() {
-		return "Connect[" + m_header + ", id=" + m_key + "]";
+		return "Connect[" + m_header + ", id=" + m_key + ", block=" + m_maxBlockSize
+				+ ", window=" + m_window + ", member=" + m_memberIndex + ", codec=" + m_codecId + "]";
 	}
 }
@@ -11,29 +11,44 @@ import planet.transport.Connection;
  * @author Kang-Woo Lee (ETRI)
  */
 class ConnectReplyMessage extends TransportMessage {
-	public byte m_code;
+	/** 'm_code'에서 응답측이 공유 메모리 전송을 사용할 수 있음을 나타내는 비트. */
+	static final byte FLAG_SHM = 0x01;
+	
+	public byte m_code;			// 응답측의 부가 기능 비트 (FLAG_SHM)
 	public String m_details;
+	public int m_blockSize;		// 협상된 블럭 크기 (0: 협상하지 않는 상대)
+	public int m_window;		// 응답측의 채널별 초기 수신 윈도우 (0 이하: 블럭 단위 ack 사용)
+	public int m_codecId;		// 사용하기로 한 압축 codec 식별자 (0: 압축하지 않음)
 	
 	ConnectReplyMessage(TransportHeader header) {
 		super(header);
 	}
 	
-	ConnectReplyMessage(String details) {
+	ConnectReplyMessage(String details, int blockSize, int window, int codecId, int flags) {
 		super(new TransportHeader(TransportHeader.CODE_CONNECT_REPLY, -1));
 		
-		m_code = 0;
+		m_code = (byte)flags;
 		m_details = details;
+		m_blockSize = blockSize;
+		m_window = window;
+		m_codecId = codecId;
+		m_header.m_blockNum = blockSize;
+		m_header.m_chId = window;
+		m_header.setCodecId(codecId);
 	}
 
 	@Override
 	public void handle(ConnectionImpl conn) throws Exception {
-		conn.notifyConnectReplied(m_code, m_details);
+		conn.notifyConnectReplied(m_code, m_details, m_blockSize, m_window, m_codecId);
 	}
 
 	@Override
 	public void readPayload(Connection conn, ByteBuffer buf) throws IOException {
 		m_code = buf.get();
 		m_details = readString(buf);
+		m_blockSize = m_header.m_blockNum;
+		m_window = m_header.m_chId;
+		m_codecId = m_header.getCodecId();
 	}
 
 	@Override
@@ -43,6 +58,7 @@ class ConnectReplyMessage extends TransportMessage {
 	}
 	
 	public String toString() {
-		return "ConnectAck[" + m_header + ", code=" + m_code + ", details=" + m_details + "]";
+		return "ConnectAck[" + m_header + ", code=" + m_code + ", details=" + m_details
+				+ ", block=" + m_blockSize + ", window=" + m_window + ", codec=" + m_codecId + "]";
 	}
 }
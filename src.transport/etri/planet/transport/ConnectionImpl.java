@@ -3,24 +3,33 @@ package etri.planet.transport;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
-import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 import javax.annotation.concurrent.GuardedBy;
 
@@ -30,6 +39,7 @@ import planet.SystemException;
 import planet.transport.Connection;
 import planet.transport.InputChannel;
 import planet.transport.OutputChannel;
+import planet.transport.ProtocolException;
 import planet.transport.TransportManager;
 
 import etri.planet.TransportLoggers;
@@ -37,20 +47,35 @@ import etri.planet.thread.TimedThread;
 
 
 /**
- * 내부적으로 세개의 mutex를 사용한다.
- * 동시 두개 이상의 쓰레드가 동시에 동일 소켓을 통해 데이타를 전송하는 것을 막기 위한 mutex (writeLock),
- * {@literal ConnectionImpl} 내부 공유 데이타의 접근의 동기화하기 위한 mutex ({@literal this}),
- * 그리고 내부적으로 write용 버퍼 풀에서 버퍼를 할당 받을 때 사용하는 mutex({@literal writeBufMutex})를
- * 사용한다.
+ * 연결의 상태는 {@literal m_state}에 원자적으로 관리되며, 상태 확인에는 별도의 mutex가 필요없다.
+ * {@literal this} mutex는 상태 변경을 기다리는 쓰레드의 대기/통지와 timeout 등록의 동기화에만
+ * 사용된다. 데이타 송수신시에는 마지막 접근 시각과 수신 여부만 기록하고, heartbeat 및 유휴 시간
+ * 검사는 {@link TimingWheel}에 등록된 timeout이 만료될 때 기록된 값을 보고 판단한다.
  * <br>
- * {@literal writeLock}은 {@link #write(ByteBuffer)} 메소드 호출과 {@link #inspectForIdleness()}
- * 메소드 호출시 사용된다.
- * 만일 {@literal writeLock}과  {@literal this} mutex를 모두 잡아야 하는 경우는 반드시
- * {@literal writeLock}을 먼저 잡은 후 {@literal this} mutex를 잡는 순서를 따른다.
+ * 전송할 데이타는 연결별 송신 큐에 삽입되고, 송신 큐 전송 권한을 가진 한 쓰레드만 소켓에 쓴다.
+ * 송신 큐가 비어있는 경우는 호출 쓰레드가 직접 전송을 시도하고, 소켓 송신 버퍼가 가득 찬 경우는
+ * 전송 권한을 selector 루프에 넘겨 OP_WRITE 이벤트 발생시 나머지를 전송하도록 한다.
+ * 따라서 느린 상대방은 쓰레드를 점유하지 않고, 송신 큐의 바이트만 차지하게 된다.
+ * 송신 큐는 {@literal outLock}으로 동기화되며, {@literal outLock}을 잡은 상태에서는
+ * {@literal this} mutex를 잡지 않는다.
+ * <br>
+ * 연결 그룹({@link TransportManagerImpl#setConnectionGroupSize(int)})이 사용되는 경우,
+ * TransportManager에 등록되는 대표 연결은 그룹의 멤버 연결들을 관리하고, 데이타 채널은 채널 식별자에
+ * 따라 대표 연결과 멤버 연결들에 나누어 배정된다. 제어 메시지와 heartbeat는 대표 연결로만 전송된다.
+ * 멤버 연결이 끊어지면 그룹에서 제외될 뿐 대표 연결은 유지되고, 대표 연결이 끊어지면 그룹 전체가
+ * 끊어진다.
+ * <br>
+ * 같은 호스트의 상대와는 연결 설정 후 공유 메모리 전송
+ * ({@link TransportManagerImpl#setSharedMemoryRingSize(int)})을 협상할 수 있다. 수락측이 CONNECT_REPLY에
+ * 지원 여부를 알리면 요청측은 memory-mapped 파일을 생성하여 그 경로를 알리고(OFFER), 파일을 연 수락측은
+ * TCP로 전환 메시지(SWITCH)를 보낸 후 이후의 데이타를 자신의 송신 ring에 쓴다. 이를 받은 요청측도 같은
+ * 방법으로 전환하므로, 방향별로 전환 메시지 이전의 데이타는 TCP로, 이후의 데이타는 ring으로 순서대로
+ * 전달된다. 전환 후의 TCP 소켓은 잠든 수신측을 깨우는 신호와 연결 단절 감지에만 사용된다.
+ * 파일을 열 수 없는 경우(REJECT)에는 TCP로 계속 통신한다.
  * 
  * @author Kang-Woo Lee
  */
-public class ConnectionImpl implements Connection, Delayed {
+public class ConnectionImpl implements Connection {
 	static final int STATE_NOT_CONNECTED = 0;
 	static final int STATE_CONNECTING = 1;
 	static final int STATE_CONNECTED = 2;
@@ -62,57 +87,101 @@ public class ConnectionImpl implements Connection, Delayed {
 	private volatile String m_toString;
 
 	@GuardedBy("this") SocketChannel m_sockChannel;
-	@GuardedBy("this") int m_state;
+	private final AtomicInteger m_state = new AtomicInteger(STATE_NOT_CONNECTED);
+	private final CompletableFuture<Connection> m_connectFuture	// 연결 설정 완료 여부
+												= new CompletableFuture<Connection>();
+	@GuardedBy("this") private TimingWheel.Timeout m_connectTimeout;
+	private final Runnable m_connectTimeoutTask = new Runnable() {
+		public void run() {
+			onConnectTimeout();
+		}
+	};
 	@GuardedBy("this") private String m_description;
 	@SuppressWarnings("unused")
 	private volatile boolean m_isPrivateIp;
 	
-	private final IoScheduler m_scheduler;
-	@GuardedBy("this") SelectionKey m_selectionKey;
-	volatile int m_ops;
+	private final IoScheduler m_scheduler;		// 본 연결이 배정된 selector 루프
+	volatile SelectionKey m_selectionKey;		// 소속 selector 루프에서만 설정됨
+	final AtomicInteger m_requestedOps = new AtomicInteger(0);	// 반영 대기 중인 interest ops
 	final MessageBuilder m_msgBuilder;
+	private volatile int m_blockSize = TransportManager.MAX_BLOCK_SIZE;	// 협상된 최대 블럭 크기
+	private volatile int m_sendWindow = 0;		// 상대방의 채널별 초기 수신 윈도우 (0: 블럭 단위 ack)
+	private volatile int m_recvWindow = 0;		// 채널별 초기 수신 윈도우 (0: 블럭 단위 ack)
+	private volatile int m_maxRecvWindow;		// 채널별 수신 윈도우의 최대 크기
+	private volatile boolean m_peerNegotiates = false;	// 상대방이 연결 설정 협상을 지원하는지 여부
+	private volatile BlockCodec m_codec = null;			// 협상된 압축 codec (null: 압축하지 않음)
+	private volatile ShmSegment m_shm = null;			// 협상 중이거나 협상된 공유 메모리 파일
+	private volatile ShmRing m_shmOut = null;			// 송신 경로가 전환된 경우의 송신 ring
+	private volatile ShmRing m_shmIn = null;			// 수신 경로가 전환된 경우의 수신 ring
+	private volatile SocketBufferTuner m_tuner = null;	// 소켓 버퍼 크기를 조절하는 경우의 조절기
+	private volatile ConnectionImpl m_primary = null;	// 멤버 연결인 경우 소속 그룹의 대표 연결
+	private volatile int m_memberIndex = 0;				// 그룹 내 순번 (0: 대표 연결)
+	private final CopyOnWriteArrayList<ConnectionImpl> m_members	// 대표 연결인 경우 그룹 멤버 연결들
+													= new CopyOnWriteArrayList<ConnectionImpl>();
 	private final boolean m_active;
 	private volatile boolean m_isDirty = false;
 	private volatile boolean m_hbSent = false;
 
-	private final ReentrantLock m_writerLock = new ReentrantLock();
-	private final Condition m_writerCond = m_writerLock.newCondition();
-	@GuardedBy("m_writerLock") private Thread m_writer;
-	@GuardedBy("m_writerLock") private final List<WriteWaiter> m_writeWaiters
-																= new ArrayList<WriteWaiter>();
+	private final ReentrantLock m_outLock = new ReentrantLock();
+	private final Condition m_outDrained = m_outLock.newCondition();
+	@GuardedBy("m_outLock") private final FrameScheduler m_frames = new FrameScheduler(this);
+	@GuardedBy("m_outLock") private final ArrayDeque<PendingWrite> m_outQueue	// 전송 순서가 확정된 요청
+																= new ArrayDeque<PendingWrite>();
+	@GuardedBy("m_outLock") private long m_queuedBytes = 0;
+	@GuardedBy("m_outLock") private int m_outState = OUT_IDLE;
+	@GuardedBy("m_outLock") private boolean m_outClosed = false;
+	@GuardedBy("m_outLock") private int m_batchBytes = 0;		// 묶음 중인 데이타의 바이트 수
+	@GuardedBy("m_outLock") private int m_batchFrames = 0;		// 묶음 중인 프레임 수
+	@GuardedBy("m_outLock") private long m_batchDeadline;		// 묶음의 전송 시한 (System.nanoTime() 기준)
+	@GuardedBy("m_outLock") private long m_writeCallCount = 0;
+	@GuardedBy("m_outLock") private long m_sentFrameCount = 0;
+	@GuardedBy("m_outLock") private long m_batchedFrameCount = 0;
+	@GuardedBy("m_outLock") private long m_batchCount = 0;
 	
-	@GuardedBy("this") private long m_maxIdleMillis = -1;
-	@GuardedBy("this") private long m_lastAccessMillis;
-	@GuardedBy("this") private long m_nextDueInMillis;
-	
-	private final Object m_writeBufMutex = new Object();
-	@GuardedBy("m_writeBufMutex") private boolean m_writeBufAvailable = false;
+	private volatile long m_maxIdleMillis = -1;
+	private volatile long m_lastAccessMillis;
+	@GuardedBy("this") private TimingWheel.Timeout m_idleTimeout;
+	@GuardedBy("this") private TimingWheel.Timeout m_hbTimeout;
+	private final Runnable m_idleTask = new Runnable() {
+		public void run() {
+			onIdleTimeout();
+		}
+	};
+	private final Runnable m_hbTask = new Runnable() {
+		public void run() {
+			inspectForIdleness();
+			scheduleHeartbeat();
+		}
+	};
+	@GuardedBy("this") private TimingWheel.Timeout m_trimTimeout;
+	private final Runnable m_trimTask = new Runnable() {
+		public void run() {
+			m_scheduler.submitForTrim(ConnectionImpl.this);
+		}
+	};
 	
 	private final AtomicInteger m_channelIdGen = new AtomicInteger(0);
-	private final ConcurrentMap<Integer,MultiBlockOutputChannel> m_outChannels;
-	private final Map<Integer,MultiBlockInputChannel> m_mbiChannels;
+	private final ConcurrentIntMap<MultiBlockOutputChannel> m_outChannels;
+	private final ConcurrentIntMap<MultiBlockInputChannel> m_mbiChannels;
 	private final CopyOnWriteArraySet<DisconnectionHandler> m_disconnListeners;
 	private volatile Object m_attachment;
 	
 	// for accepted connection
-	ConnectionImpl(TransportManagerImpl transport, SocketChannel sockChannel) throws IOException {
+	ConnectionImpl(TransportManagerImpl transport, SocketChannel sockChannel, IoScheduler scheduler)
+		throws IOException {
 		m_transport = transport;
 		
-		m_scheduler = transport.m_scheduler;
+		m_scheduler = scheduler;
 		m_msgBuilder = new MessageBuilder(this);
 		
 		m_sockChannel = sockChannel;
-		m_sockChannel.socket().setTcpNoDelay(true);
-		m_sockChannel.configureBlocking(false);
-		m_sockChannel.socket().setSendBufferSize(TransportManager.MAX_BLOCK_SIZE);
-		m_sockChannel.socket().setReceiveBufferSize(TransportManager.MAX_BLOCK_SIZE);
+		configureSocket(sockChannel, false);
 
-		m_mbiChannels = new HashMap<Integer,MultiBlockInputChannel>();
-		m_outChannels = new ConcurrentHashMap<Integer,MultiBlockOutputChannel>();
+		m_mbiChannels = new ConcurrentIntMap<MultiBlockInputChannel>();
+		m_outChannels = new ConcurrentIntMap<MultiBlockOutputChannel>();
 		m_disconnListeners = new CopyOnWriteArraySet<DisconnectionHandler>();
 		
 		m_active = false;
-		m_state = STATE_NOT_CONNECTED;
 	}
 	
 	// for connecting connection
@@ -120,15 +189,14 @@ public class ConnectionImpl implements Connection, Delayed {
 		m_transport = transport;
 		m_id = targetPlanetId;
 		
-		m_scheduler = transport.m_scheduler;
+		m_scheduler = transport.nextScheduler();
 		m_msgBuilder = new MessageBuilder(this);
 
-		m_mbiChannels = new HashMap<Integer,MultiBlockInputChannel>();
-		m_outChannels = new ConcurrentHashMap<Integer,MultiBlockOutputChannel>();
+		m_mbiChannels = new ConcurrentIntMap<MultiBlockInputChannel>();
+		m_outChannels = new ConcurrentIntMap<MultiBlockOutputChannel>();
 		m_disconnListeners = new CopyOnWriteArraySet<DisconnectionHandler>();
 
 		m_active = true;
-		m_state = STATE_NOT_CONNECTED;
 	}
 	
 	public final TransportManager getTransportManager() {
@@ -139,131 +207,705 @@ public class ConnectionImpl implements Connection, Delayed {
 		return m_id;
 	}
 	
-	void accept(String id) throws IOException {
-		synchronized ( this ) {
-			if ( m_state != STATE_NOT_CONNECTED ) {
-				throw new IllegalStateException("should be 'not-open' state");
-			}
-
-			m_id = id;
-			m_toString = m_id + ", local=" + m_sockChannel.socket().getLocalPort();
-			
-			m_state = STATE_CONNECTING;
-			this.notifyAll();
+	void accept(String id, int peerMaxBlockSize, int peerWindow, int memberIndex, int codecId)
+		throws IOException {
+		m_id = id;
+		m_memberIndex = memberIndex;
+		m_peerNegotiates = peerMaxBlockSize > 0;
+		setBlockSize(negotiateBlockSize(peerMaxBlockSize));
+		setChannelWindows(peerWindow);
+		m_codec = negotiateCodec(codecId);
+		m_toString = toStringId() + ", local=" + getLocalEndpoint();
+		if ( !transitState(STATE_NOT_CONNECTED, STATE_CONNECTING) ) {
+			throw new IllegalStateException("should be 'not-open' state");
 		}
 		
 		m_transport.onConnectionAcceptedBegin(this);
 		
 		ByteBuffer buffer = ByteBuffer.allocate(TransportManager.MAX_BLOCK_SIZE);
-		ConnectReplyMessage msg = new ConnectReplyMessage(m_id);
+		int flags = ( isSharedMemoryAvailable() ) ? ConnectReplyMessage.FLAG_SHM : 0;
+		ConnectReplyMessage msg = new ConnectReplyMessage(m_id, m_blockSize,
+															m_transport.getInitialChannelWindow(),
+															(m_codec != null) ? m_codec.getId() : 0,
+															flags);
 		msg.encode(buffer);
 		buffer.flip();
 		
-		try {
-			writeInLock(buffer);
-		}
-		catch ( InterruptedException ignored ) { }
+		enqueue(buffer, FrameScheduler.LATENCY_CLASS, false, null);
 	
 		if ( TransportLoggers.MSG.isInfoEnabled() ) {
 			TransportLoggers.MSG.info("sent: msg=" + msg);
 		}
 		
+		transitState(STATE_CONNECTING, STATE_CONNECTED);
 		synchronized ( this ) {
-			m_state = STATE_CONNECTED;
-			this.notifyAll();
+			cancelTimeout(m_connectTimeout);
 		}
+		startBufferTuning();
+		m_connectFuture.complete(this);
 		
 		if ( TransportLoggers.CONN.isDebugEnabled() ) {
 			TransportLoggers.CONN.debug("accepted: " + this);
 		}
 	}
 	
-	void open(String host, int port) throws IOException, InterruptedException {
-		synchronized ( this ) {
-			if ( m_state != STATE_NOT_CONNECTED ) {
-				throw new IllegalStateException("should be 'not-open' state");
-			}
-			
-			m_state = STATE_CONNECTING;
-			this.notifyAll();
+	/**
+	 * 주어진 주소로의 연결 설정을 비동기적으로 시작한다.
+	 * <p>
+	 * 연결 설정은 소속 selector 루프의 이벤트에 따라 다음 단계로 진행되며, 호출 쓰레드는
+	 * 연결 요청만 하고 바로 반환된다.
+	 * <ol>
+	 * 	<li> non-blocking 소켓 연결을 요청하고 OP_CONNECT 이벤트를 기다린다.
+	 * 	<li> TCP 연결이 완료되면 CONNECT 메시지를 전송하고 CONNECT_REPLY 메시지를 기다린다.
+	 * 	<li> CONNECT_REPLY 메시지가 수신되면 협상 결과를 적용하고 연결 설정을 마친다.
+	 * </ol>
+	 * 연결 대기 시간이 설정된 경우는 TCP 연결과 CONNECT/CONNECT_REPLY 교환이 모두 그 시간 안에
+	 * 끝나야 하며, 그렇지 않은 경우 연결은 {@link SocketTimeoutException}으로 실패한다.
+	 * 'primary'가 주어진 경우는 해당 연결 그룹의 'memberIndex'번째 멤버 연결로 연결한다.
+	 * 주소가 Unix domain socket 주소인 경우는 TCP 대신 AF_UNIX 소켓으로 연결한다.
+	 * 
+	 * @return	연결 설정 완료 여부를 알리는 future.
+	 * @throws IOException	소켓 연결 요청 중 오류가 발생된 경우.
+	 */
+	CompletableFuture<Connection> openAsync(SocketAddress addr, ConnectionImpl primary,
+											int memberIndex) throws IOException {
+		m_primary = primary;
+		m_memberIndex = memberIndex;
+		if ( !transitState(STATE_NOT_CONNECTED, STATE_CONNECTING) ) {
+			throw new IllegalStateException("should be 'not-open' state");
 		}
 		
-		InetSocketAddress addr = new InetSocketAddress(host, port);
-		m_sockChannel = SocketChannel.open();
-		
-		long connectTimeout = m_transport.getConnectTimeout();
 		if ( TransportLoggers.CONN.isDebugEnabled() ) {
 			TransportLoggers.CONN.debug("connecting: " + addr);
 		}
 		
-		Socket socket = m_sockChannel.socket();
-		socket.setReuseAddress(true);
-
-		if ( connectTimeout > 0 ) {
-			socket.connect(addr, (int)connectTimeout);
+		m_sockChannel = ( UnixSockets.isUnixAddress(addr) ) ? UnixSockets.openSocketChannel()
+															: SocketChannel.open();
+		configureSocket(m_sockChannel, true);
+		
+		scheduleConnectTimeout();
+		
+		if ( m_sockChannel.connect(addr) ) {
+			sendConnect();
 		}
 		else {
-			socket.connect(addr);
+			m_scheduler.submitForConnect(this);
 		}
-		socket.setTcpNoDelay(true);
-		m_sockChannel.configureBlocking(false);
-		m_sockChannel.socket().setSendBufferSize(TransportManager.MAX_BLOCK_SIZE);
-		m_sockChannel.socket().setReceiveBufferSize(TransportManager.MAX_BLOCK_SIZE);
 		
-		m_scheduler.submitForRead(this);
+		return m_connectFuture;
+	}
+	
+	// 소속 selector 루프에서 OP_CONNECT 이벤트가 발생된 경우 호출된다.
+	void notifyConnectable() {
+		try {
+			if ( m_sockChannel.finishConnect() ) {
+				sendConnect();
+			}
+			else {
+				m_scheduler.submitForConnect(this);
+			}
+		}
+		catch ( IOException e ) {
+			abortConnect(e);
+		}
+	}
+	
+	// TCP 연결이 완료된 경우, CONNECT 메시지를 전송하고 상대방의 응답을 기다린다.
+	private void sendConnect() throws IOException {
+		m_toString = toStringId() + ", local=" + getLocalEndpoint();
+		
+		submitForRead();
 
-		ConnectMessage msg = new ConnectMessage(m_transport.getId());
+		BlockCodec codec = m_transport.getCompressionCodec();
+		ConnectMessage msg = new ConnectMessage(m_transport.getId(), m_transport.getMaxBlockSize(),
+												m_transport.getInitialChannelWindow(), m_memberIndex,
+												(codec != null) ? codec.getId() : 0);
 		ByteBuffer buf = ByteBuffer.allocate(TransportManager.MAX_BLOCK_SIZE);
 		msg.encode(buf);
 		buf.flip();
-		writeInLock(buf);
+		enqueue(buf, FrameScheduler.LATENCY_CLASS, false, null);
+	}
+	
+	// TCP 소켓과 Unix domain socket에 모두 적용할 수 있도록 소켓 옵션은 채널을 통해 설정하고,
+	// 지원되지 않는 옵션(TCP_NODELAY, SO_REUSEADDR)은 생략한다.
+	private void configureSocket(SocketChannel sockChannel, boolean connecting) throws IOException {
+		sockChannel.configureBlocking(false);
 		
-		m_toString = m_id + ", local=" + m_sockChannel.socket().getLocalPort();
+		Set<SocketOption<?>> options = sockChannel.supportedOptions();
+		if ( connecting && options.contains(StandardSocketOptions.SO_REUSEADDR) ) {
+			sockChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		}
+		if ( options.contains(StandardSocketOptions.TCP_NODELAY) ) {
+			sockChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		}
 		
-		// 상대방에서 connect 메시지 응답이 올 때가지 대기한다.
-		synchronized ( this ) {
-			while ( m_state == STATE_CONNECTING ) {
-				this.wait();
+		switch ( m_transport.getSocketBufferTuning() ) {
+			case TransportManagerImpl.SOCKET_BUFFER_FIXED:
+				setSocketBufferSizes(sockChannel, TransportManager.MAX_BLOCK_SIZE);
+				break;
+			case TransportManagerImpl.SOCKET_BUFFER_ADAPTIVE:
+				// 수신 윈도우의 window scale은 연결 요청 시점의 수신 버퍼 크기로 결정되어 이후 버퍼를
+				// 키워도 윈도우는 그 이상 커지지 않으므로, 요청 전에 수신 버퍼를 상한 크기로 설정해 둔다.
+				// 수락된 소켓은 커널 기본값으로 협상된 window scale을 사용한다.
+				if ( connecting ) {
+					sockChannel.setOption(StandardSocketOptions.SO_RCVBUF,
+											m_transport.getMaxSocketBufferSize());
+				}
+				break;
+		}
+	}
+	
+	private static void setSocketBufferSizes(SocketChannel sockChannel, int size) throws IOException {
+		sockChannel.setOption(StandardSocketOptions.SO_SNDBUF, size);
+		sockChannel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+	}
+	
+	// 소켓 버퍼 크기를 조절하는 경우, 연결 설정이 완료된 후 조절을 시작한다.
+	// Unix domain socket은 RTT가 무시할 만큼 작으므로 커널 기본 크기를 그대로 사용한다.
+	private void startBufferTuning() {
+		if ( m_transport.getSocketBufferTuning() != TransportManagerImpl.SOCKET_BUFFER_ADAPTIVE
+			|| !(getRemoteAddress() instanceof InetSocketAddress) ) {
+			return;
+		}
+		
+		SocketBufferTuner tuner = new SocketBufferTuner(this, m_sockChannel);
+		try {
+			tuner.start();
+			m_tuner = tuner;
+		}
+		catch ( IOException e ) {
+			tuner.stop();
+			
+			if ( TransportLoggers.CONN.isInfoEnabled() ) {
+				TransportLoggers.CONN.info("fails to start socket buffer tuning: conn=" + this
+											+ ", cause=" + e);
 			}
 		}
 	}
 	
-	synchronized int waitWhileConnecting() throws InterruptedException {
-		while ( m_state == STATE_CONNECTING || m_state == STATE_NOT_CONNECTED ) {
-			this.wait();
+	// 로그에 사용할 로컬 소켓 정보. TCP 소켓은 로컬 포트를, Unix domain socket은 'unix'를 반환한다.
+	private String getLocalEndpoint() {
+		try {
+			SocketAddress local = m_sockChannel.getLocalAddress();
+			return ( local instanceof InetSocketAddress ) ? "" + ((InetSocketAddress)local).getPort()
+														: "unix";
+		}
+		catch ( IOException e ) {
+			return "?";
+		}
+	}
+	
+	// 연결된 상대방의 소켓 주소를 반환한다. 연결되지 않은 경우는 null을 반환한다.
+	SocketAddress getRemoteAddress() {
+		SocketChannel sockChannel = m_sockChannel;
+		if ( sockChannel == null ) {
+			return null;
 		}
 		
-		return m_state;
+		try {
+			return sockChannel.getRemoteAddress();
+		}
+		catch ( IOException e ) {
+			return null;
+		}
 	}
 	
-	synchronized void notifyConnectReplied(int code, String details) {
+	/**
+	 * 연결 설정 완료 여부를 알리는 future를 반환한다.
+	 * <p>
+	 * Future는 CONNECT/CONNECT_REPLY 교환이 끝나면 본 연결로 완료되고, 그 전에 연결이 실패하거나
+	 * 닫힌 경우는 해당 예외로 완료된다. 같은 상대로의 연결을 동시에 요청한 쓰레드들은
+	 * 이 future를 공유한다.
+	 */
+	CompletableFuture<Connection> getConnectFuture() {
+		return m_connectFuture;
+	}
+	
+	// 연결 설정이 실패한 경우 호출되어, 연결 설정을 기다리는 쓰레드들에게 실패를 알리고 연결을 닫는다.
+	void abortConnect(Throwable cause) {
+		if ( m_connectFuture.completeExceptionally(cause) ) {
+			if ( TransportLoggers.CONN.isInfoEnabled() ) {
+				TransportLoggers.CONN.info("fails to connect: " + this
+											+ ", cause=" + PlanetUtils.unwrapThrowable(cause));
+			}
+		}
+		
+		close();
+	}
+	
+	// 연결 대기 시간 안에 연결 설정이 끝나지 않으면 연결을 닫도록 한다. 받아들인 연결의 경우는
+	// 상대방이 이 시간 안에 CONNECT 메시지를 보내야 한다.
+	void scheduleConnectTimeout() {
+		long connectTimeout = m_transport.getConnectTimeout();
+		TimingWheel timer = m_transport.m_timer;
+		if ( connectTimeout > 0 && timer != null ) {
+			synchronized ( this ) {
+				m_connectTimeout = timer.schedule(m_connectTimeoutTask, connectTimeout);
+			}
+		}
+	}
+	
+	// 연결 대기 시간이 지나도록 연결 설정이 끝나지 않은 경우 호출된다.
+	private void onConnectTimeout() {
+		if ( m_state.get() < STATE_CONNECTED ) {
+			abortConnect(new SocketTimeoutException("connect timeout: " + this));
+		}
+	}
+	
+	void notifyConnectReplied(int code, String details, int blockSize, int peerWindow, int codecId) {
 		int idx1 = m_id.indexOf(':');
 		int idx2 = details.indexOf(':');
 		m_isPrivateIp = !m_id.substring(0, idx1).equals(details.substring(0, idx2));
+		m_peerNegotiates = blockSize > 0;
+		try {
+			setBlockSize(negotiateBlockSize(blockSize));
+			setChannelWindows(peerWindow);
+		}
+		catch ( IOException e ) {
+			close();
+			
+			return;
+		}
+		m_codec = negotiateCodec(codecId);
 		
-		m_state = STATE_CONNECTED;
-		this.notifyAll();
-	}
-
-	private static final MultiBlockInputChannel[] PROTO = new MultiBlockInputChannel[0];
-	public void close() {
+		if ( !transitState(STATE_CONNECTING, STATE_CONNECTED) ) {
+			return;
+		}
 		synchronized ( this ) {
-			while ( m_state == STATE_DISCONNECTING ) {
-				try {
-					this.wait();
+			cancelTimeout(m_connectTimeout);
+		}
+		startBufferTuning();
+		
+		m_transport.onConnectionOpened(this);
+		m_connectFuture.complete(this);
+		
+		// 파일 생성과 mapping은 selector 루프가 아닌 쓰레드에서 수행한다.
+		if ( (code & ConnectReplyMessage.FLAG_SHM) != 0 && isSharedMemoryAvailable() ) {
+			m_transport.m_executor.execute(new Runnable() {
+				public void run() {
+					offerSharedMemory();
 				}
-				catch ( InterruptedException e ) {
-					return;
+			});
+		}
+	}
+	
+	// 공유 메모리 전송이 설정되어 있고, 상대방이 같은 호스트에 있는지 여부를 반환한다.
+	private boolean isSharedMemoryAvailable() {
+		if ( m_transport.getSharedMemoryRingSize() <= 0 || !ShmRing.isSupported() ) {
+			return false;
+		}
+		
+		// Unix domain socket으로 연결된 상대는 항상 같은 호스트에 있다.
+		SocketAddress remote = getRemoteAddress();
+		if ( UnixSockets.isUnixAddress(remote) ) {
+			return true;
+		}
+		
+		InetAddress addr = ( remote instanceof InetSocketAddress )
+							? ((InetSocketAddress)remote).getAddress() : null;
+		if ( addr == null ) {
+			return false;
+		}
+		else if ( addr.isLoopbackAddress() || addr.isAnyLocalAddress() ) {
+			return true;
+		}
+		
+		try {
+			return NetworkInterface.getByInetAddress(addr) != null;
+		}
+		catch ( SocketException e ) {
+			return false;
+		}
+	}
+	
+	// 요청측: 공유 메모리 파일을 생성하여 상대방에게 알린다. 실패한 경우는 TCP로 계속 통신한다.
+	private void offerSharedMemory() {
+		ShmSegment shm = null;
+		try {
+			shm = ShmSegment.create(m_transport.getSharedMemoryDirectory(),
+									m_transport.getSharedMemoryRingSize());
+			m_shm = shm;
+			
+			// 생성 도중 연결이 닫힌 경우는 close()가 파일을 보지 못했을 수 있다.
+			if ( isClosed() ) {
+				shm.unlink();
+				
+				return;
+			}
+			
+			sendSharedMemoryControl(ShmControlMessage.newOfferMessage(shm), null);
+		}
+		catch ( IOException e ) {
+			m_shm = null;
+			if ( shm != null ) {
+				shm.unlink();
+			}
+			
+			if ( TransportLoggers.CONN.isInfoEnabled() ) {
+				TransportLoggers.CONN.info("fails to offer shared-memory: conn=" + this
+											+ ", cause=" + PlanetUtils.unwrapThrowable(e));
+			}
+		}
+	}
+	
+	// 수락측: 상대방이 생성한 공유 메모리 파일을 열고 송신 경로를 전환한다.
+	void onSharedMemoryOffered(String path, long nonce, int capacity) throws IOException {
+		if ( isClosed() ) {
+			return;
+		}
+		
+		ShmSegment shm = null;
+		if ( isSharedMemoryAvailable() ) {
+			try {
+				shm = ShmSegment.open(path, nonce, capacity);
+			}
+			catch ( IOException e ) {
+				if ( TransportLoggers.CONN.isInfoEnabled() ) {
+					TransportLoggers.CONN.info("fails to open shared-memory: conn=" + this
+												+ ", cause=" + PlanetUtils.unwrapThrowable(e));
 				}
 			}
+		}
+		
+		if ( shm != null ) {
+			m_shm = shm;
+			sendSharedMemoryControl(new ShmControlMessage(ShmControlMessage.SWITCH), shm.getOutRing());
+		}
+		else {
+			sendSharedMemoryControl(new ShmControlMessage(ShmControlMessage.REJECT), null);
+		}
+	}
+	
+	// 상대방의 송신 경로가 전환된 경우 수신 쓰레드에서 바로 호출된다. 이후의 데이타는 수신 ring으로 도착한다.
+	void onSharedMemorySwitched() throws IOException {
+		ShmSegment shm = m_shm;
+		if ( shm == null || m_shmIn != null ) {
+			throw new ProtocolException("unexpected shared-memory switch: conn=" + this);
+		}
+		
+		m_shmIn = shm.getInRing();
+		if ( m_active ) {
+			// 양측 모두 파일을 mapping하였으므로 파일은 더이상 필요없다.
+			shm.unlink();
+			sendSharedMemoryControl(new ShmControlMessage(ShmControlMessage.SWITCH), shm.getOutRing());
+		}
+		
+		if ( TransportLoggers.CONN.isInfoEnabled() ) {
+			TransportLoggers.CONN.info("switched to shared-memory: conn=" + this + ", " + shm);
+		}
+	}
+	
+	// 요청측: 수락측이 공유 메모리 파일을 사용할 수 없는 경우 호출된다.
+	void onSharedMemoryRejected() {
+		ShmSegment shm = m_shm;
+		m_shm = null;
+		if ( shm != null ) {
+			shm.unlink();
+		}
+		
+		if ( TransportLoggers.CONN.isInfoEnabled() ) {
+			TransportLoggers.CONN.info("shared-memory rejected: conn=" + this);
+		}
+	}
+	
+	// 'switchTo'가 주어진 경우는 메시지가 전송된 후 송신 경로를 해당 ring으로 전환한다.
+	private void sendSharedMemoryControl(ShmControlMessage msg, ShmRing switchTo) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(TransportManager.MAX_BLOCK_SIZE);
+		msg.encode(buf);
+		buf.flip();
+		
+		PendingWrite pending = new PendingWrite(buf, FrameScheduler.LATENCY_CLASS, null);
+		pending.m_switchTo = switchTo;
+		enqueue(pending, true);
+		
+		if ( TransportLoggers.MSG.isInfoEnabled() ) {
+			TransportLoggers.MSG.info("sent: msg=" + msg + ", conn=" + this);
+		}
+	}
+	
+	// 수신 경로가 공유 메모리로 전환된 경우의 수신 ring을 반환한다. 전환되지 않은 경우는 null을 반환한다.
+	ShmRing getSharedMemoryInRing() {
+		return m_shmIn;
+	}
+	
+	// 송신 경로가 공유 메모리로 전환된 경우의 송신 ring을 반환한다. 전환되지 않은 경우는 null을 반환한다.
+	ShmRing getSharedMemoryOutRing() {
+		return m_shmOut;
+	}
+	
+	/**
+	 * 본 연결의 데이타 블럭 압축에 사용되는 codec을 반환한다.
+	 * <p>
+	 * 연결 설정시 양측이 같은 식별자의 codec을 설정한 경우에만 codec이 사용되며,
+	 * 그렇지 않은 경우는 <code>null</code>을 반환한다.
+	 */
+	BlockCodec getCodec() {
+		return m_codec;
+	}
+	
+	// 상대방이 제안하거나 수락한 codec 식별자가 자신의 codec과 같은 경우만 압축을 사용한다.
+	private BlockCodec negotiateCodec(int codecId) {
+		BlockCodec codec = m_transport.getCompressionCodec();
+		return ( codec != null && codecId == codec.getId() ) ? codec : null;
+	}
+	
+	/**
+	 * 압축된 데이타 블럭의 slice를 해제하여 원래 데이타의 slice로 반환한다.
+	 * <p>
+	 * 압축된 payload는 원래 데이타 길이(4 바이트)와 codec이 압축한 데이타로 구성된다.
+	 * 주어진 slice는 성공 여부와 관계없이 해제된다.
+	 * 
+	 * @param slice	압축된 데이타 블럭의 slice.
+	 * @return	해제된 데이타의 slice.
+	 * @throws IOException	압축된 데이타가 손상되었거나 codec이 협상되지 않은 경우.
+	 */
+	SharedBuffer.Slice decompress(SharedBuffer.Slice slice) throws IOException {
+		try {
+			BlockCodec codec = m_codec;
+			if ( codec == null ) {
+				throw new IOException("compressed block without negotiated codec: " + this);
+			}
 			
-			if ( m_state == STATE_DISCONNECTED ) {
-				return;
+			ByteBuffer src = slice.m_data.duplicate();
+			int length = src.getInt();
+			if ( length < 0 || length > BufferPool.MAX_BUFFER_SIZE ) {
+				throw new IOException("invalid uncompressed block length: " + length);
+			}
+			
+			SharedBuffer buffer = new SharedBuffer(length, m_transport.m_memoryBudget);
+			try {
+				ByteBuffer dst = buffer.buffer();
+				codec.decompress(src, dst);
+				dst.flip();
+				
+				return buffer.slice(dst, length);
+			}
+			finally {
+				// slice가 버퍼의 유일한 참조가 되도록 한다.
+				buffer.release();
+			}
+		}
+		finally {
+			slice.release();
+		}
+	}
+	
+	/**
+	 * 본 연결에서 사용하는 최대 데이타 블럭 크기(헤더 포함)를 반환한다.
+	 * <p>
+	 * 블럭 크기는 연결 설정시 양측이 제시한 최대 블럭 크기 중 작은 값으로 결정되고,
+	 * 블럭 크기를 협상하지 않는 상대와는 {@link TransportManager#MAX_BLOCK_SIZE}를 사용한다.
+	 */
+	public int getBlockSize() {
+		return m_blockSize;
+	}
+	
+	private int negotiateBlockSize(int peerMaxBlockSize) {
+		if ( peerMaxBlockSize <= 0 ) {
+			return TransportManager.MAX_BLOCK_SIZE;
+		}
+		
+		int size = Math.min(m_transport.getMaxBlockSize(), peerMaxBlockSize);
+		return Math.max(size, TransportManager.MAX_BLOCK_SIZE);
+	}
+	
+	// 협상된 블럭 크기를 적용한다. 소켓 버퍼가 한 블럭보다 작으면 블럭 하나를 보낼 때마다
+	// zero-window 상태에 빠지므로, 버퍼를 고정하는 경우는 소켓 버퍼도 블럭 크기 이상으로 키운다.
+	// 버퍼 크기를 조절하는 경우는 조절기가 블럭 크기를 하한으로 사용한다.
+	private void setBlockSize(int size) throws IOException {
+		if ( size > TransportManager.MAX_BLOCK_SIZE
+			&& m_transport.getSocketBufferTuning() == TransportManagerImpl.SOCKET_BUFFER_FIXED ) {
+			setSocketBufferSizes(m_sockChannel, size);
+		}
+		
+		m_blockSize = size;
+	}
+	
+	// 양측 모두 수신 윈도우를 제시한 경우에만 윈도우 방식의 흐름 제어를 사용한다.
+	// 송신측이 윈도우를 모두 소진한 상태에서도 수신측이 윈도우의 절반 이상을 소비하여 추가
+	// 윈도우를 허용할 수 있도록, 윈도우는 최소 두 블럭 이상이 되게 한다.
+	// 양측 모두 같은 규칙으로 계산하므로 별도의 확인 절차는 필요 없다.
+	private void setChannelWindows(int peerWindow) {
+		int window = m_transport.getInitialChannelWindow();
+		if ( peerWindow > 0 && window > 0 ) {
+			int minWindow = 2 * m_blockSize;
+			m_sendWindow = Math.max(peerWindow, minWindow);
+			m_recvWindow = Math.max(window, minWindow);
+		}
+		m_maxRecvWindow = Math.max(m_transport.getMaxChannelWindow(), m_recvWindow);
+	}
+	
+	// 상대방이 허용한 채널별 초기 송신 윈도우를 반환한다. 0인 경우는 블럭 단위 ack를 사용한다.
+	int getSendWindow() {
+		return m_sendWindow;
+	}
+	
+	// 채널별 초기 수신 윈도우를 반환한다. 0인 경우는 블럭 단위 ack를 사용한다.
+	int getReceiveWindow() {
+		return m_recvWindow;
+	}
+	
+	public int getMaxChannelWindow() {
+		return m_maxRecvWindow;
+	}
+	
+	/**
+	 * 본 연결의 데이타 채널별 수신 윈도우가 자동으로 커질 수 있는 최대 크기(바이트)를 설정한다.
+	 * <p>
+	 * 최대 크기는 연결 설정시 결정된 초기 윈도우보다 작게 설정될 수 없다.
+	 * 변경된 값은 이후 윈도우를 키울 때부터 적용된다.
+	 * 
+	 * @param bytes	최대 수신 윈도우 크기.
+	 */
+	public void setMaxChannelWindow(int bytes) {
+		m_maxRecvWindow = Math.max(bytes, m_recvWindow);
+	}
+	
+	// 상대방이 블럭 크기 등 연결 설정 협상을 지원하는지 여부를 반환한다.
+	// 연결 그룹은 협상을 지원하는 상대와만 구성한다.
+	boolean isPeerNegotiating() {
+		return m_peerNegotiates;
+	}
+	
+	// 멤버 연결인 경우 소속 그룹의 대표 연결을 반환한다. 그렇지 않은 경우는 null을 반환한다.
+	ConnectionImpl getPrimary() {
+		return m_primary;
+	}
+	
+	int getMemberIndex() {
+		return m_memberIndex;
+	}
+	
+	// 대표 연결에 멤버 연결을 추가한다. 대표 연결이 이미 닫힌 경우는 false를 반환한다.
+	boolean addMember(ConnectionImpl member) {
+		member.m_primary = this;
+		m_members.add(member);
+		
+		// 추가 도중 대표 연결이 닫힌 경우는 close()에서 멤버를 놓쳤을 수 있다.
+		if ( isClosed() ) {
+			removeIdentical(member);
+			
+			return false;
+		}
+		
+		if ( TransportLoggers.CONN.isInfoEnabled() ) {
+			TransportLoggers.CONN.info("joined: member=" + member + ", group size="
+										+ (m_members.size() + 1));
+		}
+		
+		return true;
+	}
+	
+	// 대표 연결에서 멤버 연결을 제거한다. 그룹에 속하지 않은 연결인 경우는 false를 반환한다.
+	boolean removeMember(ConnectionImpl member) {
+		if ( removeIdentical(member) ) {
+			if ( TransportLoggers.CONN.isInfoEnabled() ) {
+				TransportLoggers.CONN.info("left: member=" + member + ", group size="
+											+ (m_members.size() + 1));
 			}
 			
-			m_state = STATE_DISCONNECTING;
+			return true;
+		}
+		
+		return false;
+	}
+	
+	// 그룹의 멤버 연결들은 모두 대표 연결과 같은 식별자를 가져 equals()로는 구별되지 않으므로,
+	// 객체의 동일성으로 찾아 제거한다.
+	private boolean removeIdentical(final ConnectionImpl member) {
+		return m_members.removeIf(new Predicate<ConnectionImpl>() {
+			public boolean test(ConnectionImpl m) {
+				return m == member;
+			}
+		});
+	}
+	
+	// 주어진 채널 식별자의 데이타 채널을 전송할 연결을 선택한다.
+	// 선택된 멤버 연결이 닫히는 중인 경우는 대표 연결을 사용한다.
+	private ConnectionImpl selectMember(int channelId) {
+		Object[] members = m_members.toArray();
+		if ( members.length == 0 ) {
+			return this;
+		}
+		
+		int slot = (channelId & Integer.MAX_VALUE) % (members.length + 1);
+		if ( slot == 0 ) {
+			return this;
+		}
+		
+		ConnectionImpl member = (ConnectionImpl)members[slot-1];
+		return ( member.isClosed() ) ? this : member;
+	}
+	
+	private String toStringId() {
+		return ( m_memberIndex > 0 ) ? m_id + "#" + m_memberIndex : m_id;
+	}
+	
+	int getState() {
+		return m_state.get();
+	}
+	
+	// 연결 상태를 변경하고, 상태 변경을 기다리는 쓰레드들을 깨운다.
+	// 상태 값은 'this' mutex 밖에서 변경되지만, 대기 쓰레드는 상태 확인과 wait()를 'this' mutex를
+	// 잡은 상태에서 수행하므로 통지를 놓치지 않는다.
+	void setState(int state) {
+		m_state.set(state);
+		synchronized ( this ) {
 			this.notifyAll();
 		}
+	}
+	
+	private boolean transitState(int from, int to) {
+		if ( m_state.compareAndSet(from, to) ) {
+			synchronized ( this ) {
+				this.notifyAll();
+			}
+			
+			return true;
+		}
+		else {
+			return false;
+		}
+	}
+
+	public void close() {
+		while ( true ) {
+			int state = m_state.get();
+			if ( state == STATE_DISCONNECTED ) {
+				return;
+			}
+			else if ( state == STATE_DISCONNECTING ) {
+				// 다른 쓰레드가 닫는 중인 경우는 완료될 때까지 기다린다.
+				synchronized ( this ) {
+					while ( m_state.get() == STATE_DISCONNECTING ) {
+						try {
+							this.wait();
+						}
+						catch ( InterruptedException e ) {
+							return;
+						}
+					}
+				}
+				
+				return;
+			}
+			else if ( transitState(state, STATE_DISCONNECTING) ) {
+				break;
+			}
+		}
+		
+		// 송신 큐에 남은 요청들을 실패 처리한다. 전송 중인 쓰레드가 있는 경우는
+		// 해당 쓰레드가 전송을 마친 후 처리한다.
+		m_outLock.lock();
+		try {
+			m_outClosed = true;
+			if ( m_outState != OUT_FLUSHING ) {
+				failWriteQueue(new EOFException("" + this));
+			}
+		}
+		finally {
+			m_outLock.unlock();
+		}
 		
 		// 모든 output channel을 강제로 닫는다.
 		for ( OutputChannel ch: m_outChannels.values() ) {
@@ -273,34 +915,52 @@ public class ConnectionImpl implements Connection, Delayed {
 			catch ( IOException ignored ) { }
 		}
 		
-		// output socket을 close하여 상대방에게 알린다.
-		try {
-			m_sockChannel.close();
+		// 요청측이 생성한 공유 메모리 파일이 남아있으면 삭제한다.
+		ShmSegment shm = m_shm;
+		if ( shm != null && m_active ) {
+			shm.unlink();
 		}
-		catch ( IOException ignored ) { }
 		
-		// 모든 input channel을 강제로 닫는다.
-		MultiBlockInputChannel[] inChannels;
-		synchronized ( m_mbiChannels ) {
-			inChannels = m_mbiChannels.values().toArray(PROTO);
+		// output socket을 close하여 상대방에게 알린다.
+		if ( m_sockChannel != null ) {
+			try {
+				m_sockChannel.close();
+			}
+			catch ( IOException ignored ) { }
 		}
+		m_scheduler.submitForClose(this);
 		
-		for ( MultiBlockInputChannel ch: inChannels ) {
+		// 모든 input channel을 강제로 닫는다.
+		for ( MultiBlockInputChannel ch: m_mbiChannels.values() ) {
 			try {
 				ch.close(true);
 			}
 			catch ( Exception ignored ) { }
 		}
 		
-		synchronized ( this ) {
-			m_state = STATE_DISCONNECTED;
-			this.notifyAll();
-		}
+		setState(STATE_DISCONNECTED);
+		m_connectFuture.completeExceptionally(new EOFException("closed while connecting: " + this));
 		
 		if ( TransportLoggers.CONN.isInfoEnabled() ) {
 			TransportLoggers.CONN.info("closed: " + this);
 		}
 		
+		synchronized ( this ) {
+			cancelTimeout(m_connectTimeout);
+			cancelTimeout(m_idleTimeout);
+			cancelTimeout(m_hbTimeout);
+			cancelTimeout(m_trimTimeout);
+		}
+		SocketBufferTuner tuner = m_tuner;
+		if ( tuner != null ) {
+			tuner.stop();
+		}
+		
+		// 대표 연결이 닫히면 그룹의 모든 멤버 연결도 닫는다.
+		for ( ConnectionImpl member: m_members ) {
+			member.close();
+		}
+		
 		m_transport.onConnectionClosed(this);
 		
 		// 등록된 모든 단절 핸들러를 호출한다.
@@ -319,8 +979,8 @@ public class ConnectionImpl implements Connection, Delayed {
 	}
 
 	@Override
-	public synchronized final boolean isClosed() {
-		return m_state == STATE_DISCONNECTED || m_state == STATE_DISCONNECTING;
+	public final boolean isClosed() {
+		return m_state.get() >= STATE_DISCONNECTING;
 	}
 
 	@Override
@@ -339,264 +999,778 @@ public class ConnectionImpl implements Connection, Delayed {
 	}
 	
 	public MultiBlockInputChannel lookupInputChannel(int id) {
-		synchronized ( m_mbiChannels ) {
-			return m_mbiChannels.get(id);
+		return m_mbiChannels.get(id);
+	}
+	
+	public void registerInputChannel(MultiBlockInputChannel ichannel) throws IOException {
+		int id = ichannel.getId();
+		if ( m_mbiChannels.putIfAbsent(id, ichannel) != null ) {
+			throw new SystemException("duplicated InputChannel id=" + id);
+		}
+	}
+	
+	public void unregisterInputChannel(int id) {
+		m_mbiChannels.remove(id);
+	}
+	
+	public int getInputChannelCount() {
+		return m_mbiChannels.size();
+	}
+
+	@Override
+	public MultiBlockOutputChannel allocateOutputChannel() throws IOException {
+		// 그룹 내 채널 식별자가 중복되지 않도록 채널 할당은 대표 연결에서만 수행한다.
+		ConnectionImpl primary = m_primary;
+		if ( primary != null ) {
+			return primary.allocateOutputChannel();
+		}
+		
+		checkOpened();
+		
+		int id = m_channelIdGen.incrementAndGet();
+		ConnectionImpl conn = selectMember(id);
+		
+		MultiBlockOutputChannel ochannel = new MultiBlockOutputChannel(conn, id);
+		conn.m_outChannels.put(id, ochannel);
+		
+		if ( TransportLoggers.CHANNEL.isInfoEnabled() ) {
+			TransportLoggers.CHANNEL.info("allocated: " + ochannel + ", " + conn);
+		}
+		
+		return ochannel;
+	}
+	
+	public void _onOutputChannelClosed(int id) {
+		m_outChannels.remove(id);
+	}
+	
+	OutputChannel getOutputChannel(int channelId) {
+		return m_outChannels.get(channelId);
+	}
+	
+	void unpendingOutputChannel(int id) {
+		MultiBlockOutputChannel outChannel = m_outChannels.get(id);
+		if ( outChannel != null ) {
+			outChannel.ackReceived();
+		}
+	}
+	
+	void grantOutputChannel(int id, int bytes) {
+		MultiBlockOutputChannel outChannel = m_outChannels.get(id);
+		if ( outChannel != null ) {
+			outChannel.creditReceived(bytes);
+		}
+	}
+	
+	public Object getAttachment() {
+		return m_attachment;
+	}
+	
+	public void setAttachment(Object att) {
+		m_attachment = att;
+	}
+	
+	private static final int MAX_GATHER_COUNT = 64;	// 한번의 gathering write로 전송할 최대 버퍼 수
+	private static final int MAX_GATHER_BYTES = 4*1024;	// 최대 바이트 수
+	private static final int MAX_WRITE_WAIT_MILLIS = 10*1000;
+	
+	// 송신 큐 전송 상태
+	private static final int OUT_IDLE = 0;			// 송신 큐가 비어있음
+	private static final int OUT_FLUSHING = 1;		// 한 쓰레드가 송신 큐를 전송 중
+	private static final int OUT_WAITING = 2;		// OP_WRITE 이벤트를 기다리는 중
+	private static final int OUT_CORKED = 3;		// 작은 프레임들을 묶는 중 (전송 중인 쓰레드 없음)
+	
+	// 송신 큐에 삽입된 전송 요청. 'm_body'나 'm_file'이 있는 경우는 'm_buffer'(헤더)와 함께
+	// 한 프레임을 구성한다. 호출자 데이타를 참조하는 요청은 전송이 끝날 때까지 호출자가 대기하므로
+	// 복사('detach()')되지 않는다.
+	static final class PendingWrite {
+		ByteBuffer m_buffer;
+		ByteBuffer m_body = null;			// 복사하지 않고 전송하는 호출자 데이타
+		private FileChannel m_file = null;	// 복사하지 않고 전송하는 파일
+		private long m_filePosition;		// 'm_file'에서 다음에 전송할 위치
+		private long m_fileRemaining = 0;	// 'm_file'에서 전송할 남은 바이트 수
+		private boolean m_pooled = false;	// 'm_buffer'가 BufferPool에서 할당된 복사본인가 여부
+		final int m_channelId;				// 소속 출력 채널 (FrameScheduler.LATENCY_CLASS: latency 등급)
+		final int m_size;
+		final CompletableFuture<Void> m_future;
+		ShmRing m_switchTo = null;			// 공유 메모리 전환 메시지인 경우, 전송 후 사용할 송신 ring
+		private MemoryBudget m_budget;		// 'm_buffer'를 복사한 경우 할당에 사용된 budget
+		
+		PendingWrite(ByteBuffer buffer, int channelId, CompletableFuture<Void> future) {
+			m_buffer = buffer;
+			m_channelId = channelId;
+			m_size = buffer.remaining();
+			m_future = future;
+		}
+		
+		PendingWrite(ByteBuffer header, ByteBuffer body, int channelId, CompletableFuture<Void> future) {
+			m_buffer = header;
+			m_body = body;
+			m_channelId = channelId;
+			m_size = header.remaining() + body.remaining();
+			m_future = future;
+		}
+		
+		PendingWrite(ByteBuffer header, FileChannel file, long position, int count, int channelId,
+					CompletableFuture<Void> future) {
+			m_buffer = header;
+			m_file = file;
+			m_filePosition = position;
+			m_fileRemaining = count;
+			m_channelId = channelId;
+			m_size = header.remaining() + count;
+			m_future = future;
+		}
+		
+		boolean hasRemaining() {
+			return m_buffer.hasRemaining() || (m_body != null && m_body.hasRemaining())
+				|| m_fileRemaining > 0;
+		}
+		
+		int remaining() {
+			return m_buffer.remaining() + ((m_body != null) ? m_body.remaining() : 0)
+					+ (int)m_fileRemaining;
+		}
+		
+		// 헤더가 모두 전송된 후 파일 영역을 소켓으로 직접 전송한다.
+		long transferTo(WritableByteChannel target) throws IOException {
+			long nbytes = m_file.transferTo(m_filePosition, m_fileRemaining, target);
+			if ( nbytes == 0 && m_filePosition >= m_file.size() ) {
+				throw new EOFException("file truncated while sending: position=" + m_filePosition);
+			}
+			m_filePosition += nbytes;
+			m_fileRemaining -= nbytes;
+			
+			return nbytes;
+		}
+		
+		// 송신 경로가 공유 메모리 ring으로 전환된 경우는 파일 영역을 읽어 ring에 쓴다.
+		// ring의 빈 공간만큼만 pool 버퍼 크기 단위로 읽으므로, ring이 가득 차면 남은 영역은
+		// 다음 호출에서 이어 읽는다. 대기할 수 없는 쓰레드에서 호출되므로 버퍼는 상한을 기다리지 않고
+		// 할당하되 사용량에는 포함시킨다.
+		long copyTo(ShmRing ring, MemoryBudget budget) throws IOException {
+			long total = 0;
+			while ( m_fileRemaining > 0 ) {
+				int size = (int)Math.min(Math.min(m_fileRemaining, ring.writableBytes()),
+										BufferPool.MAX_BUFFER_SIZE);
+				if ( size <= 0 ) {
+					break;
+				}
+				
+				ByteBuffer chunk = budget.acquireNow(size);
+				try {
+					while ( chunk.hasRemaining() ) {
+						if ( m_file.read(chunk, m_filePosition + chunk.position()) < 0 ) {
+							throw new EOFException("file truncated while sending: position="
+													+ m_filePosition);
+						}
+					}
+					chunk.flip();
+					
+					// 생산자는 하나뿐이므로 확인한 빈 공간은 줄어들지 않는다.
+					long nbytes = ring.write(new ByteBuffer[] { chunk }, 0, 1);
+					m_filePosition += nbytes;
+					m_fileRemaining -= nbytes;
+					total += nbytes;
+				}
+				finally {
+					budget.release(chunk);
+				}
+			}
+			
+			return total;
+		}
+		
+		// 호출자의 버퍼를 더이상 참조하지 않도록 남은 데이타를 pool 버퍼에 복사한다.
+		// 송신 큐 lock을 잡은 상태에서 호출되므로 메모리 상한을 기다리지 않는다.
+		void detach(MemoryBudget budget) {
+			ByteBuffer copy = budget.acquireNow(remaining());
+			copy.put(m_buffer);
+			if ( m_body != null ) {
+				copy.put(m_body);
+				m_body = null;
+			}
+			copy.flip();
+			
+			m_buffer = copy;
+			m_budget = budget;
+			m_pooled = true;
+		}
+		
+		// gathering write에 사용할 버퍼들을 주어진 배열에 추가하고, 추가된 버퍼 수를 반환한다.
+		int gather(ByteBuffer[] buffers, int index) {
+			buffers[index] = m_buffer;
+			if ( m_body == null ) {
+				return 1;
+			}
+			
+			buffers[index+1] = m_body;
+			return 2;
+		}
+		
+		void complete(Throwable error) {
+			if ( m_pooled ) {
+				m_budget.release(m_buffer);
+				m_pooled = false;
+			}
+			
+			if ( m_future != null ) {
+				if ( error == null ) {
+					m_future.complete(null);
+				}
+				else {
+					m_future.completeExceptionally(error);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 주어진 버퍼의 데이타를 전송한다.
+	 * <p>
+	 * 데이타는 연결의 송신 큐에 삽입되고, 본 메소드는 데이타가 실제로 전송될 때까지 기다리지 않는다.
+	 * 바로 전송되지 못한 데이타는 내부 버퍼로 복사되므로 메소드 반환 후 호출자는 버퍼를 재사용할 수 있다.
+	 * 송신 큐에 쌓인 데이타의 양이 high-water mark
+	 * ({@link TransportManagerImpl#setWriteQueueHighWaterMark(int)})를 넘는 경우에만
+	 * 큐가 비워질 때까지 대기한다. 전송 버퍼 메모리 사용량이 상한
+	 * ({@link TransportManagerImpl#setMemoryBudget(long)})을 넘는 경우도 사용량이 줄어들 때까지 대기한다.
+	 * 
+	 * @param buffer	전송할 데이타.
+	 * @throws IOException	연결이 닫혔거나, 송신 큐나 메모리 사용량이 제한 시간 내에 줄지 않은 경우.
+	 * @throws InterruptedException	송신 큐를 기다리는 도중 쓰레드가 중단된 경우.
+	 */
+	public void write(ByteBuffer buffer) throws IOException, InterruptedException {
+		write(buffer, FrameScheduler.LATENCY_CLASS, false);
+	}
+	
+	// 출력 채널의 블럭을 전송한다. 같은 채널의 블럭들은 순서대로 전송되고, 다른 채널의 블럭들과는
+	// 번갈아 전송된다. 'channelId'가 FrameScheduler.LATENCY_CLASS인 경우는 다른 블럭보다 먼저 전송된다.
+	// 'batchable'이 true인 경우는 묶음 전송이 설정된 경우 다른 작은 프레임들과 묶어 전송될 수 있다.
+	void write(ByteBuffer buffer, int channelId, boolean batchable)
+		throws IOException, InterruptedException {
+		awaitWriteQueueDrained();
+		m_transport.m_memoryBudget.await(MAX_WRITE_WAIT_MILLIS);
+		enqueue(new PendingWrite(buffer, channelId, null), false, batchable);
+	}
+	
+	public void write(byte[] bytes) throws IOException, InterruptedException {
+		write(ByteBuffer.wrap(bytes));
+	}
+	
+	// 헤더와 호출자의 데이타로 구성된 프레임을 데이타를 복사하지 않고 전송한다.
+	// 호출자가 반환 후 버퍼를 재사용할 수 있도록 프레임 전송이 끝날 때까지 대기하며,
+	// 전송 중인 버퍼를 보호하기 위해 이 대기는 쓰레드 중단에 반응하지 않는다.
+	void writeDirect(ByteBuffer header, ByteBuffer body, int channelId)
+		throws IOException, InterruptedException {
+		awaitWriteQueueDrained();
+		
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		enqueue(new PendingWrite(header, body, channelId, future), true);
+		awaitSent(future);
+	}
+	
+	// 헤더와 파일 영역으로 구성된 프레임을 전송한다. 파일 데이타는 FileChannel.transferTo()로
+	// 사용자 공간을 거치지 않고 소켓에 쓰여진다. 프레임 전송이 끝날 때까지 대기한다.
+	void writeFile(ByteBuffer header, FileChannel file, long position, int count, int channelId)
+		throws IOException, InterruptedException {
+		awaitWriteQueueDrained();
+		
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		enqueue(new PendingWrite(header, file, position, count, channelId, future), true);
+		awaitSent(future);
+	}
+	
+	private static void awaitSent(CompletableFuture<Void> future) throws IOException {
+		boolean interrupted = false;
+		try {
+			while ( true ) {
+				try {
+					future.get();
+					
+					return;
+				}
+				catch ( InterruptedException e ) {
+					interrupted = true;
+				}
+				catch ( ExecutionException e ) {
+					Throwable cause = e.getCause();
+					if ( cause instanceof IOException ) {
+						throw (IOException)cause;
+					}
+					
+					throw new IOException(cause);
+				}
+			}
+		}
+		finally {
+			if ( interrupted ) {
+				Thread.currentThread().interrupt();
+			}
 		}
 	}
 	
-	public void registerInputChannel(MultiBlockInputChannel ichannel) throws IOException {
-		int id = ichannel.getId();
-		synchronized ( m_mbiChannels ) {
-			MultiBlockInputChannel prev = m_mbiChannels.put(id, ichannel);
-			if ( prev != null ) {
-				m_mbiChannels.put(id, prev);
-				
-				throw new SystemException("duplicated InputChannel id=" + id);
-			}
+	/**
+	 * 주어진 버퍼의 데이타를 비동기적으로 전송한다.
+	 * <p>
+	 * 본 메소드는 송신 큐의 상태와 관계없이 대기하지 않는다.
+	 * 반환된 future가 완료될 때까지 버퍼는 연결이 사용하므로, 호출자는 그 동안 버퍼를 변경해서는 안된다.
+	 * 연결이 닫혔거나 전송 중 오류가 발생된 경우 future는 해당 예외로 완료된다.
+	 * 
+	 * @param buffer	전송할 데이타.
+	 * @return	전송 완료 여부를 알리는 future.
+	 */
+	public CompletableFuture<Void> writeAsync(ByteBuffer buffer) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		try {
+			enqueue(buffer, FrameScheduler.LATENCY_CLASS, true, future);
+		}
+		catch ( IOException e ) {
+			future.completeExceptionally(e);
 		}
+		
+		return future;
 	}
 	
-	public void unregisterInputChannel(int id) {
-		synchronized ( m_mbiChannels ) {
-			m_mbiChannels.remove(id);
+	/**
+	 * 송신 큐에 대기 중인 데이타의 바이트 수를 반환한다.
+	 */
+	public long getQueuedWriteBytes() {
+		m_outLock.lock();
+		try {
+			return m_queuedBytes;
+		}
+		finally {
+			m_outLock.unlock();
 		}
 	}
 	
-	public int getInputChannelCount() {
-		synchronized ( m_mbiChannels ) {
-			return m_mbiChannels.size();
+	/**
+	 * 송신 큐를 전송하기 위해 수행한 write(소켓 또는 공유 메모리 ring) 호출 횟수를 반환한다.
+	 */
+	public long getWriteCallCount() {
+		m_outLock.lock();
+		try {
+			return m_writeCallCount;
 		}
-	}
-
-	@Override
-	public MultiBlockOutputChannel allocateOutputChannel() throws IOException {
-		checkOpened();
-		
-		int id = m_channelIdGen.incrementAndGet();
-		
-		MultiBlockOutputChannel ochannel = new MultiBlockOutputChannel(this, id);
-		m_outChannels.put(id, ochannel);
-		
-		if ( TransportLoggers.CHANNEL.isInfoEnabled() ) {
-			TransportLoggers.CHANNEL.info("allocated: " + ochannel + ", " + this);
+		finally {
+			m_outLock.unlock();
 		}
-		
-		return ochannel;
 	}
 	
-	public void _onOutputChannelClosed(int id) {
-		m_outChannels.remove(id);
+	/**
+	 * 전송을 마친 프레임의 수를 반환한다.
+	 */
+	public long getSentFrameCount() {
+		m_outLock.lock();
+		try {
+			return m_sentFrameCount;
+		}
+		finally {
+			m_outLock.unlock();
+		}
 	}
 	
-	OutputChannel getOutputChannel(int channelId) {
-		return m_outChannels.get(channelId);
+	/**
+	 * 묶음 전송({@link TransportManagerImpl#setWriteBatching(int, long)})으로 전송이 미루어졌던
+	 * 프레임의 수를 반환한다.
+	 */
+	public long getBatchedFrameCount() {
+		m_outLock.lock();
+		try {
+			return m_batchedFrameCount;
+		}
+		finally {
+			m_outLock.unlock();
+		}
 	}
 	
-	void unpendingOutputChannel(int id) {
-		MultiBlockOutputChannel outChannel = m_outChannels.get(id);
-		if ( outChannel != null ) {
-			outChannel.ackReceived();
+	/**
+	 * 전송된 묶음의 수를 반환한다.
+	 */
+	public long getBatchCount() {
+		m_outLock.lock();
+		try {
+			return m_batchCount;
+		}
+		finally {
+			m_outLock.unlock();
 		}
 	}
 	
-	public Object getAttachment() {
-		return m_attachment;
+	//
+	// 전송 요청을 송신 큐에 삽입한다. 다른 쓰레드가 전송 중이 아니면 호출 쓰레드가 직접
+	// 송신 큐를 전송하고, 그렇지 않은 경우는 큐에 삽입만 하고 바로 반환한다.
+	// 'handedOver'가 false인 경우는 바로 전송되지 못한 데이타를 복사해 둔다.
+	//
+	private void enqueue(ByteBuffer buffer, int channelId, boolean handedOver,
+						CompletableFuture<Void> future) throws IOException {
+		enqueue(new PendingWrite(buffer, channelId, future), handedOver);
 	}
 	
-	public void setAttachment(Object att) {
-		m_attachment = att;
+	private void enqueue(PendingWrite pending, boolean handedOver) throws IOException {
+		enqueue(pending, handedOver, false);
 	}
 	
-	static class WriteWaiter {
-		ByteBuffer m_buffer;
-		boolean m_done;
-		
-		WriteWaiter(ByteBuffer buffer) {
-			m_buffer = buffer;
-		}
-	}
-
-	// 본 메소드는 반드시 'this' mutex를 hold하지 않은 상태에서 호출되어야 한다.
-	public void write(ByteBuffer buffer) throws IOException, InterruptedException {
+	//
+	// 'batchable'인 작은 프레임은 묶음 전송이 설정된 경우 바로 전송하지 않고 묶음에 추가한다.
+	// 묶음은 묶음 크기나 gathering write의 최대 버퍼 수에 이르거나, 묶을 수 없는 프레임이 들어오면
+	// 호출 쓰레드가, 전송 시한이 지나면 WriteBatchFlusher가 전송한다.
+	// 공유 메모리 ring으로 전환된 연결은 write가 시스템 호출이 아니므로 묶지 않는다.
+	//
+	private void enqueue(PendingWrite pending, boolean handedOver, boolean batchable)
+		throws IOException {
 		checkOpened();
 		
-		// 현재 쓰는 쓰레드가 있는가를 조사하기 위해 m_writer가 null인가 확인한다.
-		//
-		m_writerLock.lock();
-		if ( m_writer == null && m_writeWaiters.isEmpty() ) {
-			// 사용 중인 쓰레드가 없는 경우, 바로 write를 시도한다.
-			//
-			writeAndUnlock(buffer);
-		}
-		else {
-			// 사용 중인 쓰레드가 있는 경우는 대기 큐에 전송 요청을 삽입하고 대기한다.
-			//
-			WriteWaiter waiter = new WriteWaiter(buffer);
-			m_writeWaiters.add(waiter);
+		long deadline = 0;
+		m_outLock.lock();
+		try {
+			if ( m_outClosed ) {
+				throw new EOFException("" + this);
+			}
 			
-			while ( true ) {
-				try {
-					m_writerCond.await();
+			m_queuedBytes += pending.m_size;
+			if ( m_outState == OUT_FLUSHING || m_outState == OUT_WAITING ) {
+				if ( !handedOver ) {
+					pending.detach(m_transport.m_memoryBudget);
 				}
-				catch ( InterruptedException e ) {
-					m_writerLock.unlock();
-					throw e;
+				m_frames.add(pending);
+				
+				return;
+			}
+			
+			int batchLimit = m_transport.getWriteBatchBytes();
+			if ( batchable && pending.m_size < batchLimit && m_shmOut == null ) {
+				if ( m_outState == OUT_IDLE ) {
+					long delay = TimeUnit.MICROSECONDS.toNanos(m_transport.getWriteBatchDelayMicros());
+					deadline = m_batchDeadline = System.nanoTime() + delay;
+					m_batchBytes = 0;
+					m_batchFrames = 0;
 				}
 				
-				if ( m_writer == null ) {
-					// 전송 작업을 수행하던 쓰레드가 작업을 완료하고 깨운 경우, write를 시도한다.
-					m_writeWaiters.remove(waiter);
-					writeAndUnlock(buffer);
+				m_batchBytes += pending.m_size;
+				++m_batchFrames;
+				++m_batchedFrameCount;
+				if ( m_batchBytes < batchLimit && m_batchFrames < MAX_GATHER_COUNT ) {
+					if ( !handedOver ) {
+						pending.detach(m_transport.m_memoryBudget);
+					}
+					m_frames.add(pending);
+					m_outState = OUT_CORKED;
 					
-					return;
+					pending = null;
+				}
+			}
+			
+			if ( pending != null ) {
+				if ( m_outState == OUT_CORKED ) {
+					++m_batchCount;
 				}
+				m_outState = OUT_FLUSHING;
+				m_frames.add(pending);
 			}
 		}
-	}
-	
-	public void write(byte[] bytes) throws IOException, InterruptedException {
-		write(ByteBuffer.wrap(bytes));
-	}
-
-	//
-	// 본 메소드는 반드시 'm_writeLock'을 hold한 상태에서 호출되어야 하고,
-	// 메소드 반환 전에는 반드시 'm_writeLock'를 반환해야 한다.
-	// 실제 write 할 때는 'm_writeLock'을 잠시 풀고 수행한다. 
-	//
-	private void writeAndUnlock(ByteBuffer buffer) throws IOException, InterruptedException {
-		m_writer = Thread.currentThread();
-		m_writerLock.unlock();
+		finally {
+			m_outLock.unlock();
+		}
 		
-		writeInLock(buffer);
+		if ( pending == null ) {
+			// 새 묶음을 시작한 경우만 전송 시한을 등록한다.
+			if ( deadline != 0 ) {
+				m_transport.getWriteBatchFlusher().submit(this, deadline);
+			}
+			
+			return;
+		}
 		
-		m_writerLock.lock();
+		flushWriteQueue(pending, !handedOver);
+	}
+	
+	// 묶음의 전송 시한이 지난 경우 WriteBatchFlusher에서 호출된다. 시한 전에 이미 전송이
+	// 시작된 묶음이면 무시한다.
+	void flushBatch(long deadline) throws IOException {
+		m_outLock.lock();
 		try {
-			m_writer = null;
-
-			// write 중에 다른 write 요청으로 전송 큐에 대기 중인 쓰레드가 있는 경우
-			// 이들 중 한 쓰레드를 깨워 데이타를 전송하도록 한다.
-			//
-			if ( m_writeWaiters.size() > 0 ) {
-				m_writerCond.signal();
+			if ( m_outState != OUT_CORKED || m_batchDeadline != deadline ) {
+				return;
 			}
+			
+			++m_batchCount;
+			m_outState = OUT_FLUSHING;
 		}
 		finally {
-			m_writerLock.unlock();
+			m_outLock.unlock();
 		}
+		
+		flushWriteQueue(null, false);
 	}
-
+	
 	//
-	// 본 메소드는 반드시 'm_writeLock'을 hold하지 않은 상태에서 호출되고,
-	// 호출시에는 반드시 'm_writer'에 호출하는 쓰레드가 기록되어야 한다.
-	// 단, connection이 아직 open되지 않은 상태에서 'm_writeLock' hold 없이 호출될 수 있다.
+	// 송신 큐의 데이타를 gathering write로 전송한다. 한번 전송을 시작한 요청은 프레임이 섞이지 않도록
+	// 'm_outQueue'로 옮겨 먼저 전송하고, 나머지는 FrameScheduler가 정한 순서대로 옮겨 전송한다.
+	// 본 메소드는 송신 큐 전송 권한('OUT_FLUSHING')을 가진 쓰레드만 호출한다.
+	// 'owner'가 주어진 경우는 해당 요청이 전송될 때까지만 전송하고, 남은 요청은 selector 루프에 넘긴다.
+	// 'owner'가 null인 경우(selector 루프)는 한번의 write만 수행하여 다른 연결의 처리가 지연되지 않도록 한다.
+	// 소켓 송신 버퍼가 가득 찬 경우는 OP_WRITE 이벤트를 요청하고 전송 권한을 selector 루프에 넘긴다.
+	// 공유 메모리 전환 메시지는 한번의 write에서 마지막 버퍼가 되도록 하고, 전송이 끝나면 이후의 데이타는
+	// 송신 ring에 쓴다. 송신 ring이 가득 찬 경우는 전송 권한을 ShmPoller에 넘긴다.
 	//
-	void writeInLock(ByteBuffer buffer) throws IOException, InterruptedException {
-		int total = 0;
-		while ( buffer.hasRemaining() ) {
-			synchronized ( this ) {
-				if ( m_state != STATE_CONNECTED && m_state != STATE_CONNECTING ) {
-					throw new IOException("not opened");
+	private void flushWriteQueue(PendingWrite owner, boolean detachOwner) throws IOException {
+		ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER_COUNT];
+		while ( true ) {
+			int count = 0;
+			PendingWrite fileFrame = null;
+			m_outLock.lock();
+			try {
+				if ( m_outClosed ) {
+					failWriteQueue(new EOFException("" + this));
+					if ( owner == null ) {
+						return;
+					}
+					throw new EOFException("" + this);
+				}
+				
+				// 소켓 송신 버퍼를 넘치게 하지 않도록 한번에 전송하는 데이타의 양을 제한한다.
+				// 묶음 전송이 설정된 경우는 한 묶음이 한번에 전송될 수 있도록 묶음 크기까지 허용한다.
+				int maxBytes = Math.max(MAX_GATHER_BYTES, m_transport.getWriteBatchBytes());
+				int nbytes = 0;
+				boolean switching = false;
+				for ( PendingWrite pending: m_outQueue ) {
+					nbytes += pending.remaining();
+					count += pending.gather(buffers, count);
+					switching |= pending.m_switchTo != null;
+					fileFrame = ( pending.m_file != null ) ? pending : fileFrame;
+				}
+				while ( !switching && fileFrame == null && count < MAX_GATHER_COUNT - 1 ) {
+					int limit = ( count == 0 ) ? Integer.MAX_VALUE : maxBytes - nbytes;
+					PendingWrite pending = m_frames.poll(limit);
+					if ( pending == null ) {
+						break;
+					}
+					
+					m_outQueue.addLast(pending);
+					nbytes += pending.remaining();
+					count += pending.gather(buffers, count);
+					switching = pending.m_switchTo != null;
+					fileFrame = ( pending.m_file != null ) ? pending : null;
+				}
+				if ( count == 0 ) {
+					m_outState = OUT_IDLE;
+					
+					return;
 				}
 			}
-
-//			System.out.print(Thread.currentThread().getId() + "(SW): total=" + total + ", remains=" + buffer.remaining()); System.out.flush();
-			int nwrite = m_sockChannel.write(buffer);
-//			System.out.println(" -> total=" + (total+nwrite) + ", remains=" + buffer.remaining() + ", " + buffer.hasRemaining());
-			if ( nwrite == 0 ) {
-				// write가 당장 허락되지 않는 경우, ioscheduler에게 write 대기 요청을 전달한 후,
-				// write 연산이 가능할 때까지 대기한다.
-				//
-				waitForWriteBuffer();
+			finally {
+				m_outLock.unlock();
 			}
-			else {
-				total += nwrite;
+			
+			long nwrite;
+			try {
+				nwrite = writeOut(buffers, count, fileFrame);
 			}
-		}
-		
-		if ( TransportLoggers.IO.isDebugEnabled() ) {
-			TransportLoggers.IO.debug("sent: bytes=" + total + ", conn=" + this);
-		}
-	}
-
-	//
-	// 본 메소드는 반드시 'm_writeLock'을 hold하지 않은 상태에서 호출되고,
-	// 호출시에는 반드시 'm_writer'에 호출하는 쓰레드가 기록되어야 한다.
-	// 단, connection이 아직 open되지 않은 상태에서 'm_writeLock' hold 없이 호출될 수 있다.
-	//
-	void writeMultipleInLock(ByteBuffer... buffers) throws IOException, InterruptedException {
-		int total = 0;
-		while ( hasRemaining(buffers) ) {
-			synchronized ( this ) {
-				if ( m_state != STATE_CONNECTED && m_state != STATE_CONNECTING ) {
-					throw new IOException("not opened");
+			catch ( IOException e ) {
+				m_outLock.lock();
+				try {
+					failWriteQueue(e);
 				}
+				finally {
+					m_outLock.unlock();
+				}
+				
+				throw e;
 			}
-
-			System.out.print(Thread.currentThread().getId() + "(MW=" + buffers.length + "): total=" + total + ", remains=" + remaining(buffers)); System.out.flush();
-			long nwrite = m_sockChannel.write(buffers);
-			System.out.println(" -> total=" + (total+nwrite) + ", remains=" + remaining(buffers) + ", " + hasRemaining(buffers));
-			if ( nwrite == 0 ) {
-				// write가 당장 허락되지 않는 경우, ioscheduler에게 write 대기 요청을 전달한 후,
-				// write 연산이 가능할 때까지 대기한다.
-				//
-				waitForWriteBuffer();
+			finally {
+				Arrays.fill(buffers, 0, count, null);
 			}
-			else {
-				total += nwrite;
+			
+			List<PendingWrite> completeds = new ArrayList<PendingWrite>();
+			boolean done;
+			boolean handOver = false;
+			m_outLock.lock();
+			try {
+				m_queuedBytes -= nwrite;
+				++m_writeCallCount;
+				
+				PendingWrite head;
+				while ( (head = m_outQueue.peekFirst()) != null && !head.hasRemaining() ) {
+					completeds.add(m_outQueue.pollFirst());
+					if ( head.m_switchTo != null ) {
+						m_shmOut = head.m_switchTo;
+					}
+				}
+				m_sentFrameCount += completeds.size();
+				if ( m_queuedBytes <= m_transport.getWriteQueueHighWaterMark() ) {
+					m_outDrained.signalAll();
+				}
+				
+				// 전송한 프레임 중 일부가 남은 경우는 소켓 송신 버퍼가 가득 찬 경우이다.
+				boolean full = head != null;
+				if ( head == null && m_frames.isEmpty() ) {
+					m_outState = OUT_IDLE;
+					done = true;
+				}
+				else if ( m_outClosed ) {
+					failWriteQueue(new EOFException("" + this));
+					done = true;
+				}
+				else if ( full || owner == null || !owner.hasRemaining() ) {
+					// 소켓 버퍼가 가득 찼거나 호출 쓰레드 자신의 데이타는 모두 전송된 경우는
+					// 나머지 전송을 selector 루프에 맡긴다.
+					if ( detachOwner && owner.hasRemaining() ) {
+						owner.detach(m_transport.m_memoryBudget);
+					}
+					m_outState = OUT_WAITING;
+					handOver = true;
+					done = true;
+				}
+				else {
+					done = false;
+				}
+			}
+			finally {
+				m_outLock.unlock();
+			}
+			
+			for ( PendingWrite pending: completeds ) {
+				pending.complete(null);
+			}
+			
+			if ( TransportLoggers.IO.isDebugEnabled() ) {
+				TransportLoggers.IO.debug("sent: bytes=" + nwrite + ", conn=" + this);
+			}
+			
+			if ( handOver ) {
+				if ( m_shmOut != null ) {
+					m_transport.getShmPoller().submitForWrite(this);
+				}
+				else {
+					m_scheduler.submitForWrite(this);
+				}
+			}
+			if ( done ) {
+				return;
+			}
+		}
+	}
+	
+	private static final byte[] DOORBELL = new byte[1];
+	
+	// 송신 경로에 따라 소켓 또는 송신 ring에 쓴다. 송신 ring의 수신측이 잠들어 있으면 소켓으로 깨운다.
+	// 'fileFrame'이 주어진 경우는 마지막 버퍼인 그 헤더가 모두 쓰여진 후 파일 영역을 이어 쓴다.
+	private long writeOut(ByteBuffer[] buffers, int count, PendingWrite fileFrame) throws IOException {
+		ShmRing ring = m_shmOut;
+		if ( ring == null ) {
+			long nwrite = ( count == 1 ) ? m_sockChannel.write(buffers[0])
+										: m_sockChannel.write(buffers, 0, count);
+			if ( fileFrame != null && !fileFrame.m_buffer.hasRemaining() ) {
+				nwrite += fileFrame.transferTo(m_sockChannel);
 			}
+			SocketBufferTuner tuner = m_tuner;
+			if ( tuner != null && nwrite > 0 ) {
+				tuner.onBytesSent(nwrite);
+			}
+			
+			return nwrite;
 		}
 		
-		if ( TransportLoggers.IO.isDebugEnabled() ) {
-			TransportLoggers.IO.debug("sent: bytes=" + total + ", conn=" + this);
+		long nwrite = ring.write(buffers, 0, count);
+		if ( fileFrame != null && !fileFrame.m_buffer.hasRemaining() ) {
+			nwrite += fileFrame.copyTo(ring, m_transport.m_memoryBudget);
 		}
+		if ( nwrite > 0 && ring.isConsumerWaiting() ) {
+			m_sockChannel.write(ByteBuffer.wrap(DOORBELL));
+		}
+		
+		return nwrite;
 	}
 	
-	private boolean hasRemaining(ByteBuffer...buffers) {
-		for ( int i =buffers.length-1; i >= 0; --i ) {
-			if ( buffers[i].remaining() > 0 ) {
-				return true;
+	// selector 루프에서 OP_WRITE 이벤트가 발생된 경우 호출되어, 대기 중인 송신 큐를 전송한다.
+	void notifyWriteIsReady() throws IOException {
+		m_outLock.lock();
+		try {
+			if ( m_outState != OUT_WAITING ) {
+				return;
 			}
+			m_outState = OUT_FLUSHING;
+		}
+		finally {
+			m_outLock.unlock();
 		}
 		
-		return false;
+		flushWriteQueue(null, false);
+	}
+	
+	// 송신 큐의 모든 요청을 주어진 예외로 실패 처리한다.
+	// 'm_outLock'을 획득한 상태에서 호출되어야 한다.
+	@GuardedBy("m_outLock")
+	private void failWriteQueue(IOException cause) {
+		PendingWrite pending;
+		while ( (pending = m_outQueue.pollFirst()) != null ) {
+			pending.complete(cause);
+		}
+		for ( PendingWrite frame: m_frames.clear() ) {
+			frame.complete(cause);
+		}
+		m_queuedBytes = 0;
+		m_outState = OUT_IDLE;
+		m_outDrained.signalAll();
 	}
 	
-	private int remaining(ByteBuffer...buffers) {
-		int remains = 0;
-		for ( int i =buffers.length-1; i >= 0; --i ) {
-			remains += buffers[i].remaining();
+	//
+	// 송신 큐에 쌓인 데이타가 high-water mark 이하가 될 때까지 대기한다.
+	//
+	private void awaitWriteQueueDrained() throws IOException, InterruptedException {
+		m_outLock.lock();
+		try {
+			long due = System.currentTimeMillis() + MAX_WRITE_WAIT_MILLIS;
+			while ( m_queuedBytes > m_transport.getWriteQueueHighWaterMark() ) {
+				if ( m_outClosed ) {
+					throw new EOFException("" + this);
+				}
+				
+				long remains = due - System.currentTimeMillis();
+				if ( remains <= 0 ) {
+					throw new IOException("write queue is not drained: queued=" + m_queuedBytes
+											+ ", conn=" + this);
+				}
+				
+				m_outDrained.await(remains, TimeUnit.MILLISECONDS);
+			}
+		}
+		finally {
+			m_outLock.unlock();
 		}
-		
-		return remains;
 	}
 	
-	public synchronized int getMaxIdleSeconds() {
+	public int getMaxIdleSeconds() {
 		return (int)TimeUnit.MILLISECONDS.toSeconds(m_maxIdleMillis); 
 	}
 	
 	public void setMaxIdleSeconds(int seconds) {
 		if ( seconds < 0 ) {
+			m_maxIdleMillis = -1;
 			synchronized ( this ) {
-				m_maxIdleMillis = -1;
+				cancelTimeout(m_idleTimeout);
+				m_idleTimeout = null;
 			}
 		}
 		else {
-			synchronized ( this ) {
-				m_maxIdleMillis = TimeUnit.SECONDS.toMillis(seconds);
-				m_nextDueInMillis = System.currentTimeMillis() + m_maxIdleMillis;
-			}
+			m_maxIdleMillis = TimeUnit.SECONDS.toMillis(seconds);
+			m_lastAccessMillis = System.currentTimeMillis();
 			
-			m_transport.m_idleConnectionCollector.schedule(this);
+			scheduleIdleCheck(m_maxIdleMillis);
 		}
 	}
 	
+	// 마지막 데이타 접근 후 최대 유휴 시간이 지났으면 연결을 끊고, 그렇지 않으면 남은 시간 후에
+	// 다시 검사하도록 한다. 데이타 접근시에는 시각만 기록하므로 timeout을 다시 등록할 필요가 없다.
 	void onIdleTimeout() {
-		boolean timedout;
-		synchronized ( this ) {
-			timedout = m_nextDueInMillis < System.currentTimeMillis();
+		long maxIdleMillis = m_maxIdleMillis;
+		if ( maxIdleMillis < 0 || isClosed() ) {
+			return;
 		}
 		
-		if ( timedout ) {
+		long remains = m_lastAccessMillis + maxIdleMillis - System.currentTimeMillis();
+		if ( remains < 0 ) {
 			if ( TransportLoggers.CONN.isInfoEnabled() ) {
 				TransportLoggers.CONN.info("disconnect due to idle timeout=" + this);
 			}
@@ -604,110 +1778,72 @@ public class ConnectionImpl implements Connection, Delayed {
 			close();
 		}
 		else {
-			m_transport.m_idleConnectionCollector.schedule(this);
+			scheduleIdleCheck(remains);
 		}
 	}
 	
-	synchronized void updateDataAccessTime() {
+	void updateDataAccessTime() {
 		m_lastAccessMillis = System.currentTimeMillis();
-		m_nextDueInMillis = m_lastAccessMillis + m_maxIdleMillis;
-	}
-
-	public synchronized long getDelay(TimeUnit unit) {
-		long remains = m_maxIdleMillis - System.currentTimeMillis();
-		
-		return unit.convert(remains, TimeUnit.MILLISECONDS);
-	}
-
-	public synchronized String getDescription() {
-		return m_description;
 	}
-
-	public synchronized void setDescription(String description) {
-		m_description = description;
+	
+	private synchronized void scheduleIdleCheck(long delay) {
+		cancelTimeout(m_idleTimeout);
+		m_idleTimeout = m_transport.m_timer.schedule(m_idleTask, delay);
 	}
-
-	public int compareTo(Delayed other) {
-		long gap;
-		synchronized ( this ) {
-			gap = m_nextDueInMillis;
-		}
-		synchronized ( other ) {
-			gap -= ((ConnectionImpl)other).m_nextDueInMillis;
+	
+	// heartbeat가 설정된 경우, heartbeat 주기 후에 연결 상태를 검사하도록 등록한다.
+	// 이미 등록된 검사가 있는 경우는 무시된다.
+	void scheduleHeartbeat() {
+		long interval = m_transport.getHeartbeatInterval();
+		TimingWheel timer = m_transport.m_timer;
+		if ( interval <= 0 || timer == null || isClosed() ) {
+			return;
 		}
 		
-		if ( gap > 0 ) {
-			return 1;
-		}
-		else if ( gap < 0 ) {
-			return -1;
-		}
-		else {
-			return 0;
+		synchronized ( this ) {
+			if ( m_hbTimeout == null || m_hbTimeout.isDone() ) {
+				m_hbTimeout = timer.schedule(m_hbTask, interval);
+			}
 		}
 	}
 	
-	void submitForRead() {
-		try {
-			m_scheduler.submitForRead(this);
-		}
-		catch ( CancelledKeyException expected ) {
+	// 수신 버퍼가 할당된 경우 호출되어, 주어진 시간 후에 소속 selector 루프에서 버퍼의 유휴 여부를
+	// 검사하도록 한다. 음수인 경우는 검사하지 않는다.
+	void scheduleBufferTrim(long delay) {
+		TimingWheel timer = m_transport.m_timer;
+		if ( delay < 0 || timer == null || isClosed() ) {
 			return;
 		}
-	}
-	
-	private static final int MAX_WRITE_WAIT_MILLIS = 10*1000;
-	private void waitForWriteBuffer() throws InterruptedException, IOException {
-		m_scheduler.submitForWrite(this);
-//		System.out.println("\t" + Thread.currentThread().getId() + ": @@@@@@@@@@ IN");
 		
-		long due = System.currentTimeMillis() + MAX_WRITE_WAIT_MILLIS;
-		synchronized ( m_writeBufMutex ) {
-			while ( !m_writeBufAvailable ) {
-				long remains = due - System.currentTimeMillis();
-				if ( remains <= 0 ) {
-//					Selector selector = m_scheduler.m_selector;
-//					
-//					for ( SelectionKey key: selector.keys() ) {
-//						System.out.println("same channel=" + (key.channel().equals(m_sockChannel)));
-//						System.out.println("key.ops=" + ((key.interestOps() & SelectionKey.OP_WRITE) != 0));
-//					}
-//					selector.wakeup();
-//					int nselecteds = selector.selectNow();
-//					Set<SelectionKey> selecteds = selector.selectedKeys();
-//					if ( selecteds.size() > 0 ) {
-//						SelectionKey key = selecteds.iterator().next();
-//						System.out.println("is.writable=" + key.isWritable());
-//					}
-//					
-//					
-//					ByteBuffer buf = ByteBuffer.wrap(new byte[8]);
-//					int nwrite = m_sockChannel.write(buf);
-//					System.out.println("nwrite=" + nwrite);
-					
-					System.out.println("@@@@@@@@@@@@@@@@: SOCKET WRITE MIGHT NOT BE WORKING !!!!!!!");
-					throw new IOException("socket write may be not working...");
-				}
-				
-				m_writeBufMutex.wait(remains);
-			}
-			
-			m_writeBufAvailable = false;
+		synchronized ( this ) {
+			cancelTimeout(m_trimTimeout);
+			m_trimTimeout = timer.schedule(m_trimTask, delay);
 		}
-//		System.out.println("\t" + Thread.currentThread().getId() + ": @@@@@@@@@@ OUT");
 	}
 	
-	void notifyWriteIsReady() {
-		synchronized ( m_writeBufMutex ) {
-			m_writeBufAvailable = true;
-			m_writeBufMutex.notify();
+	private static void cancelTimeout(TimingWheel.Timeout timeout) {
+		if ( timeout != null ) {
+			timeout.cancel();
 		}
 	}
+
+	public synchronized String getDescription() {
+		return m_description;
+	}
+
+	public synchronized void setDescription(String description) {
+		m_description = description;
+	}
+
+	void submitForRead() {
+		m_scheduler.submitForRead(this);
+	}
 	
-	synchronized void assertState(int state) {
-		if ( m_state != state ) {
+	void assertState(int state) {
+		int current = m_state.get();
+		if ( current != state ) {
 			throw new IllegalStateException("invalid state: expected=" + state
-											+ ", actual=" + m_state);
+											+ ", actual=" + current);
 		}
 	}
 	
@@ -739,16 +1875,14 @@ public class ConnectionImpl implements Connection, Delayed {
 	}
 	
 	synchronized void waitForOpened() throws InterruptedException {
-		while ( m_state == STATE_NOT_CONNECTED ) {
+		while ( m_state.get() == STATE_NOT_CONNECTED ) {
 			this.wait();
 		}
 	}
 	
 	void inspectForIdleness() {
-		synchronized ( this ) {
-			if ( m_state != STATE_CONNECTED ) {
-				return;
-			}
+		if ( m_state.get() != STATE_CONNECTED ) {
+			return;
 		}
 		
 		if ( !m_isDirty ) {
@@ -760,24 +1894,19 @@ public class ConnectionImpl implements Connection, Delayed {
 				close();
 			}
 			else {
-				m_writerLock.lock();
+				// heartbeat는 송신 큐에 삽입만 하므로, 다른 쓰레드의 전송 때문에 대기하지 않는다.
 				try {
-					if ( m_writer == null ) {
-						if ( TransportLoggers.CONN.isDebugEnabled() ) {
-							TransportLoggers.CONN.debug("\tsending: HEARTBEAT thru conn=" + this);
-						}
-						
-						m_hbSent = true;
-						writeAndUnlock(ByteBuffer.wrap(m_transport.m_hbBytes));
+					if ( TransportLoggers.CONN.isDebugEnabled() ) {
+						TransportLoggers.CONN.debug("\tsending: HEARTBEAT thru conn=" + this);
 					}
-					else {
-						m_writerLock.unlock();
-						
-						if ( TransportLoggers.CONN.isInfoEnabled() ) {
-							TransportLoggers.CONN.info("skipped: sending HEARTBEAT to " + this
-											+ " due to locked by others");
-						}
+					
+					m_hbSent = true;
+					SocketBufferTuner tuner = m_tuner;
+					if ( tuner != null ) {
+						tuner.onHeartbeatSent();
 					}
+					enqueue(ByteBuffer.wrap(m_transport.m_hbBytes), FrameScheduler.LATENCY_CLASS,
+							true, null);
 				}
 				catch ( Throwable e ) {
 					if ( TransportLoggers.CONN.isInfoEnabled() ) {
@@ -786,10 +1915,8 @@ public class ConnectionImpl implements Connection, Delayed {
 					}
 					
 					// 아직 open되기 이전의 connection도 inspection의 대상이 될 수 있기 때
-					synchronized ( this ) {
-						if ( m_state == STATE_CONNECTED ) {
-							close();
-						}
+					if ( m_state.get() == STATE_CONNECTED ) {
+						close();
 					}
 				}
 			}
@@ -799,13 +1926,58 @@ public class ConnectionImpl implements Connection, Delayed {
 		}
 	}
 	
+	// 수신시마다 호출되므로, 값이 바뀌는 경우에만 기록한다.
 	void setDirty() {
-		m_isDirty = true;
-		m_hbSent = false;
+		if ( !m_isDirty ) {
+			m_isDirty = true;
+		}
+		if ( m_hbSent ) {
+			m_hbSent = false;
+		}
+	}
+	
+	// 소켓에서 데이타를 읽은 경우 소속 selector 루프에서 호출된다.
+	void onBytesReceived(int nbytes) {
+		SocketBufferTuner tuner = m_tuner;
+		if ( tuner != null ) {
+			tuner.onBytesReceived(nbytes);
+		}
+	}
+	
+	// 소켓 버퍼 조절기가 RTT를 측정하기 위해 heartbeat 전송을 요청한 경우 호출된다.
+	void sendRttProbe() {
+		SocketBufferTuner tuner = m_tuner;
+		if ( tuner == null || m_state.get() != STATE_CONNECTED || !tuner.onHeartbeatSent() ) {
+			return;
+		}
+		
+		try {
+			enqueue(ByteBuffer.wrap(m_transport.m_hbBytes), FrameScheduler.LATENCY_CLASS, true, null);
+		}
+		catch ( IOException e ) {
+			// 연결이 닫히는 중인 경우이므로 무시한다.
+		}
+	}
+	
+	// heartbeat 응답이 도착한 경우 소속 selector 루프에서 호출된다.
+	void onHeartbeatAcked() {
+		SocketBufferTuner tuner = m_tuner;
+		if ( tuner != null ) {
+			tuner.onHeartbeatAcked();
+		}
+	}
+	
+	/**
+	 * heartbeat 왕복으로 측정한 평활 RTT(microsecond)를 반환한다.
+	 * 소켓 버퍼 크기를 조절하지 않는 연결이거나 아직 측정값이 없는 경우는 -1을 반환한다.
+	 */
+	public long getRoundTripTimeMicros() {
+		SocketBufferTuner tuner = m_tuner;
+		return ( tuner != null ) ? tuner.getSmoothedRttMicros() : -1;
 	}
 	
-	private synchronized void checkOpened() throws EOFException {
-		if ( m_state == STATE_DISCONNECTED ) {
+	private void checkOpened() throws EOFException {
+		if ( m_state.get() == STATE_DISCONNECTED ) {
 			throw new EOFException("" + this);
 		}
 	}
@@ -19,12 +19,16 @@ public class DataControlMessage extends TransportMessage {
 	private static final int CLOSE_DATA = 0xFFFFFFFF;
 	
 	public int m_channelId;
-	public int m_control;
+	public int m_control;		// 양수인 경우는 추가로 허용하는 송신 윈도우 바이트 수
 	
 	public static DataControlMessage newCloseChannelMessage(int channelId) {
 		return new DataControlMessage(channelId, CLOSE_DATA);
 	}
 	
+	public static DataControlMessage newGrantMessage(int channelId, int bytes) {
+		return new DataControlMessage(channelId, bytes);
+	}
+	
 	public DataControlMessage(int channelId, int control) {
 		super(new TransportHeader(TransportHeader.CODE_DATA_CTRL, -1));
 		
@@ -36,6 +40,11 @@ public class DataControlMessage extends TransportMessage {
 		super(header);
 	}
 
+	// 송신 흐름 제어(블럭 ack 또는 윈도우 허용) 메시지 여부를 반환한다.
+	boolean isFlowControl() {
+		return m_control >= NEXT_DATA;
+	}
+
 	@Override
 	public void handle(ConnectionImpl conn) throws Exception {
 		if ( conn.isClosed() ) {
@@ -65,6 +74,11 @@ public class DataControlMessage extends TransportMessage {
 					}
 				}
 				break;
+			default:
+				if ( m_control > 0 ) {
+					conn.grantOutputChannel(m_channelId, m_control);
+				}
+				break;
 		}
 	}
 
@@ -90,7 +104,8 @@ public class DataControlMessage extends TransportMessage {
 				ctrlStr = "CLOSE";
 				break;
 			default:
-				ctrlStr = "UNKNOWN[control=" + m_control + "]";
+				ctrlStr = ( m_control > 0 ) ? "GRANT[" + m_control + "]"
+											: "UNKNOWN[control=" + m_control + "]";
 				break;
 		}
 		
@@ -15,7 +15,7 @@ public abstract class DataMessage extends TransportMessage {
 		super(new TransportHeader(TransportHeader.CODE_DATA, session));
 		
 		m_header.m_blockNum = part;
-		m_header.m_final = isFinal ? (byte)1 : (byte)0;
+		m_header.m_final = isFinal ? TransportHeader.FLAG_FINAL : (byte)0;
 		m_header.m_length = payloadLength + TransportHeader.SIZE;
 		m_buffer = buf;
 	}
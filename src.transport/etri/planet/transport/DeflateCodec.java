@@ -0,0 +1,145 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * JDK의 {@link Deflater}/{@link Inflater}를 사용하는 {@link BlockCodec}.
+ * <p>
+ * 블럭마다 독립적인 zlib 스트림으로 압축하므로 블럭 사이에 상태가 공유되지 않으며,
+ * 해제시 zlib checksum으로 손상 여부가 확인된다.
+ * Deflater/Inflater와 복사용 배열은 쓰레드별로 재사용된다.
+ * 
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ * 
+ * @author Kang-Woo Lee
+ */
+public final class DeflateCodec implements BlockCodec {
+	public static final int ID = 1;
+	
+	private final int m_level;
+	private final ThreadLocal<Context> m_contexts = new ThreadLocal<Context>() {
+		@Override
+		protected Context initialValue() {
+			return new Context(m_level);
+		}
+	};
+	
+	// 쓰레드별 압축 상태
+	private static final class Context {
+		private final Deflater m_deflater;
+		private final Inflater m_inflater = new Inflater();
+		private byte[] m_input = new byte[0];
+		private byte[] m_output = new byte[0];
+		
+		Context(int level) {
+			m_deflater = new Deflater(level);
+		}
+		
+		byte[] input(int size) {
+			if ( m_input.length < size ) {
+				m_input = new byte[size];
+			}
+			return m_input;
+		}
+		
+		byte[] output(int size) {
+			if ( m_output.length < size ) {
+				m_output = new byte[size];
+			}
+			return m_output;
+		}
+	}
+	
+	/**
+	 * 가장 빠른 압축 수준({@link Deflater#BEST_SPEED})의 codec을 생성한다.
+	 */
+	public DeflateCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+	
+	/**
+	 * 주어진 압축 수준의 codec을 생성한다.
+	 * 
+	 * @param level	압축 수준 (0-9).
+	 */
+	public DeflateCodec(int level) {
+		if ( level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION ) {
+			throw new IllegalArgumentException("invalid deflate level: " + level);
+		}
+		
+		m_level = level;
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public int compress(ByteBuffer src, ByteBuffer dst) {
+		Context ctx = m_contexts.get();
+		
+		int length = src.remaining();
+		byte[] input = ctx.input(length);
+		src.get(input, 0, length);
+		
+		int capacity = dst.remaining();
+		byte[] output = ctx.output(capacity);
+		
+		Deflater deflater = ctx.m_deflater;
+		deflater.reset();
+		deflater.setInput(input, 0, length);
+		deflater.finish();
+		int nbytes = deflater.deflate(output, 0, capacity);
+		if ( !deflater.finished() ) {
+			return -1;
+		}
+		
+		dst.put(output, 0, nbytes);
+		return nbytes;
+	}
+
+	@Override
+	public void decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+		Context ctx = m_contexts.get();
+		
+		int length = src.remaining();
+		byte[] input = ctx.input(length);
+		src.get(input, 0, length);
+		
+		int capacity = dst.remaining();
+		byte[] output = ctx.output(capacity);
+		
+		Inflater inflater = ctx.m_inflater;
+		inflater.reset();
+		inflater.setInput(input, 0, length);
+		try {
+			int nbytes = 0;
+			while ( nbytes < capacity && !inflater.finished() ) {
+				int n = inflater.inflate(output, nbytes, capacity - nbytes);
+				if ( n == 0 && (inflater.needsInput() || inflater.needsDictionary()) ) {
+					break;
+				}
+				nbytes += n;
+			}
+			
+			if ( nbytes != capacity || !inflater.finished() ) {
+				throw new IOException("corrupted compressed block: expected=" + capacity
+										+ ", inflated=" + nbytes);
+			}
+			dst.put(output, 0, nbytes);
+		}
+		catch ( DataFormatException e ) {
+			throw new IOException("corrupted compressed block: cause=" + e);
+		}
+	}
+	
+	public String toString() {
+		return "deflate[level=" + m_level + "]";
+	}
+}
@@ -0,0 +1,129 @@
+package etri.planet.transport;
+
+import java.util.ArrayDeque;
+
+import etri.planet.transport.ConnectionImpl.PendingWrite;
+
+
+/**
+ * 한 연결의 송신 큐에 삽입된 프레임들의 전송 순서를 결정하는 스케쥴러.
+ * <p>
+ * 프레임은 두 등급으로 나누어 관리된다. 제어 메시지와 한 블럭으로 구성된 메시지는
+ * latency 등급으로 분류되어 삽입 순서대로 항상 다른 프레임보다 먼저 전송된다.
+ * 여러 블럭으로 구성된 메시지의 블럭들은 출력 채널별 큐에 삽입되고, 활성화된 채널들 사이에서는
+ * deficit round robin 방식으로 번갈아 전송된다. 각 채널은 자기 차례마다 협상된 블럭 크기만큼의
+ * 전송량을 배정 받으므로, 대용량 전송이 진행 중이어도 다른 채널의 블럭이 함께 전송된다.
+ * 같은 채널의 블럭들은 삽입 순서대로 전송된다.
+ * <p>
+ * 본 클래스는 소속 연결의 송신 큐 lock으로 보호되어야 한다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class FrameScheduler {
+	static final int LATENCY_CLASS = -1;		// latency 등급 프레임의 채널 식별자
+
+	private final ConnectionImpl m_conn;
+	private final ArrayDeque<PendingWrite> m_latencies = new ArrayDeque<PendingWrite>();
+	private final IntMap<ChannelQueue> m_channels = new IntMap<ChannelQueue>();
+	private final ArrayDeque<ChannelQueue> m_actives = new ArrayDeque<ChannelQueue>();
+
+	// 출력 채널별 대기 큐
+	private static final class ChannelQueue {
+		private final int m_channelId;
+		private final ArrayDeque<PendingWrite> m_frames = new ArrayDeque<PendingWrite>();
+		private int m_deficit = 0;
+		private boolean m_inTurn = false;		// 이번 차례의 전송량을 이미 배정 받았는지 여부
+
+		ChannelQueue(int channelId) {
+			m_channelId = channelId;
+		}
+	}
+
+	FrameScheduler(ConnectionImpl conn) {
+		m_conn = conn;
+	}
+
+	boolean isEmpty() {
+		return m_latencies.isEmpty() && m_actives.isEmpty();
+	}
+
+	void add(PendingWrite frame) {
+		if ( frame.m_channelId == LATENCY_CLASS ) {
+			m_latencies.addLast(frame);
+
+			return;
+		}
+
+		ChannelQueue queue = m_channels.get(frame.m_channelId);
+		if ( queue == null ) {
+			queue = new ChannelQueue(frame.m_channelId);
+			m_channels.put(frame.m_channelId, queue);
+			m_actives.addLast(queue);
+		}
+		queue.m_frames.addLast(frame);
+	}
+
+	/**
+	 * 다음에 전송할 프레임을 큐에서 제거하여 반환한다.
+	 * <p>
+	 * 다음 프레임의 크기가 <code>limit</code>보다 큰 경우는 프레임을 제거하지 않고
+	 * <code>null</code>을 반환한다. 대기 중인 프레임이 없는 경우도 <code>null</code>을 반환한다.
+	 *
+	 * @param limit	전송할 수 있는 최대 바이트 수.
+	 * @return	다음 전송 프레임.
+	 */
+	PendingWrite poll(int limit) {
+		PendingWrite frame = m_latencies.peekFirst();
+		if ( frame != null ) {
+			return ( frame.m_size <= limit ) ? m_latencies.pollFirst() : null;
+		}
+
+		while ( !m_actives.isEmpty() ) {
+			ChannelQueue queue = m_actives.peekFirst();
+			if ( !queue.m_inTurn ) {
+				queue.m_deficit += m_conn.getBlockSize();
+				queue.m_inTurn = true;
+			}
+
+			frame = queue.m_frames.peekFirst();
+			if ( frame.m_size > queue.m_deficit ) {
+				// 이번 차례의 전송량을 모두 사용한 경우는 다음 채널로 넘어간다.
+				queue.m_inTurn = false;
+				m_actives.addLast(m_actives.pollFirst());
+
+				continue;
+			}
+			if ( frame.m_size > limit ) {
+				return null;
+			}
+
+			queue.m_deficit -= frame.m_size;
+			queue.m_frames.pollFirst();
+			if ( queue.m_frames.isEmpty() ) {
+				m_actives.pollFirst();
+				m_channels.remove(queue.m_channelId);
+			}
+
+			return frame;
+		}
+
+		return null;
+	}
+
+	/**
+	 * 대기 중인 모든 프레임을 제거하여 반환한다.
+	 *
+	 * @return	대기 중이던 프레임들.
+	 */
+	ArrayDeque<PendingWrite> clear() {
+		ArrayDeque<PendingWrite> frames = new ArrayDeque<PendingWrite>(m_latencies);
+		for ( ChannelQueue queue: m_actives ) {
+			frames.addAll(queue.m_frames);
+		}
+		m_latencies.clear();
+		m_actives.clear();
+		m_channels.clear();
+
+		return frames;
+	}
+}
@@ -22,6 +22,7 @@ class HeartbeatAckMessage extends TransportMessage {
 
 	@Override
 	public void handle(ConnectionImpl conn) throws Exception {
+		conn.onHeartbeatAcked();
 	}
 
 	@Override
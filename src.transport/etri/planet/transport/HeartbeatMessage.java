@@ -22,7 +22,7 @@ class HeartbeatMessage extends TransportMessage {
 
 	@Override
 	public void handle(ConnectionImpl conn) throws Exception {
-		conn.write(conn.m_transport.m_hbAckBytes);
+		conn.writeAsync(ByteBuffer.wrap(conn.m_transport.m_hbAckBytes));
 	}
 
 	@Override
@@ -16,6 +16,8 @@ import etri.planet.TransportLoggers;
  * @author Kang-Woo Lee (ETRI)
  */
 public class IncomingDataMessage extends DataMessage {
+	private SharedBuffer.Slice m_slice;
+	
 	public IncomingDataMessage(TransportHeader header) {
 		super(header);
 	}
@@ -30,8 +32,8 @@ public class IncomingDataMessage extends DataMessage {
 		
 		if ( m_header.m_blockNum == 0 ) {
 			InputChannel ichannel = null;
-			if ( m_header.m_final == 1 ) {
-				ichannel = new SingleBlockInputChannel(conn, m_header.m_chId, m_buffer);
+			if ( m_header.isFinal() ) {
+				ichannel = new SingleBlockInputChannel(conn, m_header.m_chId, m_slice);
 				
 				if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
 					TransportLoggers.CHANNEL.debug("opened: " + ichannel + ", " + conn);
@@ -47,14 +49,14 @@ public class IncomingDataMessage extends DataMessage {
 					TransportLoggers.CHANNEL.info("opened: " + ichannel + ", " + conn);
 				}
 				
-				((MultiBlockInputChannel)ichannel).appendBlock(m_buffer, false);
+				((MultiBlockInputChannel)ichannel).appendBlock(m_slice, false);
 			}
 			
 			final InputChannel fic = ichannel;
 			final TransportManagerImpl transport = conn.m_transport;
 			transport.m_executor.execute(new Runnable() {
 				public void run() {
-					transport.m_listener.onInputChannelCreated(fic, m_header.m_final == 1);
+					transport.m_listener.onInputChannelCreated(fic, m_header.isFinal());
 				}
 			});
 		}
@@ -62,10 +64,12 @@ public class IncomingDataMessage extends DataMessage {
 			// 등록된 PlanetInputStream 객체를 찾는다.
 			MultiBlockInputChannel ichannel = conn.lookupInputChannel(m_header.m_chId);
 			if ( ichannel != null ) {
-				ichannel.appendBlock(m_buffer, m_header.m_final == 1);
+				ichannel.appendBlock(m_slice, m_header.isFinal());
 			}
 			else {
 				// 제거된 스트림의 데이타를 읽어서 버린다.
+				m_slice.release();
+				
 				if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
 					TransportLoggers.CHANNEL.debug("discarded msg of unknown channel[" + m_header.m_chId
 											+ "]: msg=" + this);
@@ -74,22 +78,18 @@ public class IncomingDataMessage extends DataMessage {
 		}
 		
 		// 다중 블럭 채널의 마지막 블럭인 경우 해당  채널을 연결에서 등록 해제시킨다.
-		if ( m_header.m_final == 1 && m_header.m_blockNum > 0 ) {
+		if ( m_header.isFinal() && m_header.m_blockNum > 0 ) {
 			conn.unregisterInputChannel(m_header.m_chId);
 		}
 	}
 
+	// payload는 복사되지 않고 수신 버퍼의 slice로 참조된다.
 	@Override
 	public void readPayload(Connection conn, ByteBuffer buf) throws IOException {
 		int length = m_header.m_length - TransportHeader.SIZE;
-		m_buffer = ByteBuffer.allocate(length);
-		if ( buf.remaining() > length ) {
-			TransportUtils.copyTo(buf, m_buffer, length);
-		}
-		else {
-			m_buffer.put(buf);
-		}
-		m_buffer.flip();
+		m_slice = ((ConnectionImpl)conn).m_msgBuilder.slice(length);
+		m_slice.m_compressed = m_header.isCompressed();	// 해제는 input channel의 읽기 쓰레드에서 수행
+		m_buffer = m_slice.m_data;
 	}
 
 	@Override
@@ -104,7 +104,7 @@ public class IncomingDataMessage extends DataMessage {
 
 	@Override
 	public String toString() {
-		if ( m_header.m_final == 0 ) {
+		if ( !m_header.isFinal() ) {
 			return "DATA_CONT[in:" + m_header.toShortString() + "]";
 		}
 		else {
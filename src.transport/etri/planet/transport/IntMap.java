@@ -0,0 +1,180 @@
+package etri.planet.transport;
+
+import java.util.Arrays;
+
+
+/**
+ * int 키를 사용하는 open-addressing(linear probing) 방식의 map.
+ * <p>
+ * 한 lock 안에서만 사용되는 테이블을 위한 것으로, 키를 boxing하지 않으며 동기화도 하지 않는다.
+ * 여러 쓰레드가 lock 없이 조회하는 테이블에는 {@link ConcurrentIntMap}을 사용한다.
+ * 삭제 시에는 뒤따르는 항목들을 당겨 probe 순서를 유지하므로 삭제 표시가 남지 않는다.
+ * <p>
+ * 키 0은 빈 slot을 나타내므로 별도의 필드에 저장된다. <code>null</code> 값은 허용되지 않는다.
+ *
+ * 본 클래스는 ThreadSafe하지 않다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class IntMap<V> {
+	private static final int MIN_CAPACITY = 16;
+	private static final int FREE_KEY = 0;
+
+	private int[] m_keys;
+	private V[] m_values;
+	private int m_mask;
+	private V m_freeKeyValue = null;		// 키 0의 값
+	private int m_size = 0;
+
+	IntMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	V get(int key) {
+		if ( key == FREE_KEY ) {
+			return m_freeKeyValue;
+		}
+
+		int idx = indexOf(key);
+		return ( m_keys[idx] == key ) ? m_values[idx] : null;
+	}
+
+	/**
+	 * 주어진 키의 값을 설정한다.
+	 *
+	 * @return	이전 값. 없었던 경우는 <code>null</code>.
+	 */
+	V put(int key, V value) {
+		if ( value == null ) {
+			throw new NullPointerException("value");
+		}
+
+		if ( key == FREE_KEY ) {
+			V prev = m_freeKeyValue;
+			if ( prev == null ) {
+				++m_size;
+			}
+			m_freeKeyValue = value;
+
+			return prev;
+		}
+
+		int idx = indexOf(key);
+		if ( m_keys[idx] == key ) {
+			V prev = m_values[idx];
+			m_values[idx] = value;
+
+			return prev;
+		}
+
+		if ( 2 * (m_size + 1) > m_mask + 1 ) {
+			rehash(2 * (m_mask + 1));
+			idx = indexOf(key);
+		}
+
+		m_keys[idx] = key;
+		m_values[idx] = value;
+		++m_size;
+
+		return null;
+	}
+
+	V remove(int key) {
+		if ( key == FREE_KEY ) {
+			V prev = m_freeKeyValue;
+			if ( prev != null ) {
+				m_freeKeyValue = null;
+				--m_size;
+			}
+
+			return prev;
+		}
+
+		int idx = indexOf(key);
+		if ( m_keys[idx] != key ) {
+			return null;
+		}
+
+		V prev = m_values[idx];
+		--m_size;
+
+		// 비워진 slot 이후의 항목 중 원래 위치가 비워진 slot 이전인 것을 당겨 채운다.
+		int hole = idx;
+		for ( int i = (hole + 1) & m_mask; m_keys[i] != FREE_KEY; i = (i + 1) & m_mask ) {
+			int home = hash(m_keys[i]) & m_mask;
+			if ( ((i - home) & m_mask) >= ((i - hole) & m_mask) ) {
+				m_keys[hole] = m_keys[i];
+				m_values[hole] = m_values[i];
+				hole = i;
+			}
+		}
+		m_keys[hole] = FREE_KEY;
+		m_values[hole] = null;
+
+		return prev;
+	}
+
+	int size() {
+		return m_size;
+	}
+
+	boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	void clear() {
+		if ( m_mask + 1 > MIN_CAPACITY ) {
+			allocate(MIN_CAPACITY);
+		}
+		else {
+			Arrays.fill(m_keys, FREE_KEY);
+			Arrays.fill(m_values, null);
+		}
+		m_freeKeyValue = null;
+		m_size = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		m_keys = new int[capacity];
+		m_values = (V[])new Object[capacity];
+		m_mask = capacity - 1;
+	}
+
+	private void rehash(int capacity) {
+		int[] keys = m_keys;
+		V[] values = m_values;
+
+		allocate(capacity);
+		for ( int i = 0; i < keys.length; ++i ) {
+			if ( keys[i] != FREE_KEY ) {
+				int idx = indexOf(keys[i]);
+				m_keys[idx] = keys[i];
+				m_values[idx] = values[i];
+			}
+		}
+	}
+
+	// 주어진 키가 기록된 slot 또는 처음 만나는 빈 slot의 위치를 반환한다.
+	// 테이블은 절반 이상 채워지지 않으므로 빈 slot이 항상 존재한다.
+	private int indexOf(int key) {
+		int idx = hash(key) & m_mask;
+		while ( true ) {
+			int k = m_keys[idx];
+			if ( k == key || k == FREE_KEY ) {
+				return idx;
+			}
+
+			idx = (idx + 1) & m_mask;
+		}
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public String toString() {
+		return "IntMap[size=" + m_size + "]";
+	}
+}
@@ -1,16 +1,17 @@
 package etri.planet.transport;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.ArrayList;
+import java.nio.channels.SocketChannel;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import planet.PlanetUtils;
@@ -19,143 +20,274 @@ import etri.planet.TransportLoggers;
 
 
 /**
- * 
+ * 하나의 selector 루프를 담당하는 클래스.
+ * <p>
+ * 연결 요청된 소켓의 OP_CONNECT 이벤트가 발생되면 해당 연결의 연결 설정 다음 단계를 진행시킨다.
+ * 읽기 가능 이벤트가 발생된 연결에 대해서는 이벤트를 감지한 루프 쓰레드에서 직접 소켓 데이타를 읽어
+ * {@link TransportMessage}로 변환하고, 변환된 메시지 중 처리 비용이 큰 것만 executor로 전달한다.
+ * 다른 쓰레드에서 요청된 selection key의 등록 및 interest 변경 요청은 큐에 모아두었다가
+ * 매 select 주기마다 루프 쓰레드에서 한꺼번에 반영한다.
+ *
  * 본 클래스는 ThreadSafe하도록 구현되었다.
- * 
+ *
  * @author Kang-Woo Lee
  */
 class IoScheduler implements Runnable {
+	private final TransportManagerImpl m_transport;
 	public Selector m_selector;
-	private final BlockingQueue<ConnectionImpl> m_ioReadyQ;
-    private final List<ConnectionImpl> m_waiters;	// guarded by "this"
+	private volatile String m_name;
+	private final Queue<ConnectionImpl> m_pendings;		// interest 변경 요청 연결 큐
+	private final Queue<SocketChannel> m_accepteds;		// 등록 대기 중인 받아들인 소켓 큐
+	private final Queue<ConnectionImpl> m_closeds;
+	private final Queue<ConnectionImpl> m_trims;		// 수신 버퍼 유휴 검사 요청 연결 큐
     private volatile boolean m_normalShutdown;
     private final AtomicBoolean m_selecting;
-	
-	IoScheduler(BlockingQueue<ConnectionImpl> connQ) {
-		m_ioReadyQ = connQ;
-		m_waiters = new ArrayList<ConnectionImpl>();
+    private final ByteBuffer m_doorbellBuffer = ByteBuffer.allocate(64);	// 루프 쓰레드만 사용
+
+	IoScheduler(TransportManagerImpl transport) {
+		m_transport = transport;
+		m_pendings = new ConcurrentLinkedQueue<ConnectionImpl>();
+		m_accepteds = new ConcurrentLinkedQueue<SocketChannel>();
+		m_closeds = new ConcurrentLinkedQueue<ConnectionImpl>();
+		m_trims = new ConcurrentLinkedQueue<ConnectionImpl>();
 		m_normalShutdown = false;
 		m_selecting = new AtomicBoolean(false);
 	}
-	
-	void start() throws IOException {
+
+	void start(ThreadGroup grp, String name) throws IOException {
 		m_selector = Selector.open();
-		
-		ThreadGroup grp = new ThreadGroup("planet:high");
-		grp.setMaxPriority(Thread.MAX_PRIORITY);
-		new Thread(grp, this, "planet:io-scheduler").start();
+		m_name = name;
+
+		new Thread(grp, this, name).start();
 	}
-	
+
+	// selector는 루프 쓰레드에서 닫는다. 다른 쓰레드에서 닫으면 루프 쓰레드가
+	// selected key 집합을 처리하는 도중에 집합이 변경될 수 있기 때문이다.
 	void shutdown() {
-		try {
-			m_normalShutdown = true;
-			
-			m_selector.close();
-			
-			if ( TransportLoggers.SELECTOR.isInfoEnabled() ) {
-				TransportLoggers.SELECTOR.info("stopped: " + getClass().getSimpleName());
-			}
-		}
-		catch ( IOException e ) {
-			TransportLoggers.SELECTOR.warn("exception ignored while closing TransportManager", e);
+		m_normalShutdown = true;
+		m_selector.wakeup();
+
+		if ( TransportLoggers.SELECTOR.isInfoEnabled() ) {
+			TransportLoggers.SELECTOR.info("stopped: " + getClass().getSimpleName()
+											+ "[" + m_name + "]");
 		}
 	}
-    
-	synchronized void submitForRead(ConnectionImpl conn) {
-		synchronized ( conn ) {
-			conn.m_ops |= SelectionKey.OP_READ;
-			if ( conn.m_selectionKey != null ) {
-				conn.m_selectionKey.interestOps(conn.m_ops);
-			}
-		}
-		m_waiters.add(conn);
-		
-		if ( m_selecting.get() ) {
-			if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
-				TransportLoggers.SELECTOR.debug("interrupt selector for reader registration");
-			}
-			
-			m_selector.wakeup();
-		}
+
+	// 연결을 selector에 등록하여 읽기 이벤트 감시를 시작시킨다.
+	// 한번 등록된 연결은 닫힐 때까지 OP_READ가 해제되지 않는다.
+	void submitForRead(ConnectionImpl conn) {
+		requestOps(conn, SelectionKey.OP_READ);
     }
-    
+
+	// accept 루프가 받아들인 소켓을 넘겨 받는다. 소켓 설정과 selector 등록은 루프 쓰레드에서 수행된다.
+	void submitForAccept(SocketChannel sockChannel) {
+		m_accepteds.add(sockChannel);
+		wakeupIfSelecting();
+	}
+
+	// 연결 요청된 소켓을 selector에 등록하여 TCP 연결 완료 이벤트를 기다린다.
+	void submitForConnect(ConnectionImpl conn) {
+		requestOps(conn, SelectionKey.OP_CONNECT);
+	}
+
 	void submitForWrite(ConnectionImpl conn) {
-		synchronized ( conn ) {
-			conn.m_ops |= SelectionKey.OP_WRITE;
-			conn.m_selectionKey.interestOps(conn.m_ops);
-		}
-    	
+		requestOps(conn, SelectionKey.OP_WRITE);
+
 		if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
 			TransportLoggers.SELECTOR.debug("submit for write: channel[" + conn + "]");
 		}
-		
-		if ( m_selecting.get() ) {
-			if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
-				TransportLoggers.SELECTOR.debug("interrupt selector for writer registration");
-			}
-			
-			m_selector.wakeup();
-		}
     }
-	
+
+	// 연결이 닫힌 경우, 해당 연결의 selection key를 소속 selector 루프에서 해제하도록 한다.
+	void submitForClose(ConnectionImpl conn) {
+		m_closeds.add(conn);
+		wakeupIfSelecting();
+	}
+
+	// 연결의 수신 버퍼 유휴 검사를 요청한다. 수신 버퍼는 루프 쓰레드만 사용하므로 검사도 루프 쓰레드에서 한다.
+	void submitForTrim(ConnectionImpl conn) {
+		m_trims.add(conn);
+		wakeupIfSelecting();
+	}
+
 	public void run() {
 		try {
-			while ( true ) {
-//				m_selecting.set(true);
-//				StringBuilder builder = new StringBuilder();
-//				for ( SelectionKey key: m_selector.keys() ) {
-//					builder.append(',').append(key.interestOps());
-//				}
-//				String pattern = (builder.length() > 0) ? builder.substring(1) : "";
-//				System.out.print("selecting (keys=" + pattern + ")..."); System.out.flush();
-//				int n = m_selector.select();
-//				System.out.println(" -> selected=" + n);
-//				m_selecting.set(false);
-				
+			while ( !m_normalShutdown ) {
+				// 'm_selecting'을 먼저 설정한 후 대기 요청들을 반영해야, 반영 이후에 추가된 요청에 대해
+				// 요청 쓰레드가 selector를 깨울 수 있다.
 				m_selecting.set(true);
+				applyPendings();
 				m_selector.select();
 				m_selecting.set(false);
-				
+
 				schedule();
 			}
 		}
 		catch ( IOException e ) {
 			if ( !m_normalShutdown ) {
-				TransportLoggers.SELECTOR.error("failed: IoScheduler (Selector closed)", e);
+				TransportLoggers.SELECTOR.error("failed: IoScheduler[" + m_name + "] (Selector closed)", e);
 			}
 		}
 		catch ( ClosedSelectorException e ) {
 			if ( !m_normalShutdown ) {
-				TransportLoggers.SELECTOR.error("shutdown: IoScheduler (Selector closed)");
+				TransportLoggers.SELECTOR.error("shutdown: IoScheduler[" + m_name + "] (Selector closed)");
+			}
+		}
+		finally {
+			cancelClosedKeys();
+
+			try {
+				m_selector.close();
+			}
+			catch ( IOException e ) {
+				TransportLoggers.SELECTOR.warn("exception ignored while closing Selector", e);
+			}
+		}
+	}
+
+	private void requestOps(ConnectionImpl conn, int ops) {
+		while ( true ) {
+			int prev = conn.m_requestedOps.get();
+			if ( (prev & ops) == ops ) {
+				// 이미 동일 요청이 대기 중인 경우
+				return;
+			}
+
+			if ( conn.m_requestedOps.compareAndSet(prev, prev | ops) ) {
+				if ( prev == 0 ) {
+					m_pendings.add(conn);
+
+					if ( m_selecting.get() ) {
+						if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
+							TransportLoggers.SELECTOR.debug("interrupt selector for registration: " + conn);
+						}
+
+						m_selector.wakeup();
+					}
+				}
+
+				return;
+			}
+		}
+	}
+
+	private void wakeupIfSelecting() {
+		if ( m_selecting.get() ) {
+			m_selector.wakeup();
+		}
+	}
+
+	private void applyPendings() {
+		registerAccepteds();
+
+		ConnectionImpl conn;
+		while ( (conn = m_pendings.poll()) != null ) {
+			int ops = conn.m_requestedOps.getAndSet(0);
+
+			try {
+				SelectionKey key = conn.m_selectionKey;
+				if ( key == null ) {
+					conn.m_selectionKey = conn.m_sockChannel.register(m_selector, ops, conn);
+
+					if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
+						TransportLoggers.SELECTOR.debug("register: " + conn + ", ops=" + ops);
+					}
+				}
+				else {
+					key.interestOps(key.interestOps() | ops);
+				}
+			}
+			catch ( CancelledKeyException e ) { }
+			catch ( ClosedChannelException e ) { }
+		}
+
+		cancelClosedKeys();
+		trimIdleBuffers();
+	}
+
+	// 유휴 시간이 지난 수신 버퍼를 반환한다. 아직 유휴 시간이 지나지 않은 경우는 남은 시간 후에 다시 검사한다.
+	// 닫힌 연결의 버퍼는 cancelClosedKeys()에서, 수신 경로가 전환된 연결의 버퍼는 ShmPoller가 관리한다.
+	private void trimIdleBuffers() {
+		ConnectionImpl conn;
+		while ( (conn = m_trims.poll()) != null ) {
+			if ( conn.isClosed() || conn.getSharedMemoryInRing() != null ) {
+				continue;
+			}
+
+			long idleMillis = conn.m_transport.getBufferIdleTimeout();
+			if ( idleMillis >= 0 ) {
+				long remains = conn.m_msgBuilder.trim(idleMillis);
+				if ( remains >= 0 ) {
+					conn.scheduleBufferTrim(remains);
+				}
+				else if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
+					TransportLoggers.SELECTOR.debug("released idle receive buffer: " + conn);
+				}
 			}
 		}
 	}
-	
+
+	private void registerAccepteds() {
+		SocketChannel sockChannel;
+		while ( (sockChannel = m_accepteds.poll()) != null ) {
+			try {
+				ConnectionImpl conn = new ConnectionImpl(m_transport, sockChannel, this);
+				conn.m_selectionKey = sockChannel.register(m_selector, SelectionKey.OP_READ, conn);
+				conn.scheduleConnectTimeout();
+
+				if ( TransportLoggers.ACCEPTOR.isInfoEnabled() ) {
+					TransportLoggers.ACCEPTOR.info("acceptted: " + conn);
+				}
+			}
+			catch ( IOException e ) {
+				TransportLoggers.ACCEPTOR.warn("fails to register an accepted socket: cause=" + e);
+
+				try {
+					sockChannel.close();
+				}
+				catch ( IOException ignored ) { }
+			}
+		}
+	}
+
+	private void cancelClosedKeys() {
+		ConnectionImpl conn;
+		while ( (conn = m_closeds.poll()) != null ) {
+			SelectionKey key = conn.m_selectionKey;
+			if ( key != null ) {
+				key.cancel();
+			}
+			
+			// 루프 쓰레드만 수신 버퍼를 사용하므로, 여기서 반환하는 것이 안전하다.
+			// 수신 경로가 공유 메모리 ring으로 전환된 연결은 ShmPoller가 반환한다.
+			if ( conn.getSharedMemoryInRing() == null ) {
+				conn.m_msgBuilder.release();
+			}
+		}
+	}
+
 	private void schedule() {
 		Set<SelectionKey> selectedKeys = m_selector.selectedKeys();
-		
+
 		int remains = selectedKeys.size();
 		if ( remains > 0 ) {
 			for ( Iterator<SelectionKey> iter = selectedKeys.iterator(); remains > 0; --remains ) {
 				SelectionKey key = iter.next();
 				ConnectionImpl conn = (ConnectionImpl)key.attachment();
-//				System.out.println("\tconn=" + conn.getId() + ", read=" + key.isReadable() + ",write=" + key.isWritable());
 
 				try {
-					if ( key.isReadable() ) {
-						synchronized ( conn ) {
-							conn.m_ops &= ~SelectionKey.OP_READ;
-							conn.m_selectionKey.interestOps(conn.m_ops);
-						}
-						
-						m_ioReadyQ.put(conn);
+					if ( key.isConnectable() ) {
+						key.interestOps(key.interestOps() & ~SelectionKey.OP_CONNECT);
+
+						conn.notifyConnectable();
+					}
+
+					if ( key.isValid() && key.isReadable() ) {
+						handleReadable(conn);
 					}
-					
-					if ( key.isWritable() ) {
-						synchronized ( conn ) {
-							conn.m_ops &= ~SelectionKey.OP_WRITE;
-							conn.m_selectionKey.interestOps(conn.m_ops);
-						}
+
+					if ( key.isValid() && key.isWritable() ) {
+						key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
 
 						conn.notifyWriteIsReady();
 					}
@@ -163,31 +295,155 @@ class IoScheduler implements Runnable {
 				catch ( CancelledKeyException ignored ) { }
 				catch ( Exception e ) {
 					TransportLoggers.SELECTOR.warn("" + PlanetUtils.unwrapThrowable(e));
-					
+
 					conn.close();
 				}
 			}
 			selectedKeys.clear();
 		}
-		
-		synchronized ( this ) {
-			int size = m_waiters.size();
-			for ( int i =0; i < size; ++i ) {
-				ConnectionImpl conn = m_waiters.get(i);
-					
-				try {
-					conn.m_selectionKey = conn.m_sockChannel.register(m_selector,
-																conn.m_ops, conn);
-			    	
-					if ( TransportLoggers.SELECTOR.isDebugEnabled() ) {
-						TransportLoggers.SELECTOR.debug("register for read: " + conn + "]");
-					}
+	}
+
+	//
+	// 읽기 가능 이벤트가 발생된 연결에서 데이타를 읽고, 완성된 메시지를 모두 처리한다.
+	// 완성되지 않은 메시지의 나머지 데이타는 다음 읽기 이벤트에서 처리된다.
+	//
+	private void handleReadable(final ConnectionImpl conn) {
+		if ( conn.isClosed() ) {
+			return;
+		}
+		if ( conn.getSharedMemoryInRing() != null ) {
+			handleDoorbell(conn);
+
+			return;
+		}
+
+		MessageBuilder builder = conn.m_msgBuilder;
+		try {
+			if ( !builder.fillBuffer() ) {
+				return;
+			}
+		}
+		catch ( IOException expected ) {
+			// 소켓이 끊어져서 IO event가 발생된 경우.
+			conn.close();
+
+			return;
+		}
+
+		dispatchMessages(conn, builder, true);
+	}
+
+	/**
+	 * 수신 버퍼에 완성된 메시지를 모두 처리한다.
+	 * <p>
+	 * 처리 비용이 작은 메시지는 호출 쓰레드에서 바로 처리하고, 나머지는 executor로 전달한다.
+	 * 소켓에서 읽은 메시지를 처리하던 중 수신 경로가 공유 메모리 ring으로 전환된 경우는, 남은 데이타를
+	 * 버리고 연결을 {@link ShmPoller}에 넘긴다.
+	 *
+	 * @param fromSocket	소켓에서 읽은 데이타인지 여부.
+	 */
+	static void dispatchMessages(final ConnectionImpl conn, MessageBuilder builder,
+								boolean fromSocket) {
+		while ( true ) {
+			TransportMessage msg;
+			try {
+				msg = builder.build();
+				if ( msg == null ) {
+					builder.compact();
+
+					return;
 				}
-				catch ( CancelledKeyException e ) { }
-				catch ( ClosedChannelException e ) { }
 			}
-			
-			m_waiters.clear();
+			catch ( IOException e ) {
+				TransportLoggers.IO.error("fails to read TransportMessage: conn=" + conn
+											+ ", cause=" + PlanetUtils.unwrapThrowable(e));
+
+				conn.close();
+
+				return;
+			}
+
+			builder.resetHeader();
+
+			if ( isNonblocking(msg) ) {
+				handleMessage(conn, msg);
+			}
+			else {
+				final TransportMessage fmsg = msg;
+				conn.m_transport.m_executor.execute(new Runnable() {
+					public void run() {
+						handleMessage(conn, fmsg);
+					}
+				});
+			}
+
+			if ( fromSocket && conn.getSharedMemoryInRing() != null ) {
+				builder.discard();
+				conn.m_transport.getShmPoller().addReader(conn);
+
+				return;
+			}
+
+			if ( builder.remaining() == 0 ) {
+				builder.compact();
+
+				return;
+			}
 		}
 	}
-}
\ No newline at end of file
+
+	// 수신 경로가 공유 메모리 ring으로 전환된 연결의 소켓에는 상대방이 보낸 신호용 바이트만 수신된다.
+	private void handleDoorbell(ConnectionImpl conn) {
+		try {
+			int nbytes;
+			do {
+				m_doorbellBuffer.clear();
+				nbytes = conn.m_sockChannel.read(m_doorbellBuffer);
+				if ( nbytes < 0 ) {
+					throw new IOException("peer closed");
+				}
+			} while ( nbytes == m_doorbellBuffer.capacity() );
+		}
+		catch ( IOException expected ) {
+			conn.close();
+
+			return;
+		}
+
+		conn.m_transport.getShmPoller().wakeup();
+	}
+
+	// 루프 쓰레드에서 바로 처리하여도 blocking되지 않는 메시지인가를 판단한다.
+	private static boolean isNonblocking(TransportMessage msg) {
+		switch ( msg.m_header.m_code ) {
+			case TransportHeader.CODE_CONNECT_REPLY:
+			case TransportHeader.CODE_HEARTBEAT:
+			case TransportHeader.CODE_HEARTBEAT_ACK:
+			case TransportHeader.CODE_DATA:
+				return true;
+			case TransportHeader.CODE_DATA_CTRL:
+				return ((DataControlMessage)msg).isFlowControl();
+			case TransportHeader.CODE_SHM_CTRL:
+				return ((ShmControlMessage)msg).isSwitch();
+			default:
+				return false;
+		}
+	}
+
+	private static void handleMessage(final ConnectionImpl conn, final TransportMessage msg) {
+		try {
+			msg.handle(conn);
+		}
+		catch ( Exception e ) {
+			TransportLoggers.IO.error("fails to handle TransportMessage: msg=" + msg
+										+ ", conn=" + conn
+										+ ", cause=" + PlanetUtils.unwrapThrowable(e));
+
+			conn.close();
+		}
+	}
+
+	public String toString() {
+		return "IoScheduler[" + m_name + "]";
+	}
+}
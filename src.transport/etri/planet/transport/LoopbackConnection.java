@@ -0,0 +1,324 @@
+package etri.planet.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import planet.DisconnectionHandler;
+import planet.transport.Connection;
+import planet.transport.OutputChannel;
+
+import etri.planet.TransportLoggers;
+import etri.planet.thread.TimedThread;
+
+
+/**
+ * 같은 JVM에 등록된 두 TransportManager 사이의 연결.
+ * <p>
+ * 소켓과 selector 루프를 사용하지 않고, 출력 채널에 쓰여진 데이타 버퍼를 인코딩 없이 그대로
+ * 상대 연결의 입력 채널 큐에 참조로 전달한다. 연결은 양측에 하나씩 쌍으로 생성되어 각 TransportManager에
+ * 등록되며, 한쪽이 닫히면 상대 연결도 함께 닫힌다.
+ * 흐름 제어는 입력 채널 큐의 크기로만 이루어지므로, 블럭 크기와 윈도우 협상, 압축, heartbeat는
+ * 사용하지 않는다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class LoopbackConnection implements Connection {
+	final TransportManagerImpl m_transport;
+	private final String m_id;
+	private final boolean m_active;
+	private volatile LoopbackConnection m_peer;
+	private final AtomicBoolean m_closed = new AtomicBoolean(false);
+
+	private final AtomicInteger m_channelIdGen = new AtomicInteger(0);
+	private final ConcurrentIntMap<LoopbackOutputChannel> m_outChannels
+										= new ConcurrentIntMap<LoopbackOutputChannel>();
+	private final ConcurrentIntMap<LoopbackInputChannel> m_inChannels
+										= new ConcurrentIntMap<LoopbackInputChannel>();
+	private final CopyOnWriteArraySet<DisconnectionHandler> m_disconnListeners
+										= new CopyOnWriteArraySet<DisconnectionHandler>();
+	private volatile Object m_attachment;
+	@GuardedBy("this") private String m_description;
+
+	private volatile long m_maxIdleMillis = -1;
+	private volatile long m_lastAccessMillis;
+	@GuardedBy("this") private TimingWheel.Timeout m_idleTimeout;
+	private final Runnable m_idleTask = new Runnable() {
+		public void run() {
+			onIdleTimeout();
+		}
+	};
+
+	LoopbackConnection(TransportManagerImpl transport, String peerId, boolean active) {
+		m_transport = transport;
+		m_id = peerId;
+		m_active = active;
+		m_lastAccessMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * 서로 다른 TransportManager에 속한 한 쌍의 연결을 생성한다.
+	 *
+	 * @param requester	연결을 요청한 TransportManager.
+	 * @param acceptor	연결 요청을 받는 TransportManager.
+	 * @return	요청측 연결과 수락측 연결의 배열.
+	 */
+	static LoopbackConnection[] newPair(TransportManagerImpl requester,
+										TransportManagerImpl acceptor) {
+		LoopbackConnection active = new LoopbackConnection(requester, acceptor.getId(), true);
+		LoopbackConnection passive = new LoopbackConnection(acceptor, requester.getId(), false);
+		active.m_peer = passive;
+		passive.m_peer = active;
+
+		return new LoopbackConnection[]{active, passive};
+	}
+
+	@Override
+	public String getId() {
+		return m_id;
+	}
+
+	LoopbackConnection getPeer() {
+		return m_peer;
+	}
+
+	@Override
+	public void close() {
+		if ( !m_closed.compareAndSet(false, true) ) {
+			return;
+		}
+
+		for ( LoopbackOutputChannel ch: m_outChannels.values() ) {
+			try {
+				ch.close(false);
+			}
+			catch ( IOException ignored ) { }
+		}
+		for ( LoopbackInputChannel ch: m_inChannels.values() ) {
+			ch.close(true);
+		}
+
+		synchronized ( this ) {
+			if ( m_idleTimeout != null ) {
+				m_idleTimeout.cancel();
+			}
+		}
+
+		if ( TransportLoggers.CONN.isInfoEnabled() ) {
+			TransportLoggers.CONN.info("closed: " + this);
+		}
+
+		m_transport.onLoopbackClosed(this);
+
+		for ( final DisconnectionHandler listener: m_disconnListeners ) {
+			m_transport.m_executor.execute(new Runnable() {
+				public void run() {
+					TimedThread.setTaskDescription("DisconnectionHandler.onDisconnected on "
+													+ listener);
+					try {
+						listener.onDisconnected(LoopbackConnection.this);
+					}
+					catch ( Throwable ignored ) { }
+				}
+			});
+		}
+
+		// 상대측 연결도 닫는다.
+		m_peer.close();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return m_closed.get();
+	}
+
+	@Override
+	public boolean isActive() {
+		return m_active;
+	}
+
+	@Override
+	public OutputChannel allocateOutputChannel() throws IOException {
+		if ( isClosed() ) {
+			throw new EOFException("" + this);
+		}
+
+		int id = m_channelIdGen.incrementAndGet();
+		LoopbackOutputChannel ochannel = new LoopbackOutputChannel(this, id,
+																m_transport.getMaxBlockSize());
+		m_outChannels.put(id, ochannel);
+
+		if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
+			TransportLoggers.CHANNEL.debug("allocated: " + ochannel + ", " + this);
+		}
+
+		return ochannel;
+	}
+
+	void onOutputChannelClosed(int id) {
+		m_outChannels.remove(id);
+	}
+
+	/**
+	 * 상대측 출력 채널의 첫 데이타 버퍼로 입력 채널을 생성하고 청취자에게 알린다.
+	 * <p>
+	 * 여러 버퍼로 구성될 메시지의 입력 채널은 연결이 닫힐 때 함께 닫히도록 등록된다.
+	 *
+	 * @param source	데이타를 보내는 상대측 출력 채널.
+	 * @param first		첫 데이타 버퍼.
+	 * @param isFinal	첫 버퍼가 메시지의 마지막 버퍼인지 여부.
+	 * @return	생성된 입력 채널. 연결이 이미 닫힌 경우는 <code>null</code>.
+	 */
+	LoopbackInputChannel openInputChannel(LoopbackOutputChannel source, ByteBuffer first,
+											boolean isFinal) {
+		if ( isClosed() ) {
+			return null;
+		}
+
+		final LoopbackInputChannel ichannel = new LoopbackInputChannel(this, source, first, isFinal);
+		if ( !isFinal ) {
+			m_inChannels.put(ichannel.getId(), ichannel);
+			
+			// 등록 중에 연결이 닫힌 경우는 close()가 채널을 보지 못했을 수 있다.
+			if ( isClosed() ) {
+				ichannel.close(true);
+				
+				return null;
+			}
+		}
+
+		if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
+			TransportLoggers.CHANNEL.debug("opened: " + ichannel + ", " + this);
+		}
+
+		final boolean nonblocking = isFinal;
+		final TransportManagerImpl transport = m_transport;
+		transport.m_executor.execute(new Runnable() {
+			public void run() {
+				transport.m_listener.onInputChannelCreated(ichannel, nonblocking);
+			}
+		});
+
+		return ichannel;
+	}
+
+	void unregisterInputChannel(int id) {
+		m_inChannels.remove(id);
+	}
+
+	@Override
+	public Object getAttachment() {
+		return m_attachment;
+	}
+
+	@Override
+	public void setAttachment(Object att) {
+		m_attachment = att;
+	}
+
+	@Override
+	public synchronized String getDescription() {
+		return m_description;
+	}
+
+	@Override
+	public synchronized void setDescription(String description) {
+		m_description = description;
+	}
+
+	@Override
+	public int getMaxIdleSeconds() {
+		return (int)TimeUnit.MILLISECONDS.toSeconds(m_maxIdleMillis);
+	}
+
+	@Override
+	public void setMaxIdleSeconds(int seconds) {
+		if ( seconds < 0 ) {
+			m_maxIdleMillis = -1;
+			synchronized ( this ) {
+				if ( m_idleTimeout != null ) {
+					m_idleTimeout.cancel();
+					m_idleTimeout = null;
+				}
+			}
+		}
+		else {
+			m_maxIdleMillis = TimeUnit.SECONDS.toMillis(seconds);
+			m_lastAccessMillis = System.currentTimeMillis();
+
+			scheduleIdleCheck(m_maxIdleMillis);
+		}
+	}
+
+	void updateDataAccessTime() {
+		m_lastAccessMillis = System.currentTimeMillis();
+	}
+
+	private void onIdleTimeout() {
+		long maxIdleMillis = m_maxIdleMillis;
+		if ( maxIdleMillis < 0 || isClosed() ) {
+			return;
+		}
+
+		long remains = m_lastAccessMillis + maxIdleMillis - System.currentTimeMillis();
+		if ( remains < 0 ) {
+			if ( TransportLoggers.CONN.isInfoEnabled() ) {
+				TransportLoggers.CONN.info("disconnect due to idle timeout=" + this);
+			}
+
+			close();
+		}
+		else {
+			scheduleIdleCheck(remains);
+		}
+	}
+
+	private synchronized void scheduleIdleCheck(long delay) {
+		if ( m_idleTimeout != null ) {
+			m_idleTimeout.cancel();
+		}
+		m_idleTimeout = m_transport.m_timer.schedule(m_idleTask, delay);
+	}
+
+	@Override
+	public void addDisconnectionHandler(final DisconnectionHandler handler) {
+		if ( handler == null ) {
+			throw new NullPointerException("DisconnectionHandler was null");
+		}
+
+		if ( isClosed() ) {
+			m_transport.m_executor.execute(new Runnable() {
+				public void run() {
+					try {
+						handler.onDisconnected(LoopbackConnection.this);
+					}
+					catch ( Throwable ignored ) { }
+				}
+			});
+		}
+		else {
+			m_disconnListeners.add(handler);
+			if ( TransportLoggers.CONN.isDebugEnabled() ) {
+				TransportLoggers.CONN.debug("added DisconnectionHandler[" + handler + "]");
+			}
+		}
+	}
+
+	@Override
+	public void removeDisconnectionHandler(DisconnectionHandler handler) {
+		m_disconnListeners.remove(handler);
+	}
+
+	@Override
+	public String toString() {
+		return "conn[loopback:" + m_transport.getId() + ( m_active ? "->" : "<-" ) + m_id + "]";
+	}
+}
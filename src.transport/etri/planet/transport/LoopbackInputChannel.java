@@ -0,0 +1,324 @@
+package etri.planet.transport;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import planet.PlanetUtils;
+import planet.transport.Connection;
+import planet.transport.InputChannel;
+import planet.transport.TransportManager;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * {@link LoopbackConnection}의 입력 채널.
+ * <p>
+ * 상대측 출력 채널이 넘긴 버퍼들을 큐에 쌓아두고 순서대로 읽는다. 큐에 쌓인 버퍼가
+ * {@link #MAX_PENDINGS}개가 되면 상대측 출력 채널은 버퍼가 읽혀질 때까지 대기한다.
+ * 메시지를 끝까지 읽기 전에 닫힌 경우는 상대측 출력 채널도 닫는다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class LoopbackInputChannel implements InputChannel {
+	private static final int MAX_PENDINGS = TransportManager.BUFFER_COUNT + 1;
+
+	private final LoopbackConnection m_conn;
+	private final LoopbackOutputChannel m_source;
+
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_cond = m_lock.newCondition();
+	@GuardedBy("m_lock") private final ArrayDeque<ByteBuffer> m_buffers
+														= new ArrayDeque<ByteBuffer>(MAX_PENDINGS);
+	@GuardedBy("m_lock") private ByteBuffer m_current;
+	@GuardedBy("m_lock") private boolean m_endOfProduce;
+	@GuardedBy("m_lock") private boolean m_closed;
+	@GuardedBy("m_lock") private Listener m_listener;
+
+	LoopbackInputChannel(LoopbackConnection conn, LoopbackOutputChannel source, ByteBuffer first,
+						boolean isFinal) {
+		m_conn = conn;
+		m_source = source;
+		m_current = first;
+		m_endOfProduce = isFinal;
+	}
+
+	@Override
+	public int getId() {
+		return m_source.getId();
+	}
+
+	@Override
+	public Connection getConnection() {
+		return m_conn;
+	}
+
+	@Override
+	public void setListener(Listener listener) {
+		m_lock.lock();
+		try {
+			m_listener = listener;
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		close(false);
+	}
+
+	void close(boolean forced) {
+		Listener listener;
+		boolean aborted;
+
+		m_lock.lock();
+		try {
+			if ( m_closed ) {
+				return;
+			}
+
+			m_closed = true;
+			m_buffers.clear();
+			m_current = null;
+			listener = m_listener;
+			aborted = !m_endOfProduce;
+
+			m_cond.signalAll();
+		}
+		finally {
+			m_lock.unlock();
+		}
+
+		if ( aborted ) {
+			m_conn.unregisterInputChannel(getId());
+
+			// 상대측 출력 채널의 쓰기 쓰레드가 아닌 쓰레드에서 닫는다.
+			if ( !forced ) {
+				m_conn.m_transport.m_executor.execute(new Runnable() {
+					public void run() {
+						try {
+							m_source.closeByOther();
+						}
+						catch ( IOException e ) {
+							if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
+								TransportLoggers.CHANNEL.debug("fails to close source channel: ch="
+													+ m_source + ", cause="
+													+ PlanetUtils.unwrapThrowable(e));
+							}
+						}
+					}
+				});
+			}
+		}
+
+		if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
+			TransportLoggers.CHANNEL.debug("closed: " + this + ", " + m_conn);
+		}
+
+		if ( listener != null ) {
+			listener.onClosed(this);
+		}
+	}
+
+	/**
+	 * 상대측 출력 채널이 넘긴 버퍼를 큐에 추가한다.
+	 * <p>
+	 * 큐가 가득 찬 경우는 여유가 생길 때까지 대기한다.
+	 *
+	 * @param buffer	추가할 버퍼.
+	 * @param isFinal	메시지의 마지막 버퍼인지 여부.
+	 * @return	추가된 경우는 <code>true</code>, 채널이 이미 닫혔거나 끝난 경우는 <code>false</code>.
+	 */
+	boolean append(ByteBuffer buffer, boolean isFinal) throws InterruptedException {
+		m_lock.lock();
+		try {
+			while ( m_buffers.size() >= MAX_PENDINGS && !m_closed && !m_endOfProduce ) {
+				m_cond.await();
+			}
+			if ( m_closed || m_endOfProduce ) {
+				return false;
+			}
+
+			m_buffers.addLast(buffer);
+			m_endOfProduce = isFinal;
+			m_cond.signalAll();
+		}
+		finally {
+			m_lock.unlock();
+		}
+
+		if ( isFinal ) {
+			m_conn.unregisterInputChannel(getId());
+		}
+
+		return true;
+	}
+
+	// 상대측 출력 채널이 메시지를 끝내지 못하고 닫힌 경우 호출된다.
+	void endOfProduce() {
+		m_lock.lock();
+		try {
+			if ( !m_endOfProduce ) {
+				m_endOfProduce = true;
+				m_cond.signalAll();
+			}
+		}
+		finally {
+			m_lock.unlock();
+		}
+
+		m_conn.unregisterInputChannel(getId());
+	}
+
+	@Override
+	public byte read1() throws IOException {
+		m_lock.lock();
+		try {
+			return assertSpace(1).get();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public short read2() throws IOException {
+		m_lock.lock();
+		try {
+			return assertSpace(2).getShort();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public int read4() throws IOException {
+		m_lock.lock();
+		try {
+			return assertSpace(4).getInt();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public long read8() throws IOException {
+		m_lock.lock();
+		try {
+			return assertSpace(8).getLong();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public int readByteBuffer(ByteBuffer buf) throws IOException {
+		m_lock.lock();
+		try {
+			assertOpen();
+
+			int total = buf.remaining();
+			while ( buf.remaining() > 0 ) {
+				if ( (m_current == null || m_current.remaining() == 0) && waitMoreBytes() < 0 ) {
+					break;
+				}
+
+				int nbytes = Math.min(m_current.remaining(), buf.remaining());
+				TransportUtils.copyTo(m_current, buf, nbytes);
+			}
+
+			return total - buf.remaining();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@Override
+	public int readBytes(byte[] bytes, int offset, int length) throws IOException {
+		m_lock.lock();
+		try {
+			assertOpen();
+
+			int remains = length;
+			while ( remains > 0 ) {
+				if ( (m_current == null || m_current.remaining() == 0) && waitMoreBytes() < 0 ) {
+					int nread = length - remains;
+					return ( nread == 0 ) ? -1 : nread;
+				}
+
+				int nbytes = Math.min(m_current.remaining(), remains);
+				m_current.get(bytes, offset, nbytes);
+				remains -= nbytes;
+				offset += nbytes;
+			}
+
+			return length - remains;
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	@GuardedBy("m_lock")
+	private void assertOpen() throws IOException {
+		if ( m_closed ) {
+			throw new IOException("closed already");
+		}
+	}
+
+	// 기본 타입 값은 두 버퍼에 나뉘어 쓰여지지 않는다 (LoopbackOutputChannel 참조).
+	@GuardedBy("m_lock")
+	private ByteBuffer assertSpace(int size) throws IOException {
+		assertOpen();
+
+		while ( m_current == null || m_current.remaining() == 0 ) {
+			if ( waitMoreBytes() < 0 ) {
+				throw new IOException("EOF reached");
+			}
+		}
+		if ( m_current.remaining() < size ) {
+			throw new IOException("EOF reached");
+		}
+
+		return m_current;
+	}
+
+	// 다음 버퍼를 꺼내 현재 버퍼로 설정한다. 메시지의 끝에 도달한 경우는 -1을 반환한다.
+	@GuardedBy("m_lock")
+	private int waitMoreBytes() throws IOException {
+		try {
+			while ( m_buffers.isEmpty() && !m_endOfProduce && !m_closed ) {
+				m_cond.await();
+			}
+		}
+		catch ( InterruptedException e ) {
+			throw new IOException("I/O interrupted");
+		}
+
+		assertOpen();
+		if ( m_buffers.isEmpty() ) {
+			return -1;
+		}
+
+		m_current = m_buffers.pollFirst();
+		m_cond.signalAll();
+
+		return m_current.remaining();
+	}
+
+	public String toString() {
+		return String.format("channel[in:l:%d]", getId());
+	}
+}
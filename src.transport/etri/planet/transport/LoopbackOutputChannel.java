@@ -0,0 +1,221 @@
+package etri.planet.transport;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import planet.transport.Connection;
+import planet.transport.OutputChannel;
+
+import etri.planet.TransportLoggers;
+
+/**
+ * {@link LoopbackConnection}의 출력 채널.
+ * <p>
+ * 데이타는 heap 버퍼에 쓰여지고, flush시 버퍼가 복사 없이 상대측 입력 채널에 넘겨진다.
+ * 넘겨진 버퍼는 다시 사용하지 않으므로 매번 새 버퍼를 할당한다. 작은 메시지에 큰 버퍼가
+ * 할당되지 않도록 버퍼는 {@value BufferPool#MIN_BUFFER_SIZE} 바이트부터 최대 블럭 크기까지
+ * 필요한 만큼 두배씩 키운다.
+ * 상대측 입력 채널에 쌓인 버퍼가 가득 찬 경우 flush는 읽기 쓰레드가 버퍼를 꺼내갈 때까지 대기한다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class LoopbackOutputChannel implements OutputChannel {
+	private final LoopbackConnection m_conn;
+	private final int m_id;
+	private final int m_maxBufferSize;
+	@GuardedBy("this") private ByteBuffer m_buffer;
+	private volatile LoopbackInputChannel m_target;				// 첫 flush 전까지는 null
+	@GuardedBy("this") private boolean m_closed = false;
+	private volatile Listener m_listener;
+
+	LoopbackOutputChannel(LoopbackConnection conn, int channelId, int maxBufferSize) {
+		m_conn = conn;
+		m_id = channelId;
+		m_maxBufferSize = maxBufferSize;
+		m_buffer = ByteBuffer.allocate(BufferPool.MIN_BUFFER_SIZE);
+	}
+
+	@Override
+	public int getId() {
+		return m_id;
+	}
+
+	@Override
+	public Connection getConnection() {
+		return m_conn;
+	}
+
+	@Override
+	public void setListener(Listener listener) {
+		m_listener = listener;
+	}
+
+	@Override
+	public void close(boolean flush) throws IOException {
+		// 상대측 큐를 기다리는 쓰기 쓰레드가 monitor를 잡고 있을 수 있으므로 먼저 깨운다.
+		if ( !flush ) {
+			abortTarget();
+		}
+
+		synchronized ( this ) {
+			if ( m_closed ) {
+				return;
+			}
+
+			if ( flush ) {
+				try {
+					deliver(true);
+				}
+				catch ( IOException ignored ) { }
+			}
+			else {
+				abortTarget();
+			}
+			m_closed = true;
+			m_buffer = null;
+		}
+		m_conn.onOutputChannelClosed(m_id);
+
+		if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
+			TransportLoggers.CHANNEL.debug("closed: " + this + ", " + m_conn);
+		}
+	}
+
+	@Override
+	public void closeByOther() throws IOException {
+		Listener listener = m_listener;
+		if ( listener != null ) {
+			try {
+				listener.beforeClosedByOther();
+			}
+			catch ( Exception e ) { }
+		}
+
+		close(false);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		assertOpen();
+		deliver(false);
+	}
+
+	@Override
+	public synchronized void write1(byte v) throws IOException {
+		ensureSpace(1).put(v);
+	}
+
+	@Override
+	public synchronized void write2(short v) throws IOException {
+		ensureSpace(2).putShort(v);
+	}
+
+	@Override
+	public synchronized void write4(int v) throws IOException {
+		ensureSpace(4).putInt(v);
+	}
+
+	@Override
+	public synchronized void write8(long v) throws IOException {
+		ensureSpace(8).putLong(v);
+	}
+
+	@Override
+	public void writen(byte[] bytes, int offset, int length) throws IOException {
+		writen(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	@Override
+	public void writen(byte[] bytes) throws IOException {
+		writen(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public synchronized void writen(ByteBuffer buffer) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			ByteBuffer buf = ensureSpace(1);
+			int nbytes = Math.min(buf.remaining(), buffer.remaining());
+			TransportUtils.copyTo(buffer, buf, nbytes);
+		}
+	}
+
+	// 메시지를 끝내지 못하고 닫힌 경우는 읽는 쪽이 무한히 대기하지 않도록 끝을 알린다.
+	private void abortTarget() {
+		LoopbackInputChannel target = m_target;
+		if ( target != null ) {
+			target.endOfProduce();
+		}
+	}
+
+	// 버퍼에 'size' 바이트 이상의 여유가 있도록 한다. 최대 크기까지 키운 버퍼에도 여유가 없으면
+	// 버퍼를 상대측에 넘기고 새 버퍼를 할당한다. 기본 타입 값은 두 버퍼에 나뉘어 쓰여지지 않는다.
+	@GuardedBy("this")
+	private ByteBuffer ensureSpace(int size) throws IOException {
+		assertOpen();
+
+		if ( m_buffer.remaining() >= size ) {
+			return m_buffer;
+		}
+
+		if ( m_buffer.capacity() < m_maxBufferSize ) {
+			int capacity = Math.min(m_buffer.capacity() * 2, m_maxBufferSize);
+			ByteBuffer grown = ByteBuffer.allocate(capacity);
+			m_buffer.flip();
+			grown.put(m_buffer);
+			m_buffer = grown;
+		}
+		else {
+			deliver(false);
+		}
+
+		return m_buffer;
+	}
+
+	// 현재 버퍼를 상대측 입력 채널에 넘긴다. 첫 버퍼인 경우는 상대측에 입력 채널을 생성한다.
+	@GuardedBy("this")
+	private void deliver(boolean isFinal) throws IOException {
+		ByteBuffer data = m_buffer;
+		data.flip();
+		m_buffer = ( isFinal ) ? null : ByteBuffer.allocate(data.capacity());
+
+		if ( m_target == null ) {
+			m_target = m_conn.getPeer().openInputChannel(this, data, isFinal);
+			if ( m_target == null ) {
+				throw new EOFException("" + m_conn);
+			}
+		}
+		else {
+			try {
+				if ( !m_target.append(data, isFinal) ) {
+					throw new EOFException("closed by other: " + this);
+				}
+			}
+			catch ( InterruptedException e ) {
+				throw new IOException("I/O interrupted");
+			}
+		}
+
+		m_conn.updateDataAccessTime();
+		m_conn.getPeer().updateDataAccessTime();
+
+		if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
+			TransportLoggers.CHANNEL.debug("delivered: " + this + ", length=" + data.remaining()
+											+ ", final=" + isFinal);
+		}
+	}
+
+	@GuardedBy("this")
+	private void assertOpen() throws EOFException {
+		if ( m_closed ) {
+			throw new EOFException("closed already: " + this);
+		}
+	}
+
+	public String toString() {
+		return String.format("channel[out:l:%d]", m_id);
+	}
+}
@@ -0,0 +1,191 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * TransportManager 전체가 사용하는 전송 버퍼 메모리의 상한.
+ * <p>
+ * 수신 버퍼, 출력 채널의 블럭 버퍼, 송신 큐에 복사된 데이타 등 {@link BufferPool}에서 할당되는
+ * 버퍼는 모두 본 객체를 통해 할당되고 반환되어, 그 크기의 합이 사용량으로 기록된다.
+ * 상한이 설정된 경우 대기할 수 있는 쓰레드(출력 채널에 쓰는 쓰레드)는 사용량이 상한 이하로
+ * 줄어들 때까지 대기하여, 메모리가 부족할 때까지 버퍼를 할당하는 대신 송신측에 backpressure를 건다.
+ * selector 루프처럼 대기할 수 없는 쓰레드의 할당은 상한과 관계없이 허용되지만 사용량에는 포함된다.
+ * 수신측의 메모리는 채널별 수신 윈도우로 제한된다.
+ * <p>
+ * 사용 중인 메모리가 없는 경우는 상한보다 큰 할당도 허용하여, 하나의 큰 요청이 영원히 대기하지 않도록 한다.
+ * <p>
+ * 반환된 버퍼는 사용량에서 제외되어 {@link BufferPool}에 보관된다. 상한에 가까운 경우나 대기 중인
+ * 쓰레드가 있는 경우는 반환하는 쓰레드의 캐쉬에 남지 않도록 공유 pool로 반환하여, 대기하던 쓰레드가
+ * 새 메모리를 할당하지 않고 그 버퍼를 재사용하도록 한다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class MemoryBudget {
+	private final AtomicLong m_used = new AtomicLong(0);
+	private volatile long m_limit = 0;					// 0: 제한 없음
+	private final AtomicInteger m_waiterCount = new AtomicInteger(0);
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_released = m_lock.newCondition();
+
+	long getLimit() {
+		return m_limit;
+	}
+
+	void setLimit(long bytes) {
+		m_limit = bytes;
+		signalWaiters();
+	}
+
+	long getUsed() {
+		return m_used.get();
+	}
+
+	/**
+	 * 주어진 크기의 버퍼를 할당한다. 상한을 넘는 경우는 사용량이 줄어들 때까지 대기한다.
+	 *
+	 * @param size		필요한 버퍼 크기.
+	 * @param timeout	최대 대기 시간 (millisecond).
+	 * @return	할당된 버퍼.
+	 * @throws IOException	제한 시간 내에 메모리를 확보하지 못했거나, 대기 도중 쓰레드가 중단된 경우.
+	 */
+	ByteBuffer acquire(int size, long timeout) throws IOException {
+		reserve(BufferPool.capacityOf(size), timeout);
+
+		return BufferPool.acquire(size);
+	}
+
+	/**
+	 * 상한과 관계없이 주어진 크기의 버퍼를 할당한다. 대기할 수 없는 쓰레드에서 사용된다.
+	 *
+	 * @param size	필요한 버퍼 크기.
+	 * @return	할당된 버퍼.
+	 */
+	ByteBuffer acquireNow(int size) {
+		m_used.addAndGet(BufferPool.capacityOf(size));
+
+		return BufferPool.acquire(size);
+	}
+
+	/**
+	 * 본 객체로 할당된 버퍼를 pool로 반환한다.
+	 */
+	void release(ByteBuffer buf) {
+		if ( buf != null ) {
+			// 대기 중인 쓰레드를 깨우기 전에 버퍼를 먼저 pool로 반환해야, 깨어난 쓰레드가 재사용할 수 있다.
+			int capacity = buf.capacity();
+			if ( isTight() ) {
+				BufferPool.releaseShared(buf);
+			}
+			else {
+				BufferPool.release(buf);
+			}
+			credit(capacity);
+		}
+	}
+
+	/**
+	 * 다른 쓰레드가 아직 사용 중일 수 있는 버퍼를 pool로 반환하지 않고 폐기한다.
+	 * 버퍼는 GC가 회수하므로 사용량에서는 바로 제외된다.
+	 */
+	void discard(ByteBuffer buf) {
+		if ( buf != null ) {
+			credit(buf.capacity());
+			BufferPool.discard(buf);
+		}
+	}
+
+	/**
+	 * 사용량이 상한 이하가 될 때까지 대기한다. 메모리를 예약하지는 않는다.
+	 *
+	 * @param timeout	최대 대기 시간 (millisecond).
+	 * @throws IOException	제한 시간 내에 사용량이 줄지 않았거나, 대기 도중 쓰레드가 중단된 경우.
+	 */
+	void await(long timeout) throws IOException {
+		long limit = m_limit;
+		if ( limit <= 0 || m_used.get() <= limit ) {
+			return;
+		}
+
+		reserve(0, timeout);
+	}
+
+	private void reserve(long bytes, long timeout) throws IOException {
+		if ( tryReserve(bytes) ) {
+			return;
+		}
+
+		// 대기 쓰레드 수를 먼저 증가시킨 후 다시 확인해야, 그 사이의 반환을 놓치지 않는다.
+		m_lock.lock();
+		m_waiterCount.incrementAndGet();
+		try {
+			long remains = TimeUnit.MILLISECONDS.toNanos(timeout);
+			while ( !tryReserve(bytes) ) {
+				if ( remains <= 0 ) {
+					throw new IOException("transport memory budget exhausted: used=" + m_used.get()
+											+ ", limit=" + m_limit + ", requested=" + bytes);
+				}
+
+				remains = m_released.awaitNanos(remains);
+			}
+		}
+		catch ( InterruptedException e ) {
+			// 호출자가 중단 요청을 확인할 수 있도록 중단 상태를 복원한다.
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for transport memory");
+		}
+		finally {
+			m_waiterCount.decrementAndGet();
+			m_lock.unlock();
+		}
+	}
+
+	private boolean tryReserve(long bytes) {
+		while ( true ) {
+			long used = m_used.get();
+			long limit = m_limit;
+			if ( limit > 0 && used > 0 && used + bytes > limit ) {
+				return false;
+			}
+			if ( bytes == 0 || m_used.compareAndSet(used, used + bytes) ) {
+				return true;
+			}
+		}
+	}
+
+	// 대기 중인 쓰레드가 있거나, 최대 크기의 버퍼를 하나 더 할당하면 상한을 넘는 경우.
+	private boolean isTight() {
+		long limit = m_limit;
+		return limit > 0 && (m_waiterCount.get() > 0
+								|| m_used.get() + BufferPool.MAX_BUFFER_SIZE > limit);
+	}
+
+	private void credit(long bytes) {
+		m_used.addAndGet(-bytes);
+		if ( m_waiterCount.get() > 0 ) {
+			signalWaiters();
+		}
+	}
+
+	private void signalWaiters() {
+		m_lock.lock();
+		try {
+			m_released.signalAll();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
+	public String toString() {
+		return String.format("memory[used=%d, limit=%d]", m_used.get(), m_limit);
+	}
+}
@@ -5,43 +5,169 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import planet.transport.ProtocolException;
-import planet.transport.TransportManager;
 
 import etri.planet.TransportLoggers;
 
 
 /**
+ * 수신 버퍼는 연결에 데이타가 처음 도착할 때 작은 크기({@value #INITIAL_BUFFER_SIZE})로 할당되고,
+ * 이보다 큰 메시지가 도착하면 협상된 블럭 크기로 커진다. 버퍼가 빈 상태로 유휴 시간
+ * ({@link TransportManagerImpl#setBufferIdleTimeout(long)})이 지나면 버퍼를 반환하므로,
+ * 유휴 연결은 수신 버퍼를 점유하지 않는다.
  * 
  * @author Kang-Woo Lee (ETRI)
  */
 class MessageBuilder {
 	private static final int MIN_BUFFER_LEFT = TransportHeader.SIZE;
+	private static final int INITIAL_BUFFER_SIZE = 4 << 10;	// 4 KB
 
 	private final ConnectionImpl m_conn;
 	private volatile TransportHeader m_header = null;
 	
-	private final ByteBuffer m_producerBuffer;
-	private final ByteBuffer m_consumerBuffer;
+	// 아래 필드들은 모두 소속 selector 루프 쓰레드에서만 접근된다.
+	// 수신 경로가 공유 메모리 ring으로 전환된 후에는 ShmPoller 쓰레드에서만 접근된다.
+	// 버퍼가 할당되지 않은 경우 'm_chunk'는 null이다.
+	private SharedBuffer m_chunk;
+	private ByteBuffer m_producerBuffer;
+	private ByteBuffer m_consumerBuffer;
+	private long m_lastFillMillis;
 	
 	MessageBuilder(ConnectionImpl conn) {
 		m_conn = conn;
+	}
+	
+	// 연결이 닫힌 후, 소속 selector 루프 쓰레드에서 호출된다.
+	// 아직 사용 중인 slice가 있는 경우는 이들이 모두 해제된 후 버퍼가 반환된다.
+	void release() {
+		if ( m_chunk != null ) {
+			m_chunk.release();
+			m_chunk = null;
+			m_producerBuffer = null;
+			m_consumerBuffer = null;
+		}
+	}
+	
+	/**
+	 * 수신 버퍼가 비어있는 상태로 유휴 시간이 지났으면 버퍼를 반환한다.
+	 * <p>
+	 * 수신 중인 메시지가 남아있는 경우는 반환하지 않는다.
+	 * 
+	 * @param idleMillis	유휴 시간.
+	 * @return	버퍼를 반환했거나 할당된 버퍼가 없는 경우는 -1, 그렇지 않은 경우는 다시 검사할 때까지의 시간.
+	 */
+	long trim(long idleMillis) {
+		if ( m_chunk == null ) {
+			return -1;
+		}
 		
-		m_producerBuffer = ByteBuffer.allocate(TransportManager.MAX_BLOCK_SIZE);
+		long remains = m_lastFillMillis + idleMillis - System.currentTimeMillis();
+		if ( remains > 0 ) {
+			return remains;
+		}
+		else if ( m_header != null || remaining() > 0 ) {
+			return idleMillis;
+		}
+		
+		release();
+		return -1;
+	}
+	
+	// 버퍼가 할당되지 않은 경우 새로 할당한다. 할당된 경우는 true를 반환한다.
+	private boolean ensureBuffer() {
+		if ( m_chunk != null ) {
+			return false;
+		}
+		
+		m_chunk = new SharedBuffer(INITIAL_BUFFER_SIZE, m_conn.m_transport.m_memoryBudget);
+		m_producerBuffer = m_chunk.buffer();
 		m_consumerBuffer = m_producerBuffer.duplicate();
+		m_consumerBuffer.flip();
+		
+		return true;
+	}
+	
+	/**
+	 * 수신 버퍼의 현재 위치부터 <code>length</code> 바이트를 복사하지 않고 읽기 전용 slice로 반환한다.
+	 * 
+	 * @param length	slice 길이.
+	 * @return	수신 버퍼의 slice.
+	 */
+	SharedBuffer.Slice slice(int length) {
+		return m_chunk.slice(m_consumerBuffer, length);
 	}
 	
-	void fillBuffer() throws IOException {
+	/**
+	 * 소켓에서 읽을 수 있는 데이타를 버퍼로 읽어 들인다.
+	 * 
+	 * @return	읽은 데이타가 있는 경우는 true, 그렇지 않은 경우는 false.
+	 * @throws IOException	상대방이 연결을 끊었거나 소켓 읽기가 실패한 경우.
+	 */
+	boolean fillBuffer() throws IOException {
+		if ( ensureBuffer() ) {
+			m_conn.scheduleBufferTrim(m_conn.m_transport.getBufferIdleTimeout());
+		}
+		
 		int nbytes = m_conn.m_sockChannel.read(m_producerBuffer);
-		if ( nbytes <= 0 ) {
+		if ( nbytes < 0 ) {
 			throw new IOException("peer closed");
 		}
+		else if ( nbytes == 0 ) {
+			if ( !m_producerBuffer.hasRemaining() ) {
+				throw new IOException("receive buffer overflow");
+			}
+			
+			return false;
+		}
 		
 		m_conn.setDirty();
+		m_conn.onBytesReceived(nbytes);
 		m_consumerBuffer.limit(m_producerBuffer.position());
+		m_lastFillMillis = System.currentTimeMillis();
+		
+		return true;
 		
 //		s_logger.debug("**********[" + nbytes + "]: " + m_channel.m_msgBuilder);
 	}
 	
+	/**
+	 * 공유 메모리 ring에 공개된 데이타를 버퍼로 읽어 들인다.
+	 * 
+	 * @return	읽은 데이타가 있는 경우는 true, 그렇지 않은 경우는 false.
+	 * @throws IOException	수신 버퍼가 가득 찼는데도 메시지를 완성할 수 없는 경우.
+	 */
+	boolean fillBuffer(ShmRing ring) throws IOException {
+		ensureBuffer();
+		
+		int nbytes = ring.read(m_producerBuffer);
+		if ( nbytes == 0 ) {
+			if ( !m_producerBuffer.hasRemaining() && ring.isReadable() ) {
+				throw new IOException("receive buffer overflow");
+			}
+			
+			return false;
+		}
+		
+		m_conn.setDirty();
+		m_consumerBuffer.limit(m_producerBuffer.position());
+		
+		return true;
+	}
+	
+	/**
+	 * 아직 처리되지 않은 수신 데이타를 모두 버린다.
+	 * <p>
+	 * 수신 경로가 공유 메모리 ring으로 전환된 후 소켓으로 수신된 데이타는 신호용 바이트이므로 버린다.
+	 */
+	void discard() {
+		m_header = null;
+		if ( m_chunk == null ) {
+			return;
+		}
+		
+		m_consumerBuffer.position(m_producerBuffer.position());
+		compact();
+	}
+	
 	TransportMessage build() throws IOException {
 		if ( !checkFullMessageReceived() ) {
 			return null;
@@ -78,6 +204,9 @@ class MessageBuilder {
 			case TransportHeader.CODE_CONNECT_REPLY:
 				msg = new ConnectReplyMessage(m_header);
 				break;
+			case TransportHeader.CODE_SHM_CTRL:
+				msg = new ShmControlMessage(m_header);
+				break;
 			default:
 				throw new ProtocolException("unknown TransportMessage: code=" + m_header.m_code);
 		}
@@ -91,6 +220,10 @@ class MessageBuilder {
 	}
 	
 	int remaining() {
+		if ( m_chunk == null ) {
+			return 0;
+		}
+		
 		return m_producerBuffer.position() - m_consumerBuffer.position();
 	}
 	
@@ -100,7 +233,35 @@ class MessageBuilder {
 	
 	void compact() {
 		int dataLeft = m_consumerBuffer.remaining();
-		if ( dataLeft == 0 || m_producerBuffer.remaining() < MIN_BUFFER_LEFT ) {
+		
+		// 수신 중인 메시지의 나머지 부분을 모두 읽을 수 있는 공간이 없으면 compact한다.
+		// 소켓에서 작은 단위로 나누어 읽게 되면 TCP 수신 윈도우가 늦게 열려 전송이 지연된다.
+		int needed = (m_header != null) ? m_header.m_length - TransportHeader.SIZE - dataLeft
+										: MIN_BUFFER_LEFT;
+		int required = Math.max(needed, MIN_BUFFER_LEFT);
+		boolean lacks = m_producerBuffer.remaining() < required;
+		
+		// 처음 할당된 작은 버퍼에 수신 중인 메시지를 담을 수 없는 경우는 블럭 크기로 키운다.
+		// 연결 설정 후 협상된 블럭 크기가 현 버퍼보다 커진 경우도 마찬가지이다.
+		boolean grows = lacks && m_producerBuffer.limit() < dataLeft + required;
+		
+		if ( m_chunk.isShared() || grows ) {
+			// 사용 중인 slice가 있는 경우는 해당 영역을 덮어쓸 수 없으므로, 공간이 부족한 경우에는
+			// 새 버퍼로 교체하고 남은 데이타만 복사한다. 기존 버퍼는 slice가 모두 해제되면 반환된다.
+			if ( lacks ) {
+				int size = ( grows ) ? m_conn.getBlockSize() : m_producerBuffer.limit();
+				SharedBuffer chunk = new SharedBuffer(size, m_conn.m_transport.m_memoryBudget);
+				ByteBuffer producer = chunk.buffer();
+				producer.put(m_consumerBuffer);
+				
+				m_chunk.release();
+				m_chunk = chunk;
+				m_producerBuffer = producer;
+				m_consumerBuffer = producer.duplicate();
+				m_consumerBuffer.flip();
+			}
+		}
+		else if ( dataLeft == 0 || lacks ) {
 			m_producerBuffer.position(m_consumerBuffer.remaining());
 			m_consumerBuffer.compact().flip();
 		}
@@ -119,6 +280,10 @@ class MessageBuilder {
 	}
 	
 	public String toString() {
+		if ( m_chunk == null ) {
+			return "buffer[none]";
+		}
+		
 		return String.format("buffer[%d..%d:%d], header[%x]",
 							m_consumerBuffer.position(), m_producerBuffer.position(),
 							m_producerBuffer.position() - m_consumerBuffer.position(),
@@ -3,8 +3,8 @@ package etri.planet.transport;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -14,38 +14,60 @@ import planet.PlanetUtils;
 import planet.SystemException;
 import planet.transport.Connection;
 import planet.transport.InputChannel;
-import planet.transport.TransportManager;
 
 import etri.planet.TransportLoggers;
 
 
 /**
+ * 연결 설정시 양측이 수신 윈도우를 제시한 경우는 읽어간 바이트 수를 모아 윈도우의 절반 이상이
+ * 되면 한번에 송신측에 추가 윈도우를 허용하고, 그렇지 않은 경우는 꽉 찬 block을 읽기 시작할 때마다
+ * ack({@link DataControlMessage#NEXT_DATA})를 보낸다.
+ * 윈도우 방식에서 읽기 쓰레드가 데이타 도착을 기다린 적이 있으면, 송신측이 윈도우 때문에 대기한
+ * 것으로 보고 다음 허용시 윈도우를 최대 크기까지 두배씩 키운다.
+ * 압축된 block은 읽기 쓰레드가 block을 꺼낼 때 해제되며, 윈도우는 해제된 데이타 길이로 계산된다.
+ * <p>
+ * 수신된 block은 lock 없이 큐('m_blocks')로 읽기 쓰레드에 전달된다. 현재 block을 읽는 것은
+ * 읽기 쓰레드만 접근하는 버퍼의 일반 읽기이며, 동기화는 다음 block을 꺼내는 경우에만 일어난다.
+ * 'm_lock'은 읽기 쓰레드가 block 도착을 기다리는 경우와 채널을 닫는 경우에만 사용된다.
+ * 따라서 채널은 한 시점에 한 쓰레드만 읽어야 한다.
+ * 읽기 쓰레드가 아닌 쓰레드가 채널을 닫는 경우, 읽기 쓰레드가 아직 읽고 있을 수 있는 현재 block은
+ * pool로 반환하지 않고 폐기하며, 읽기 쓰레드는 현재 block을 다 읽은 후 채널이 닫혔음을 알게 된다.
  * 
  * @author Kang-Woo Lee (ETRI)
  */
 class MultiBlockInputChannel implements InputChannel {
-	public static final int MAX_DATA_LENGTH = TransportManager.MAX_BLOCK_SIZE
-											- TransportHeader.SIZE - 7;
+	private static final int DATA_LENGTH_SLACK = TransportHeader.SIZE + 7;
+	
 	private final ConnectionImpl m_conn;
 	private final int m_id;
+	private final int m_maxDataLength;	// 꽉 찬 block으로 간주하는 데이타 길이
+	private final boolean m_creditMode;
 	
 	private final ReentrantLock m_lock = new ReentrantLock();
 	private final Condition m_cond = m_lock.newCondition();
 	
-	@GuardedBy("m_lock") private boolean m_endOfProduce;
-	@GuardedBy("m_lock") private boolean m_closed;
+	private final Queue<SharedBuffer.Slice> m_blocks = new ConcurrentLinkedQueue<SharedBuffer.Slice>();
+	private volatile boolean m_endOfProduce = false;
+	private volatile boolean m_closed = false;		// 변경은 'm_lock'을 잡은 상태에서 한다.
+	private volatile boolean m_waiting = false;		// 읽기 쓰레드가 block 도착을 기다리는지 여부
+	private volatile Thread m_reader;				// 마지막으로 block을 꺼낸 쓰레드
 	@GuardedBy("m_lock") private Listener m_listener;
 
-	@GuardedBy("m_lock") private ByteBuffer m_current;
-	@GuardedBy("m_lock") private List<ByteBuffer> m_buffers;
+	// 아래는 읽기 쓰레드만 변경한다. 'm_currentSlice'는 채널을 닫는 쓰레드가 폐기할 수 있다.
+	private volatile SharedBuffer.Slice m_currentSlice;
+	private ByteBuffer m_current;
+	private int m_window;		// 현재 수신 윈도우 크기
+	private int m_consumed;		// 마지막 허용 이후 읽어간 바이트 수
+	private boolean m_starved;	// 마지막 허용 이후 데이타 도착을 기다렸는지 여부
 	private final DataControlMessage m_dataCtrlMsg;
 	private final byte[] m_dataCtrlBytes;
 	
 	MultiBlockInputChannel(ConnectionImpl conn, int id) {
 		m_conn = conn;
 		m_id = id;
-		
-		m_buffers = new ArrayList<ByteBuffer>(TransportManager.BUFFER_COUNT);
+		m_maxDataLength = conn.getBlockSize() - DATA_LENGTH_SLACK;
+		m_window = conn.getReceiveWindow();
+		m_creditMode = m_window > 0;
 		
 		m_dataCtrlBytes = new byte[TransportHeader.SIZE + 8];
 		m_dataCtrlMsg = new DataControlMessage(m_id, DataControlMessage.NEXT_DATA);
@@ -71,8 +93,6 @@ class MultiBlockInputChannel implements InputChannel {
 				return;
 			}
 			
-			m_buffers.clear();
-			m_current = null;
 			m_closed = true;
 			listener = m_listener;
 			
@@ -99,6 +119,17 @@ class MultiBlockInputChannel implements InputChannel {
 			m_lock.unlock();
 		}
 		
+		releaseBlocks();
+		if ( m_reader == Thread.currentThread() ) {
+			SharedBuffer.Slice.release(m_currentSlice);
+			m_currentSlice = null;
+			m_current = null;
+		}
+		else {
+			// 읽기 쓰레드가 아직 현재 block을 읽고 있을 수 있다.
+			SharedBuffer.Slice.discard(m_currentSlice);
+		}
+		
 		if ( TransportLoggers.CHANNEL.isInfoEnabled() ) {
 			TransportLoggers.CHANNEL.info("closed: " + this + ", " + m_conn);
 		}
@@ -128,268 +159,131 @@ class MultiBlockInputChannel implements InputChannel {
 	}
 	
 	public byte read1() throws IOException {
-		m_lock.lock();
-		try {
-			assertSpace(1);
-			
-			return m_current.get();
-		}
-		finally {
-			m_lock.unlock();
+		ByteBuffer current = m_current;
+		if ( current == null || current.remaining() < 1 ) {
+			current = nextBlock(1);
 		}
+		
+		return current.get();
 	}
 	
 	public short read2() throws IOException {
-		m_lock.lock();
-		try {
-			assertSpace(2);
-			
-			return m_current.getShort();
+		ByteBuffer current = m_current;
+		if ( current == null || current.remaining() < 2 ) {
+			current = nextBlock(2);
 		}
-		finally {
-			m_lock.unlock();
-		}
-//		m_lock.lock();
-//		try {
-//			return readShort();
-//		}
-//		finally {
-//			m_lock.unlock();
-//		}
+		
+		return current.getShort();
 	}
 	
 	public int read4() throws IOException {
-		m_lock.lock();
-		try {
-			assertSpace(4);
-			
-			return m_current.getInt();
-		}
-		finally {
-			m_lock.unlock();
+		ByteBuffer current = m_current;
+		if ( current == null || current.remaining() < 4 ) {
+			current = nextBlock(4);
 		}
-//		m_lock.lock();
-//		try {
-//			return readInt();
-//		}
-//		finally {
-//			m_lock.unlock();
-//		}
+		
+		return current.getInt();
 	}
 	
 	public long read8() throws IOException {
-		m_lock.lock();
-		try {
-			assertSpace(8);
-			
-			return m_current.getLong();
-		}
-		finally {
-			m_lock.unlock();
+		ByteBuffer current = m_current;
+		if ( current == null || current.remaining() < 8 ) {
+			current = nextBlock(8);
 		}
+		
+		return current.getLong();
 	}
 	
 	public int readByteBuffer(ByteBuffer buf) throws IOException {
-		m_lock.lock();
-		try {
-			if ( m_closed ) {
-				throw new IOException("closed already");
-			}
-			
-			int total = buf.remaining();
-			while ( buf.remaining() > 0 ) {
-				if ( m_current == null || m_current.remaining() == 0 ) {
-					if ( waitMoreBytes() < 0 ) {
-						break;
-					}
-				}
-				
-				if ( m_current.remaining() > buf.remaining() ) {
-					TransportUtils.copyTo(m_current, buf, buf.remaining());
-				}
-				else {
-					buf.put(m_current);
-				}
-			}
-			
-			return total - buf.remaining();
-		}
-		finally {
-			m_lock.unlock();
+		if ( m_closed ) {
+			throw new IOException("closed already");
 		}
-	}
-	
-	public int readBytes(byte[] bytes, int offset, int length) throws IOException {
-		m_lock.lock();
-		try {
-			if ( m_closed ) {
-				throw new IOException("closed already");
+		
+		int total = buf.remaining();
+		while ( buf.remaining() > 0 ) {
+			if ( m_current == null || m_current.remaining() == 0 ) {
+				if ( waitMoreBytes() < 0 ) {
+					break;
+				}
 			}
 			
-			int remains = length;
-			while ( remains > 0 ) {
-				if ( m_current == null || m_current.remaining() == 0 ) {
-					if ( waitMoreBytes() < 0 ) {
-						int nread = (length - remains);
-						if ( length > 0 && nread == 0 ) {
-							return -1;
-						}
-						else {
-							return nread;
-						}
-					}
-				}
-				
-				int nbytes = Math.min(m_current.remaining(), remains);
-				m_current.get(bytes, offset, nbytes);
-				remains -= nbytes;
-				offset += nbytes;
+			if ( m_current.remaining() > buf.remaining() ) {
+				TransportUtils.copyTo(m_current, buf, buf.remaining());
 			}
-	
-			return length - remains;
-		}
-		finally {
-			m_lock.unlock();
-		}
-	}
-	
-	public void appendBlock(ByteBuffer buf, boolean endOfProduce) {
-		m_lock.lock();
-		try {
-			if ( !m_closed ) {
-				m_buffers.add(buf);
-				m_endOfProduce = endOfProduce;
-				
-				m_cond.signalAll();
+			else {
+				buf.put(m_current);
 			}
 		}
-		finally {
-			m_lock.unlock();
-		}
+		
+		return total - buf.remaining();
 	}
 	
-	// 'm_lock'을 획득한 상태에서 호출되어야 한다.
-	@GuardedBy("m_lock")
-	private short readShort() throws IOException {
+	public int readBytes(byte[] bytes, int offset, int length) throws IOException {
 		if ( m_closed ) {
 			throw new IOException("closed already");
 		}
 		
-		if ( m_current != null && m_current.remaining() >= 2 ) {
-			return m_current.getShort();
-		}
-		
-		int remains = 2;
-		
-		byte[] buf = null;
-		if ( m_current != null && m_current.remaining() == 1 ) {
-			buf = new byte[2];
-			m_current.get(buf, 0, 1);
-			
-			remains -= 1;
-		}
-		
-		if ( waitMoreBytes() < 0 ) {
-			throw new IOException("EOF reached");
-		}
-		
-		if ( m_current == null || m_current.remaining() < remains ) {
-			throw new IOException("EOF reached");
-		}
-		
-		if ( buf != null ) {
-			m_current.get(buf, 1, 1);
+		int remains = length;
+		while ( remains > 0 ) {
+			if ( m_current == null || m_current.remaining() == 0 ) {
+				if ( waitMoreBytes() < 0 ) {
+					int nread = (length - remains);
+					if ( length > 0 && nread == 0 ) {
+						return -1;
+					}
+					else {
+						return nread;
+					}
+				}
+			}
 			
-			return ByteBuffer.wrap(buf).getShort();
-		}
-		else {
-			return m_current.getShort();
+			int nbytes = Math.min(m_current.remaining(), remains);
+			m_current.get(bytes, offset, nbytes);
+			remains -= nbytes;
+			offset += nbytes;
 		}
+
+		return length - remains;
 	}
 	
-	// 'm_lock'을 획득한 상태에서 호출되어야 한다.
-	@GuardedBy("m_lock")
-	private int readInt() throws IOException {
+	// selector 루프 쓰레드에서 호출된다.
+	public void appendBlock(SharedBuffer.Slice slice, boolean endOfProduce) {
 		if ( m_closed ) {
-			throw new IOException("closed already");
-		}
-		
-		if ( m_current != null && m_current.remaining() >= 4 ) {
-			return m_current.getInt();
-		}
-		
-		int remains = 4;
-		
-		byte[] buf = null;
-		if ( m_current != null && m_current.remaining() > 0 && m_current.remaining() < 4 ) {
-			remains -= m_current.remaining();
+			slice.release();
 			
-			buf = new byte[4];
-			m_current.get(buf, 0, m_current.remaining());
+			return;
 		}
 		
-		if ( waitMoreBytes() < 0 ) {
-			throw new IOException("EOF reached");
+		m_blocks.add(slice);
+		if ( endOfProduce ) {
+			m_endOfProduce = true;
 		}
 		
-		if ( m_current == null || m_current.remaining() < remains ) {
-			throw new IOException("EOF reached");
-		}
-		
-		if ( buf != null ) {
-			m_current.get(buf, 4-remains, remains);
-			
-			return ByteBuffer.wrap(buf).getInt();
+		if ( m_closed ) {
+			// 채널을 닫는 쓰레드가 큐를 비운 후에 추가된 경우이다.
+			releaseBlocks();
 		}
-		else {
-			return m_current.getInt();
+		else if ( m_waiting ) {
+			m_lock.lock();
+			try {
+				m_cond.signalAll();
+			}
+			finally {
+				m_lock.unlock();
+			}
 		}
 	}
 	
-	private static final int BYTES_LONG = 8;
-	
-	// 'm_lock'을 획득한 상태에서 호출되어야 한다.
-	@GuardedBy("m_lock")
-	private long readLong() throws IOException {
-		if ( m_closed ) {
-			throw new IOException("closed already");
-		}
-		
-		if ( m_current != null && m_current.remaining() >= BYTES_LONG ) {
-			return m_current.getLong();
-		}
-		
-		int remains = BYTES_LONG;
-		
-		byte[] buf = null;
-		if ( m_current != null && m_current.remaining() > 0 && m_current.remaining() < BYTES_LONG ) {
-			remains -= m_current.remaining();
-			
-			buf = new byte[BYTES_LONG];
-			m_current.get(buf, 0, m_current.remaining());
-		}
-		
-		if ( waitMoreBytes() < 0 ) {
-			throw new IOException("EOF reached");
-		}
-		
-		if ( m_current == null || m_current.remaining() < remains ) {
-			throw new IOException("EOF reached");
-		}
-		
-		if ( buf != null ) {
-			m_current.get(buf, BYTES_LONG-remains, remains);
-			
-			return ByteBuffer.wrap(buf).getLong();
-		}
-		else {
-			return m_current.getLong();
+	private void releaseBlocks() {
+		SharedBuffer.Slice slice;
+		while ( (slice = m_blocks.poll()) != null ) {
+			slice.release();
 		}
 	}
 	
-	// 'm_lock'을 획득한 상태에서 호출되어야 한다.
-	@GuardedBy("m_lock")
-	private void assertSpace(int size) throws IOException {
+	// 현재 block에 주어진 크기의 데이타가 남아있지 않은 경우 호출되어 다음 block을 꺼낸다.
+	// 기본 타입의 값은 block 경계에 걸쳐 전송되지 않는다.
+	private ByteBuffer nextBlock(int size) throws IOException {
 		if ( m_closed ) {
 			throw new IOException("closed already");
 		}
@@ -403,48 +297,129 @@ class MultiBlockInputChannel implements InputChannel {
 		if ( m_current == null || m_current.remaining() < size ) {
 			throw new IOException("EOF reached");
 		}
+		
+		return m_current;
 	}
 
-	// 'm_lock'을 획득한 상태에서 호출되어야 한다.
-	@GuardedBy("m_lock")
+	// 읽기 쓰레드에서만 호출된다.
 	private int waitMoreBytes() throws IOException {
-		try {
-			// 데이타가 추가로 도착하거나 producer가 데이타 송신을 종료할 때까지 대기한다.
-			while ( m_buffers.size() == 0 && !m_endOfProduce ) {
-				m_cond.await();
+		m_reader = Thread.currentThread();
+		
+		SharedBuffer.Slice slice = m_blocks.poll();
+		if ( slice == null ) {
+			slice = awaitBlock();
+			if ( slice == null ) {
+				return -1;
 			}
 		}
-		catch ( InterruptedException e ) {
-			throw new IOException("I/O interrupted");
+		
+		// 모두 읽은 block의 slice는 해제한다.
+		SharedBuffer.Slice.release(m_currentSlice);
+		m_currentSlice = null;
+		m_current = null;
+		
+		// 압축된 block은 selector 루프가 아닌 읽기 쓰레드에서 해제한다.
+		if ( slice.m_compressed ) {
+			slice = m_conn.decompress(slice);
 		}
+		m_currentSlice = slice;
 		
-		if ( m_buffers.size() == 0 && m_endOfProduce ) {
-			return -1;
+		// 다른 쓰레드가 채널을 닫으면서 이 block을 보지 못했을 수 있다.
+		if ( m_closed ) {
+			slice.release();
+			m_currentSlice = null;
+			
+			throw new IOException("closed already");
 		}
 		
-		m_current = m_buffers.remove(0);
-		if ( m_current.remaining() >= MAX_DATA_LENGTH && !m_endOfProduce ) {
-			try {
+		m_current = slice.m_data;
+		if ( !m_endOfProduce ) {
+			if ( m_creditMode ) {
+				consumeWindow(m_current.remaining());
+			}
+			else if ( m_current.remaining() >= m_maxDataLength ) {
 				// 다음 메시지 송신 요청을 보낸다.
 				sendMessage(m_dataCtrlBytes, m_dataCtrlMsg);
 			}
-			catch ( InterruptedException ignored ) { }
 		}
 		
 		return m_current.remaining();
 	}
 	
-	public String toString() {
-		return String.format("channel[in:m:%d]", m_id);
+	// 데이타가 추가로 도착하거나 producer가 데이타 송신을 종료할 때까지 대기한다.
+	// 'm_waiting'을 먼저 설정한 후 큐를 확인하므로, 그 사이에 추가된 block의 signal을 놓치지 않는다.
+	private SharedBuffer.Slice awaitBlock() throws IOException {
+		m_lock.lock();
+		m_waiting = true;
+		try {
+			while ( true ) {
+				// 송신 종료는 마지막 block이 추가된 후 설정되므로 큐보다 먼저 확인한다.
+				boolean ended = m_endOfProduce;
+				SharedBuffer.Slice slice = m_blocks.poll();
+				if ( slice != null ) {
+					return slice;
+				}
+				if ( ended ) {
+					return null;
+				}
+				if ( m_closed ) {
+					throw new IOException("closed already");
+				}
+				
+				// 첫 block을 받기 전의 대기는 송신측 윈도우와 무관하다.
+				m_starved |= (m_currentSlice != null);
+				m_cond.await();
+			}
+		}
+		catch ( InterruptedException e ) {
+			throw new IOException("I/O interrupted");
+		}
+		finally {
+			m_waiting = false;
+			m_lock.unlock();
+		}
 	}
 	
-	private void sendMessage(byte[] bytes, DataControlMessage msg) throws InterruptedException {
+	// 읽어간 바이트 수가 윈도우의 절반 이상이 되면 송신측에 그만큼의 윈도우를 다시 허용한다.
+	// 송신측은 남은 윈도우가 block 크기보다 작으면 대기하므로, 윈도우가 두 block 이상이면
+	// (ConnectionImpl 참조) 허용 없이 교착되는 경우는 없다.
+	private void consumeWindow(int length) {
+		m_consumed += length;
+		if ( m_consumed < m_window / 2 ) {
+			return;
+		}
+		
+		int grant = m_consumed;
+		if ( m_starved ) {
+			int growth = Math.min(m_window, m_conn.getMaxChannelWindow() - m_window);
+			if ( growth > 0 ) {
+				m_window += growth;
+				grant += growth;
+			}
+		}
+		m_consumed = 0;
+		m_starved = false;
+		
+		DataControlMessage msg = DataControlMessage.newGrantMessage(m_id, grant);
+		byte[] bytes = new byte[TransportHeader.SIZE + 8];
 		try {
-			m_conn.write(ByteBuffer.wrap(bytes));
+			msg.encode(ByteBuffer.wrap(bytes));
 		}
 		catch ( IOException e ) {
-			TransportLoggers.MSG.error("fails to send 'DataCtrl': msg=" + msg + ", cause=" + e);
+			throw new SystemException("" + e);
 		}
+		sendMessage(bytes, msg);
+	}
+	
+	public String toString() {
+		return ( m_creditMode ) ? String.format("channel[in:m:%d, window=%d]", m_id, m_window)
+								: String.format("channel[in:m:%d]", m_id);
+	}
+	
+	// 제어 메시지는 송신 큐 상태와 관계없이 대기하지 않도록 비동기로 전송한다.
+	// 전송 실패는 연결 단절로 처리되므로 여기서는 무시한다.
+	private void sendMessage(byte[] bytes, DataControlMessage msg) {
+		m_conn.writeAsync(ByteBuffer.wrap(bytes));
 		if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
 			TransportLoggers.CHANNEL.debug("sent: msg=" + msg);
 		}
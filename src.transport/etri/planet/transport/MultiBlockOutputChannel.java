@@ -1,8 +1,10 @@
 package etri.planet.transport;
 
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -15,11 +17,22 @@ import planet.transport.TransportManager;
 import etri.planet.TransportLoggers;
 
 /**
+ * 연결 설정시 양측이 수신 윈도우를 제시한 경우는 수신측이 허용한 바이트 수(credit)만큼만
+ * ack 없이 전송하고, 그렇지 않은 경우는 ack를 받지 못한 block이 {@link #MAX_PENDINGS}개를
+ * 넘지 않도록 전송한다.
+ * 연결에 압축 codec이 협상된 경우, 압축 임계값 이상의 block은 압축하여 전송한다.
+ * <p>
+ * 블럭 버퍼는 작은 크기({@value #INITIAL_BUFFER_SIZE})로 할당되어, 쓰는 데이타가 많아지면 협상된 블럭
+ * 크기까지 커진다. 따라서 대부분의 작은 메시지는 블럭 크기의 버퍼를 점유하지 않는다.
+ * 버퍼는 {@link MemoryBudget}을 통해 할당되므로, 메모리 상한을 넘는 경우 버퍼 할당은 대기한다.
  * 
  * @author Kang-Woo Lee (ETRI)
  */
 public class MultiBlockOutputChannel implements OutputChannel {
 	private static final int MAX_PENDINGS = TransportManager.BUFFER_COUNT + 1;
+	private static final int MAX_INCOMPRESSIBLES = 2;	// 압축을 포기하는 연속 압축 실패 블럭 수
+	private static final int INITIAL_BUFFER_SIZE = 1 << 10;	// 1 KB
+	private static final long MAX_BUDGET_WAIT_MILLIS = 10*1000;
 	
 	private static final int STATE_RUNNING = 0;
 	private static final int STATE_CLOSING = 1;
@@ -27,7 +40,8 @@ public class MultiBlockOutputChannel implements OutputChannel {
 	
 	private final ConnectionImpl m_conn;
 	private final int m_id;
-	private final ByteBuffer m_buffer;
+	private final MemoryBudget m_budget;
+	private ByteBuffer m_buffer;		// 쓰는 쓰레드만 사용하며, 교체는 'm_lock'을 잡은 상태에서 한다.
 	private volatile int m_part =0;
 	private int m_length;
 	
@@ -35,16 +49,24 @@ public class MultiBlockOutputChannel implements OutputChannel {
 	private final Condition m_cond;
 	@GuardedBy("m_lock") private int m_state;
 	@GuardedBy("m_lock") private int m_pendingCount;
+	private final boolean m_creditMode;
+	@GuardedBy("m_lock") private long m_credit;		// 남은 송신 윈도우 (바이트)
+	private int m_incompressibles = 0;				// 연속으로 압축 효과가 없었던 블럭 수
+	private volatile boolean m_latencySensitive = false;	// 묶음 전송에서 제외되는지 여부
 	private Listener m_listener;
 	
-	public MultiBlockOutputChannel(ConnectionImpl conn, int channelId) {
+	public MultiBlockOutputChannel(ConnectionImpl conn, int channelId) throws IOException {
 		m_conn = conn;
 		m_state = STATE_RUNNING;
 		m_id = channelId;
-		m_buffer = ByteBuffer.allocate(TransportManager.MAX_BLOCK_SIZE);
+		m_budget = conn.m_transport.m_memoryBudget;
+		m_buffer = m_budget.acquire(Math.min(INITIAL_BUFFER_SIZE, conn.getBlockSize()),
+									MAX_BUDGET_WAIT_MILLIS);
 		m_buffer.position(TransportHeader.SIZE);
 		m_length = 0;
 		m_pendingCount = 0;
+		m_credit = conn.getSendWindow();
+		m_creditMode = m_credit > 0;
 		
 		m_lock = new ReentrantLock();
 		m_cond = m_lock.newCondition();
@@ -61,20 +83,36 @@ public class MultiBlockOutputChannel implements OutputChannel {
 			
 			m_state = STATE_CLOSING;
 			m_cond.signalAll();
+		}
+		finally {
+			m_lock.unlock();
+		}
 		
-			if ( flush ) {
-				try {
-					flush(true);
-				}
-				catch ( IOException ignored ) { }
+		// 소켓 쓰기는 'm_lock'을 획득하지 않은 상태에서 수행한다.
+		if ( flush ) {
+			try {
+				flush(true);
 			}
-			
+			catch ( IOException ignored ) { }
+		}
+		
+		m_lock.lock();
+		try {
 			// flush까지 완료되었으므로, 소속된 connection에서 등록된 OutputStream 객체를 해제시킨다.
 			m_conn._onOutputChannelClosed(m_id);
 
 			// flush 중 대기하는 쓰레드를 깨움
 			m_state = STATE_CLOSED;
 			m_cond.signalAll();
+			
+			// flush 요청이 없는 close는 다른 쓰레드가 버퍼를 사용하는 중에 호출될 수 있으므로
+			// 버퍼를 pool로 반환하지 않는다.
+			if ( flush ) {
+				m_budget.release(m_buffer);
+			}
+			else {
+				m_budget.discard(m_buffer);
+			}
 		}
 		finally {
 			m_lock.unlock();
@@ -131,6 +169,18 @@ public class MultiBlockOutputChannel implements OutputChannel {
 		return m_conn;
 	}
 	
+	/**
+	 * 본 채널의 블럭을 latency에 민감한 프레임으로 전송할지 여부를 설정한다.
+	 * <p>
+	 * latency에 민감한 블럭은 묶음 전송({@link TransportManagerImpl#setWriteBatching(int, long)})으로
+	 * 미루어지지 않으며, 오히려 묶음 중인 다른 프레임들을 함께 바로 전송시킨다.
+	 * 
+	 * @param flag	latency에 민감한 채널인지 여부.
+	 */
+	public void setLatencySensitive(boolean flag) {
+		m_latencySensitive = flag;
+	}
+	
 	public void write1(byte v) throws IOException {
 		assertSpace(1);
 		m_buffer.put(v);
@@ -163,6 +213,72 @@ public class MultiBlockOutputChannel implements OutputChannel {
 		writeByteBuffer(buffer);
 	}
 	
+	/**
+	 * 파일의 주어진 영역을 본 채널에 쓴다.
+	 * <p>
+	 * 연결이 소켓으로 전송되고 압축 codec이 협상되지 않은 경우, 블럭 크기를 채우는 데이타는 블럭 버퍼로
+	 * 읽지 않고 블럭 헤더 뒤에 {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}로
+	 * 소켓에 직접 전송된다. 블럭에 못 미치는 나머지와 압축 또는 공유 메모리로 전송되는 연결의 데이타는
+	 * 블럭 버퍼로 읽어 {@link #writen(ByteBuffer)}와 같이 전송한다. 블럭 경계와 흐름 제어는 동일하다.
+	 * 파일의 채널 위치는 변경되지 않는다.
+	 * 
+	 * @param file		전송할 파일.
+	 * @param position	전송할 영역의 시작 위치.
+	 * @param count		전송할 바이트 수.
+	 * @throws EOFException	파일이 주어진 영역보다 짧은 경우.
+	 * @throws IOException	전송 중 오류가 발생된 경우.
+	 */
+	public void transferFrom(FileChannel file, long position, long count) throws IOException {
+		if ( m_state == STATE_CLOSED ) {
+			throw new IOException("closed already");
+		}
+		
+		long end = position + count;
+		if ( file.size() < end ) {
+			throw new EOFException("file region out of range: size=" + file.size() + ", end=" + end);
+		}
+		
+		int blockSize = m_conn.getBlockSize();
+		if ( m_conn.getCodec() == null && m_conn.getSharedMemoryOutRing() == null ) {
+			while ( end - position >= blockSize - m_buffer.position() ) {
+				int size = blockSize - m_buffer.position();
+				if ( size == 0 ) {
+					flush(false);
+					continue;
+				}
+				
+				flush(false, null, file, position, size);
+				position += size;
+			}
+		}
+		
+		while ( position < end ) {
+			int size = (int)Math.min(end - position, blockSize - TransportHeader.SIZE);
+			if ( m_buffer.remaining() < size ) {
+				growBuffer(size);
+			}
+			if ( m_buffer.remaining() == 0 ) {
+				flush(false);
+			}
+			size = Math.min(size, m_buffer.remaining());
+			
+			ByteBuffer dst = m_buffer.duplicate();
+			dst.limit(dst.position() + size);
+			while ( dst.hasRemaining() ) {
+				if ( file.read(dst, position + size - dst.remaining()) < 0 ) {
+					throw new EOFException("file truncated: position=" + position);
+				}
+			}
+			m_buffer.position(dst.position());
+			position += size;
+			
+			if ( m_buffer.remaining() == 0 ) {
+				flush(false);
+			}
+		}
+	}
+	
+	// selector 루프 쓰레드에서 호출되므로 소켓 쓰기 등으로 blocking되어서는 안된다.
 	void ackReceived() {
 		m_lock.lock();
 		try {
@@ -174,14 +290,40 @@ public class MultiBlockOutputChannel implements OutputChannel {
 		}
 	}
 
+	// selector 루프 쓰레드에서 호출되므로 소켓 쓰기 등으로 blocking되어서는 안된다.
+	void creditReceived(int bytes) {
+		m_lock.lock();
+		try {
+			m_credit += bytes;
+			m_cond.signalAll();
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+
 	// 이미 전송되었지만, 아직 ack를 받지 못한 block의 갯수가 'MAX_PENDINGS' 보다
-	// 같거나 큰 경우는 blocking될 수 있다.
+	// 같거나 크거나, 남은 송신 윈도우가 block 크기보다 작은 경우는 blocking될 수 있다.
+	// 'm_lock'은 ack 대기 동안만 획득하고, 소켓 쓰기는 lock을 해제한 상태에서 수행하여
+	// ack 처리('ackReceived()')가 소켓 쓰기 완료를 기다리지 않도록 한다.
 	private void flush(boolean isFinal) throws IOException {
+		flush(isFinal, null, null, 0, 0);
+	}
+	
+	private void flush(boolean isFinal, ByteBuffer body) throws IOException {
+		flush(isFinal, body, null, 0, body.remaining());
+	}
+	
+	// 'body' 또는 'file'이 주어진 경우는 블럭 버퍼의 데이타 뒤에 'body'나 'file'의 'filePosition'부터
+	// 'bodyLength' 바이트를 복사하지 않고 이어 붙여 한 블럭으로 전송한다.
+	// 이 경우 압축하지 않으며, 블럭 전송이 끝날 때까지 대기한다.
+	private void flush(boolean isFinal, ByteBuffer body, FileChannel file, long filePosition,
+						int bodyLength) throws IOException {
+		int length = m_buffer.position() - TransportHeader.SIZE + bodyLength;
+		
 		m_lock.lock();
 		try {
-			// 이미 전송되었지만, 아직 ack를 받지 못한 block의 갯수가 'MAX_PENDINGS' 보다
-			// 같거나 큰 경우는 wait될 수 있다.
-			while ( m_pendingCount >= MAX_PENDINGS && m_state == STATE_RUNNING ) {
+			while ( !isSendable(length) && m_state == STATE_RUNNING ) {
 				try {
 					m_cond.await();
 				}
@@ -194,18 +336,39 @@ public class MultiBlockOutputChannel implements OutputChannel {
 				throw new IOException("closed already");
 			}
 			
+			if ( m_creditMode ) {
+				m_credit -= length;
+			}
+			else {
+				++m_pendingCount;
+			}
+		}
+		finally {
+			m_lock.unlock();
+		}
+		
+		try {
 			m_buffer.flip();
-			m_length += (m_buffer.limit() - TransportHeader.SIZE);
+			m_length += length;
+			boolean compressed = ( bodyLength == 0 ) && compressBlock();
 			
-			OutgoingDataMessage msg = new OutgoingDataMessage(m_id, m_part++, isFinal,
-																m_buffer.limit(), m_buffer);
+			// 한 블럭으로 구성된 메시지는 다른 채널의 대용량 전송에 밀리지 않도록 latency 등급으로 전송한다.
+			int sendClass = ( m_part == 0 && isFinal ) ? FrameScheduler.LATENCY_CLASS : m_id;
+			OutgoingDataMessage msg = new OutgoingDataMessage(m_id, m_part++, isFinal, compressed,
+																m_buffer.limit() + bodyLength, m_buffer);
 			msg.m_header.serialize(m_buffer.duplicate());
 			
-			m_conn.write(m_buffer);
+			if ( body != null ) {
+				m_conn.writeDirect(m_buffer, body, sendClass);
+			}
+			else if ( file != null ) {
+				m_conn.writeFile(m_buffer, file, filePosition, bodyLength, sendClass);
+			}
+			else {
+				m_conn.write(m_buffer, sendClass, !m_latencySensitive);
+			}
 			m_conn.updateDataAccessTime();
 			
-			++m_pendingCount;
-			
 			if ( TransportLoggers.CHANNEL.isDebugEnabled() ) {
 				TransportLoggers.CHANNEL.debug("sent: msg=" + msg + ", " + m_conn);
 			}
@@ -215,12 +378,75 @@ public class MultiBlockOutputChannel implements OutputChannel {
 		catch ( InterruptedException e ) {
 			throw new IOException("IO interrupted");
 		}
+	}
+	
+	// 협상된 codec이 있고 블럭 데이타가 압축 임계값 이상이면 블럭 버퍼의 payload를 압축된
+	// 데이타(원래 길이 + 압축 데이타)로 대체한다. 흐름 제어는 원래 데이타 길이를 기준으로 한다.
+	// 압축 효과가 없는 블럭이 연속되면 이미 압축된 데이타로 보고 이 채널에서는 더 이상
+	// 압축을 시도하지 않는다.
+	private boolean compressBlock() {
+		BlockCodec codec = m_conn.getCodec();
+		int length = m_buffer.limit() - TransportHeader.SIZE;
+		if ( codec == null || m_incompressibles >= MAX_INCOMPRESSIBLES
+			|| length < m_conn.m_transport.getCompressionThreshold() ) {
+			return false;
+		}
+		
+		// 원래 크기의 7/8 이하로 줄어드는 경우만 압축된 블럭을 사용한다.
+		// 압축 버퍼는 본 메소드 안에서만 사용되므로, 블럭 버퍼를 잡은 채 대기하지 않도록
+		// 상한을 기다리지 않고 할당하되 사용량에는 포함시킨다.
+		ByteBuffer compressed = m_budget.acquireNow(length - length/8);
+		try {
+			ByteBuffer src = m_buffer.duplicate();
+			src.position(TransportHeader.SIZE);
+			
+			compressed.putInt(length);
+			if ( codec.compress(src, compressed) < 0 ) {
+				++m_incompressibles;
+				
+				return false;
+			}
+			m_incompressibles = 0;
+			
+			compressed.flip();
+			m_buffer.clear().position(TransportHeader.SIZE);
+			m_buffer.put(compressed);
+			m_buffer.flip();
+			
+			return true;
+		}
 		finally {
-			m_lock.unlock();
+			m_budget.release(compressed);
 		}
 	}
 	
+	@GuardedBy("m_lock")
+	private boolean isSendable(int length) {
+		return ( m_creditMode ) ? m_credit >= length : m_pendingCount < MAX_PENDINGS;
+	}
+	
 	private void writeByteBuffer(ByteBuffer buffer) throws IOException {
+		if ( m_state == STATE_CLOSED ) {
+			throw new IOException("closed already");
+		}
+		
+		// 한 블럭 이상의 데이타는 블럭 버퍼로 복사하지 않고, 블럭 경계에 맞춘 slice를 블럭 버퍼의
+		// 헤더(와 이미 쓰여진 데이타) 뒤에 이어 전송한다. 압축할 블럭은 복사하여 압축한다.
+		int blockSize = m_conn.getBlockSize();
+		if ( buffer.remaining() >= blockSize - TransportHeader.SIZE && m_conn.getCodec() == null ) {
+			while ( buffer.remaining() >= blockSize - m_buffer.position() ) {
+				int size = blockSize - m_buffer.position();
+				ByteBuffer slice = buffer.duplicate();
+				slice.limit(slice.position() + size);
+				
+				flush(false, slice);
+				buffer.position(buffer.position() + size);
+			}
+		}
+		
+		if ( m_buffer.remaining() < buffer.remaining() ) {
+			growBuffer(buffer.remaining());
+		}
 		if ( m_buffer.remaining() >= buffer.remaining() ) {
 			m_buffer.put(buffer);
 		}
@@ -241,12 +467,51 @@ public class MultiBlockOutputChannel implements OutputChannel {
 			throw new IOException("closed already");
 		}
 		
+		if ( m_buffer.remaining() < size ) {
+			growBuffer(size);
+		}
 		if ( m_buffer.remaining() < size ) {
 			flush(false);
 		}
 	}
 	
+	// 버퍼가 블럭 크기보다 작은 경우, 주어진 크기의 데이타를 더 쓸 수 있도록 블럭 크기 이내에서 버퍼를 키운다.
+	private void growBuffer(int size) throws IOException {
+		int blockSize = m_conn.getBlockSize();
+		int limit = m_buffer.limit();
+		if ( limit >= blockSize ) {
+			return;
+		}
+		
+		int grown = Math.min(blockSize, Math.max(2*limit, m_buffer.position() + size));
+		ByteBuffer buffer = m_budget.acquire(grown, MAX_BUDGET_WAIT_MILLIS);
+		
+		// 다른 쓰레드가 close(false)로 기존 버퍼를 폐기하는 것과 교차되지 않도록 한다.
+		m_lock.lock();
+		try {
+			if ( m_state == STATE_CLOSED ) {
+				m_budget.release(buffer);
+				
+				throw new IOException("closed already");
+			}
+			
+			m_buffer.flip();
+			buffer.put(m_buffer);
+			
+			m_budget.release(m_buffer);
+			m_buffer = buffer;
+		}
+		finally {
+			m_lock.unlock();
+		}
+	}
+	
 	public String toString() {
-		return String.format("channel[out:%d, pendings=%d]", m_id, m_pendingCount);
+		if ( m_creditMode ) {
+			return String.format("channel[out:%d, credit=%d]", m_id, m_credit);
+		}
+		else {
+			return String.format("channel[out:%d, pendings=%d]", m_id, m_pendingCount);
+		}
 	}
 }
@@ -12,12 +12,15 @@ import planet.transport.Connection;
  * @author Kang-Woo Lee (ETRI)
  */
 public class OutgoingDataMessage extends DataMessage {
-	public OutgoingDataMessage(int session, int part, boolean isFinal, int length,
-								ByteBuffer buf) {
+	public OutgoingDataMessage(int session, int part, boolean isFinal, boolean compressed,
+								int length, ByteBuffer buf) {
 		super(new TransportHeader(TransportHeader.CODE_DATA, session));
 		
 		m_header.m_blockNum = part;
-		m_header.m_final = isFinal ? (byte)1 : (byte)0;
+		m_header.m_final = isFinal ? TransportHeader.FLAG_FINAL : (byte)0;
+		if ( compressed ) {
+			m_header.m_final |= TransportHeader.FLAG_COMPRESSED;
+		}
 		m_header.m_length = length;
 		
 		m_buffer = buf;
@@ -0,0 +1,130 @@
+package etri.planet.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * 참조 계수(reference count)로 관리되는 수신 버퍼.
+ * <p>
+ * {@link MessageBuilder}가 소켓에서 데이타를 읽어 들이는 버퍼로, 수신된 DATA 메시지의 payload는
+ * 복사되지 않고 본 버퍼의 읽기 전용 {@link Slice}로 input channel에 전달된다.
+ * 버퍼는 생성 시 참조 계수 1(MessageBuilder의 참조)을 갖고, slice가 생성될 때마다 1씩 증가한다.
+ * 버퍼는 {@link MemoryBudget}을 통해 할당되며, 모든 참조가 해제되면 {@link BufferPool}로 반환된다.
+ * <p>
+ * Slice가 존재하는 동안에는 해당 영역이 덮어써져서는 안되므로, MessageBuilder는
+ * slice가 남아있는 버퍼를 compact하지 않고 새 버퍼로 교체한다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class SharedBuffer {
+	private final MemoryBudget m_budget;
+	private final ByteBuffer m_buffer;
+	private final AtomicInteger m_refCount;
+	private volatile boolean m_discarded = false;	// pool로 반환하지 않고 폐기할지 여부
+
+	// 수신 쓰레드는 대기할 수 없으므로, 버퍼는 메모리 상한과 관계없이 할당된다.
+	SharedBuffer(int size, MemoryBudget budget) {
+		m_budget = budget;
+		m_buffer = budget.acquireNow(size);
+		m_refCount = new AtomicInteger(1);
+	}
+
+	ByteBuffer buffer() {
+		return m_buffer;
+	}
+
+	/**
+	 * 본 버퍼를 참조하는 slice가 존재하는지 여부를 반환한다.
+	 */
+	boolean isShared() {
+		return m_refCount.get() > 1;
+	}
+
+	/**
+	 * 주어진 버퍼의 현재 위치부터 <code>length</code> 바이트에 해당하는 읽기 전용 slice를 생성한다.
+	 * 주어진 버퍼는 본 버퍼의 view이어야 하며, slice 생성 후 그 position은 <code>length</code>만큼
+	 * 전진된다.
+	 *
+	 * @param view		본 버퍼의 view.
+	 * @param length	slice 길이.
+	 * @return	생성된 slice.
+	 */
+	Slice slice(ByteBuffer view, int length) {
+		ByteBuffer dup = view.duplicate();
+		dup.limit(dup.position() + length);
+		view.position(view.position() + length);
+
+		m_refCount.incrementAndGet();
+		return new Slice(this, dup.slice().asReadOnlyBuffer());
+	}
+
+	/**
+	 * 참조를 하나 해제한다. 마지막 참조가 해제되면 버퍼는 pool로 반환된다.
+	 */
+	void release() {
+		if ( m_refCount.decrementAndGet() == 0 ) {
+			if ( m_discarded ) {
+				m_budget.discard(m_buffer);
+			}
+			else {
+				m_budget.release(m_buffer);
+			}
+		}
+	}
+
+	/**
+	 * 다른 쓰레드가 아직 읽고 있을 수 있는 참조를 해제한다.
+	 * 마지막 참조가 해제되면 버퍼는 pool로 반환되지 않고 폐기된다.
+	 */
+	void discard() {
+		m_discarded = true;
+		release();
+	}
+
+	/**
+	 * {@link SharedBuffer}의 일부 영역에 대한 읽기 전용 view.
+	 * <p>
+	 * Slice를 모두 사용한 경우는 반드시 {@link #release()}를 호출하여야 한다.
+	 * 여러번 호출되어도 처음 호출만 반영된다.
+	 */
+	static final class Slice {
+		private final SharedBuffer m_owner;
+		final ByteBuffer m_data;
+		boolean m_compressed = false;		// 압축된 데이타 블럭의 payload인지 여부
+		private final AtomicBoolean m_released = new AtomicBoolean(false);
+
+		private Slice(SharedBuffer owner, ByteBuffer data) {
+			m_owner = owner;
+			m_data = data;
+		}
+
+		void release() {
+			if ( m_released.compareAndSet(false, true) ) {
+				m_owner.release();
+			}
+		}
+
+		// 다른 쓰레드가 아직 읽고 있을 수 있는 slice를 해제한다. 이미 해제된 경우는 무시된다.
+		void discard() {
+			if ( m_released.compareAndSet(false, true) ) {
+				m_owner.discard();
+			}
+		}
+
+		static void release(Slice slice) {
+			if ( slice != null ) {
+				slice.release();
+			}
+		}
+
+		static void discard(Slice slice) {
+			if ( slice != null ) {
+				slice.discard();
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import planet.transport.Connection;
+
+
+/**
+ * 공유 메모리 전송 협상 메시지.
+ * <p>
+ * 종류는 헤더의 'm_blockNum'에 기록된다.
+ * <ul>
+ * 	<li> OFFER: 연결 요청측이 생성한 공유 메모리 파일의 경로, nonce, ring 크기를 알린다.
+ * 	<li> SWITCH: 송신측이 이 메시지 이후의 데이타를 공유 메모리 ring으로 전송함을 알린다.
+ * 	<li> REJECT: 수락측이 공유 메모리 파일을 사용할 수 없어 TCP로 계속 통신함을 알린다.
+ * </ul>
+ *
+ * @author Kang-Woo Lee
+ */
+class ShmControlMessage extends TransportMessage {
+	static final int OFFER = 0;
+	static final int SWITCH = 1;
+	static final int REJECT = 2;
+
+	public int m_type;
+	public String m_path;		// OFFER인 경우만 사용
+	public long m_nonce;
+	public int m_capacity;
+
+	static ShmControlMessage newOfferMessage(ShmSegment segment) {
+		ShmControlMessage msg = new ShmControlMessage(OFFER);
+		msg.m_path = segment.getPath();
+		msg.m_nonce = segment.getNonce();
+		msg.m_capacity = segment.getCapacity();
+
+		return msg;
+	}
+
+	ShmControlMessage(int type) {
+		super(new TransportHeader(TransportHeader.CODE_SHM_CTRL, -1));
+
+		m_type = type;
+		m_header.m_blockNum = type;
+	}
+
+	ShmControlMessage(TransportHeader header) {
+		super(header);
+	}
+
+	// 수신 순서가 전송 경로 전환 시점이 되므로, SWITCH는 수신 쓰레드에서 바로 처리되어야 한다.
+	boolean isSwitch() {
+		return m_type == SWITCH;
+	}
+
+	@Override
+	public void handle(ConnectionImpl conn) throws Exception {
+		switch ( m_type ) {
+			case OFFER:
+				conn.onSharedMemoryOffered(m_path, m_nonce, m_capacity);
+				break;
+			case SWITCH:
+				conn.onSharedMemorySwitched();
+				break;
+			case REJECT:
+				conn.onSharedMemoryRejected();
+				break;
+		}
+	}
+
+	@Override
+	public void readPayload(Connection conn, ByteBuffer buf) throws IOException {
+		m_type = m_header.m_blockNum;
+		if ( m_type == OFFER ) {
+			m_path = readString(buf);
+			m_nonce = buf.getLong();
+			m_capacity = buf.getInt();
+		}
+	}
+
+	@Override
+	public void writePayload(ByteBuffer buf) throws IOException {
+		if ( m_type == OFFER ) {
+			writeString(m_path, buf);
+			buf.putLong(m_nonce);
+			buf.putInt(m_capacity);
+		}
+	}
+
+	public String toString() {
+		switch ( m_type ) {
+			case OFFER:
+				return "ShmOffer[path=" + m_path + ", ring=" + m_capacity + "]";
+			case SWITCH:
+				return "ShmSwitch";
+			case REJECT:
+				return "ShmReject";
+			default:
+				return "ShmControl[UNKNOWN: type=" + m_type + "]";
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import planet.PlanetUtils;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * 공유 메모리 ring으로 전환된 연결들의 수신 ring을 감시하는 쓰레드.
+ * <p>
+ * selector 루프 대신 수신 ring을 polling하여 공개된 데이타를 연결의 {@link MessageBuilder}로 읽어 들이고,
+ * 완성된 메시지를 selector 루프와 같은 방법으로 처리한다. 송신 ring이 가득 차서 전송 권한을 넘겨 받은
+ * 연결은 ring에 여유가 생기면 나머지 송신 큐를 전송한다.
+ * <p>
+ * 처리할 데이타가 없는 경우는 잠시 spin한 후 yield하고, 그래도 없으면 모든 수신 ring에 대기 여부를
+ * 설정하고 잠든다. 송신측은 대기 여부가 설정된 ring에 데이타를 쓴 경우 TCP 소켓으로 1 바이트를 보내고,
+ * 이를 수신한 selector 루프가 본 쓰레드를 깨운다. 신호를 놓치는 경우에 대비하여 잠드는 시간은
+ * {@value #MAX_PARK_MILLIS}ms로 제한한다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class ShmPoller implements Runnable {
+	private static final int SPIN_COUNT = 100;
+	private static final int YIELD_COUNT = 200;
+	private static final long WRITER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long MAX_PARK_MILLIS = 100;
+	private static final int MAX_FILLS_PER_ROUND = 16;	// 한 연결을 연속으로 처리하는 최대 횟수
+
+	private final Queue<ConnectionImpl> m_addeds = new ConcurrentLinkedQueue<ConnectionImpl>();
+	private final Queue<ConnectionImpl> m_writers = new ConcurrentLinkedQueue<ConnectionImpl>();
+	private final List<ConnectionImpl> m_readers = new ArrayList<ConnectionImpl>();	// 본 쓰레드만 접근
+	private volatile Thread m_thread;
+	private volatile boolean m_stopped = false;
+
+	void start(String name) {
+		Thread thread = new Thread(this, name);
+		thread.setDaemon(true);
+		m_thread = thread;
+
+		thread.start();
+	}
+
+	void shutdown() {
+		m_stopped = true;
+		wakeup();
+	}
+
+	// 수신 경로가 ring으로 전환된 연결을 등록한다. 연결의 MessageBuilder는 이후 본 쓰레드만 사용한다.
+	void addReader(ConnectionImpl conn) {
+		m_addeds.add(conn);
+		wakeup();
+	}
+
+	// 송신 ring이 가득 차서 전송 권한을 넘긴 연결을 등록한다.
+	void submitForWrite(ConnectionImpl conn) {
+		m_writers.add(conn);
+		wakeup();
+	}
+
+	void wakeup() {
+		Thread thread = m_thread;
+		if ( thread != null ) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	public void run() {
+		int idle = 0;
+		try {
+			while ( !m_stopped ) {
+				ConnectionImpl conn;
+				while ( (conn = m_addeds.poll()) != null ) {
+					m_readers.add(conn);
+				}
+
+				boolean busy = pollReaders();
+				busy |= pollWriters();
+				if ( busy ) {
+					idle = 0;
+				}
+				else if ( ++idle < SPIN_COUNT ) {
+					continue;
+				}
+				else if ( idle < YIELD_COUNT ) {
+					Thread.yield();
+				}
+				else if ( !m_writers.isEmpty() ) {
+					// 송신 ring의 여유 공간은 신호로 알려지지 않으므로 짧게 잠든다.
+					LockSupport.parkNanos(WRITER_PARK_NANOS);
+				}
+				else {
+					park();
+					idle = 0;
+				}
+			}
+		}
+		finally {
+			ConnectionImpl conn;
+			while ( (conn = m_addeds.poll()) != null ) {
+				m_readers.add(conn);
+			}
+			for ( ConnectionImpl reader: m_readers ) {
+				reader.m_msgBuilder.release();
+			}
+			m_readers.clear();
+		}
+	}
+
+	// 모든 수신 ring에 대기 여부를 설정한 후, 그 사이에 도착한 데이타가 없는 경우만 잠든다.
+	private void park() {
+		boolean empty = true;
+		for ( ConnectionImpl conn: m_readers ) {
+			ShmRing ring = conn.getSharedMemoryInRing();
+			empty &= ring.prepareToWait();
+		}
+		if ( empty && m_addeds.isEmpty() && !m_stopped ) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(MAX_PARK_MILLIS));
+		}
+
+		for ( ConnectionImpl conn: m_readers ) {
+			conn.getSharedMemoryInRing().clearWaiting();
+		}
+	}
+
+	private boolean pollReaders() {
+		boolean busy = false;
+		for ( Iterator<ConnectionImpl> iter = m_readers.iterator(); iter.hasNext(); ) {
+			ConnectionImpl conn = iter.next();
+			if ( conn.isClosed() ) {
+				// 닫힌 연결의 수신 버퍼는 selector 루프 대신 여기서 반환한다.
+				iter.remove();
+				conn.m_msgBuilder.release();
+
+				continue;
+			}
+
+			ShmRing ring = conn.getSharedMemoryInRing();
+			MessageBuilder builder = conn.m_msgBuilder;
+			try {
+				for ( int i = 0; i < MAX_FILLS_PER_ROUND && builder.fillBuffer(ring); ++i ) {
+					busy = true;
+					IoScheduler.dispatchMessages(conn, builder, false);
+				}
+			}
+			catch ( IOException e ) {
+				TransportLoggers.IO.error("fails to read shared-memory ring: conn=" + conn
+											+ ", cause=" + PlanetUtils.unwrapThrowable(e));
+
+				conn.close();
+			}
+		}
+
+		return busy;
+	}
+
+	private boolean pollWriters() {
+		boolean busy = false;
+		for ( int remains = m_writers.size(); remains > 0; --remains ) {
+			ConnectionImpl conn = m_writers.poll();
+			if ( conn == null ) {
+				break;
+			}
+
+			if ( conn.isClosed() ) {
+				continue;
+			}
+			if ( !conn.getSharedMemoryOutRing().isWritable() ) {
+				m_writers.add(conn);
+
+				continue;
+			}
+
+			busy = true;
+			try {
+				conn.notifyWriteIsReady();
+			}
+			catch ( Exception e ) {
+				TransportLoggers.IO.warn("" + PlanetUtils.unwrapThrowable(e));
+
+				conn.close();
+			}
+		}
+
+		return busy;
+	}
+
+	public String toString() {
+		return "ShmPoller[readers=" + m_readers.size() + "]";
+	}
+}
@@ -0,0 +1,269 @@
+package etri.planet.transport;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * 공유 메모리 영역에 위치한 단일 생산자/단일 소비자 바이트 ring.
+ * <p>
+ * Ring은 헤더와 2의 거듭제곱 크기의 데이타 영역으로 구성된다. 헤더에는 누적 쓰기 위치, 누적 읽기 위치,
+ * 수신측 대기 여부가 서로 다른 cache line에 기록된다. 생산자는 데이타를 복사한 후 release fence를
+ * 거쳐 쓰기 위치를 갱신하고, 소비자는 쓰기 위치를 읽은 후 acquire fence를 거쳐 데이타를 읽는다.
+ * 읽기 위치도 같은 방법으로 반대 방향으로 공개된다.
+ * <p>
+ * 수신측은 ring이 빈 상태로 오래 대기하는 경우 대기 여부를 설정한 후 잠들고, 송신측은 데이타를
+ * 공개한 후 대기 여부가 설정된 경우 별도의 신호 채널(TCP 소켓)로 수신측을 깨운다.
+ * <p>
+ * 메모리 fence는 JDK 9 이상의 <code>VarHandle</code>을, 그 이전 버전에서는 <code>sun.misc.Unsafe</code>를
+ * reflection으로 찾아 사용한다. 둘 다 사용할 수 없는 경우는 {@link #isSupported()}가
+ * <code>false</code>를 반환하며, 공유 메모리 전송은 협상되지 않는다.
+ * <p>
+ * 한 ring 객체는 한쪽 역할(생산자 또는 소비자)로만 사용되며, 해당 역할의 쓰레드는 한번에 하나여야 한다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class ShmRing {
+	private static final int LINE_SIZE = 128;			// false sharing을 피하기 위한 간격
+	static final int HEADER_SIZE = 3 * LINE_SIZE;
+	private static final int OFFSET_WRITE_INDEX = 0;
+	private static final int OFFSET_READ_INDEX = LINE_SIZE;
+	private static final int OFFSET_WAITING = 2 * LINE_SIZE;
+
+	private static final MethodHandle ACQUIRE_FENCE;
+	private static final MethodHandle RELEASE_FENCE;
+	private static final MethodHandle FULL_FENCE;
+	static {
+		MethodHandle[] fences = lookupFences();
+		ACQUIRE_FENCE = fences[0];
+		RELEASE_FENCE = fences[1];
+		FULL_FENCE = fences[2];
+	}
+
+	private final ByteBuffer m_region;		// 헤더 영역 (절대 위치로만 접근)
+	private final ByteBuffer m_data;		// 데이타 영역 (복사에만 사용되는 view)
+	private final int m_capacity;
+	private final int m_mask;
+	private final boolean m_producer;
+	private long m_index;					// 생산자: 누적 쓰기 위치, 소비자: 누적 읽기 위치
+
+	/**
+	 * 공유 메모리 영역에 ring을 생성한다.
+	 *
+	 * @param region	ring 헤더와 데이타 영역을 포함하는 버퍼 ({@link #HEADER_SIZE} + capacity 바이트).
+	 * @param capacity	데이타 영역의 크기. 2의 거듭제곱이어야 한다.
+	 * @param producer	생산자 역할 여부.
+	 */
+	ShmRing(ByteBuffer region, int capacity, boolean producer) {
+		m_region = region;
+		m_capacity = capacity;
+		m_mask = capacity - 1;
+		m_producer = producer;
+
+		ByteBuffer data = region.duplicate();
+		data.position(HEADER_SIZE);
+		data.limit(HEADER_SIZE + capacity);
+		m_data = data.slice();
+
+		m_index = region.getLong(( producer ) ? OFFSET_WRITE_INDEX : OFFSET_READ_INDEX);
+	}
+
+	/**
+	 * 메모리 fence를 사용할 수 있어 공유 메모리 ring을 사용할 수 있는지 여부를 반환한다.
+	 */
+	static boolean isSupported() {
+		return FULL_FENCE != null;
+	}
+
+	int capacity() {
+		return m_capacity;
+	}
+
+	/**
+	 * 주어진 버퍼들의 데이타를 ring의 여유 공간만큼 복사하고 공개한다.
+	 * <p>
+	 * 여유 공간이 부족한 경우는 일부만 복사되며, 복사된 만큼 각 버퍼의 위치가 이동한다.
+	 *
+	 * @return	복사된 바이트 수.
+	 */
+	long write(ByteBuffer[] srcs, int offset, int count) {
+		long index = m_index;
+		long readIndex = m_region.getLong(OFFSET_READ_INDEX);
+		acquireFence();
+
+		int free = m_capacity - (int)(index - readIndex);
+		long total = 0;
+		for ( int i = offset; i < offset + count && free > 0; ++i ) {
+			ByteBuffer src = srcs[i];
+			while ( src.hasRemaining() && free > 0 ) {
+				int pos = (int)(index & m_mask);
+				int nbytes = Math.min(Math.min(src.remaining(), free), m_capacity - pos);
+
+				m_data.clear();
+				m_data.position(pos);
+				m_data.limit(pos + nbytes);
+				TransportUtils.copyTo(src, m_data, nbytes);
+
+				index += nbytes;
+				free -= nbytes;
+				total += nbytes;
+			}
+		}
+
+		if ( total > 0 ) {
+			releaseFence();
+			m_region.putLong(OFFSET_WRITE_INDEX, index);
+			m_index = index;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Ring에 공개된 데이타를 주어진 버퍼의 여유 공간만큼 읽어 들인다.
+	 *
+	 * @return	읽은 바이트 수.
+	 */
+	int read(ByteBuffer dst) {
+		long index = m_index;
+		long writeIndex = m_region.getLong(OFFSET_WRITE_INDEX);
+		acquireFence();
+
+		int total = (int)Math.min(writeIndex - index, dst.remaining());
+		int remains = total;
+		while ( remains > 0 ) {
+			int pos = (int)(index & m_mask);
+			int nbytes = Math.min(remains, m_capacity - pos);
+
+			m_data.clear();
+			m_data.position(pos);
+			m_data.limit(pos + nbytes);
+			dst.put(m_data);
+
+			index += nbytes;
+			remains -= nbytes;
+		}
+
+		if ( total > 0 ) {
+			releaseFence();
+			m_region.putLong(OFFSET_READ_INDEX, index);
+			m_index = index;
+		}
+
+		return total;
+	}
+
+	// 소비자: 읽을 데이타가 있는지 여부를 반환한다.
+	boolean isReadable() {
+		return m_region.getLong(OFFSET_WRITE_INDEX) != m_index;
+	}
+
+	// 생산자: 쓸 공간이 있는지 여부를 반환한다.
+	boolean isWritable() {
+		return m_index - m_region.getLong(OFFSET_READ_INDEX) < m_capacity;
+	}
+
+	// 생산자: 지금 쓸 수 있는 바이트 수를 반환한다.
+	int writableBytes() {
+		return m_capacity - (int)(m_index - m_region.getLong(OFFSET_READ_INDEX));
+	}
+
+	/**
+	 * 소비자: 잠들기 전 대기 여부를 설정한다.
+	 * <p>
+	 * 설정 직전에 공개된 데이타를 놓치지 않도록 설정 후 full fence를 거쳐 ring을 다시 확인한다.
+	 *
+	 * @return	대기 여부 설정 후에도 ring이 비어있어 잠들어도 되는 경우는 <code>true</code>.
+	 */
+	boolean prepareToWait() {
+		m_region.putInt(OFFSET_WAITING, 1);
+		fullFence();
+
+		return !isReadable();
+	}
+
+	// 소비자: 깨어난 후 대기 여부를 해제한다.
+	void clearWaiting() {
+		m_region.putInt(OFFSET_WAITING, 0);
+	}
+
+	/**
+	 * 생산자: 데이타를 공개한 후 수신측이 잠들어 있어 깨워야 하는지를 반환한다.
+	 * <p>
+	 * 수신측의 대기 여부 설정과 교차되는 경우를 놓치지 않도록 full fence를 거친 후 확인한다.
+	 */
+	boolean isConsumerWaiting() {
+		fullFence();
+
+		return m_region.getInt(OFFSET_WAITING) != 0;
+	}
+
+	private static void acquireFence() {
+		try {
+			ACQUIRE_FENCE.invokeExact();
+		}
+		catch ( Throwable e ) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static void releaseFence() {
+		try {
+			RELEASE_FENCE.invokeExact();
+		}
+		catch ( Throwable e ) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static void fullFence() {
+		try {
+			FULL_FENCE.invokeExact();
+		}
+		catch ( Throwable e ) {
+			throw new AssertionError(e);
+		}
+	}
+
+	// acquire, release, full fence의 순서로 fence 메소드들을 찾는다.
+	private static MethodHandle[] lookupFences() {
+		MethodType type = MethodType.methodType(void.class);
+		try {
+			Class<?> cls = Class.forName("java.lang.invoke.VarHandle");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+			return new MethodHandle[] { lookup.findStatic(cls, "acquireFence", type),
+										lookup.findStatic(cls, "releaseFence", type),
+										lookup.findStatic(cls, "fullFence", type) };
+		}
+		catch ( Exception e ) { }
+
+		try {
+			Class<?> cls = Class.forName("sun.misc.Unsafe");
+			Field field = cls.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			return new MethodHandle[] { lookup.findVirtual(cls, "loadFence", type).bindTo(unsafe),
+										lookup.findVirtual(cls, "storeFence", type).bindTo(unsafe),
+										lookup.findVirtual(cls, "fullFence", type).bindTo(unsafe) };
+		}
+		catch ( Exception e ) {
+			if ( TransportLoggers.TRANSPORT.isInfoEnabled() ) {
+				TransportLoggers.TRANSPORT.info("shared-memory transport is not supported: cause=" + e);
+			}
+
+			return new MethodHandle[3];
+		}
+	}
+
+	public String toString() {
+		return String.format("ring[%s:%d/%d]", ( m_producer ) ? "out" : "in", m_index, m_capacity);
+	}
+}
@@ -0,0 +1,157 @@
+package etri.planet.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * 한 연결의 양방향 {@link ShmRing}을 담는 memory-mapped 파일.
+ * <p>
+ * 파일은 연결 요청측이 생성하며, 파일 헤더(magic, ring 크기, nonce)와 요청측에서 수락측 방향의 ring,
+ * 수락측에서 요청측 방향의 ring으로 구성된다. 수락측은 요청측이 알려준 경로의 파일을 열어 nonce를
+ * 확인함으로써 같은 파일 시스템을 공유하는 같은 호스트의 상대인지 검증한다.
+ * 양측이 모두 파일을 mapping한 후에는 요청측이 파일을 삭제한다. 삭제된 파일의 mapping은
+ * 가비지 컬렉션시 해제된다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class ShmSegment {
+	private static final int MAGIC = 0x970209;
+	private static final int FILE_HEADER_SIZE = 128;
+	private static final SecureRandom s_random = new SecureRandom();
+
+	private final File m_file;
+	private final long m_nonce;
+	private final ShmRing m_outRing;
+	private final ShmRing m_inRing;
+
+	private ShmSegment(File file, long nonce, ByteBuffer mapped, int capacity, boolean requester) {
+		m_file = file;
+		m_nonce = nonce;
+
+		int ringSize = ShmRing.HEADER_SIZE + capacity;
+		ByteBuffer ring0 = region(mapped, FILE_HEADER_SIZE, ringSize);
+		ByteBuffer ring1 = region(mapped, FILE_HEADER_SIZE + ringSize, ringSize);
+
+		m_outRing = new ShmRing(( requester ) ? ring0 : ring1, capacity, true);
+		m_inRing = new ShmRing(( requester ) ? ring1 : ring0, capacity, false);
+	}
+
+	/**
+	 * 연결 요청측에서 주어진 디렉토리에 새 공유 메모리 파일을 생성한다.
+	 *
+	 * @param dir		파일을 생성할 디렉토리.
+	 * @param capacity	방향별 ring의 크기. 2의 거듭제곱이어야 한다.
+	 * @throws IOException	파일 생성이나 mapping이 실패한 경우.
+	 */
+	static ShmSegment create(File dir, int capacity) throws IOException {
+		File file = File.createTempFile("planet-", ".shm", dir);
+		file.deleteOnExit();
+
+		try {
+			long nonce = s_random.nextLong();
+			MappedByteBuffer mapped = map(file, capacity, true);
+			mapped.putInt(0, MAGIC);
+			mapped.putInt(4, capacity);
+			mapped.putLong(8, nonce);
+
+			return new ShmSegment(file, nonce, mapped, capacity, true);
+		}
+		catch ( IOException e ) {
+			file.delete();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * 연결 수락측에서 상대방이 생성한 공유 메모리 파일을 연다.
+	 *
+	 * @param path		파일 경로.
+	 * @param nonce		상대방이 알려준 nonce.
+	 * @param capacity	상대방이 알려준 방향별 ring 크기.
+	 * @throws IOException	파일을 열 수 없거나, 파일 헤더가 주어진 정보와 다른 경우.
+	 */
+	static ShmSegment open(String path, long nonce, int capacity) throws IOException {
+		if ( capacity <= 0 || Integer.bitCount(capacity) != 1 ) {
+			throw new IOException("invalid shared-memory ring size: " + capacity);
+		}
+
+		File file = new File(path);
+		MappedByteBuffer mapped = map(file, capacity, false);
+		if ( mapped.getInt(0) != MAGIC || mapped.getInt(4) != capacity || mapped.getLong(8) != nonce ) {
+			throw new IOException("shared-memory file mismatch: path=" + path);
+		}
+
+		return new ShmSegment(file, nonce, mapped, capacity, false);
+	}
+
+	String getPath() {
+		return m_file.getAbsolutePath();
+	}
+
+	long getNonce() {
+		return m_nonce;
+	}
+
+	int getCapacity() {
+		return m_outRing.capacity();
+	}
+
+	// 본 쪽에서 상대방으로 전송하는 ring
+	ShmRing getOutRing() {
+		return m_outRing;
+	}
+
+	// 상대방에서 본 쪽으로 전송되는 ring
+	ShmRing getInRing() {
+		return m_inRing;
+	}
+
+	// 파일을 삭제한다. 이미 mapping된 영역은 계속 사용할 수 있다.
+	void unlink() {
+		if ( m_file.exists() && !m_file.delete() ) {
+			if ( TransportLoggers.IO.isDebugEnabled() ) {
+				TransportLoggers.IO.debug("fails to delete shared-memory file: " + m_file);
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(File file, int capacity, boolean create) throws IOException {
+		long size = FILE_HEADER_SIZE + 2L * (ShmRing.HEADER_SIZE + capacity);
+
+		// 생성측의 빈 파일은 READ_WRITE mapping시 mapping 크기만큼 늘어난다.
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+												StandardOpenOption.WRITE);
+		try {
+			if ( !create && channel.size() != size ) {
+				throw new IOException("shared-memory file size mismatch: " + file);
+			}
+
+			// mapping은 채널을 닫은 후에도 유효하다.
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer region(ByteBuffer mapped, int offset, int size) {
+		ByteBuffer region = mapped.duplicate();
+		region.position(offset);
+		region.limit(offset + size);
+
+		return region.slice();
+	}
+
+	public String toString() {
+		return "shm[" + m_file.getName() + "]";
+	}
+}
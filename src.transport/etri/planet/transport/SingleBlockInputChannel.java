@@ -11,28 +11,47 @@ import etri.planet.TransportLoggers;
 
 
 /**
+ * 한 block으로 전송된 메시지의 입력 채널.
+ * <p>
+ * 채널은 한 시점에 한 쓰레드만 읽으므로, 읽기는 동기화 없이 버퍼를 직접 읽는다.
+ * 'this'의 monitor는 채널을 닫는 경우와 닫히기를 기다리는 경우에만 사용된다.
  * 
  * @author Kang-Woo Lee (ETRI)
  */
 public class SingleBlockInputChannel implements InputChannel {
 	private final ConnectionImpl m_conn;
 	private final int m_id;
-	private boolean m_closed;
+	private volatile boolean m_closed;		// 변경은 'this'를 잡은 상태에서 한다.
 	private volatile Listener m_listener;	// guarded by 'this'
 
-	private final ByteBuffer m_buffer;
+	private volatile SharedBuffer.Slice m_slice;	// 읽기 쓰레드가 압축 해제된 slice로 교체한다.
+	private ByteBuffer m_buffer;					// 읽기 쓰레드만 사용한다.
+	
+	// 압축된 block은 selector 루프가 아닌 처음 읽는 쓰레드에서 해제된다.
+	SingleBlockInputChannel(ConnectionImpl conn, int channelId, SharedBuffer.Slice slice) {
+		m_conn = conn;
+		m_id = channelId;
+		m_slice = slice;
+		m_buffer = ( slice.m_compressed ) ? null : slice.m_data;
+	}
 	
 	SingleBlockInputChannel(ConnectionImpl conn, int channelId, ByteBuffer buffer) {
 		m_conn = conn;
 		m_id = channelId;
+		m_slice = null;
 		m_buffer = buffer;
 	}
 	
 	public void close() {
 		Listener listener = null;
 		synchronized ( this ) {
+			if ( m_closed ) {
+				return;
+			}
+			
 			listener = m_listener;
 			m_closed = true;
+			SharedBuffer.Slice.release(m_slice);
 			
 			this.notifyAll();
 		}
@@ -65,34 +84,32 @@ public class SingleBlockInputChannel implements InputChannel {
 		}
 	}
 	
-	public synchronized byte read1() throws IOException {
+	public byte read1() throws IOException {
 		assertSpace(1);
 		
 		return m_buffer.get();
 	}
 	
-	public synchronized short read2() throws IOException {
+	public short read2() throws IOException {
 		assertSpace(2);
 		
 		return m_buffer.getShort();
 	}
 	
-	public synchronized int read4() throws IOException {
+	public int read4() throws IOException {
 		assertSpace(4);
 		
 		return m_buffer.getInt();
 	}
 	
-	public synchronized long read8() throws IOException {
+	public long read8() throws IOException {
 		assertSpace(8);
 		
 		return m_buffer.getLong();
 	}
 	
-	public synchronized int readByteBuffer(ByteBuffer buf) throws IOException {
-		if ( m_closed ) {
-			throw new IOException("closed already");
-		}
+	public int readByteBuffer(ByteBuffer buf) throws IOException {
+		assertOpen();
 		
 		int nbytes = Math.min(m_buffer.remaining(), buf.remaining());
 		TransportUtils.copyTo(m_buffer, buf, nbytes);
@@ -100,10 +117,8 @@ public class SingleBlockInputChannel implements InputChannel {
 		return nbytes;
 	}
 	
-	public synchronized int readBytes(byte[] bytes, int offset, int length) throws IOException {
-		if ( m_closed ) {
-			throw new IOException("closed already");
-		}
+	public int readBytes(byte[] bytes, int offset, int length) throws IOException {
+		assertOpen();
 
 		if ( m_buffer.remaining() == 0 ) {
 			return -1;
@@ -117,12 +132,23 @@ public class SingleBlockInputChannel implements InputChannel {
 	}
 	
 	private void assertSpace(int size) throws IOException {
+		assertOpen();
+		
+		if ( m_buffer.remaining() < size ) {
+			throw new IOException("EOF reached");
+		}
+	}
+	
+	private void assertOpen() throws IOException {
 		if ( m_closed ) {
 			throw new IOException("closed already");
 		}
 		
-		if ( m_buffer.remaining() < size ) {
-			throw new IOException("EOF reached");
+		if ( m_buffer == null ) {
+			SharedBuffer.Slice slice = m_slice;
+			m_slice = null;
+			m_slice = m_conn.decompress(slice);
+			m_buffer = m_slice.m_data;
 		}
 	}
 	
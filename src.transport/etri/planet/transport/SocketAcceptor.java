@@ -1,39 +1,71 @@
 package etri.planet.transport;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 
 import planet.SystemException;
+import planet.transport.AddressFilter;
 
 import etri.planet.TransportLoggers;
 
 /**
+ * 외부로부터의 TCP 연결 요청을 받아들이는 클래스.
+ * <p>
+ * 청취 소켓은 non-blocking 모드로 하나 이상의 accept 루프의 selector에 등록되고, 각 루프는
+ * 깨어날 때마다 대기 중인 연결 요청을 최대 {@link #ACCEPT_BATCH}개까지 한꺼번에 받아들인다.
+ * accept 루프는 받아들인 소켓을 주소 필터로 검사한 후 selector 루프({@link IoScheduler})로
+ * 넘기기만 하고, 소켓 설정과 selector 등록은 해당 selector 루프에서, CONNECT 메시지 검사는
+ * executor에서 수행된다. 따라서 연결 요청이 몰리는 경우에도 accept 루프는 청취 큐를
+ * 빠르게 비울 수 있다.
+ * <p>
+ * Unix domain socket 경로가 설정된 경우는 해당 경로의 AF_UNIX 청취 소켓도 같은 accept 루프에서
+ * 감시한다. Unix domain socket으로 받아들인 연결은 같은 호스트로부터의 연결이므로 주소 필터를
+ * 적용하지 않으며, 접근 제어는 socket 파일의 권한으로 이루어진다.
  * 
  * 본 클래스는 ThreadSafe하도록 구현되었다.
  * 
  * @author Kang-Woo Lee
  */
-class SocketAcceptor implements Runnable {
+class SocketAcceptor {
+	private static final int ACCEPT_BACKLOG = 1024;
+	private static final int ACCEPT_BATCH = 64;			// 한번 깨어날 때 받아들이는 최대 연결 수
+	private static final long ACCEPT_ERROR_PAUSE = 100;	// accept 실패시 대기 시간 (ms)
+	
 	private final TransportManagerImpl m_transport;
 	private volatile ServerSocketChannel m_server;	// guarded by "this"
-	private final Thread m_thread;
+	private volatile ServerSocketChannel m_unixServer;	// Unix domain socket을 사용하지 않으면 null
+	private volatile File m_unixPath;
+	private volatile AcceptLoop[] m_loops;
+	private volatile boolean m_stopped = false;
 	
 	SocketAcceptor(TransportManagerImpl transport) {
 		m_transport = transport;
-		m_thread = new Thread(this, "planet:accept");
 	}
 	
 	ServerSocketChannel getServerSocketChannel() {
 		return m_server;
 	}
 	
-	int start(int listenerPort) throws IOException {
+	/**
+	 * 연결 요청을 받아들이기 시작한다.
+	 * 
+	 * @param listenerPort	TCP 청취 포트. 0인 경우는 임의의 포트를 사용한다.
+	 * @param loopCount		accept 루프 갯수.
+	 * @param unixPath		Unix domain socket 청취 경로. <code>null</code>인 경우는 사용하지 않는다.
+	 * @return	TCP 청취 포트.
+	 */
+	int start(int listenerPort, int loopCount, String unixPath) throws IOException {
 		synchronized ( this ) {
 			if ( m_server != null ) {
 				throw new SystemException(getClass().getSimpleName() + " started already");
@@ -44,15 +76,54 @@ class SocketAcceptor implements Runnable {
 		
 		ServerSocket socket = m_server.socket();
 		socket.setReuseAddress(true);
-		socket.bind(new InetSocketAddress(listenerPort));
-		m_server.configureBlocking(true);
+		socket.bind(new InetSocketAddress(listenerPort), ACCEPT_BACKLOG);
+		m_server.configureBlocking(false);
 		
-		m_thread.start();
+		if ( unixPath != null ) {
+			// 이전 실행에서 남은 socket 파일이 있으면 bind가 실패하므로 먼저 삭제한다.
+			File file = new File(unixPath);
+			file.delete();
+			
+			ServerSocketChannel unixServer = UnixSockets.openServerSocketChannel();
+			unixServer.bind(UnixSockets.toAddress(unixPath), ACCEPT_BACKLOG);
+			unixServer.configureBlocking(false);
+			m_unixServer = unixServer;
+			m_unixPath = file;
+			
+			if ( TransportLoggers.ACCEPTOR.isInfoEnabled() ) {
+				TransportLoggers.ACCEPTOR.info("listening: unix socket=" + unixPath);
+			}
+		}
+		
+		AcceptLoop[] loops = new AcceptLoop[loopCount];
+		for ( int i =0; i < loopCount; ++i ) {
+			Selector selector = Selector.open();
+			m_server.register(selector, SelectionKey.OP_ACCEPT);
+			if ( m_unixServer != null ) {
+				m_unixServer.register(selector, SelectionKey.OP_ACCEPT);
+			}
+			
+			loops[i] = new AcceptLoop(selector, "planet:accept-" + (i+1));
+		}
+		m_loops = loops;
+		
+		for ( AcceptLoop loop: loops ) {
+			new Thread(loop, loop.m_name).start();
+		}
 		
 		return socket.getLocalPort();
 	}
 	
 	void stop() {
+		m_stopped = true;
+		
+		AcceptLoop[] loops = m_loops;
+		if ( loops != null ) {
+			for ( AcceptLoop loop: loops ) {
+				loop.m_selector.wakeup();
+			}
+		}
+		
 		try {
 			m_server.close();
 			if ( TransportLoggers.ACCEPTOR.isInfoEnabled() ) {
@@ -62,40 +133,111 @@ class SocketAcceptor implements Runnable {
 		catch ( IOException e ) {
 			TransportLoggers.ACCEPTOR.error("fails to stop " + getClass().getSimpleName(), e);
 		}
+		
+		ServerSocketChannel unixServer = m_unixServer;
+		if ( unixServer != null ) {
+			try {
+				unixServer.close();
+			}
+			catch ( IOException ignored ) { }
+			
+			m_unixPath.delete();
+		}
 	}
 	
-	public void run() {
-		while ( true ) {
+	private class AcceptLoop implements Runnable {
+		private final Selector m_selector;
+		private final String m_name;
+		
+		AcceptLoop(Selector selector, String name) {
+			m_selector = selector;
+			m_name = name;
+		}
+		
+		public void run() {
 			try {
-				SocketChannel sockChannel = m_server.accept();
-				Socket socket = sockChannel.socket();
-				
-				String remoteHost = socket.getInetAddress().getHostAddress();
-				int remotePort = socket.getPort();
+				while ( !m_stopped ) {
+					m_selector.select();
+					for ( SelectionKey key: m_selector.selectedKeys() ) {
+						acceptBatch((ServerSocketChannel)key.channel());
+					}
+					m_selector.selectedKeys().clear();
+				}
+			}
+			catch ( ClosedSelectorException e ) { }
+			catch ( IOException e ) {
+				if ( !m_stopped ) {
+					TransportLoggers.ACCEPTOR.error("failed: in accepting connections (in " + m_name
+													+ ")", e);
+				}
+			}
+			finally {
+				try {
+					m_selector.close();
+				}
+				catch ( IOException ignored ) { }
+			}
+		}
+	}
+	
+	// 대기 중인 연결 요청들을 최대 ACCEPT_BATCH개까지 받아들인다.
+	// 남은 연결 요청은 selector가 바로 다시 깨어나 처리한다.
+	private void acceptBatch(ServerSocketChannel server) {
+		boolean isUnix = ( server == m_unixServer );
+		for ( int i =0; i < ACCEPT_BATCH && !m_stopped; ++i ) {
+			SocketChannel sockChannel;
+			try {
+				sockChannel = server.accept();
+				if ( sockChannel == null ) {
+					return;
+				}
+			}
+			catch ( ClosedChannelException e ) {
+				return;
+			}
+			catch ( IOException e ) {
+				// 파일 핸들 부족 등의 경우로, 잠시 후 다시 시도한다.
+				TransportLoggers.ACCEPTOR.warn("fails to accept a connection: cause=" + e);
 				
-				if ( remoteHost.equals("211.38.47.6") ) {
-					sockChannel.close();
-					continue;
+				try {
+					TimeUnit.MILLISECONDS.sleep(ACCEPT_ERROR_PAUSE);
 				}
+				catch ( InterruptedException ignored ) { }
 				
+				return;
+			}
+			
+			if ( isUnix ) {
 				if ( TransportLoggers.ACCEPTOR.isDebugEnabled() ) {
-					TransportLoggers.ACCEPTOR.debug("accepting: socket=" + remoteHost + ":" + remotePort);
+					TransportLoggers.ACCEPTOR.debug("accepting: unix socket=" + m_unixPath);
 				}
-
-				ConnectionImpl conn = new ConnectionImpl(m_transport, sockChannel);
+				
+				m_transport.nextScheduler().submitForAccept(sockChannel);
+				
+				continue;
+			}
+			
+			Socket socket = sockChannel.socket();
+			AddressFilter filter = m_transport.getAddressFilter();
+			if ( filter != null && !filter.accept(socket.getInetAddress()) ) {
 				if ( TransportLoggers.ACCEPTOR.isInfoEnabled() ) {
-					TransportLoggers.ACCEPTOR.info("acceptted: " + conn);
+					TransportLoggers.ACCEPTOR.info("rejected: socket="
+													+ socket.getRemoteSocketAddress());
 				}
 				
-				conn.submitForRead();
-			}
-			catch ( AsynchronousCloseException e ) {
-				return;
+				try {
+					sockChannel.close();
+				}
+				catch ( IOException ignored ) { }
+				
+				continue;
 			}
-			catch ( IOException e ) {
-				TransportLoggers.ACCEPTOR.error("failed: in accepting connections (in ConnectionAcceptor)", e);
-				return;
+			
+			if ( TransportLoggers.ACCEPTOR.isDebugEnabled() ) {
+				TransportLoggers.ACCEPTOR.debug("accepting: socket=" + socket.getRemoteSocketAddress());
 			}
+			
+			m_transport.nextScheduler().submitForAccept(sockChannel);
 		}
 	}
 }
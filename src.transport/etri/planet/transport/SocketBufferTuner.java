@@ -0,0 +1,243 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * 한 연결의 소켓 송수신 버퍼(SO_SNDBUF, SO_RCVBUF) 크기를 측정된 RTT와 처리량에 따라 조절한다.
+ * <p>
+ * RTT는 heartbeat 왕복 시간으로 측정한다. 송수신 데이타가 처음 관측되면 바로, 이후에는 최근 측정값이
+ * 없으면 {@link #RTT_PROBE_INTERVAL_MILLIS}ms마다 heartbeat를 보내 측정한다. 송신 버퍼에 쌓인 데이타 때문에
+ * heartbeat가 지연되어 RTT가 커 보이지 않도록, 최근 {@link #MIN_RTT_WINDOW_MILLIS}ms 동안의 최소값을
+ * 사용한다.
+ * <p>
+ * {@link #TUNE_INTERVAL_MILLIS}ms마다 방향별 처리량에 최소 RTT를 곱한 bandwidth-delay product(BDP)의
+ * 두 배를 목표 크기로 하여 버퍼 크기를 조절한다. 버퍼 크기에 막혀 있는 연결은 처리량이 버퍼 크기/RTT로
+ * 측정되므로 버퍼는 매 주기마다 두 배씩 커지고, 링크 대역폭에 도달하여 처리량이 더 늘지 않으면
+ * 목표 크기도 멈춘다. 처리량이 줄어 목표 크기가 현재 크기의 1/4 이하가 되면 버퍼를 줄인다.
+ * 크기는 2의 거듭제곱으로 맞추고 설정된 상한과 하한({@link TransportManagerImpl#setSocketBufferLimits(int, int)})
+ * 사이로 제한한다. 데이타가 없는 주기에는 측정도 조절도 하지 않는다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class SocketBufferTuner {
+	static final long TUNE_INTERVAL_MILLIS = 500;
+	static final long RTT_PROBE_INTERVAL_MILLIS = 2000;
+	static final long MIN_RTT_WINDOW_MILLIS = 10*1000;
+
+	private final ConnectionImpl m_conn;
+	private final SocketChannel m_channel;
+	private final Runnable m_tuneTask = new Runnable() {
+		public void run() {
+			tune();
+		}
+	};
+
+	// 전송량은 송신 큐 전송 권한을 가진 쓰레드가, 수신량은 소속 selector 루프 쓰레드가 기록한다.
+	private volatile long m_sentBytes = 0;
+	private volatile long m_receivedBytes = 0;
+
+	@GuardedBy("this") private TimingWheel.Timeout m_timeout;
+	@GuardedBy("this") private long m_lastTuneNanos;
+	@GuardedBy("this") private long m_lastSentBytes = 0;
+	@GuardedBy("this") private long m_lastReceivedBytes = 0;
+	@GuardedBy("this") private int m_sendBufferSize;
+	@GuardedBy("this") private int m_receiveBufferSize;
+	@GuardedBy("this") private long m_minRttNanos = -1;
+	@GuardedBy("this") private long m_minRttStampNanos;
+	@GuardedBy("this") private long m_srttNanos = -1;
+	@GuardedBy("this") private long m_lastSampleNanos;
+	@GuardedBy("this") private long m_probeSentNanos = 0;	// 0: 응답을 기다리는 heartbeat 없음
+
+	SocketBufferTuner(ConnectionImpl conn, SocketChannel channel) {
+		m_conn = conn;
+		m_channel = channel;
+	}
+
+	/**
+	 * 연결 설정이 완료된 후 호출되어, 버퍼를 하한 크기로 설정하고 주기적인 조절을 시작한다.
+	 */
+	synchronized void start() throws IOException {
+		int size = getLowerBound();
+		m_sendBufferSize = size;
+		m_receiveBufferSize = size;
+		m_channel.setOption(StandardSocketOptions.SO_SNDBUF, size);
+		m_channel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+
+		m_lastTuneNanos = System.nanoTime();
+		m_lastSampleNanos = m_lastTuneNanos;
+		schedule();
+	}
+
+	synchronized void stop() {
+		if ( m_timeout != null ) {
+			m_timeout.cancel();
+			m_timeout = null;
+		}
+	}
+
+	void onBytesSent(long nbytes) {
+		m_sentBytes += nbytes;
+	}
+
+	void onBytesReceived(long nbytes) {
+		m_receivedBytes += nbytes;
+	}
+
+	/**
+	 * RTT 측정을 위해 heartbeat를 보내기 직전에 호출된다.
+	 *
+	 * @return	이미 응답을 기다리는 heartbeat가 있어 측정에 사용되지 않는 경우는 false.
+	 */
+	synchronized boolean onHeartbeatSent() {
+		if ( m_probeSentNanos != 0 ) {
+			return false;
+		}
+
+		m_probeSentNanos = System.nanoTime();
+		return true;
+	}
+
+	// heartbeat 응답이 도착한 경우 호출된다. 응답은 heartbeat의 전송 순서대로 도착한다.
+	synchronized void onHeartbeatAcked() {
+		if ( m_probeSentNanos == 0 ) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		long rtt = Math.max(now - m_probeSentNanos, 1);
+		m_probeSentNanos = 0;
+		m_lastSampleNanos = now;
+
+		m_srttNanos = ( m_srttNanos < 0 ) ? rtt : m_srttNanos - (m_srttNanos >> 3) + (rtt >> 3);
+		if ( m_minRttNanos < 0 || rtt <= m_minRttNanos
+			|| now - m_minRttStampNanos > TimeUnit.MILLISECONDS.toNanos(MIN_RTT_WINDOW_MILLIS) ) {
+			m_minRttNanos = rtt;
+			m_minRttStampNanos = now;
+		}
+	}
+
+	/**
+	 * 평활된 RTT(microsecond)를 반환한다. 측정값이 없는 경우는 -1을 반환한다.
+	 */
+	synchronized long getSmoothedRttMicros() {
+		return ( m_srttNanos < 0 ) ? -1 : TimeUnit.NANOSECONDS.toMicros(m_srttNanos);
+	}
+
+	synchronized int getSendBufferSize() {
+		return m_sendBufferSize;
+	}
+
+	synchronized int getReceiveBufferSize() {
+		return m_receiveBufferSize;
+	}
+
+	private void tune() {
+		if ( m_conn.isClosed() ) {
+			return;
+		}
+
+		boolean probe;
+		synchronized ( this ) {
+			long now = System.nanoTime();
+			long elapsed = Math.max(now - m_lastTuneNanos, 1);
+			long sent = m_sentBytes - m_lastSentBytes;
+			long received = m_receivedBytes - m_lastReceivedBytes;
+			m_lastTuneNanos = now;
+			m_lastSentBytes += sent;
+			m_lastReceivedBytes += received;
+
+			if ( sent == 0 && received == 0 ) {
+				schedule();
+
+				return;
+			}
+
+			if ( m_minRttNanos > 0 ) {
+				m_sendBufferSize = resize(StandardSocketOptions.SO_SNDBUF, m_sendBufferSize,
+											sent, elapsed);
+				m_receiveBufferSize = resize(StandardSocketOptions.SO_RCVBUF, m_receiveBufferSize,
+											received, elapsed);
+			}
+
+			// 응답을 받지 못한 heartbeat는 연결이 정체된 경우이므로 측정에서 제외한다.
+			long probeWindow = TimeUnit.MILLISECONDS.toNanos(MIN_RTT_WINDOW_MILLIS);
+			if ( m_probeSentNanos != 0 && now - m_probeSentNanos > probeWindow ) {
+				m_probeSentNanos = 0;
+			}
+			// 아직 측정값이 없으면 조절할 수 없으므로 바로 측정한다.
+			probe = m_probeSentNanos == 0 && (m_minRttNanos < 0
+					|| now - m_lastSampleNanos > TimeUnit.MILLISECONDS.toNanos(RTT_PROBE_INTERVAL_MILLIS));
+
+			schedule();
+		}
+
+		// heartbeat 전송은 tuner의 lock 밖에서 수행한다.
+		if ( probe ) {
+			m_conn.sendRttProbe();
+		}
+	}
+
+	// 주어진 방향의 처리량으로 목표 크기를 계산하여, 현재 크기와 충분히 다른 경우만 버퍼 크기를 변경한다.
+	@GuardedBy("this")
+	private int resize(SocketOption<Integer> option, int current, long bytes, long elapsed) {
+		long bdp = (long)((double)bytes * m_minRttNanos / elapsed);
+		int lower = getLowerBound();
+		int upper = Math.max(m_conn.m_transport.getMaxSocketBufferSize(), lower);
+		
+		long wanted = Math.max(2 * bdp, lower);
+		int target = ( wanted >= upper ) ? upper
+										: (int)Math.min(Long.highestOneBit(wanted - 1) << 1, upper);
+		if ( target <= current && target > current / 4 ) {
+			return current;
+		}
+		
+		try {
+			m_channel.setOption(option, target);
+		}
+		catch ( IOException e ) {
+			if ( TransportLoggers.CONN.isDebugEnabled() ) {
+				TransportLoggers.CONN.debug("fails to set " + option.name() + ": conn=" + m_conn
+											+ ", cause=" + e);
+			}
+			
+			return current;
+		}
+		
+		if ( TransportLoggers.CONN.isDebugEnabled() ) {
+			TransportLoggers.CONN.debug(String.format("tuned %s: %d -> %d (rate=%dKB/s, min-rtt=%dus), conn=%s",
+												option.name(), current, target,
+												bytes * 1000000 / elapsed,
+												TimeUnit.NANOSECONDS.toMicros(m_minRttNanos), m_conn));
+		}
+		
+		return target;
+	}
+
+	@GuardedBy("this")
+	private void schedule() {
+		TimingWheel timer = m_conn.m_transport.m_timer;
+		if ( timer != null && !m_conn.isClosed() ) {
+			m_timeout = timer.schedule(m_tuneTask, TUNE_INTERVAL_MILLIS);
+		}
+	}
+
+	private int getLowerBound() {
+		return Math.max(m_conn.m_transport.getMinSocketBufferSize(), m_conn.getBlockSize());
+	}
+
+	public String toString() {
+		return String.format("tuner[snd=%d, rcv=%d, rtt=%dus]", getSendBufferSize(),
+							getReceiveBufferSize(), getSmoothedRttMicros());
+	}
+}
@@ -0,0 +1,258 @@
+package etri.planet.transport;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import planet.PlanetUtils;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * 연결의 heartbeat 및 유휴 시간 감시에 사용되는 hashed timing wheel.
+ * <p>
+ * 시간은 {@link #TICK_MILLIS} 단위의 tick으로 나뉘고, 각 timeout은 만료 tick을 wheel 크기로 나눈
+ * 나머지에 해당하는 bucket의 이중 연결 리스트에 삽입된다. 따라서 timeout의 등록, 취소, 만료 처리는
+ * 등록된 timeout의 수와 관계없이 상수 시간에 수행된다.
+ * 다른 쓰레드에서 요청된 등록과 취소는 큐에 모아두었다가 wheel 쓰레드가 매 tick마다 반영하므로,
+ * bucket은 wheel 쓰레드만 접근한다.
+ * <p>
+ * 만료된 timeout의 작업은 wheel 쓰레드에서 바로 수행되므로 blocking되어서는 안된다.
+ * 만료 시간의 정밀도는 tick 단위이다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class TimingWheel implements Runnable {
+	static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SIZE = 512;		// 2의 배수
+	private static final int MASK = WHEEL_SIZE - 1;
+
+	private final Bucket[] m_wheel;
+	private final Queue<Timeout> m_additions = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> m_cancellations = new ConcurrentLinkedQueue<Timeout>();
+	private volatile long m_startMillis;
+	private long m_tick = 0;						// wheel 쓰레드에서만 접근
+	private volatile Thread m_thread;
+	private volatile boolean m_activated = false;
+
+	/**
+	 * {@link TimingWheel}에 등록된 작업.
+	 */
+	static final class Timeout {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final TimingWheel m_timer;
+		private final Runnable m_task;
+		private final long m_deadline;			// wheel 시작 시각 기준 만료 시각 (ms)
+		private final AtomicInteger m_state = new AtomicInteger(ST_INIT);
+
+		// 아래 필드들은 wheel 쓰레드에서만 접근된다.
+		private long m_rounds;
+		private Bucket m_bucket;
+		private Timeout m_prev;
+		private Timeout m_next;
+
+		private Timeout(TimingWheel timer, Runnable task, long deadline) {
+			m_timer = timer;
+			m_task = task;
+			m_deadline = deadline;
+		}
+
+		/**
+		 * 등록된 작업을 취소한다.
+		 *
+		 * @return	취소된 경우는 true, 이미 만료되었거나 취소된 경우는 false.
+		 */
+		boolean cancel() {
+			if ( !m_state.compareAndSet(ST_INIT, ST_CANCELLED) ) {
+				return false;
+			}
+
+			m_timer.m_cancellations.add(this);
+			return true;
+		}
+
+		boolean isDone() {
+			return m_state.get() != ST_INIT;
+		}
+
+		private void expire() {
+			if ( !m_state.compareAndSet(ST_INIT, ST_EXPIRED) ) {
+				return;
+			}
+
+			try {
+				m_task.run();
+			}
+			catch ( Throwable e ) {
+				TransportLoggers.IDLECHKR.warn("timer task failed: task=" + m_task
+												+ ", cause=" + PlanetUtils.unwrapThrowable(e));
+			}
+		}
+	}
+
+	// 한 tick 위치의 timeout들을 관리하는 이중 연결 리스트
+	private static final class Bucket {
+		private Timeout m_head;
+		private Timeout m_tail;
+
+		void add(Timeout timeout) {
+			timeout.m_bucket = this;
+			if ( m_head == null ) {
+				m_head = m_tail = timeout;
+			}
+			else {
+				m_tail.m_next = timeout;
+				timeout.m_prev = m_tail;
+				m_tail = timeout;
+			}
+		}
+
+		Timeout remove(Timeout timeout) {
+			Timeout next = timeout.m_next;
+			if ( timeout.m_prev != null ) {
+				timeout.m_prev.m_next = next;
+			}
+			if ( next != null ) {
+				next.m_prev = timeout.m_prev;
+			}
+			if ( timeout == m_head ) {
+				m_head = next;
+			}
+			if ( timeout == m_tail ) {
+				m_tail = timeout.m_prev;
+			}
+			timeout.m_prev = timeout.m_next = null;
+			timeout.m_bucket = null;
+
+			return next;
+		}
+
+		// 만료된 timeout들의 작업을 수행하고, 아직 남은 회전이 있는 timeout은 회전 수만 줄인다.
+		void expire(long deadline) {
+			Timeout timeout = m_head;
+			while ( timeout != null ) {
+				if ( timeout.m_rounds <= 0 ) {
+					Timeout next = remove(timeout);
+					if ( timeout.m_deadline <= deadline ) {
+						timeout.expire();
+					}
+					timeout = next;
+				}
+				else {
+					--timeout.m_rounds;
+					timeout = timeout.m_next;
+				}
+			}
+		}
+	}
+
+	TimingWheel() {
+		m_wheel = new Bucket[WHEEL_SIZE];
+		for ( int i =0; i < WHEEL_SIZE; ++i ) {
+			m_wheel[i] = new Bucket();
+		}
+	}
+
+	void start(String name) {
+		m_startMillis = System.currentTimeMillis();
+		m_activated = true;
+
+		m_thread = new Thread(this, name);
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+	void stop() {
+		m_activated = false;
+
+		Thread thread = m_thread;
+		if ( thread != null ) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * 주어진 시간 후에 작업이 수행되도록 등록한다.
+	 *
+	 * @param task	수행할 작업.
+	 * @param delay	지연 시간 (ms).
+	 * @return	등록된 작업의 timeout 객체.
+	 */
+	Timeout schedule(Runnable task, long delay) {
+		long deadline = System.currentTimeMillis() + Math.max(delay, 0) - m_startMillis;
+		Timeout timeout = new Timeout(this, task, deadline);
+		m_additions.add(timeout);
+
+		return timeout;
+	}
+
+	public void run() {
+		while ( m_activated ) {
+			long deadline = waitForNextTick();
+			if ( deadline < 0 ) {
+				break;
+			}
+
+			removeCancelleds();
+			transferAdditions();
+			m_wheel[(int)(m_tick & MASK)].expire(deadline);
+			++m_tick;
+		}
+
+		if ( TransportLoggers.IDLECHKR.isInfoEnabled() ) {
+			TransportLoggers.IDLECHKR.info("stopped: " + Thread.currentThread().getName());
+		}
+	}
+
+	// 다음 tick 시각까지 대기한 후, 해당 tick의 (wheel 시작 시각 기준) 시각을 반환한다.
+	// 중지된 경우는 -1을 반환한다.
+	private long waitForNextTick() {
+		long deadline = TICK_MILLIS * (m_tick + 1);
+		while ( true ) {
+			long remains = deadline - (System.currentTimeMillis() - m_startMillis);
+			if ( remains <= 0 ) {
+				return deadline;
+			}
+
+			try {
+				TimeUnit.MILLISECONDS.sleep(remains);
+			}
+			catch ( InterruptedException e ) {
+				if ( !m_activated ) {
+					return -1;
+				}
+			}
+		}
+	}
+
+	private void transferAdditions() {
+		Timeout timeout;
+		while ( (timeout = m_additions.poll()) != null ) {
+			if ( timeout.isDone() ) {
+				continue;
+			}
+
+			// 이미 지난 시각의 timeout은 현재 tick에서 만료시킨다.
+			long ticks = Math.max(timeout.m_deadline / TICK_MILLIS, m_tick);
+			timeout.m_rounds = (ticks - m_tick) / WHEEL_SIZE;
+			m_wheel[(int)(ticks & MASK)].add(timeout);
+		}
+	}
+
+	private void removeCancelleds() {
+		Timeout timeout;
+		while ( (timeout = m_cancellations.poll()) != null ) {
+			Bucket bucket = timeout.m_bucket;
+			if ( bucket != null ) {
+				bucket.remove(timeout);
+			}
+		}
+	}
+}
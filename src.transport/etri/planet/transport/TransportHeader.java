@@ -22,12 +22,25 @@ public class TransportHeader {
 	public static final byte CODE_HEARTBEAT_ACK = 3;
 	public static final byte CODE_DATA = 4;
 	public static final byte CODE_DATA_CTRL = 5;
+	public static final byte CODE_SHM_CTRL = 6;
+	
+	/** DATA 메시지의 'm_final' 필드에서 마지막 블럭 여부를 나타내는 비트. */
+	public static final byte FLAG_FINAL = 0x01;
+	/** DATA 메시지의 'm_final' 필드에서 payload가 압축되었음을 나타내는 비트. */
+	public static final byte FLAG_COMPRESSED = 0x02;
+	/** CONNECT/CONNECT_REPLY 메시지의 'm_final' 필드에서 압축 codec 식별자가 기록되는 위치. */
+	static final int CODEC_SHIFT = 5;
+	static final int CODEC_MASK = 0x07;
 	
 	public int m_magic;
 	public int m_length;
 	public int m_chId;			// 채널 식별자 (long 메시지를 위한)
+								// CONNECT/CONNECT_REPLY 메시지에서는 초기 수신 윈도우 (0 이하: 사용하지 않음)
 	public int m_blockNum;		// 스트림내 블럭 순서 (0부터 시작, long 메시지가 아닌 경우는 -1 사용 가능)
-	public byte m_final;		// 마지막 블럭 여부 (0: 중간, 1: 마지막)
+								// CONNECT/CONNECT_REPLY 메시지에서는 최대 블럭 크기 (0: 협상하지 않음)
+	public byte m_final;		// 마지막 블럭 여부 (FLAG_FINAL) 및 압축 여부 (FLAG_COMPRESSED)
+								// CONNECT 메시지에서는 하위 5비트에 연결 그룹 내 순번 + 1,
+								// CONNECT/CONNECT_REPLY 메시지의 상위 3비트에는 압축 codec 식별자
 	public byte m_verMajor;		// major 버전 번호
 	public byte m_verMinor;		// minor 버전 번호
 	public byte m_code;
@@ -44,6 +57,23 @@ public class TransportHeader {
 	
 	public TransportHeader() { }
 	
+	public boolean isFinal() {
+		return (m_final & FLAG_FINAL) != 0;
+	}
+	
+	public boolean isCompressed() {
+		return (m_final & FLAG_COMPRESSED) != 0;
+	}
+	
+	// CONNECT/CONNECT_REPLY 메시지에 기록된 압축 codec 식별자 (0: 압축하지 않음)
+	int getCodecId() {
+		return (m_final >> CODEC_SHIFT) & CODEC_MASK;
+	}
+	
+	void setCodecId(int codecId) {
+		m_final = (byte)((m_final & ~(CODEC_MASK << CODEC_SHIFT)) | ((codecId & CODEC_MASK) << CODEC_SHIFT));
+	}
+	
 	public static TransportHeader read(ByteBuffer buf) throws ProtocolException {
 		TransportHeader header = new TransportHeader();
 		header.deserialize(buf);
@@ -1,17 +1,25 @@
 package etri.planet.transport;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 import planet.PlanetUtils;
 import planet.SystemException;
+import planet.transport.AddressFilter;
 import planet.transport.Connection;
 import planet.transport.TransportListener;
 import planet.transport.TransportManager;
@@ -24,35 +32,68 @@ import etri.planet.TransportLoggers;
  * @author Kang-Woo Lee (ETRI)
  */
 public class TransportManagerImpl implements TransportManager {
-	private static final int DEFAULT_CHANNEL_QUEUE_LENGTH = 128;
+	public static final int MAX_CONNECTION_GROUP_SIZE = 16;
+	public static final int MIN_SHM_RING_SIZE = 64 << 10;		// 64 KB
+	public static final int MAX_SHM_RING_SIZE = 256 << 20;		// 256 MB
+	
+	/** 소켓 버퍼를 협상된 블럭 크기로 고정한다. */
+	public static final int SOCKET_BUFFER_FIXED = 0;
+	/** 소켓 버퍼 크기를 설정하지 않고 커널의 자동 조절에 맡긴다. */
+	public static final int SOCKET_BUFFER_KERNEL = 1;
+	/** 측정된 RTT와 처리량에 따라 연결별로 소켓 버퍼 크기를 조절한다. */
+	public static final int SOCKET_BUFFER_ADAPTIVE = 2;
 	
 	private static final int STATE_NOT_STARTED = 0;
 	private static final int STATE_RUNNING = 1;
 	private static final int STATE_STOPPING = 2;
 	private static final int STATE_STOPPED = 3;
 	
+	// 같은 JVM에서 동작 중인 TransportManager들 (loopback 연결에 사용)
+	private static final ConcurrentMap<String,TransportManagerImpl> s_locals
+												= new ConcurrentHashMap<String,TransportManagerImpl>();
+	
 	private volatile String m_id = null;
 	private volatile String m_host = null;
 	
 	volatile SocketAcceptor m_acceptor;
-	volatile IoScheduler m_scheduler;
-	volatile IoProcessor[] m_processors;
-	volatile IdleConnectionInspector m_idleConnectionCollector;
+	volatile IoScheduler[] m_schedulers;
+	private final AtomicInteger m_schedulerSeq = new AtomicInteger(0);
+	volatile TimingWheel m_timer;
 	
-	volatile BlockingQueue<ConnectionImpl> m_ioReadyQ;
-	volatile int m_ioReadyQLength = DEFAULT_CHANNEL_QUEUE_LENGTH;
-	volatile int m_ioProcessorCount;
+	volatile int m_ioSchedulerCount;
+	private volatile int m_acceptorCount = 1;
+	private volatile AddressFilter m_addressFilter = null;	// null: 모든 주소를 허용
 	volatile Executor m_executor;
-	private ConnectionInspector m_inspector;
 	final byte[] m_hbBytes;
 	final byte[] m_hbAckBytes;
 	
 	private volatile int m_connectTimeout = 5000;			// 5 seconds
+	private volatile int m_writeQueueHighWaterMark = 1024*1024;	// 1 MB
+	private volatile int m_writeBatchBytes = 0;					// 묶음 전송을 하지 않음
+	private volatile long m_writeBatchDelayMicros = 50;			// 50 microseconds
+	final MemoryBudget m_memoryBudget = new MemoryBudget();		// 제한 없음
+	private volatile long m_bufferIdleTimeout = 10*1000;		// 10 seconds
+	private volatile int m_socketBufferTuning = SOCKET_BUFFER_ADAPTIVE;
+	private volatile int m_minSocketBufferSize = 64 << 10;		// 64 KB
+	private volatile int m_maxSocketBufferSize = 4 << 20;		// 4 MB
+	private volatile int m_maxBlockSize = 64 << 10;				// 64 KB
+	private volatile int m_initialChannelWindow = 256 << 10;	// 256 KB
+	private volatile int m_maxChannelWindow = 4 << 20;			// 4 MB
+	private volatile int m_connectionGroupSize = 1;				// 연결 그룹을 사용하지 않음
+	private volatile BlockCodec m_compressionCodec = null;		// 압축하지 않음
+	private volatile int m_compressionThreshold = 1024;			// 1 KB
 	private volatile long m_hbInterval;
+	private volatile boolean m_loopbackEnabled = true;
+	private volatile String m_unixSocketPath = null;		// Unix domain socket을 청취하지 않음
+	private volatile int m_shmRingSize = 0;					// 공유 메모리 전송을 사용하지 않음
+	private volatile File m_shmDirectory = getDefaultSharedMemoryDirectory();
+	private volatile ShmPoller m_shmPoller;					// 처음 사용될 때 생성됨 (생성은 this로 동기화)
+	private volatile WriteBatchFlusher m_batchFlusher;		// 처음 사용될 때 생성됨 (생성은 this로 동기화)
 	private int m_state;									// guarded by this
 	
-	private final ReentrantLock m_connLock;
-	private final Map<String,ConnectionImpl> m_connections;	// guarded by 'm_connLock'
+	private final ConcurrentMap<String,ConnectionImpl> m_connections;	// 연결 중인 연결도 포함
+	private final ConcurrentMap<String,LoopbackConnection> m_loopbacks
+												= new ConcurrentHashMap<String,LoopbackConnection>();
 	volatile TransportListener m_listener;
 	
 	public TransportManagerImpl() {
@@ -62,10 +103,9 @@ public class TransportManagerImpl implements TransportManager {
 	public TransportManagerImpl(String id) {
 		m_id = id;
 		m_state = STATE_NOT_STARTED;
-		m_connLock = new ReentrantLock();
-		m_connections = new HashMap<String,ConnectionImpl>();
+		m_connections = new ConcurrentHashMap<String,ConnectionImpl>();
 
-		m_ioProcessorCount = Runtime.getRuntime().availableProcessors();
+		m_ioSchedulerCount = Runtime.getRuntime().availableProcessors();
     	
 		try {
 			m_hbBytes = new byte[TransportHeader.SIZE];
@@ -111,19 +151,21 @@ public class TransportManagerImpl implements TransportManager {
         	m_listener = listener;
         	m_executor = executor;
         	
-        	m_ioReadyQ = new ArrayBlockingQueue<ConnectionImpl>(m_ioReadyQLength);
+        	ThreadGroup grp = new ThreadGroup("planet:high");
+        	grp.setMaxPriority(Thread.MAX_PRIORITY);
         	
-        	m_processors = new IoProcessor[m_ioProcessorCount];
-        	for ( int i = 0; i < m_ioProcessorCount; ++i ) {
-        		m_processors[i] = new IoProcessor(m_ioReadyQ, executor);
-        		new Thread(m_processors[i], "planet:io-processor-" + (i+1)).start();
+        	m_schedulers = new IoScheduler[m_ioSchedulerCount];
+        	for ( int i = 0; i < m_ioSchedulerCount; ++i ) {
+        		m_schedulers[i] = new IoScheduler(this);
+        		m_schedulers[i].start(grp, "planet:io-scheduler-" + (i+1));
         	}
         	
-        	m_scheduler = new IoScheduler(m_ioReadyQ);
-        	m_scheduler.start();
+        	// 받아들인 연결의 CONNECT 대기 시간 검사에 사용되므로 acceptor보다 먼저 시작한다.
+        	m_timer = new TimingWheel();
+        	m_timer.start("planet:timer");
         	
         	m_acceptor = new SocketAcceptor(this);
-        	port = m_acceptor.start(port);
+        	port = m_acceptor.start(port, m_acceptorCount, m_unixSocketPath);
         	
         	if ( m_id == null ) {
         		if ( m_host == null ) {
@@ -133,10 +175,8 @@ public class TransportManagerImpl implements TransportManager {
         		m_id = m_host + ":" + port;
         	}
         	
-        	m_idleConnectionCollector = new IdleConnectionInspector(this);
-        	m_idleConnectionCollector.start();
-        	
         	m_state = STATE_RUNNING;
+        	s_locals.putIfAbsent(m_id, this);
         	
         	return port;
     	}
@@ -147,20 +187,23 @@ public class TransportManagerImpl implements TransportManager {
 	    	if ( m_state != STATE_RUNNING ) {
 	    		return;
 	    	}
+	    	s_locals.remove(m_id, this);
 	    	
-	    	// stop heartbeat handler
-	    	if ( m_inspector != null ) {
-	    		m_inspector.stop();
-	    	}
-	    	
-	    	// stop idle connection collector handler
-	    	if ( m_idleConnectionCollector != null ) {
-	    		m_idleConnectionCollector.stop();
+	    	// stop heartbeat and idle connection supervision
+	    	if ( m_timer != null ) {
+	    		m_timer.stop();
 	    	}
 	    	
 	    	// stop accepting no more connections
 	    	m_acceptor.stop();
 	    	
+	    	if ( m_shmPoller != null ) {
+	    		m_shmPoller.shutdown();
+	    	}
+	    	if ( m_batchFlusher != null ) {
+	    		m_batchFlusher.shutdown();
+	    	}
+	    	
 	    	m_state = STATE_STOPPING;
 	    	this.notifyAll();
     	}
@@ -182,14 +225,11 @@ public class TransportManagerImpl implements TransportManager {
     		TransportLoggers.CONN.info("closed: all connections");
     	}
     	
-    	// stop IoProcessors
-    	for ( int i =0; i < m_processors.length; ++i ) {
-    		m_processors[i].stop();
+    	// stop I/O schedulers
+    	for ( int i =0; i < m_schedulers.length; ++i ) {
+    		m_schedulers[i].shutdown();
     	}
     	
-    	// stop I/O scheduler
-    	m_scheduler.shutdown();
-    	
     	synchronized ( this ) {
     		m_state = STATE_STOPPED;
 	    	this.notifyAll();
@@ -200,32 +240,83 @@ public class TransportManagerImpl implements TransportManager {
     	return m_acceptor.getServerSocketChannel();
     }
 	
-	public synchronized void setChannelQueueLength(int length) {
-		if ( length <= 0 ) {
-			throw new IllegalArgumentException("invalid channel queue length: " + length);
+	public int getIoSchedulerCount() {
+		return m_ioSchedulerCount;
+	}
+	
+	/**
+	 * 소켓 I/O 이벤트를 처리할 selector 루프({@link IoScheduler})의 갯수를 설정한다.
+	 * <p>
+	 * 생성된 각 연결은 생성 시점에 이들 중 하나의 루프에 배정되어 연결이 끊어질 때까지
+	 * 동일 루프에서 처리된다. 본 메소드는 TransportManager가 시작되기 이전에만 호출할 수 있다.
+	 * 
+	 * @param count	selector 루프 갯수.
+	 * @throws IllegalArgumentException	<code>count</code>가 0 이하인 경우.
+	 * @throws IllegalStateException	TransportManager가 이미 시작된 경우.
+	 */
+	public synchronized void setIoSchedulerCount(int count) {
+		if ( count <= 0 ) {
+			throw new IllegalArgumentException("invalid IoScheduler count: " + count);
 		}
 		
 		if ( m_state == STATE_NOT_STARTED ) {
-			m_ioReadyQLength = length;
+			m_ioSchedulerCount = count;
 		}
 		else {
 			throw new IllegalStateException("already started");
 		}
 	}
 	
-	public synchronized void setIoProcessorCount(int count) {
+	public int getAcceptorCount() {
+		return m_acceptorCount;
+	}
+	
+	/**
+	 * 외부로부터의 연결 요청을 받아들이는 accept 루프의 갯수를 설정한다.
+	 * <p>
+	 * 각 루프는 동일 청취 소켓을 자신의 selector로 감시하여 연결 요청을 나누어 받아들인다.
+	 * 본 메소드는 TransportManager가 시작되기 이전에만 호출할 수 있다.
+	 * 
+	 * @param count	accept 루프 갯수.
+	 * @throws IllegalArgumentException	<code>count</code>가 0 이하인 경우.
+	 * @throws IllegalStateException	TransportManager가 이미 시작된 경우.
+	 */
+	public synchronized void setAcceptorCount(int count) {
 		if ( count <= 0 ) {
-			throw new IllegalArgumentException("invalid IoProcessor count: " + count);
+			throw new IllegalArgumentException("invalid acceptor count: " + count);
 		}
 		
 		if ( m_state == STATE_NOT_STARTED ) {
-			m_ioProcessorCount = count;
+			m_acceptorCount = count;
 		}
 		else {
 			throw new IllegalStateException("already started");
 		}
 	}
 	
+	public AddressFilter getAddressFilter() {
+		return m_addressFilter;
+	}
+	
+	/**
+	 * 외부로부터의 연결 요청을 상대방 주소로 걸러낼 필터를 설정한다.
+	 * <p>
+	 * 필터가 거부한 연결 요청은 받아들이자마자 닫힌다. 변경된 필터는 이후의 연결 요청부터 적용된다.
+	 * 
+	 * @param filter	주소 필터. <code>null</code>인 경우는 모든 연결 요청을 허용한다.
+	 */
+	public void setAddressFilter(AddressFilter filter) {
+		m_addressFilter = filter;
+	}
+	
+	// 새로 생성되는 연결이 배정될 selector 루프를 round-robin 방식으로 선택한다.
+	IoScheduler nextScheduler() {
+		IoScheduler[] schedulers = m_schedulers;
+		int idx = (m_schedulerSeq.getAndIncrement() & Integer.MAX_VALUE) % schedulers.length;
+		
+		return schedulers[idx];
+	}
+	
 	@Override
 	public int getConnectTimeout() {
 		return m_connectTimeout;
@@ -239,46 +330,458 @@ public class TransportManagerImpl implements TransportManager {
 		m_connectTimeout = timeout;
 	}
 	
+	public int getMaxBlockSize() {
+		return m_maxBlockSize;
+	}
+	
+	/**
+	 * 연결 설정시 상대방에게 제시할 최대 데이타 블럭 크기(헤더 포함)를 설정한다.
+	 * <p>
+	 * 각 연결의 블럭 크기는 양측이 제시한 값 중 작은 값으로 결정되며, 블럭 크기를 협상하지 않는
+	 * 상대와는 {@link TransportManager#MAX_BLOCK_SIZE}를 사용한다.
+	 * 변경된 값은 이후 생성되는 연결부터 적용된다.
+	 * 
+	 * @param size	최대 블럭 크기.
+	 * @throws IllegalArgumentException	<code>size</code>가 {@link TransportManager#MAX_BLOCK_SIZE}보다
+	 * 									작거나 {@value BufferPool#MAX_BUFFER_SIZE}보다 큰 경우.
+	 */
+	public void setMaxBlockSize(int size) {
+		if ( size < MAX_BLOCK_SIZE || size > BufferPool.MAX_BUFFER_SIZE ) {
+			throw new IllegalArgumentException("invalid max block size: " + size);
+		}
+		
+		m_maxBlockSize = size;
+	}
+	
+	public int getInitialChannelWindow() {
+		return m_initialChannelWindow;
+	}
+	
+	/**
+	 * 데이타 채널별 수신 윈도우(바이트)의 초기 값을 설정한다.
+	 * <p>
+	 * 설정된 값은 연결 설정시 상대방에게 제시되며, 송신측은 수신측이 허용한 바이트 수만큼만
+	 * ack 없이 전송할 수 있다. 0인 경우는 윈도우 방식을 사용하지 않고 블럭 단위 ack
+	 * ({@link DataControlMessage#NEXT_DATA}) 방식을 사용한다. 상대방이 윈도우 방식을
+	 * 지원하지 않는 경우도 블럭 단위 ack 방식을 사용한다.
+	 * 변경된 값은 이후 생성되는 연결부터 적용된다.
+	 * 
+	 * @param bytes	초기 수신 윈도우 크기.
+	 * @throws IllegalArgumentException	<code>bytes</code>가 음수인 경우.
+	 */
+	public void setInitialChannelWindow(int bytes) {
+		if ( bytes < 0 ) {
+			throw new IllegalArgumentException("invalid initial channel window: " + bytes);
+		}
+		
+		m_initialChannelWindow = bytes;
+	}
+	
+	public int getMaxChannelWindow() {
+		return m_maxChannelWindow;
+	}
+	
+	/**
+	 * 데이타 채널별 수신 윈도우가 자동으로 커질 수 있는 최대 크기(바이트)를 설정한다.
+	 * <p>
+	 * 수신측은 데이타를 기다리는 일이 생기면 윈도우를 두배씩 키운다.
+	 * 연결별로는 {@link ConnectionImpl#setMaxChannelWindow(int)}로 변경할 수 있다.
+	 * 
+	 * @param bytes	최대 수신 윈도우 크기.
+	 * @throws IllegalArgumentException	<code>bytes</code>가 0 이하인 경우.
+	 */
+	public void setMaxChannelWindow(int bytes) {
+		if ( bytes <= 0 ) {
+			throw new IllegalArgumentException("invalid max channel window: " + bytes);
+		}
+		
+		m_maxChannelWindow = bytes;
+	}
+	
+	public int getConnectionGroupSize() {
+		return m_connectionGroupSize;
+	}
+	
+	/**
+	 * 상대 Planet별로 생성할 연결 그룹의 크기(소켓 수)를 설정한다.
+	 * <p>
+	 * 크기가 2 이상인 경우, 연결 요청시 대표 연결이 설정된 후 나머지 멤버 연결들이 비동기적으로
+	 * 추가된다. 데이타 채널은 채널 식별자에 따라 그룹의 연결들에 나누어 배정되므로, 한 상대와의
+	 * 대용량 전송이 하나의 TCP 연결에 묶이지 않는다. 연결 그룹은 연결 설정 협상을 지원하는
+	 * 상대와만 구성된다. 변경된 값은 이후 요청되는 연결부터 적용된다.
+	 * 
+	 * @param size	연결 그룹 크기. 1인 경우는 연결 그룹을 사용하지 않는다.
+	 * @throws IllegalArgumentException	<code>size</code>가 1보다 작거나
+	 * 									{@value #MAX_CONNECTION_GROUP_SIZE}보다 큰 경우.
+	 */
+	public void setConnectionGroupSize(int size) {
+		if ( size < 1 || size > MAX_CONNECTION_GROUP_SIZE ) {
+			throw new IllegalArgumentException("invalid connection group size: " + size);
+		}
+		
+		m_connectionGroupSize = size;
+	}
+	
+	public BlockCodec getCompressionCodec() {
+		return m_compressionCodec;
+	}
+	
+	/**
+	 * 데이타 블럭 압축에 사용할 codec을 설정한다.
+	 * <p>
+	 * 연결 설정시 양측이 같은 식별자의 codec을 설정한 경우에만 해당 연결의 데이타 블럭이
+	 * 압축되며, 압축하지 않는 상대와는 압축 없이 통신한다. 변경된 codec은 이후 설정되는
+	 * 연결부터 적용된다.
+	 * 
+	 * @param codec	압축 codec. <code>null</code>인 경우는 압축을 사용하지 않는다.
+	 * @throws IllegalArgumentException	codec 식별자가 1부터 7 사이가 아닌 경우.
+	 */
+	public void setCompressionCodec(BlockCodec codec) {
+		if ( codec != null && (codec.getId() < 1 || codec.getId() > TransportHeader.CODEC_MASK) ) {
+			throw new IllegalArgumentException("invalid codec id: " + codec.getId());
+		}
+		
+		m_compressionCodec = codec;
+	}
+	
+	public int getCompressionThreshold() {
+		return m_compressionThreshold;
+	}
+	
+	/**
+	 * 압축을 시도할 최소 블럭 데이타 크기(바이트)를 설정한다.
+	 * <p>
+	 * 이보다 작은 블럭은 압축 효과에 비해 비용이 크므로 압축하지 않고 전송한다.
+	 * 
+	 * @param bytes	최소 블럭 데이타 크기.
+	 * @throws IllegalArgumentException	<code>bytes</code>가 음수인 경우.
+	 */
+	public void setCompressionThreshold(int bytes) {
+		if ( bytes < 0 ) {
+			throw new IllegalArgumentException("invalid compression threshold: " + bytes);
+		}
+		
+		m_compressionThreshold = bytes;
+	}
+	
+	public int getWriteQueueHighWaterMark() {
+		return m_writeQueueHighWaterMark;
+	}
+	
+	/**
+	 * 연결별 송신 큐의 high-water mark를 설정한다.
+	 * <p>
+	 * 송신 큐에 쌓인 데이타가 이 값을 넘으면 {@link ConnectionImpl#write(ByteBuffer)} 호출은
+	 * 큐가 이 값 이하로 비워질 때까지 대기한다.
+	 * 
+	 * @param bytes	송신 큐의 최대 바이트 수.
+	 * @throws IllegalArgumentException	<code>bytes</code>가 0 이하인 경우.
+	 */
+	public void setWriteQueueHighWaterMark(int bytes) {
+		if ( bytes <= 0 ) {
+			throw new IllegalArgumentException("invalid write queue high-water mark: " + bytes);
+		}
+		
+		m_writeQueueHighWaterMark = bytes;
+	}
+	
+	public int getWriteBatchBytes() {
+		return m_writeBatchBytes;
+	}
+	
+	public long getWriteBatchDelayMicros() {
+		return m_writeBatchDelayMicros;
+	}
+	
+	/**
+	 * 작은 데이타 프레임의 묶음 전송(cork/flush)을 설정한다.
+	 * <p>
+	 * 설정된 경우, 송신 큐가 비어있는 연결에 <code>bytes</code>보다 작은 데이타 프레임이 들어오면
+	 * 바로 전송하지 않고 묶음을 시작한다. 묶음은 쌓인 데이타가 <code>bytes</code>에 이르거나,
+	 * 묶음 시작 후 <code>delayMicros</code>가 지나거나, latency에 민감한 프레임(연결 제어 메시지,
+	 * heartbeat, 흐름 제어 메시지, 응답을 기다리는 호출 요청 등)이 들어오면 한번의 gathering write로
+	 * 전송된다. 묶음 전송의 효과는 {@link ConnectionImpl#getWriteCallCount()} 등의 연결별 통계로
+	 * 확인할 수 있다. 변경된 설정은 이후 시작되는 묶음부터 적용된다.
+	 * 
+	 * @param bytes	묶음의 최대 바이트 수. 0인 경우는 묶음 전송을 하지 않는다.
+	 * @param delayMicros	묶음의 최대 대기 시간 (microsecond).
+	 * @throws IllegalArgumentException	<code>bytes</code>가 음수이거나 <code>delayMicros</code>가
+	 * 									0 이하인 경우.
+	 */
+	public void setWriteBatching(int bytes, long delayMicros) {
+		if ( bytes < 0 || delayMicros <= 0 ) {
+			throw new IllegalArgumentException("invalid write batching: bytes=" + bytes
+												+ ", delay=" + delayMicros + "us");
+		}
+		
+		m_writeBatchBytes = bytes;
+		m_writeBatchDelayMicros = delayMicros;
+	}
+	
+	public long getMemoryBudget() {
+		return m_memoryBudget.getLimit();
+	}
+	
+	/**
+	 * 전송 버퍼 메모리의 상한(바이트)을 설정한다.
+	 * <p>
+	 * 수신 버퍼, 출력 채널의 블럭 버퍼, 송신 큐에 복사된 데이타의 합이 상한을 넘으면,
+	 * 출력 채널에 쓰는 쓰레드는 사용량이 상한 이하로 줄어들 때까지 대기한다.
+	 * 제한 시간 내에 줄어들지 않으면 쓰기는 {@link IOException}으로 실패한다.
+	 * 
+	 * @param bytes	메모리 상한. 0인 경우는 제한하지 않는다.
+	 * @throws IllegalArgumentException	<code>bytes</code>가 음수인 경우.
+	 */
+	public void setMemoryBudget(long bytes) {
+		if ( bytes < 0 ) {
+			throw new IllegalArgumentException("invalid memory budget: " + bytes);
+		}
+		
+		m_memoryBudget.setLimit(bytes);
+	}
+	
+	/**
+	 * 현재 사용 중인 전송 버퍼 메모리의 크기(바이트)를 반환한다.
+	 */
+	public long getMemoryUsage() {
+		return m_memoryBudget.getUsed();
+	}
+	
+	public long getBufferIdleTimeout() {
+		return m_bufferIdleTimeout;
+	}
+	
+	/**
+	 * 연결의 수신 버퍼를 반환할 유휴 시간(millisecond)을 설정한다.
+	 * <p>
+	 * 수신 버퍼는 연결에 데이타가 처음 도착할 때 할당되고, 설정된 시간 동안 데이타가 도착하지 않으면
+	 * 반환된다. 따라서 유휴 연결은 수신 버퍼를 점유하지 않는다. 변경된 값은 이후 할당되는 버퍼부터 적용된다.
+	 * 
+	 * @param millis	유휴 시간. 음수인 경우는 연결이 닫힐 때까지 반환하지 않는다.
+	 */
+	public void setBufferIdleTimeout(long millis) {
+		m_bufferIdleTimeout = millis;
+	}
+	
+	public int getSocketBufferTuning() {
+		return m_socketBufferTuning;
+	}
+	
+	/**
+	 * 소켓 송수신 버퍼(SO_SNDBUF, SO_RCVBUF)의 크기 결정 방식을 설정한다.
+	 * <p>
+	 * {@link #SOCKET_BUFFER_ADAPTIVE}인 경우, 연결별로 heartbeat 왕복으로 측정한 RTT와 관측된 처리량의
+	 * 곱(bandwidth-delay product)에 맞추어 버퍼 크기를 주기적으로 조절한다
+	 * ({@link #setSocketBufferLimits(int, int)}). {@link #SOCKET_BUFFER_KERNEL}인 경우는 버퍼 크기를
+	 * 설정하지 않아 커널의 자동 조절이 동작하게 하고, {@link #SOCKET_BUFFER_FIXED}인 경우는 버퍼를
+	 * 협상된 블럭 크기로 고정한다. 변경된 방식은 이후 설정되는 연결부터 적용된다.
+	 * 
+	 * @param mode	버퍼 크기 결정 방식.
+	 * @throws IllegalArgumentException	<code>mode</code>가 정의된 방식이 아닌 경우.
+	 */
+	public void setSocketBufferTuning(int mode) {
+		if ( mode < SOCKET_BUFFER_FIXED || mode > SOCKET_BUFFER_ADAPTIVE ) {
+			throw new IllegalArgumentException("invalid socket buffer tuning mode: " + mode);
+		}
+		
+		m_socketBufferTuning = mode;
+	}
+	
+	public int getMinSocketBufferSize() {
+		return m_minSocketBufferSize;
+	}
+	
+	public int getMaxSocketBufferSize() {
+		return m_maxSocketBufferSize;
+	}
+	
+	/**
+	 * 소켓 버퍼 크기를 조절하는 경우({@link #SOCKET_BUFFER_ADAPTIVE}) 사용할 크기의 범위를 설정한다.
+	 * <p>
+	 * 버퍼 크기는 협상된 블럭 크기보다 작아지지 않는다. 실제로 적용되는 크기는 커널 설정
+	 * (예: Linux의 <code>net.core.rmem_max</code>, <code>net.core.wmem_max</code>)에 의해 더 제한될 수 있다.
+	 * 변경된 범위는 이후 조절부터 적용된다.
+	 * 
+	 * @param min	최소 버퍼 크기(바이트).
+	 * @param max	최대 버퍼 크기(바이트).
+	 * @throws IllegalArgumentException	<code>min</code>이 0 이하이거나 <code>max</code>가
+	 * 									<code>min</code>보다 작은 경우.
+	 */
+	public void setSocketBufferLimits(int min, int max) {
+		if ( min <= 0 || max < min ) {
+			throw new IllegalArgumentException("invalid socket buffer limits: min=" + min
+												+ ", max=" + max);
+		}
+		
+		m_minSocketBufferSize = min;
+		m_maxSocketBufferSize = max;
+	}
+	
 	public long getHeartbeatInterval() {
 		return m_hbInterval;
 	}
     
+	/**
+	 * heartbeat 전송 주기를 설정한다.
+	 * <p>
+	 * 각 연결의 heartbeat 검사는 {@link TimingWheel}에 연결별로 등록되며, 변경된 주기는 각 연결의
+	 * 다음 검사부터 적용된다. 0 이하인 경우는 이후 검사를 중단한다.
+	 */
     public void setHeartbeatInterval(long interval) {
-    	if ( interval <= 0 ) {
-    		if ( m_inspector != null ) {
-    			m_inspector.stop();
-    			m_inspector = null;
-    		}
-    		
-    		return;
-    	}
+    	m_hbInterval = Math.max(interval, 0);
     	
-    	if ( m_inspector != null ) {
-    		m_inspector.stop();
-    		m_inspector = null;
+    	if ( m_hbInterval > 0 ) {
+    		for ( ConnectionImpl conn: m_connections.values() ) {
+    			conn.scheduleHeartbeat();
+    		}
     	}
-
-		m_inspector = new ConnectionInspector(this, m_hbInterval = interval);
-    	new Thread(m_inspector, "planet:heartbeat").start();
     }
 
-	public boolean existsConnection(String key) {
-		m_connLock.lock();
-		try {
-			return m_connections.get(key) != null;
+	public boolean isLoopbackEnabled() {
+		return m_loopbackEnabled;
+	}
+	
+	/**
+	 * 같은 JVM에서 동작 중인 Planet과의 연결에 loopback 연결을 사용할지 여부를 설정한다.
+	 * <p>
+	 * 사용하는 경우, 연결 요청 대상이 같은 JVM에 등록된 TransportManager이면 소켓 대신
+	 * 데이타 버퍼를 참조로 전달하는 {@link LoopbackConnection}을 생성한다. 양측 모두 사용하도록
+	 * 설정된 경우에만 적용되며, 변경된 값은 이후 요청되는 연결부터 적용된다.
+	 * 
+	 * @param enabled	loopback 연결 사용 여부.
+	 */
+	public void setLoopbackEnabled(boolean enabled) {
+		m_loopbackEnabled = enabled;
+	}
+
+	public String getUnixSocketPath() {
+		return m_unixSocketPath;
+	}
+	
+	/**
+	 * TCP 포트와 함께 연결 요청을 받아들일 Unix domain socket 경로를 설정한다.
+	 * <p>
+	 * 같은 호스트의 상대는 <code>unix:<i>경로</i></code> 형태의 Planet 식별자로 연결을 요청하여
+	 * TCP/IP 스택을 거치지 않고 연결할 수 있다. 연결 후의 메시지 형식과 흐름 제어는 TCP 연결과 같다.
+	 * Unix domain socket은 JDK 16 이상에서만 사용할 수 있다.
+	 * 본 메소드는 TransportManager가 시작되기 이전에만 호출할 수 있다.
+	 * 
+	 * @param path	socket 파일 경로. <code>null</code>인 경우는 Unix domain socket을 사용하지 않는다.
+	 * @throws UnsupportedOperationException	현 JDK가 Unix domain socket을 지원하지 않는 경우.
+	 * @throws IllegalStateException	TransportManager가 이미 시작된 경우.
+	 */
+	public synchronized void setUnixSocketPath(String path) {
+		if ( path != null && !UnixSockets.isSupported() ) {
+			throw new UnsupportedOperationException("Unix domain socket is not supported");
+		}
+		
+		if ( m_state == STATE_NOT_STARTED ) {
+			m_unixSocketPath = path;
+		}
+		else {
+			throw new IllegalStateException("already started");
+		}
+	}
+	
+	public int getSharedMemoryRingSize() {
+		return m_shmRingSize;
+	}
+	
+	/**
+	 * 같은 호스트의 상대와의 연결에 사용할 공유 메모리 ring의 방향별 크기(바이트)를 설정한다.
+	 * <p>
+	 * 0보다 큰 경우, 같은 호스트에 있는 상대와의 연결은 연결 설정 후 memory-mapped 파일의 ring으로
+	 * 데이타를 주고 받도록 협상한다. 양측 모두 설정된 경우에만 적용되며, 협상이 실패한 경우는 TCP로
+	 * 계속 통신한다. 변경된 값은 이후 설정되는 연결부터 적용된다.
+	 * 
+	 * @param bytes	ring 크기. 0인 경우는 공유 메모리 전송을 사용하지 않는다.
+	 * @throws IllegalArgumentException	<code>bytes</code>가 0이 아니면서 2의 거듭제곱이 아니거나,
+	 * 						{@value #MIN_SHM_RING_SIZE}보다 작거나 {@value #MAX_SHM_RING_SIZE}보다 큰 경우.
+	 */
+	public void setSharedMemoryRingSize(int bytes) {
+		if ( bytes != 0 && (bytes < MIN_SHM_RING_SIZE || bytes > MAX_SHM_RING_SIZE
+							|| Integer.bitCount(bytes) != 1) ) {
+			throw new IllegalArgumentException("invalid shared-memory ring size: " + bytes);
+		}
+		
+		m_shmRingSize = bytes;
+	}
+	
+	public File getSharedMemoryDirectory() {
+		return m_shmDirectory;
+	}
+	
+	/**
+	 * 공유 메모리 파일을 생성할 디렉토리를 설정한다.
+	 * <p>
+	 * 기본 값은 <code>/dev/shm</code>이 있는 경우는 해당 디렉토리이고, 그렇지 않은 경우는
+	 * 시스템 임시 디렉토리이다.
+	 * 
+	 * @param dir	공유 메모리 파일 디렉토리.
+	 * @throws IllegalArgumentException	<code>dir</code>이 디렉토리가 아닌 경우.
+	 */
+	public void setSharedMemoryDirectory(File dir) {
+		if ( dir == null || !dir.isDirectory() ) {
+			throw new IllegalArgumentException("invalid shared-memory directory: " + dir);
+		}
+		
+		m_shmDirectory = dir;
+	}
+	
+	private static File getDefaultSharedMemoryDirectory() {
+		File shm = new File("/dev/shm");
+		if ( shm.isDirectory() && shm.canWrite() ) {
+			return shm;
+		}
+		
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+	
+	// 묶음 전송의 대기 시한을 처리하는 쓰레드를 반환한다. 처음 호출될 때 쓰레드를 시작한다.
+	WriteBatchFlusher getWriteBatchFlusher() {
+		WriteBatchFlusher flusher = m_batchFlusher;
+		if ( flusher == null ) {
+			synchronized ( this ) {
+				if ( m_batchFlusher == null ) {
+					m_batchFlusher = new WriteBatchFlusher();
+					m_batchFlusher.start("planet:batch-flusher");
+				}
+				flusher = m_batchFlusher;
+			}
 		}
-		finally {
-			m_connLock.unlock();
+		
+		return flusher;
+	}
+	
+	// 공유 메모리 ring을 감시하는 쓰레드를 반환한다. 처음 호출될 때 쓰레드를 시작한다.
+	ShmPoller getShmPoller() {
+		ShmPoller poller = m_shmPoller;
+		if ( poller == null ) {
+			synchronized ( this ) {
+				if ( m_shmPoller == null ) {
+					m_shmPoller = new ShmPoller();
+					m_shmPoller.start("planet:shm-poller");
+				}
+				poller = m_shmPoller;
+			}
 		}
+		
+		return poller;
+	}
+
+	public boolean existsConnection(String key) {
+		return m_connections.get(key) != null || m_loopbacks.get(key) != null;
 	}
 	
-	public ConnectionImpl getConnection(String planetId, boolean create)
+	public Connection getConnection(String planetId, boolean create)
 		throws IOException, InterruptedException {
+		if ( create ) {
+			return awaitConnected(getConnectionAsync(planetId));
+		}
+		
 		if ( m_id.equals(planetId) ) {
 			throw new IllegalArgumentException("Cannot get the connection to myself: id=" + planetId);
 		}
-		
-		ConnectionImpl conn = null;
 		synchronized ( this ) {
 			if ( m_state != STATE_RUNNING ) {
 				throw new IOException("TransportManager is not running");
@@ -286,113 +789,256 @@ public class TransportManagerImpl implements TransportManager {
 		}
 		
 		planetId = PlanetUtils.resolovePlanetKey(planetId);
-			
-		m_connLock.lock();
+		LoopbackConnection loopback = m_loopbacks.get(planetId);
+		if ( loopback != null && !loopback.isClosed() ) {
+			return loopback;
+		}
+		
+		// 연결 중인 경우는 해당 연결의 설정 완료를 기다린다.
+		ConnectionImpl conn = m_connections.get(planetId);
+		if ( conn == null || conn.isClosed() ) {
+			return null;
+		}
 		try {
-			while ( true ) {
-				conn = m_connections.get(planetId);
-				if ( conn != null ) {
-					m_connLock.unlock();
-					int state = conn.waitWhileConnecting();
-					m_connLock.lock();
-					
-					if ( state == ConnectionImpl.STATE_CONNECTED ) {
-						return conn;
-					}
+			return awaitConnected(conn.getConnectFuture());
+		}
+		catch ( IOException e ) {
+			return null;
+		}
+	}
+	
+	/**
+	 * 주어진 Planet 호스트와의 연결을 비동기적으로 요청한다.
+	 * <p>
+	 * 연결이 이미 존재하면 완료된 future를, 다른 쓰레드에 의해 연결 중이면 해당 연결의 future를
+	 * 반환한다. 그렇지 않은 경우는 새 연결을 등록하고 연결 설정을 시작한 후 바로 반환한다.
+	 * 연결 설정은 selector 루프에서 진행되므로, 다수의 호스트로의 연결을 적은 수의 쓰레드로
+	 * 동시에 진행할 수 있다.
+	 */
+	public CompletableFuture<Connection> getConnectionAsync(String planetId) {
+		if ( m_id.equals(planetId) ) {
+			throw new IllegalArgumentException("Cannot get the connection to myself: id=" + planetId);
+		}
+		synchronized ( this ) {
+			if ( m_state != STATE_RUNNING ) {
+				return failedFuture(new IOException("TransportManager is not running"));
+			}
+		}
+		
+		planetId = PlanetUtils.resolovePlanetKey(planetId);
+		
+		TransportManagerImpl local = s_locals.get(planetId);
+		if ( local != null && local != this && m_loopbackEnabled && local.acceptsLoopback() ) {
+			try {
+				return CompletableFuture.<Connection>completedFuture(openLoopback(local));
+			}
+			catch ( IOException e ) {
+				return failedFuture(e);
+			}
+		}
+		
+		// 'unix:' 식별자는 나머지 부분을 상대방의 Unix domain socket 경로로 사용한다.
+		String unixPath = null;
+		String host = null;
+		int port = 0;
+		if ( UnixSockets.isUnixKey(planetId) ) {
+			if ( !UnixSockets.isSupported() ) {
+				return failedFuture(new IOException("Unix domain socket is not supported: id="
+													+ planetId));
+			}
+			unixPath = planetId.substring(UnixSockets.KEY_PREFIX.length());
+		}
+		else {
+			int idx = planetId.indexOf(':');
+			if ( idx < 0 ) {
+				throw new IllegalArgumentException("invalid PLANET id=" + planetId);
+			}
+			host = planetId.substring(0, idx);
+			port = Integer.parseInt(planetId.substring(idx+1));
+		}
+		
+		// 등록된 연결은 lock 없이 바로 사용하고, 등록 경쟁에서 진 쓰레드들은 이긴 쓰레드의
+		// 연결 설정 결과를 공유한다.
+		ConnectionImpl conn;
+		while ( true ) {
+			conn = m_connections.get(planetId);
+			if ( conn != null ) {
+				if ( !conn.isClosed() ) {
+					return conn.getConnectFuture();
 				}
-				else if ( !create ) {
-					return null;
+				
+				// 닫혔지만 아직 등록이 해제되지 않은 연결은 새 연결로 대체한다.
+				unregister(planetId, conn);
+			}
+			else {
+				try {
+					conn = new ConnectionImpl(this, planetId);
+				}
+				catch ( IOException e ) {
+					return failedFuture(e);
 				}
-				else {
+				
+				if ( m_connections.putIfAbsent(planetId, conn) == null ) {
 					break;
 				}
 			}
-	
-			conn = new ConnectionImpl(this, planetId);
-			m_connections.put(planetId, conn);
-		}
-		finally {
-			m_connLock.unlock();
 		}
-		
-		//
-		// create a new Connection and wait until that is open
-		//	
-		int idx = planetId.indexOf(':');
-		if ( idx < 0 ) {
-			throw new IllegalArgumentException("invalid PLANET id=" + planetId);
-		}
-		String host = planetId.substring(0, idx);
-		int port = Integer.parseInt(planetId.substring(idx+1));
 
 		try {
-			conn.open(host, port);
+			SocketAddress addr = ( unixPath != null ) ? UnixSockets.toAddress(unixPath)
+														: new InetSocketAddress(host, port);
+			conn.openAsync(addr, null, 0);
 		}
 		catch ( IOException e ) {
-			m_connLock.lock();
-			try {
-				m_connections.remove(planetId);
-			}
-			finally {
-				m_connLock.unlock();
+			unregister(planetId, conn);
+			conn.abortConnect(e);
+		}
+		catch ( RuntimeException e ) {
+			unregister(planetId, conn);
+			conn.abortConnect(e);
+		}
+		
+		return conn.getConnectFuture();
+	}
+	
+	// 같은 JVM의 주어진 TransportManager와의 loopback 연결을 반환한다. 연결이 없는 경우는
+	// 양측 연결을 쌍으로 생성하여 각각 등록하고, 상대측 청취자에게 연결 생성을 알린다.
+	// 양측이 동시에 요청하는 경우에도 한 쌍만 생성되도록 쌍의 생성과 등록은 's_locals'로 동기화한다.
+	private LoopbackConnection openLoopback(TransportManagerImpl local) throws IOException {
+		LoopbackConnection conn = m_loopbacks.get(local.getId());
+		if ( conn != null && !conn.isClosed() ) {
+			return conn;
+		}
+		
+		LoopbackConnection[] pair;
+		synchronized ( s_locals ) {
+			conn = m_loopbacks.get(local.getId());
+			if ( conn != null && !conn.isClosed() ) {
+				return conn;
 			}
 			
-			synchronized ( conn ) {
-				conn.m_state = ConnectionImpl.STATE_DISCONNECTED;
-				conn.notifyAll();
+			synchronized ( local ) {
+				if ( local.m_state != STATE_RUNNING ) {
+					throw new IOException("TransportManager is not running: id=" + local.getId());
+				}
 			}
 			
-			throw e;
+			pair = LoopbackConnection.newPair(this, local);
+			m_loopbacks.put(local.getId(), pair[0]);
+			local.m_loopbacks.put(m_id, pair[1]);
 		}
-		catch ( InterruptedException e ) {
-			m_connLock.lock();
-			try {
-				m_connections.remove(planetId);
-			}
-			finally {
-				m_connLock.unlock();
-			}
-			
-			synchronized ( conn ) {
-				conn.m_state = ConnectionImpl.STATE_DISCONNECTED;
-				conn.notifyAll();
+		
+		if ( TransportLoggers.CONN.isInfoEnabled() ) {
+			TransportLoggers.CONN.info("connected: " + pair[0]);
+		}
+		
+		if ( local.m_listener != null ) {
+			local.m_listener.onConnected(pair[1]);
+		}
+		
+		return pair[0];
+	}
+	
+	// 상대측 주소 필터는 loopback 주소로 검사하여, 필터가 거부하는 경우는 소켓 연결로 진행한다.
+	private boolean acceptsLoopback() {
+		AddressFilter filter = m_addressFilter;
+		return m_loopbackEnabled
+			&& (filter == null || filter.accept(InetAddress.getLoopbackAddress()));
+	}
+	
+	void onLoopbackClosed(final LoopbackConnection conn) {
+		m_loopbacks.remove(conn.getId(), conn);
+		
+		m_executor.execute(new Runnable() {
+			public void run() {
+				m_listener.onDisconnected(conn);
 			}
-			
-			throw e;
+		});
+	}
+	
+	private static CompletableFuture<Connection> failedFuture(Throwable cause) {
+		CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+		future.completeExceptionally(cause);
+		
+		return future;
+	}
+	
+	// 연결 설정이 끝날 때까지 기다린다. 연결 설정이 실패한 경우는 해당 실패 예외를 그대로 전달하고,
+	// 그 밖의 예외인 경우는 IOException으로 전달한다.
+	private static Connection awaitConnected(CompletableFuture<Connection> future)
+		throws IOException, InterruptedException {
+		try {
+			return future.get();
 		}
-		catch ( RuntimeException e ) {
-			m_connLock.lock();
-			try {
-				m_connections.remove(planetId);
+		catch ( ExecutionException e ) {
+			Throwable cause = e.getCause();
+			if ( cause instanceof IOException ) {
+				throw (IOException)cause;
 			}
-			finally {
-				m_connLock.unlock();
+			else if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
 			}
 			
-			synchronized ( conn ) {
-				conn.m_state = ConnectionImpl.STATE_DISCONNECTED;
-				conn.notifyAll();
+			throw new IOException("fails to connect: cause=" + cause, cause);
+		}
+	}
+	
+	// 요청한 연결의 CONNECT/CONNECT_REPLY 교환이 끝난 경우, 연결 설정 future가 완료되기 전에
+	// 소속 selector 루프에서 호출된다.
+	void onConnectionOpened(ConnectionImpl conn) {
+		ConnectionImpl primary = conn.getPrimary();
+		if ( primary != null ) {
+			if ( !primary.addMember(conn) ) {
+				conn.close();
 			}
 			
-			throw e;
+			return;
 		}
 		
 		if ( TransportLoggers.CONN.isInfoEnabled() ) {
 			TransportLoggers.CONN.info("connected: " + conn);
 		}
+		conn.scheduleHeartbeat();
 		
-		return conn;
+		int groupSize = m_connectionGroupSize;
+		if ( groupSize > 1 && conn.isPeerNegotiating() ) {
+			for ( int i = 1; i < groupSize; ++i ) {
+				openGroupMember(conn, i);
+			}
+		}
 	}
-    
-    public ConnectionImpl[] getConnections() {
-    	m_connLock.lock();
-    	try {
-	    	ConnectionImpl[] conns = new ConnectionImpl[m_connections.size()];
-	    	return m_connections.values().toArray(conns);
-    	}
-    	finally {
-    		m_connLock.unlock();
-    	}
+	
+	// 주어진 대표 연결의 그룹에 'index'번째 멤버 연결을 비동기적으로 추가한다.
+	// 연결에 실패한 경우는 멤버 없이 진행한다.
+	private void openGroupMember(ConnectionImpl primary, int index) {
+		SocketAddress addr = primary.getRemoteAddress();
+		if ( addr == null ) {
+			return;
+		}
+		
+		ConnectionImpl member = null;
+		try {
+			member = new ConnectionImpl(this, primary.getId());
+			member.openAsync(addr, primary, index);
+		}
+		catch ( Exception e ) {
+			if ( TransportLoggers.CONN.isInfoEnabled() ) {
+				TransportLoggers.CONN.info("fails to open group member: primary=" + primary
+											+ ", index=" + index
+											+ ", cause=" + PlanetUtils.unwrapThrowable(e));
+			}
+			
+			if ( member != null ) {
+				member.abortConnect(e);
+			}
+		}
+	}
+	
+    public Connection[] getConnections() {
+    	List<Connection> conns = new ArrayList<Connection>(m_connections.values());
+    	conns.addAll(m_loopbacks.values());
+    	
+    	return conns.toArray(new Connection[conns.size()]);
     }
 	
 	// 외부에서 connection 요청으로 channel이 생성된 경우만 호출
@@ -402,34 +1048,78 @@ public class TransportManagerImpl implements TransportManager {
 				throw new IOException("TransportManager is not running");
 			}
 		}
+		
+		// 그룹 멤버 연결은 등록하지 않고, 이미 등록된 대표 연결의 그룹에 추가한다.
+		if ( conn.getMemberIndex() > 0 ) {
+			ConnectionImpl primary = m_connections.get(conn.getId());
+			if ( primary == null || !primary.addMember(conn) ) {
+				throw new IOException("no primary connection for group member: " + conn);
+			}
 			
-		m_connLock.lock();
-		ConnectionImpl prev;
-		try {
-			prev = m_connections.put(conn.getId(), conn);
+			return;
 		}
-    	finally {
-    		m_connLock.unlock();
-    	}
+			
+		ConnectionImpl prev = m_connections.put(conn.getId(), conn);
 		if ( prev != null ) {
 			TransportLoggers.CONN.warn("duplicated connection (older discarded): conn=" + conn);
 			
 			prev.close();
 		}
+		conn.scheduleHeartbeat();
 		
 		if ( m_listener != null ) {
 			m_listener.onConnected(conn);
 		}
 	}
 	
-	void onConnectionClosed(final Connection conn) {
-		m_connLock.lock();
-		try {
-			m_connections.remove(conn.getId());
+	// 그룹에 속해 있던 멤버 연결이 끊어진 경우는 그룹에서 제외하고, 직접 요청한 그룹이면
+	// 대표 연결이 살아 있는 동안 같은 순번의 멤버 연결을 다시 추가한다.
+	private void onGroupMemberClosed(ConnectionImpl primary, ConnectionImpl member) {
+		if ( !primary.removeMember(member) || !member.isActive() || primary.isClosed() ) {
+			return;
+		}
+		
+		synchronized ( this ) {
+			if ( m_state != STATE_RUNNING ) {
+				return;
+			}
+		}
+		
+		openGroupMember(primary, member.getMemberIndex());
+	}
+	
+	// 주어진 연결 객체가 등록되어 있는 경우만 등록을 해제한다.
+	// ConnectionImpl.equals()는 식별자만 비교하므로 remove(key, value)를 사용하지 않고
+	// 객체의 동일성으로 확인하여, 같은 식별자로 새로 등록된 연결이 제거되지 않도록 한다.
+	private void unregister(String id, final ConnectionImpl conn) {
+		m_connections.computeIfPresent(id, new BiFunction<String,ConnectionImpl,ConnectionImpl>() {
+			public ConnectionImpl apply(String key, ConnectionImpl registered) {
+				return ( registered == conn ) ? null : registered;
+			}
+		});
+	}
+	
+	void onConnectionClosed(final ConnectionImpl conn) {
+		ConnectionImpl primary = conn.getPrimary();
+		if ( primary != null ) {
+			onGroupMemberClosed(primary, conn);
+			
+			return;
+		}
+		
+		// CONNECT 메시지를 받기 전에 닫힌 연결은 등록된 적이 없다.
+		String id = conn.getId();
+		if ( id == null ) {
+			return;
+		}
+		
+		// 중복 연결로 대체된 이전 연결이 닫힌 경우는 새 연결의 등록을 유지한다.
+		unregister(id, conn);
+		
+		// 연결 설정 중에 실패한 연결은 청취자에게 알리지 않는다.
+		if ( conn.getConnectFuture().isCompletedExceptionally() ) {
+			return;
 		}
-    	finally {
-    		m_connLock.unlock();
-    	}
 		
 		m_executor.execute(new Runnable() {
 			public void run() {
@@ -0,0 +1,127 @@
+package etri.planet.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * Unix domain socket(AF_UNIX) 채널 생성 유틸리티.
+ * <p>
+ * Unix domain socket 채널은 JDK 16 이상에서만 제공되므로, 관련 API는 reflection으로 찾아 사용한다.
+ * 찾을 수 없는 JDK에서는 {@link #isSupported()}가 <code>false</code>를 반환하고, 나머지 메소드는
+ * {@link UnsupportedOperationException}을 발생시킨다.
+ * <p>
+ * Planet 식별자가 {@value #KEY_PREFIX}로 시작하는 경우, 나머지 부분은 상대방이 청취하는
+ * socket 파일의 경로로 해석된다 (예: <code>unix:/var/run/planet.sock</code>).
+ *
+ * @author Kang-Woo Lee
+ */
+final class UnixSockets {
+	static final String KEY_PREFIX = "unix:";
+
+	private static final ProtocolFamily UNIX;
+	private static final Method SOCKET_OPEN;
+	private static final Method SERVER_OPEN;
+	private static final Method ADDRESS_OF;
+	private static final Class<?> ADDRESS_CLASS;
+	static {
+		ProtocolFamily unix = null;
+		Method socketOpen = null;
+		Method serverOpen = null;
+		Method addressOf = null;
+		Class<?> addressClass = null;
+		try {
+			unix = Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+			socketOpen = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			serverOpen = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+			addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			addressOf = addressClass.getMethod("of", String.class);
+		}
+		catch ( Exception e ) {
+			if ( TransportLoggers.TRANSPORT.isDebugEnabled() ) {
+				TransportLoggers.TRANSPORT.debug("Unix domain socket is not supported: cause=" + e);
+			}
+
+			unix = null;
+		}
+
+		UNIX = unix;
+		SOCKET_OPEN = socketOpen;
+		SERVER_OPEN = serverOpen;
+		ADDRESS_OF = addressOf;
+		ADDRESS_CLASS = addressClass;
+	}
+
+	private UnixSockets() { }
+
+	/**
+	 * 현 JDK에서 Unix domain socket 채널을 사용할 수 있는지 여부를 반환한다.
+	 */
+	static boolean isSupported() {
+		return UNIX != null;
+	}
+
+	// 주어진 Planet 식별자가 socket 파일 경로를 지정하는지 여부를 반환한다.
+	static boolean isUnixKey(String planetId) {
+		return planetId.startsWith(KEY_PREFIX);
+	}
+
+	// 주어진 주소가 Unix domain socket 주소인지 여부를 반환한다.
+	static boolean isUnixAddress(SocketAddress addr) {
+		return ADDRESS_CLASS != null && ADDRESS_CLASS.isInstance(addr);
+	}
+
+	static SocketAddress toAddress(String path) {
+		return (SocketAddress)invoke(ADDRESS_OF, null, path);
+	}
+
+	static SocketChannel openSocketChannel() throws IOException {
+		return (SocketChannel)invokeIO(SOCKET_OPEN, UNIX);
+	}
+
+	static ServerSocketChannel openServerSocketChannel() throws IOException {
+		return (ServerSocketChannel)invokeIO(SERVER_OPEN, UNIX);
+	}
+
+	private static Object invokeIO(Method method, Object arg) throws IOException {
+		try {
+			return invoke(method, null, arg);
+		}
+		catch ( IllegalStateException e ) {
+			if ( e.getCause() instanceof IOException ) {
+				throw (IOException)e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object arg) {
+		if ( !isSupported() ) {
+			throw new UnsupportedOperationException("Unix domain socket is not supported");
+		}
+
+		try {
+			return method.invoke(target, arg);
+		}
+		catch ( InvocationTargetException e ) {
+			Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException)cause;
+			}
+
+			throw new IllegalStateException(cause);
+		}
+		catch ( IllegalAccessException e ) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
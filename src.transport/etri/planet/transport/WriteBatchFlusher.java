@@ -0,0 +1,108 @@
+package etri.planet.transport;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import planet.PlanetUtils;
+
+import etri.planet.TransportLoggers;
+
+
+/**
+ * 묶음 전송({@link TransportManagerImpl#setWriteBatching(int, long)}) 중인 연결들의 송신 큐를
+ * 대기 시한이 지나면 전송하는 쓰레드.
+ * <p>
+ * 대기 시한은 microsecond 단위로, 100ms 단위의 {@link TimingWheel}로는 처리할 수 없으므로
+ * 본 쓰레드가 가장 빠른 시한까지 잠든 후 해당 연결의 송신 큐를 전송한다. 모든 연결의 대기 시간이
+ * 같으므로 등록 순서가 곧 시한 순서이다. 연결이 시한 전에 다른 이유로 전송을 시작한 경우는
+ * 등록된 시한이 연결의 현재 시한과 달라지므로 무시된다.
+ *
+ * 본 클래스는 ThreadSafe하도록 구현되었다.
+ *
+ * @author Kang-Woo Lee
+ */
+final class WriteBatchFlusher implements Runnable {
+	private static final long MAX_PARK_MILLIS = 100;
+
+	private final Queue<Batch> m_batches = new ConcurrentLinkedQueue<Batch>();
+	private volatile Thread m_thread;
+	private volatile boolean m_stopped = false;
+
+	// 대기 중인 묶음
+	private static final class Batch {
+		private final ConnectionImpl m_conn;
+		private final long m_deadline;			// System.nanoTime() 기준
+
+		Batch(ConnectionImpl conn, long deadline) {
+			m_conn = conn;
+			m_deadline = deadline;
+		}
+	}
+
+	void start(String name) {
+		Thread thread = new Thread(this, name);
+		thread.setDaemon(true);
+		m_thread = thread;
+
+		thread.start();
+	}
+
+	void shutdown() {
+		m_stopped = true;
+
+		Thread thread = m_thread;
+		if ( thread != null ) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * 주어진 시한에 연결의 송신 큐를 전송하도록 등록한다.
+	 * 새 묶음이 가장 먼저 전송될 묶음인 경우만 쓰레드를 깨운다.
+	 */
+	void submit(ConnectionImpl conn, long deadline) {
+		Batch batch = new Batch(conn, deadline);
+		m_batches.add(batch);
+
+		Thread thread = m_thread;
+		if ( thread != null && m_batches.peek() == batch ) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	public void run() {
+		while ( !m_stopped ) {
+			Batch batch = m_batches.peek();
+			if ( batch == null ) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(MAX_PARK_MILLIS));
+
+				continue;
+			}
+
+			long wait = batch.m_deadline - System.nanoTime();
+			if ( wait > 0 ) {
+				LockSupport.parkNanos(wait);
+
+				continue;
+			}
+
+			m_batches.poll();
+			try {
+				batch.m_conn.flushBatch(batch.m_deadline);
+			}
+			catch ( Exception e ) {
+				TransportLoggers.IO.warn("" + PlanetUtils.unwrapThrowable(e));
+
+				batch.m_conn.close();
+			}
+		}
+
+		m_batches.clear();
+	}
+
+	public String toString() {
+		return "WriteBatchFlusher[pendings=" + m_batches.size() + "]";
+	}
+}